@@ -29,6 +29,71 @@ public final class ProductionFlags {
      */
     public static final boolean INCLUDE_RAW_SUGGESTIONS = false;
 
+    /**
+     * When {@code true}, the dictionaries are looked up concurrently for suggestions on devices
+     * that have more than one core. This is an optional mode, which is off by default.
+     */
+    public static final boolean ENABLE_PARALLEL_DICTIONARY_LOOKUP = false;
+
+    /**
+     * When {@code true}, the suggestions for the most likely next letters are looked up between
+     * keystrokes, so that they are ready when the user types one of them. They are looked up as
+     * typed at the center of the keys, and used wherever the user touches the key, so the
+     * proximity correction of the last letter is approximate. This is an optional mode, which is
+     * off by default.
+     */
+    public static final boolean ENABLE_SPECULATIVE_SUGGESTIONS = false;
+
+    /**
+     * When {@code true}, updatable dictionaries are flushed, garbage collected and rebuilt into a
+     * copy that replaces them once it's ready, so that lookups don't wait for these operations.
+     */
+    public static final boolean ENABLE_DICTIONARY_SNAPSHOTS = true;
+
+    /**
+     * When {@code true}, the words learned by the user history dictionary are appended to a
+     * journal next to its file, which is replayed after a crash, and the dictionary file is only
+     * rewritten once the journal has grown.
+     */
+    public static final boolean ENABLE_USER_HISTORY_JOURNAL = true;
+
+    /**
+     * When {@code true}, the main dictionary files of the last session are opened right away on
+     * a new process, and the parts of them the first lookups need are paged in.
+     */
+    public static final boolean ENABLE_MAIN_DICTIONARY_WARM_START = true;
+
+    /**
+     * When {@code true}, the main dictionary of another enabled language is looked up along with
+     * the dictionaries of the current one, so that words of both are suggested. It is only looked
+     * up for words typed in its script. This is an optional mode, which is off by default.
+     */
+    public static final boolean ENABLE_MULTILINGUAL_SUGGESTIONS = false;
+
+    /**
+     * When {@code true}, the other variants of the keyboard and the keyboards of the other
+     * enabled subtypes are built in the background once the keyboard is shown.
+     */
+    public static final boolean ENABLE_KEYBOARD_PREBUILDING = true;
+
+    /**
+     * When {@code true}, the keyboards that are built from the layout files are kept on disk, and
+     * read back instead of being built again in a new process.
+     */
+    public static final boolean ENABLE_KEYBOARD_DISK_CACHE = true;
+
+    /**
+     * When {@code true}, the keys are recorded into display lists on hardware accelerated
+     * canvases, and only the invalidated keys are drawn again.
+     */
+    public static final boolean ENABLE_KEY_DISPLAY_LISTS = true;
+
+    /**
+     * When {@code true}, the labels of the keys are rasterized once into bitmaps, which are drawn
+     * instead of shaping their text each time the keys are drawn.
+     */
+    public static final boolean ENABLE_KEY_LABEL_BITMAPS = true;
+
     /**
      * When false, the metrics logging is not yet ready to be enabled.
      */
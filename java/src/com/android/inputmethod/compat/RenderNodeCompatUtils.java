@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.compat;
+
+import android.graphics.Canvas;
+import android.os.Build;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+public final class RenderNodeCompatUtils {
+    private RenderNodeCompatUtils() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /**
+     * A list of drawing commands that is recorded once and drawn many times on hardware
+     * accelerated canvases, without running the code that recorded it again.
+     */
+    public interface DisplayList {
+        /**
+         * Starts recording the display list, replacing its previous commands.
+         * @return the canvas to draw on, whose origin is the origin of the canvas the display
+         * list is drawn on. It's not clipped to the given size.
+         */
+        @Nonnull
+        public Canvas beginRecording(final int width, final int height);
+
+        public void endRecording();
+
+        public boolean hasDisplayList();
+
+        /**
+         * Draws the display list on a hardware accelerated canvas.
+         */
+        public void draw(@Nonnull final Canvas canvas);
+
+        /**
+         * Releases the recorded commands, and the resources they refer to.
+         */
+        public void discard();
+    }
+
+    public static boolean isDisplayListSupported() {
+        return BuildCompatUtils.EFFECTIVE_SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    /**
+     * @return a new display list, or null if the platform doesn't support drawing them.
+     */
+    @Nullable
+    public static DisplayList newDisplayList(@Nonnull final String name) {
+        if (!isDisplayListSupported()) {
+            return null;
+        }
+        return RenderNodeCompatUtilsQ.newDisplayList(name);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.compat;
+
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+import com.android.inputmethod.compat.RenderNodeCompatUtils.DisplayList;
+
+import javax.annotation.Nonnull;
+
+@TargetApi(Build.VERSION_CODES.Q)
+class RenderNodeCompatUtilsQ {
+    private RenderNodeCompatUtilsQ() {
+        // This utility class is not publicly instantiable.
+    }
+
+    static DisplayList newDisplayList(@Nonnull final String name) {
+        return new RenderNodeDisplayList(name);
+    }
+
+    private static final class RenderNodeDisplayList implements DisplayList {
+        private final RenderNode mRenderNode;
+
+        public RenderNodeDisplayList(@Nonnull final String name) {
+            mRenderNode = new RenderNode(name);
+            // What is drawn may overflow the given size, like the backgrounds of keys.
+            mRenderNode.setClipToBounds(false);
+        }
+
+        @Override
+        @Nonnull
+        public Canvas beginRecording(final int width, final int height) {
+            mRenderNode.setPosition(0, 0, width, height);
+            return mRenderNode.beginRecording(width, height);
+        }
+
+        @Override
+        public void endRecording() {
+            mRenderNode.endRecording();
+        }
+
+        @Override
+        public boolean hasDisplayList() {
+            return mRenderNode.hasDisplayList();
+        }
+
+        @Override
+        public void draw(@Nonnull final Canvas canvas) {
+            canvas.drawRenderNode(mRenderNode);
+        }
+
+        @Override
+        public void discard() {
+            mRenderNode.discardDisplayList();
+        }
+    }
+}
@@ -22,7 +22,6 @@ import static com.android.inputmethod.latin.common.Constants.CODE_SHIFT;
 import static com.android.inputmethod.latin.common.Constants.CODE_SWITCH_ALPHA_SYMBOL;
 import static com.android.inputmethod.latin.common.Constants.CODE_UNSPECIFIED;
 
-import android.content.res.TypedArray;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
@@ -39,7 +38,11 @@ import com.android.inputmethod.keyboard.internal.MoreKeySpec;
 import com.android.inputmethod.latin.R;
 import com.android.inputmethod.latin.common.Constants;
 import com.android.inputmethod.latin.common.StringUtils;
+import com.android.inputmethod.latin.utils.AttributeValues;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -252,7 +255,7 @@ public class Key implements Comparable<Key> {
      * @param row the row that this key belongs to. row's x-coordinate will be the right edge of
      *        this key.
      */
-    public Key(@Nullable final String keySpec, @Nonnull final TypedArray keyAttr,
+    public Key(@Nullable final String keySpec, @Nonnull final AttributeValues keyAttr,
             @Nonnull final KeyStyle style, @Nonnull final KeyboardParams params,
             @Nonnull final KeyboardRow row) {
         mHorizontalGap = isSpacer() ? 0 : params.mHorizontalGap;
@@ -450,6 +453,114 @@ public class Key implements Comparable<Key> {
         return (filteredMoreKeys == moreKeys) ? key : new Key(key, filteredMoreKeys);
     }
 
+    /**
+     * Constructor for a key that is read from the {@link KeyboardDiskCache}.
+     * @see #writeTo(DataOutput)
+     */
+    private Key(@Nonnull final ByteBuffer in) {
+        mCode = in.getInt();
+        mLabel = KeyboardDiskCache.readString(in);
+        mHintLabel = KeyboardDiskCache.readString(in);
+        mLabelFlags = in.getInt();
+        mIconId = in.getInt();
+        mWidth = in.getInt();
+        mHeight = in.getInt();
+        mHorizontalGap = in.getInt();
+        mVerticalGap = in.getInt();
+        mX = in.getInt();
+        mY = in.getInt();
+        mHitBox.set(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+        final int moreKeysCount = in.getInt();
+        if (moreKeysCount > 0) {
+            mMoreKeys = new MoreKeySpec[moreKeysCount];
+            for (int i = 0; i < moreKeysCount; i++) {
+                final int code = in.getInt();
+                final String label = KeyboardDiskCache.readString(in);
+                final String outputText = KeyboardDiskCache.readString(in);
+                mMoreKeys[i] = new MoreKeySpec(code, label, outputText, in.getInt());
+            }
+        } else {
+            mMoreKeys = null;
+        }
+        mMoreKeysColumnAndFlags = in.getInt();
+        mBackgroundType = in.getInt();
+        mActionFlags = in.getInt();
+        mKeyVisualAttributes = (in.get() != 0) ? KeyVisualAttributes.readFrom(in) : null;
+        if (in.get() != 0) {
+            final String outputText = KeyboardDiskCache.readString(in);
+            final int altCode = in.getInt();
+            final int disabledIconId = in.getInt();
+            final int visualInsetsLeft = in.getInt();
+            final int visualInsetsRight = in.getInt();
+            mOptionalAttributes = new OptionalAttributes(outputText, altCode, disabledIconId,
+                    visualInsetsLeft, visualInsetsRight);
+        } else {
+            mOptionalAttributes = null;
+        }
+        mEnabled = (in.get() != 0);
+        mHashCode = computeHashCode(this);
+    }
+
+    /**
+     * Reads a key that has been written with {@link #writeTo(DataOutput)}.
+     */
+    @Nonnull
+    static Key readFrom(@Nonnull final ByteBuffer in) {
+        final boolean isSpacer = (in.get() != 0);
+        final Key key = new Key(in);
+        return isSpacer ? new Spacer(key) : key;
+    }
+
+    /**
+     * Writes the attributes of this key that don't depend on its state, for the
+     * {@link KeyboardDiskCache}.
+     */
+    void writeTo(@Nonnull final DataOutput out) throws IOException {
+        out.writeByte(isSpacer() ? 1 : 0);
+        out.writeInt(mCode);
+        KeyboardDiskCache.writeString(out, mLabel);
+        KeyboardDiskCache.writeString(out, mHintLabel);
+        out.writeInt(mLabelFlags);
+        out.writeInt(mIconId);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mHorizontalGap);
+        out.writeInt(mVerticalGap);
+        out.writeInt(mX);
+        out.writeInt(mY);
+        out.writeInt(mHitBox.left);
+        out.writeInt(mHitBox.top);
+        out.writeInt(mHitBox.right);
+        out.writeInt(mHitBox.bottom);
+        final MoreKeySpec[] moreKeys = mMoreKeys;
+        out.writeInt(moreKeys == null ? 0 : moreKeys.length);
+        if (moreKeys != null) {
+            for (final MoreKeySpec moreKey : moreKeys) {
+                out.writeInt(moreKey.mCode);
+                KeyboardDiskCache.writeString(out, moreKey.mLabel);
+                KeyboardDiskCache.writeString(out, moreKey.mOutputText);
+                out.writeInt(moreKey.mIconId);
+            }
+        }
+        out.writeInt(mMoreKeysColumnAndFlags);
+        out.writeInt(mBackgroundType);
+        out.writeInt(mActionFlags);
+        out.writeByte(mKeyVisualAttributes != null ? 1 : 0);
+        if (mKeyVisualAttributes != null) {
+            mKeyVisualAttributes.writeTo(out);
+        }
+        final OptionalAttributes attrs = mOptionalAttributes;
+        out.writeByte(attrs != null ? 1 : 0);
+        if (attrs != null) {
+            KeyboardDiskCache.writeString(out, attrs.mOutputText);
+            out.writeInt(attrs.mAltCode);
+            out.writeInt(attrs.mDisabledIconId);
+            out.writeInt(attrs.mVisualInsetsLeft);
+            out.writeInt(attrs.mVisualInsetsRight);
+        }
+        out.writeByte(mEnabled ? 1 : 0);
+    }
+
     private static boolean needsToUpcase(final int labelFlags, final int keyboardElementId) {
         if ((labelFlags & LABEL_FLAGS_PRESERVE_CASE) != 0) return false;
         switch (keyboardElementId) {
@@ -689,6 +800,12 @@ public class Key implements Comparable<Key> {
         return params.mHintLetterColor;
     }
 
+    @Nonnull
+    public final Typeface selectHintTypeface(final KeyDrawParams params) {
+        // TODO: Should add a way to specify type face for hint letters
+        return Typeface.DEFAULT_BOLD;
+    }
+
     public final int selectMoreKeyTextSize(final KeyDrawParams params) {
         return hasLabelsInMoreKeys() ? params.mLabelSize : params.mLetterSize;
     }
@@ -1004,11 +1121,15 @@ public class Key implements Comparable<Key> {
     }
 
     public static class Spacer extends Key {
-        public Spacer(final TypedArray keyAttr, final KeyStyle keyStyle,
+        public Spacer(final AttributeValues keyAttr, final KeyStyle keyStyle,
                 final KeyboardParams params, final KeyboardRow row) {
             super(null /* keySpec */, keyAttr, keyStyle, params, row);
         }
 
+        private Spacer(final Key key) {
+            super(key);
+        }
+
         /**
          * This constructor is being used only for divider in more keys keyboard.
          */
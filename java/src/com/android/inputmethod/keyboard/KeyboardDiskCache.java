@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+import com.android.inputmethod.keyboard.internal.KeyboardParams;
+import com.android.inputmethod.latin.utils.ExecutorUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the keys of the keyboards that are built from the layout XML files in files, with the
+ * nearest keys of each cell of their {@link ProximityInfo} grid, so that a new process can show
+ * a keyboard without building it again.
+ *
+ * A cached keyboard is identified by a cache key, which is made of its {@link KeyboardId}, the
+ * version of the app, the configuration and the display metrics of the resources, and the
+ * attributes of the root &lt;Keyboard&gt; element of its layout. The root element is still read
+ * when the keyboard is read from the cache, because its icons and its visual attributes are
+ * resolved against the theme. A keyboard whose cache key has changed is just not found, and the
+ * least recently written files are deleted when there are too many of them.
+ *
+ * The files are memory-mapped to be read, on the thread that needs the keyboard, and written in
+ * the background. A file that can't be read is deleted, and the keyboard is built from its
+ * layout file.
+ */
+public final class KeyboardDiskCache {
+    private static final String TAG = KeyboardDiskCache.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final String CACHE_DIRECTORY_NAME = "keyboards";
+    private static final String FILE_EXTENSION = ".kbd";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final int MAX_CACHED_KEYBOARD_COUNT = 64;
+
+    // "KBDC"
+    private static final int MAGIC_NUMBER = 0x4B424443;
+    // Must be incremented whenever the format of the files changes, including what Key and
+    // KeyVisualAttributes write.
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Object sLock = new Object();
+    // Guarded by sLock.
+    private static KeyboardDiskCache sInstance;
+
+    @Nonnull
+    private final File mDirectory;
+    // The version code and the update time of the app, which change whenever the layouts and the
+    // code that builds them may have changed.
+    @Nonnull
+    private final String mAppVersion;
+    private final AtomicInteger mReadKeyboardCount = new AtomicInteger();
+
+    private KeyboardDiskCache(@Nonnull final File directory, @Nonnull final String appVersion) {
+        mDirectory = directory;
+        mAppVersion = appVersion;
+    }
+
+    /**
+     * Returns the disk cache, or null if the version of the app can't be known.
+     */
+    @Nullable
+    public static KeyboardDiskCache getInstance(@Nonnull final Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                final String appVersion = getAppVersion(context);
+                if (appVersion == null) {
+                    return null;
+                }
+                sInstance = new KeyboardDiskCache(
+                        new File(context.getCacheDir(), CACHE_DIRECTORY_NAME), appVersion);
+            }
+            return sInstance;
+        }
+    }
+
+    @Nullable
+    private static String getAppVersion(@Nonnull final Context context) {
+        try {
+            final PackageInfo info = context.getPackageManager().getPackageInfo(
+                    context.getPackageName(), 0);
+            return info.versionCode + "/" + info.lastUpdateTime;
+        } catch (final NameNotFoundException e) {
+            Log.e(TAG, "Could not find version info.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cache key of a keyboard, whose params have been initialized from the root
+     * element of its layout.
+     */
+    @Nonnull
+    public String getCacheKey(@Nonnull final Resources res, final int xmlId,
+            @Nonnull final KeyboardParams params) {
+        final KeyboardId id = params.mId;
+        final Configuration config = res.getConfiguration();
+        final DisplayMetrics metrics = res.getDisplayMetrics();
+        return String.format(Locale.ROOT,
+                "%s %s %d,%d,%d,%d,%d,%d,%d,%d,%f,%d,%d,%d %d,%d,%d,%f,%f"
+                        + " %x %s %s %s %d %b %dx%d %d,%d,%d,%d,%d,%d,%d,%d,%d",
+                mAppVersion,
+                config.locale, config.mcc, config.mnc, config.screenLayout, config.orientation,
+                config.uiMode, config.screenWidthDp, config.screenHeightDp,
+                config.smallestScreenWidthDp, config.fontScale, config.keyboard,
+                config.navigation, config.touchscreen,
+                metrics.widthPixels, metrics.heightPixels, metrics.densityDpi, metrics.density,
+                metrics.scaledDensity,
+                xmlId, id, id.mSubtype.getRawSubtype().getExtraValue(), id.mCustomActionLabel,
+                params.mThemeId, params.mAllowRedundantMoreKeys,
+                params.GRID_WIDTH, params.GRID_HEIGHT,
+                params.mOccupiedWidth, params.mOccupiedHeight, params.mTopPadding,
+                params.mBottomPadding, params.mLeftPadding, params.mRightPadding,
+                params.mHorizontalGap, params.mVerticalGap, params.mDefaultRowHeight);
+    }
+
+    @Nonnull
+    private File getFile(@Nonnull final String cacheKey) {
+        return new File(mDirectory,
+                String.format(Locale.ROOT, "%08x", cacheKey.hashCode()) + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the keys of a keyboard into its params, whose other attributes have been initialized
+     * from the root element of its layout. The params are not changed if the keyboard is not
+     * found.
+     *
+     * @return whether the keyboard has been read.
+     */
+    public boolean readKeyboard(@Nonnull final String cacheKey,
+            @Nonnull final KeyboardParams params) {
+        final File file = getFile(cacheKey);
+        if (!file.isFile()) {
+            return false;
+        }
+        final long startTime = DEBUG ? SystemClock.uptimeMillis() : 0;
+        try {
+            final ByteBuffer in = map(file);
+            if (in.getInt() != MAGIC_NUMBER || in.getInt() != FORMAT_VERSION
+                    || !cacheKey.equals(readString(in))) {
+                // Another keyboard, or an old format. It's overwritten when this one is built.
+                return false;
+            }
+            readKeys(in, params);
+        } catch (final IOException e) {
+            Log.w(TAG, "Can't read cached keyboard: " + file, e);
+            file.delete();
+            return false;
+        } catch (final RuntimeException e) {
+            Log.w(TAG, "Broken cached keyboard: " + file, e);
+            file.delete();
+            return false;
+        }
+        mReadKeyboardCount.incrementAndGet();
+        if (DEBUG) {
+            Log.d(TAG, "Read " + params.mId + " in "
+                    + (SystemClock.uptimeMillis() - startTime) + "ms");
+        }
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD_BUILDER).execute(new Runnable() {
+            @Override
+            public void run() {
+                // Keep the files that are read the longest.
+                file.setLastModified(System.currentTimeMillis());
+            }
+        });
+        return true;
+    }
+
+    @Nonnull
+    private static ByteBuffer map(@Nonnull final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the file is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void readKeys(@Nonnull final ByteBuffer in,
+            @Nonnull final KeyboardParams params) {
+        final int occupiedHeight = in.getInt();
+        final int keyCount = checkCount(in.getInt(), in);
+        final Key[] keys = new Key[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            final Key key = Key.readFrom(in);
+            // The keys must be in the order of the params, so that they are all added to it and
+            // the indices of the nearest keys refer to them.
+            if (key.isSpacer() && key.getWidth() == 0) {
+                throw new IllegalStateException("Zero width spacer: " + key);
+            }
+            if (i > 0 && (key.getY() < keys[i - 1].getY()
+                    || (key.getY() == keys[i - 1].getY() && key.getX() <= keys[i - 1].getX()))) {
+                throw new IllegalStateException("Unsorted key: " + key);
+            }
+            keys[i] = key;
+        }
+        final int gridSize = checkCount(in.getInt(), in);
+        final int[][] neighborIndices = new int[gridSize][];
+        for (int i = 0; i < gridSize; i++) {
+            final int neighborCount = checkCount(in.getInt(), in);
+            neighborIndices[i] = new int[neighborCount];
+            for (int j = 0; j < neighborCount; j++) {
+                final int index = in.getInt();
+                if (index < 0 || index >= keyCount) {
+                    throw new IllegalStateException("Invalid key index: " + index);
+                }
+                neighborIndices[i][j] = index;
+            }
+        }
+
+        params.mOccupiedHeight = occupiedHeight;
+        for (final Key key : keys) {
+            params.onAddKey(key);
+        }
+        // The params may have replaced keys with equal ones that are shared between keyboards.
+        final Key[] sortedKeys = params.mSortedKeys.toArray(new Key[params.mSortedKeys.size()]);
+        @SuppressWarnings("unchecked")
+        final List<Key>[] gridNeighbors = new List[gridSize];
+        for (int i = 0; i < gridSize; i++) {
+            final Key[] neighbors = new Key[neighborIndices[i].length];
+            for (int j = 0; j < neighbors.length; j++) {
+                neighbors[j] = sortedKeys[neighborIndices[i][j]];
+            }
+            gridNeighbors[i] = Collections.unmodifiableList(Arrays.asList(neighbors));
+        }
+        params.mGridNeighbors = gridNeighbors;
+    }
+
+    private static int checkCount(final int count, @Nonnull final ByteBuffer in) {
+        // Each element takes at least one byte.
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalStateException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Writes a keyboard that has been built from its layout in the background.
+     */
+    public void writeKeyboard(@Nonnull final String cacheKey, @Nonnull final Keyboard keyboard) {
+        // The keys are written now, because their state may change once they're shown.
+        final byte[] data;
+        try {
+            data = toByteArray(cacheKey, keyboard);
+        } catch (final IOException e) {
+            Log.w(TAG, "Can't write keyboard: " + keyboard.mId, e);
+            return;
+        }
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD_BUILDER).execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(getFile(cacheKey), data);
+            }
+        });
+    }
+
+    @Nonnull
+    private static byte[] toByteArray(@Nonnull final String cacheKey,
+            @Nonnull final Keyboard keyboard) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC_NUMBER);
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, cacheKey);
+        out.writeInt(keyboard.mOccupiedHeight);
+        final List<Key> sortedKeys = keyboard.getSortedKeys();
+        final IdentityHashMap<Key, Integer> keyIndices = new IdentityHashMap<>();
+        out.writeInt(sortedKeys.size());
+        for (final Key key : sortedKeys) {
+            keyIndices.put(key, keyIndices.size());
+            key.writeTo(out);
+        }
+        final List<Key>[] gridNeighbors = keyboard.getProximityInfo().getGridNeighbors();
+        out.writeInt(gridNeighbors.length);
+        for (final List<Key> neighbors : gridNeighbors) {
+            if (neighbors == null) {
+                // The keyboard has no proximity info.
+                out.writeInt(0);
+                continue;
+            }
+            out.writeInt(neighbors.size());
+            for (final Key key : neighbors) {
+                out.writeInt(keyIndices.get(key));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeFile(@Nonnull final File file, @Nonnull final byte[] data) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Can't create directory: " + mDirectory);
+            return;
+        }
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(file.getName(), TEMP_FILE_EXTENSION, mDirectory);
+            final FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            // Readers see either the previous file or the whole new one.
+            if (!tempFile.renameTo(file)) {
+                Log.w(TAG, "Can't rename " + tempFile + " to " + file);
+                return;
+            }
+            tempFile = null;
+        } catch (final IOException e) {
+            Log.w(TAG, "Can't write file: " + file, e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Deletes the least recently written files when there are too many of them, and the
+     * temporary files that have been left behind. Must be called on the keyboard builder executor.
+     */
+    private void trim() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final ArrayList<File> cachedFiles = new ArrayList<>();
+        for (final File file : files) {
+            if (file.getName().endsWith(FILE_EXTENSION)) {
+                cachedFiles.add(file);
+            } else {
+                // The files are only written on the keyboard builder executor, so none of them
+                // is being written now.
+                file.delete();
+            }
+        }
+        final int excessCount = cachedFiles.size() - MAX_CACHED_KEYBOARD_COUNT;
+        if (excessCount <= 0) {
+            return;
+        }
+        Collections.sort(cachedFiles, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                final long lhsTime = lhs.lastModified();
+                final long rhsTime = rhs.lastModified();
+                return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < excessCount; i++) {
+            cachedFiles.get(i).delete();
+        }
+    }
+
+    /**
+     * Deletes all the cached keyboards. Must not be called while keyboards are written.
+     */
+    @UsedForTesting
+    void clear() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            file.delete();
+        }
+    }
+
+    @UsedForTesting
+    int getCachedKeyboardCount() {
+        final String[] names = mDirectory.list();
+        if (names == null) {
+            return 0;
+        }
+        int count = 0;
+        for (final String name : names) {
+            if (name.endsWith(FILE_EXTENSION)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @UsedForTesting
+    int getReadKeyboardCount() {
+        return mReadKeyboardCount.get();
+    }
+
+    static void writeString(@Nonnull final DataOutput out, @Nullable final String string)
+            throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(string.length());
+        out.writeChars(string);
+    }
+
+    @Nullable
+    static String readString(@Nonnull final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining() / 2) {
+            throw new IllegalStateException("Invalid string length: " + length);
+        }
+        final char[] chars = new char[length];
+        in.asCharBuffer().get(chars);
+        in.position(in.position() + length * 2);
+        return new String(chars);
+    }
+}
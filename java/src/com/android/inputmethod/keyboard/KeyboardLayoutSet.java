@@ -34,12 +34,14 @@ import com.android.inputmethod.compat.EditorInfoCompatUtils;
 import com.android.inputmethod.compat.InputMethodSubtypeCompatUtils;
 import com.android.inputmethod.compat.UserManagerCompatUtils;
 import com.android.inputmethod.keyboard.internal.KeyboardBuilder;
+import com.android.inputmethod.keyboard.internal.KeyboardLayoutCompiler;
 import com.android.inputmethod.keyboard.internal.KeyboardParams;
 import com.android.inputmethod.keyboard.internal.UniqueKeysCache;
 import com.android.inputmethod.latin.InputAttributes;
 import com.android.inputmethod.latin.R;
 import com.android.inputmethod.latin.RichInputMethodSubtype;
 import com.android.inputmethod.latin.define.DebugFlags;
+import com.android.inputmethod.latin.define.ProductionFlags;
 import com.android.inputmethod.latin.utils.InputTypeUtils;
 import com.android.inputmethod.latin.utils.ScriptUtils;
 import com.android.inputmethod.latin.utils.SubtypeLocaleUtils;
@@ -90,6 +92,12 @@ public final class KeyboardLayoutSet {
     private static final UniqueKeysCache sUniqueKeysCache = UniqueKeysCache.newInstance();
     private final static HashMap<InputMethodSubtype, Integer> sScriptIdsForSubtypes =
             new HashMap<>();
+    // Keyboards are built on the UI thread and prebuilt in the background. This lock guards the
+    // caches above, and the builds that share sUniqueKeysCache. Prebuilds only take it to
+    // publish their keyboard.
+    private static final Object sLock = new Object();
+    // Incremented whenever the caches are cleared. Guarded by sLock.
+    private static int sCacheGeneration;
 
     @SuppressWarnings("serial")
     public static final class KeyboardLayoutSetException extends RuntimeException {
@@ -146,8 +154,18 @@ public final class KeyboardLayoutSet {
     }
 
     private static void clearKeyboardCache() {
-        sKeyboardCache.clear();
-        sUniqueKeysCache.clear();
+        synchronized (sLock) {
+            sKeyboardCache.clear();
+            sUniqueKeysCache.clear();
+            KeyboardLayoutCompiler.clear();
+            sCacheGeneration++;
+        }
+    }
+
+    static int getCacheGeneration() {
+        synchronized (sLock) {
+            return sCacheGeneration;
+        }
     }
 
     public static int getScriptId(final Resources resources,
@@ -168,88 +186,153 @@ public final class KeyboardLayoutSet {
 
     @Nonnull
     public Keyboard getKeyboard(final int baseKeyboardLayoutSetElementId) {
-        final int keyboardLayoutSetElementId;
+        synchronized (sLock) {
+            final ElementParams elementParams = getElementParams(baseKeyboardLayoutSetElementId);
+            final KeyboardId id = newKeyboardIdLocked(baseKeyboardLayoutSetElementId,
+                    elementParams);
+            final Keyboard cachedKeyboard = getCachedKeyboardLocked(id);
+            if (cachedKeyboard != null) {
+                return cachedKeyboard;
+            }
+            final Keyboard keyboard = buildKeyboard(elementParams, id, sUniqueKeysCache);
+            sKeyboardCache.put(id, new SoftReference<>(keyboard));
+            if ((id.mElementId == KeyboardId.ELEMENT_ALPHABET
+                    || id.mElementId == KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED)
+                    && !mParams.mIsSpellChecker) {
+                // We only forcibly cache the primary, "ALPHABET", layouts.
+                for (int i = sForcibleKeyboardCache.length - 1; i >= 1; --i) {
+                    sForcibleKeyboardCache[i] = sForcibleKeyboardCache[i - 1];
+                }
+                sForcibleKeyboardCache[0] = keyboard;
+                if (DEBUG_CACHE) {
+                    Log.d(TAG, "forcing caching of keyboard with id=" + id);
+                }
+            }
+            if (DEBUG_CACHE) {
+                Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": LOAD id=" + id);
+            }
+            return keyboard;
+        }
+    }
+
+    /**
+     * Builds the keyboard into the cache if it's not there yet, unless the cache has been cleared
+     * since {@link #getCacheGeneration()} returned the given generation. Unlike the keyboards
+     * that are shown, the prebuilt keyboards are only softly referenced by the cache.
+     *
+     * The keyboard is built without holding the lock of the cache, so that {@link #getKeyboard}
+     * never waits for a prebuild on the UI thread. Its keys are not shared with the other
+     * keyboards, since the cache of unique keys is only used under the lock.
+     *
+     * @return whether the cache is still of the given generation.
+     */
+    boolean prebuildKeyboard(final int baseKeyboardLayoutSetElementId,
+            final int cacheGeneration) {
+        final ElementParams elementParams = getElementParams(baseKeyboardLayoutSetElementId);
+        final KeyboardId id;
+        synchronized (sLock) {
+            if (cacheGeneration != sCacheGeneration) {
+                return false;
+            }
+            id = newKeyboardIdLocked(baseKeyboardLayoutSetElementId, elementParams);
+            if (getCachedKeyboardLocked(id) != null) {
+                return true;
+            }
+        }
+        final Keyboard keyboard = buildKeyboard(elementParams, id,
+                UniqueKeysCache.newInstance());
+        synchronized (sLock) {
+            if (cacheGeneration != sCacheGeneration) {
+                return false;
+            }
+            // The UI thread may have built the same keyboard in the meantime.
+            if (getCachedKeyboardLocked(id) == null) {
+                sKeyboardCache.put(id, new SoftReference<>(keyboard));
+                if (DEBUG_CACHE) {
+                    Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size()
+                            + ": PREBUILT id=" + id);
+                }
+            }
+            return true;
+        }
+    }
+
+    private int getKeyboardLayoutSetElementId(final int baseKeyboardLayoutSetElementId) {
         switch (mParams.mMode) {
         case KeyboardId.MODE_PHONE:
             if (baseKeyboardLayoutSetElementId == KeyboardId.ELEMENT_SYMBOLS) {
-                keyboardLayoutSetElementId = KeyboardId.ELEMENT_PHONE_SYMBOLS;
-            } else {
-                keyboardLayoutSetElementId = KeyboardId.ELEMENT_PHONE;
+                return KeyboardId.ELEMENT_PHONE_SYMBOLS;
             }
-            break;
+            return KeyboardId.ELEMENT_PHONE;
         case KeyboardId.MODE_NUMBER:
         case KeyboardId.MODE_DATE:
         case KeyboardId.MODE_TIME:
         case KeyboardId.MODE_DATETIME:
-            keyboardLayoutSetElementId = KeyboardId.ELEMENT_NUMBER;
-            break;
+            return KeyboardId.ELEMENT_NUMBER;
         default:
-            keyboardLayoutSetElementId = baseKeyboardLayoutSetElementId;
-            break;
+            return baseKeyboardLayoutSetElementId;
         }
+    }
 
-        ElementParams elementParams = mParams.mKeyboardLayoutSetElementIdToParamsMap.get(
-                keyboardLayoutSetElementId);
+    @Nonnull
+    private ElementParams getElementParams(final int baseKeyboardLayoutSetElementId) {
+        final ElementParams elementParams = mParams.mKeyboardLayoutSetElementIdToParamsMap.get(
+                getKeyboardLayoutSetElementId(baseKeyboardLayoutSetElementId));
         if (elementParams == null) {
-            elementParams = mParams.mKeyboardLayoutSetElementIdToParamsMap.get(
+            return mParams.mKeyboardLayoutSetElementIdToParamsMap.get(
                     KeyboardId.ELEMENT_ALPHABET);
         }
+        return elementParams;
+    }
+
+    // The params are shared by the UI thread and the prebuilds, so they're only changed under
+    // the lock.
+    @Nonnull
+    private KeyboardId newKeyboardIdLocked(final int baseKeyboardLayoutSetElementId,
+            @Nonnull final ElementParams elementParams) {
         // Note: The keyboard for each shift state, and mode are represented as an elementName
         // attribute in a keyboard_layout_set XML file.  Also each keyboard layout XML resource is
         // specified as an elementKeyboard attribute in the file.
         // The KeyboardId is an internal key for a Keyboard object.
-
         mParams.mIsSplitLayoutEnabled = mParams.mIsSplitLayoutEnabledByUser
                 && elementParams.mSupportsSplitLayout;
-        final KeyboardId id = new KeyboardId(keyboardLayoutSetElementId, mParams);
-        try {
-            return getKeyboard(elementParams, id);
-        } catch (final RuntimeException e) {
-            Log.e(TAG, "Can't create keyboard: " + id, e);
-            throw new KeyboardLayoutSetException(e, id);
-        }
+        return new KeyboardId(getKeyboardLayoutSetElementId(baseKeyboardLayoutSetElementId),
+                mParams);
     }
 
-    @Nonnull
-    private Keyboard getKeyboard(final ElementParams elementParams, final KeyboardId id) {
+    @Nullable
+    private static Keyboard getCachedKeyboardLocked(@Nonnull final KeyboardId id) {
         final SoftReference<Keyboard> ref = sKeyboardCache.get(id);
         final Keyboard cachedKeyboard = (ref == null) ? null : ref.get();
-        if (cachedKeyboard != null) {
-            if (DEBUG_CACHE) {
-                Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": HIT  id=" + id);
-            }
-            return cachedKeyboard;
+        if (DEBUG_CACHE && cachedKeyboard != null) {
+            Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": HIT  id=" + id);
         }
+        return cachedKeyboard;
+    }
 
-        final KeyboardBuilder<KeyboardParams> builder =
-                new KeyboardBuilder<>(mContext, new KeyboardParams(sUniqueKeysCache));
-        sUniqueKeysCache.setEnabled(id.isAlphabetKeyboard());
-        builder.setAllowRedundantMoreKes(elementParams.mAllowRedundantMoreKeys);
-        final int keyboardXmlId = elementParams.mKeyboardXmlId;
-        builder.load(keyboardXmlId, id);
-        if (mParams.mDisableTouchPositionCorrectionDataForTest) {
-            builder.disableTouchPositionCorrectionDataForTest();
-        }
-        builder.setProximityCharsCorrectionEnabled(elementParams.mProximityCharsCorrectionEnabled);
-        final Keyboard keyboard = builder.build();
-        sKeyboardCache.put(id, new SoftReference<>(keyboard));
-        if ((id.mElementId == KeyboardId.ELEMENT_ALPHABET
-                || id.mElementId == KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED)
-                && !mParams.mIsSpellChecker) {
-            // We only forcibly cache the primary, "ALPHABET", layouts.
-            for (int i = sForcibleKeyboardCache.length - 1; i >= 1; --i) {
-                sForcibleKeyboardCache[i] = sForcibleKeyboardCache[i - 1];
+    @Nonnull
+    private Keyboard buildKeyboard(@Nonnull final ElementParams elementParams,
+            @Nonnull final KeyboardId id, @Nonnull final UniqueKeysCache uniqueKeysCache) {
+        try {
+            final KeyboardBuilder<KeyboardParams> builder =
+                    new KeyboardBuilder<>(mContext, new KeyboardParams(uniqueKeysCache));
+            uniqueKeysCache.setEnabled(id.isAlphabetKeyboard());
+            builder.setAllowRedundantMoreKes(elementParams.mAllowRedundantMoreKeys);
+            if (ProductionFlags.ENABLE_KEYBOARD_DISK_CACHE) {
+                builder.setDiskCache(KeyboardDiskCache.getInstance(mContext));
             }
-            sForcibleKeyboardCache[0] = keyboard;
-            if (DEBUG_CACHE) {
-                Log.d(TAG, "forcing caching of keyboard with id=" + id);
+            final int keyboardXmlId = elementParams.mKeyboardXmlId;
+            builder.load(keyboardXmlId, id);
+            if (mParams.mDisableTouchPositionCorrectionDataForTest) {
+                builder.disableTouchPositionCorrectionDataForTest();
             }
+            builder.setProximityCharsCorrectionEnabled(
+                    elementParams.mProximityCharsCorrectionEnabled);
+            return builder.build();
+        } catch (final RuntimeException e) {
+            Log.e(TAG, "Can't create keyboard: " + id, e);
+            throw new KeyboardLayoutSetException(e, id);
         }
-        if (DEBUG_CACHE) {
-            Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": "
-                    + ((ref == null) ? "LOAD" : "GCed") + " id=" + id);
-        }
-        return keyboard;
     }
 
     public int getScriptId() {
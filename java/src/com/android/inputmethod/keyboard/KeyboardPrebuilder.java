@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import android.content.ComponentCallbacks2;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.inputmethod.latin.utils.ExecutorUtils;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Builds the keyboards the user is likely to switch to next in the background, once the current
+ * keyboard is shown, so that switching to them doesn't build them on the UI thread. These are
+ * the other variants of the current keyboard layout set, such as the symbols and the shifted
+ * keyboards, then the alphabet keyboards of the other enabled subtypes.
+ *
+ * The keyboards are built one at a time on the keyboard builder executor, and published into
+ * the cache of {@link KeyboardLayoutSet}. That executor is not the one that loads the
+ * dictionaries, so they are not held up on a cold start or a subtype switch. Prebuilding stops
+ * when the keyboard is loaded again, when the cache is cleared, and under memory pressure.
+ */
+final class KeyboardPrebuilder {
+    private static final String TAG = KeyboardPrebuilder.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // How long to wait after the keyboard is loaded, so that it's drawn first.
+    private static final long PREBUILD_DELAY_MILLIS = 500;
+    // How long not to prebuild after the system reported memory pressure.
+    private static final long MEMORY_PRESSURE_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // Prebuilding stops when less than this ratio of the maximum heap size is available.
+    private static final float MIN_AVAILABLE_HEAP_RATIO = 0.25f;
+
+    // The variants of the current keyboard layout set, in the order they're likely to be needed.
+    // In the phone and number modes, they resolve to the phone and number keyboards.
+    private static final int[] CURRENT_ELEMENT_IDS = {
+        KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED,
+        KeyboardId.ELEMENT_SYMBOLS,
+        KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED,
+        KeyboardId.ELEMENT_SYMBOLS_SHIFTED,
+        KeyboardId.ELEMENT_ALPHABET_SHIFT_LOCKED,
+    };
+    // The variants of the layout sets of the other subtypes that switching to them shows.
+    private static final int[] OTHER_SUBTYPE_ELEMENT_IDS = {
+        KeyboardId.ELEMENT_ALPHABET,
+        KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED,
+    };
+
+    private final Object mLock = new Object();
+    // Incremented to cancel the running prebuild. Guarded by mLock.
+    private int mGeneration;
+    // Guarded by mLock.
+    private long mSuspendedUntilMillis;
+
+    /**
+     * Cancels the running prebuild, and prebuilds the keyboards for the given layout sets.
+     *
+     * @param currentLayoutSet the layout set of the keyboard being shown.
+     * @param otherSubtypeLayoutSets the builders of the layout sets of the other enabled
+     * subtypes, in the order they're switched to. They are built in the background.
+     */
+    public void start(@Nonnull final KeyboardLayoutSet currentLayoutSet,
+            @Nonnull final List<KeyboardLayoutSet.Builder> otherSubtypeLayoutSets) {
+        final int generation;
+        synchronized (mLock) {
+            generation = ++mGeneration;
+            if (SystemClock.uptimeMillis() < mSuspendedUntilMillis) {
+                return;
+            }
+        }
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD_BUILDER).schedule(
+                new PrebuildTask(generation, currentLayoutSet, otherSubtypeLayoutSets),
+                PREBUILD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void cancel() {
+        synchronized (mLock) {
+            mGeneration++;
+        }
+    }
+
+    /**
+     * Stops prebuilding for a while when the system is running low on memory. The keyboards
+     * that were prebuilt are only softly referenced, and are collected first.
+     */
+    public void onTrimMemory(final int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+        synchronized (mLock) {
+            mGeneration++;
+            mSuspendedUntilMillis = SystemClock.uptimeMillis() + MEMORY_PRESSURE_BACKOFF_MILLIS;
+        }
+    }
+
+    private boolean isRunning(final int generation) {
+        synchronized (mLock) {
+            return generation == mGeneration;
+        }
+    }
+
+    private static boolean hasAvailableHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long maxMemory = runtime.maxMemory();
+        final long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        return maxMemory - usedMemory >= maxMemory * MIN_AVAILABLE_HEAP_RATIO;
+    }
+
+    /**
+     * Prebuilds one keyboard each time it runs, then runs again for the next one, so that the
+     * other tasks of the executor and the keyboards built on the UI thread don't wait for all
+     * of them.
+     */
+    private final class PrebuildTask implements Runnable {
+        private final int mGeneration;
+        private final int mCacheGeneration;
+        private final ArrayDeque<KeyboardLayoutSet.Builder> mPendingLayoutSets;
+        private KeyboardLayoutSet mLayoutSet;
+        private int[] mElementIds;
+        private int mNextElementIndex;
+
+        public PrebuildTask(final int generation, @Nonnull final KeyboardLayoutSet layoutSet,
+                @Nonnull final List<KeyboardLayoutSet.Builder> pendingLayoutSets) {
+            mGeneration = generation;
+            mCacheGeneration = KeyboardLayoutSet.getCacheGeneration();
+            mPendingLayoutSets = new ArrayDeque<>(pendingLayoutSets);
+            mLayoutSet = layoutSet;
+            mElementIds = CURRENT_ELEMENT_IDS;
+        }
+
+        @Override
+        public void run() {
+            if (!isRunning(mGeneration)) {
+                return;
+            }
+            if (!hasAvailableHeap()) {
+                if (DEBUG) Log.d(TAG, "Not enough available heap to prebuild keyboards");
+                return;
+            }
+            if (!prebuildNext()) {
+                if (DEBUG) Log.d(TAG, "Prebuilding keyboards is done");
+                return;
+            }
+            ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD_BUILDER).execute(this);
+        }
+
+        /**
+         * @return whether there is more to prebuild.
+         */
+        private boolean prebuildNext() {
+            if (mNextElementIndex >= mElementIds.length) {
+                final KeyboardLayoutSet.Builder builder = mPendingLayoutSets.poll();
+                if (builder == null) {
+                    return false;
+                }
+                try {
+                    mLayoutSet = builder.build();
+                    mElementIds = OTHER_SUBTYPE_ELEMENT_IDS;
+                } catch (final RuntimeException e) {
+                    Log.w(TAG, "Can't create keyboard layout set to prebuild", e);
+                    mElementIds = new int[0];
+                }
+                mNextElementIndex = 0;
+                return true;
+            }
+            final int elementId = mElementIds[mNextElementIndex++];
+            final long startTime = DEBUG ? SystemClock.uptimeMillis() : 0;
+            try {
+                if (!mLayoutSet.prebuildKeyboard(elementId, mCacheGeneration)) {
+                    // The cache has been cleared, and the layout sets are out of date.
+                    return false;
+                }
+            } catch (final KeyboardLayoutSet.KeyboardLayoutSetException e) {
+                // Already logged by the layout set.
+                return true;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Prebuilt element " + KeyboardId.elementIdToName(elementId) + " in "
+                        + (SystemClock.uptimeMillis() - startTime) + "ms");
+            }
+            return true;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import com.android.inputmethod.compat.InputMethodServiceCompatUtils;
 import com.android.inputmethod.event.Event;
 import com.android.inputmethod.keyboard.KeyboardLayoutSet.KeyboardLayoutSetException;
 import com.android.inputmethod.keyboard.emoji.EmojiPalettesView;
+import com.android.inputmethod.keyboard.internal.KeyLabelBitmapCache;
 import com.android.inputmethod.keyboard.internal.KeyboardState;
 import com.android.inputmethod.keyboard.internal.KeyboardTextsSet;
 import com.android.inputmethod.latin.InputView;
@@ -47,6 +48,9 @@ import com.android.inputmethod.latin.utils.ResourceUtils;
 import com.android.inputmethod.latin.utils.ScriptUtils;
 import com.android.inputmethod.latin.utils.SubtypeLocaleUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.annotation.Nonnull;
 
 public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
@@ -66,6 +70,9 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
     private KeyboardState mState;
 
     private KeyboardLayoutSet mKeyboardLayoutSet;
+    private final KeyboardPrebuilder mKeyboardPrebuilder = new KeyboardPrebuilder();
+    // How many of the other enabled subtypes have their keyboards prebuilt.
+    private static final int MAX_PREBUILT_OTHER_SUBTYPES = 2;
     // TODO: The following {@link KeyboardTextsSet} should be in {@link KeyboardLayoutSet}.
     private final KeyboardTextsSet mKeyboardTextsSet = new KeyboardTextsSet();
 
@@ -113,28 +120,66 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
         return false;
     }
 
-    public void loadKeyboard(final EditorInfo editorInfo, final SettingsValues settingsValues,
-            final int currentAutoCapsState, final int currentRecapitalizeState) {
+    private KeyboardLayoutSet.Builder newKeyboardLayoutSetBuilder(final EditorInfo editorInfo,
+            final SettingsValues settingsValues, final RichInputMethodSubtype subtype) {
         final KeyboardLayoutSet.Builder builder = new KeyboardLayoutSet.Builder(
                 mThemeContext, editorInfo);
         final Resources res = mThemeContext.getResources();
         final int keyboardWidth = ResourceUtils.getDefaultKeyboardWidth(res);
         final int keyboardHeight = ResourceUtils.getKeyboardHeight(res, settingsValues);
         builder.setKeyboardGeometry(keyboardWidth, keyboardHeight);
-        builder.setSubtype(mRichImm.getCurrentSubtype());
+        builder.setSubtype(subtype);
         builder.setVoiceInputKeyEnabled(settingsValues.mShowsVoiceInputKey);
         builder.setLanguageSwitchKeyEnabled(mLatinIME.shouldShowLanguageSwitchKey());
         builder.setEmojiSwitchKeyEnabled(mLatinIME.shouldShowEmojiSwitchKey());
         builder.setNumberRowEnabled(mLatinIME.shouldShowNumberRow());
         builder.setSplitLayoutEnabledByUser(ProductionFlags.IS_SPLIT_KEYBOARD_SUPPORTED
                 && settingsValues.mIsSplitKeyboardEnabled);
-        mKeyboardLayoutSet = builder.build();
+        return builder;
+    }
+
+    public void loadKeyboard(final EditorInfo editorInfo, final SettingsValues settingsValues,
+            final int currentAutoCapsState, final int currentRecapitalizeState) {
+        final RichInputMethodSubtype currentSubtype = mRichImm.getCurrentSubtype();
+        mKeyboardLayoutSet =
+                newKeyboardLayoutSetBuilder(editorInfo, settingsValues, currentSubtype).build();
         try {
             mState.onLoadKeyboard(currentAutoCapsState, currentRecapitalizeState);
             mKeyboardTextsSet.setLocale(mRichImm.getCurrentSubtypeLocale(), mThemeContext);
         } catch (KeyboardLayoutSetException e) {
             Log.w(TAG, "loading keyboard failed: " + e.mKeyboardId, e.getCause());
         }
+        if (ProductionFlags.ENABLE_KEYBOARD_PREBUILDING) {
+            prebuildKeyboards(editorInfo, settingsValues, currentSubtype);
+        }
+    }
+
+    private void prebuildKeyboards(final EditorInfo editorInfo,
+            final SettingsValues settingsValues, final RichInputMethodSubtype currentSubtype) {
+        // The subtypes that follow the current one, in the order the language switch key goes
+        // through them.
+        final List<InputMethodSubtype> enabledSubtypes =
+                mRichImm.getMyEnabledInputMethodSubtypeList(
+                        true /* allowsImplicitlySelectedSubtypes */);
+        final int subtypeCount = enabledSubtypes.size();
+        final int currentIndex = enabledSubtypes.indexOf(currentSubtype.getRawSubtype());
+        final ArrayList<KeyboardLayoutSet.Builder> otherLayoutSets = new ArrayList<>();
+        for (int i = 1; i < subtypeCount
+                && otherLayoutSets.size() < MAX_PREBUILT_OTHER_SUBTYPES; i++) {
+            final InputMethodSubtype subtype =
+                    enabledSubtypes.get((Math.max(currentIndex, 0) + i) % subtypeCount);
+            if (subtype.equals(currentSubtype.getRawSubtype())) {
+                continue;
+            }
+            otherLayoutSets.add(newKeyboardLayoutSetBuilder(
+                    editorInfo, settingsValues, new RichInputMethodSubtype(subtype)));
+        }
+        mKeyboardPrebuilder.start(mKeyboardLayoutSet, otherLayoutSets);
+    }
+
+    public void onTrimMemory(final int level) {
+        mKeyboardPrebuilder.onTrimMemory(level);
+        KeyLabelBitmapCache.getInstance().onTrimMemory(level);
     }
 
     public void saveKeyboardState() {
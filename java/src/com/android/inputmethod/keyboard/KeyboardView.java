@@ -21,25 +21,33 @@ import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.NinePatchDrawable;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.View;
 
+import com.android.inputmethod.compat.RenderNodeCompatUtils;
+import com.android.inputmethod.compat.RenderNodeCompatUtils.DisplayList;
 import com.android.inputmethod.keyboard.internal.KeyDrawParams;
+import com.android.inputmethod.keyboard.internal.KeyLabelBitmapCache;
+import com.android.inputmethod.keyboard.internal.KeyLabelBitmapCache.LabelBitmap;
 import com.android.inputmethod.keyboard.internal.KeyVisualAttributes;
 import com.android.inputmethod.latin.R;
 import com.android.inputmethod.latin.common.Constants;
+import com.android.inputmethod.latin.define.ProductionFlags;
+import com.android.inputmethod.latin.utils.AttributeValues;
+import com.android.inputmethod.latin.utils.ExecutorUtils;
 import com.android.inputmethod.latin.utils.TypefaceUtils;
 
 import in.androidtweak.inputmethod.indic.settings.Settings;
 
+import java.util.HashMap;
 import java.util.HashSet;
 
 import javax.annotation.Nonnull;
@@ -101,6 +109,8 @@ public class KeyboardView extends View {
     // The maximum key label width in the proportion to the key width.
     private static final float MAX_LABEL_RATIO = 0.90f;
 
+    private static final String KEY_DISPLAY_LIST_NAME = "Key";
+
     // Main keyboard
     // TODO: Consider having a dummy keyboard object to make this @Nonnull
     @Nullable
@@ -115,6 +125,9 @@ public class KeyboardView extends View {
     private final HashSet<Key> mInvalidatedKeys = new HashSet<>();
     /** The working rectangle for clipping */
     private final Rect mClipRect = new Rect();
+    /** The working matrix and its values, to check how the canvas transforms the labels */
+    private final Matrix mCanvasMatrix = new Matrix();
+    private final float[] mCanvasMatrixValues = new float[9];
     /** The keyboard bitmap buffer for faster updates */
     private Bitmap mOffscreenBuffer;
     /** Flag for whether the key hints should be displayed */
@@ -122,6 +135,14 @@ public class KeyboardView extends View {
     /** The canvas for the above mutable keyboard bitmap */
     @Nonnull
     private final Canvas mOffscreenCanvas = new Canvas();
+    /**
+     * The display lists of the keys, which replace the keyboard bitmap buffer on hardware
+     * accelerated canvases. Only the invalidated keys are recorded again.
+     */
+    private final HashMap<Key, DisplayList> mKeyDisplayLists = new HashMap<>();
+    /** The padding of this view when the display lists of the keys have been recorded */
+    private int mKeyDisplayListsPaddingLeft;
+    private int mKeyDisplayListsPaddingTop;
     @Nonnull
     private final Paint mPaint = new Paint();
     private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
@@ -163,7 +184,8 @@ public class KeyboardView extends View {
         final TypedArray keyAttr = context.obtainStyledAttributes(attrs,
                 R.styleable.Keyboard_Key, defStyle, R.style.KeyboardView);
         mDefaultKeyLabelFlags = keyAttr.getInt(R.styleable.Keyboard_Key_keyLabelFlags, 0);
-        mKeyVisualAttributes = KeyVisualAttributes.newInstance(keyAttr);
+        mKeyVisualAttributes = KeyVisualAttributes.newInstance(
+                AttributeValues.of(context.getResources(), keyAttr));
         keyAttr.recycle();
 
         mPaint.setAntiAlias(true);
@@ -198,10 +220,62 @@ public class KeyboardView extends View {
         final int keyHeight = keyboard.mMostCommonKeyHeight - keyboard.mVerticalGap;
         mKeyDrawParams.updateParams(keyHeight, mKeyVisualAttributes);
         mKeyDrawParams.updateParams(keyHeight, keyboard.mKeyVisualAttributes);
+        if (drawsKeyLabelsFromBitmaps()) {
+            prepareKeyLabelBitmaps(keyboard);
+        }
         invalidateAllKeys();
         requestLayout();
     }
 
+    /**
+     * Returns whether this view draws the labels of its keys from their rasterized bitmaps, when
+     * they can be.
+     * @see KeyLabelBitmapCache
+     */
+    protected boolean drawsKeyLabelsFromBitmaps() {
+        return ProductionFlags.ENABLE_KEY_LABEL_BITMAPS;
+    }
+
+    /**
+     * Rasterizes the labels of the keys of a keyboard in the background, so that they're ready
+     * when the keyboard is drawn. A label that is drawn before it's ready is rasterized then.
+     */
+    private void prepareKeyLabelBitmaps(@Nonnull final Keyboard keyboard) {
+        final KeyDrawParams params = new KeyDrawParams(mKeyDrawParams);
+        final boolean labelsHaveShadow = mKeyTextShadowRadius > 0.0f;
+        // The setting as of the last time the keys were drawn.
+        final boolean showsHints = mShowsHints;
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD_BUILDER).execute(new Runnable() {
+            @Override
+            public void run() {
+                final KeyLabelBitmapCache cache = KeyLabelBitmapCache.getInstance();
+                final Paint paint = new Paint();
+                paint.setAntiAlias(true);
+                for (final Key key : keyboard.getSortedKeys()) {
+                    final KeyDrawParams keyParams = params.mayCloneAndUpdateParams(
+                            key.getHeight(), key.getVisualAttributes());
+                    final String label = key.getLabel();
+                    if (label != null && !labelsHaveShadow) {
+                        paint.setTypeface(key.selectTypeface(keyParams));
+                        paint.setTextSize(key.selectTextSize(keyParams));
+                        paint.setTextScaleX(1.0f);
+                        scaleLabelToKeyWidth(key, label, paint);
+                        if (paint.getTextScaleX() == 1.0f) {
+                            cache.getLabelBitmap(label, paint);
+                        }
+                    }
+                    final String hintLabel = key.getHintLabel();
+                    if (hintLabel != null && showsHints) {
+                        // Resolved as when the hint label is drawn, to hit the same bitmap.
+                        paint.setTypeface(key.selectHintTypeface(keyParams));
+                        paint.setTextSize(key.selectHintTextSize(keyParams));
+                        cache.getLabelBitmap(hintLabel, paint);
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Returns the current keyboard being displayed by this view.
      * @return the currently attached keyboard
@@ -242,7 +316,12 @@ public class KeyboardView extends View {
     protected void onDraw(final Canvas canvas) {
         super.onDraw(canvas);
         if (canvas.isHardwareAccelerated()) {
-            onDrawKeyboard(canvas);
+            if (ProductionFlags.ENABLE_KEY_DISPLAY_LISTS
+                    && RenderNodeCompatUtils.isDisplayListSupported()) {
+                onDrawKeyboardWithDisplayLists(canvas);
+            } else {
+                onDrawKeyboard(canvas);
+            }
             return;
         }
 
@@ -282,6 +361,51 @@ public class KeyboardView extends View {
         }
     }
 
+    private void freeKeyDisplayLists() {
+        for (final DisplayList displayList : mKeyDisplayLists.values()) {
+            displayList.discard();
+        }
+        mKeyDisplayLists.clear();
+    }
+
+    private void onDrawKeyboardWithDisplayLists(@Nonnull final Canvas canvas) {
+        final Keyboard keyboard = getKeyboard();
+        if (keyboard == null) {
+            return;
+        }
+
+        mShowsHints = Settings.getInstance().getCurrent().mShowsHints;
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        if (mInvalidateAllKeys || paddingLeft != mKeyDisplayListsPaddingLeft
+                || paddingTop != mKeyDisplayListsPaddingTop) {
+            freeKeyDisplayLists();
+            mKeyDisplayListsPaddingLeft = paddingLeft;
+            mKeyDisplayListsPaddingTop = paddingTop;
+        }
+        final Paint paint = mPaint;
+        for (final Key key : keyboard.getSortedKeys()) {
+            DisplayList displayList = mKeyDisplayLists.get(key);
+            if (displayList == null) {
+                displayList = RenderNodeCompatUtils.newDisplayList(KEY_DISPLAY_LIST_NAME);
+                mKeyDisplayLists.put(key, displayList);
+            } else if (displayList.hasDisplayList() && !mInvalidatedKeys.contains(key)) {
+                displayList.draw(canvas);
+                continue;
+            }
+            final Canvas keyCanvas = displayList.beginRecording(getWidth(), getHeight());
+            try {
+                onDrawKey(key, keyCanvas, paint);
+            } finally {
+                displayList.endRecording();
+            }
+            displayList.draw(canvas);
+        }
+
+        mInvalidatedKeys.clear();
+        mInvalidateAllKeys = false;
+    }
+
     private void onDrawKeyboard(@Nonnull final Canvas canvas) {
         final Keyboard keyboard = getKeyboard();
         if (keyboard == null) {
@@ -417,17 +541,9 @@ public class KeyboardView extends View {
                 labelX = centerX;
                 paint.setTextAlign(Align.CENTER);
             }
-            if (key.needsAutoXScale()) {
-                final float ratio = Math.min(1.0f, (keyWidth * MAX_LABEL_RATIO) /
-                        TypefaceUtils.getStringWidth(label, paint));
-                if (key.needsAutoScale()) {
-                    final float autoSize = paint.getTextSize() * ratio;
-                    paint.setTextSize(autoSize);
-                } else {
-                    paint.setTextScaleX(ratio);
-                }
-            }
+            scaleLabelToKeyWidth(key, label, paint);
 
+            final boolean hasShadow = key.isEnabled() && mKeyTextShadowRadius > 0.0f;
             if (key.isEnabled()) {
                 paint.setColor(key.selectTextColor(params));
                 // Set a drop shadow for the text if the shadow radius is positive value.
@@ -442,7 +558,7 @@ public class KeyboardView extends View {
                 paint.clearShadowLayer();
             }
             blendAlpha(paint, params.mAnimAlpha);
-            canvas.drawText(label, 0, label.length(), labelX, labelBaseline, paint);
+            drawKeyLabel(canvas, label, labelX, labelBaseline, paint, hasShadow);
             // Turn off drop shadow and reset x-scale.
             paint.clearShadowLayer();
             paint.setTextScaleX(1.0f);
@@ -453,8 +569,7 @@ public class KeyboardView extends View {
         if (hintLabel != null && mShowsHints) {
             paint.setTextSize(key.selectHintTextSize(params));
             paint.setColor(key.selectHintTextColor(params));
-            // TODO: Should add a way to specify type face for hint letters
-            paint.setTypeface(Typeface.DEFAULT_BOLD);
+            paint.setTypeface(key.selectHintTypeface(params));
             blendAlpha(paint, params.mAnimAlpha);
             final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
             final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
@@ -485,8 +600,8 @@ public class KeyboardView extends View {
                 paint.setTextAlign(Align.CENTER);
             }
             final float adjustmentY = params.mHintLabelVerticalAdjustment * labelCharHeight;
-            canvas.drawText(
-                    hintLabel, 0, hintLabel.length(), hintX, hintBaseline + adjustmentY, paint);
+            drawKeyLabel(canvas, hintLabel, hintX, hintBaseline + adjustmentY, paint,
+                    false /* hasShadow */);
         }
 
         // Draw key icon.
@@ -513,6 +628,50 @@ public class KeyboardView extends View {
         }
     }
 
+    // Scale the label down to fit in the key, if the key needs it.
+    private static void scaleLabelToKeyWidth(@Nonnull final Key key, @Nonnull final String label,
+            @Nonnull final Paint paint) {
+        if (!key.needsAutoXScale()) {
+            return;
+        }
+        final float ratio = Math.min(1.0f, (key.getDrawWidth() * MAX_LABEL_RATIO) /
+                TypefaceUtils.getStringWidth(label, paint));
+        if (key.needsAutoScale()) {
+            final float autoSize = paint.getTextSize() * ratio;
+            paint.setTextSize(autoSize);
+        } else {
+            paint.setTextScaleX(ratio);
+        }
+    }
+
+    // Draw a key label from its rasterized bitmap if it can be, or as text.
+    private void drawKeyLabel(@Nonnull final Canvas canvas, @Nonnull final String label,
+            final float x, final float baseline, @Nonnull final Paint paint,
+            final boolean hasShadow) {
+        if (drawsKeyLabelsFromBitmaps() && !hasShadow && paint.getTextScaleX() == 1.0f
+                && isPixelAligned(canvas)) {
+            final LabelBitmap labelBitmap =
+                    KeyLabelBitmapCache.getInstance().getLabelBitmap(label, paint);
+            if (labelBitmap != null) {
+                labelBitmap.draw(canvas, x, baseline, paint);
+                return;
+            }
+        }
+        canvas.drawText(label, 0, label.length(), x, baseline, paint);
+    }
+
+    // Whether the canvas only translates what is drawn on it. A label bitmap is rasterized for
+    // the pixels of the canvas, and would be blurred if it were scaled, rotated or skewed.
+    @SuppressWarnings("deprecation")
+    private boolean isPixelAligned(@Nonnull final Canvas canvas) {
+        canvas.getMatrix(mCanvasMatrix);
+        final float[] values = mCanvasMatrixValues;
+        mCanvasMatrix.getValues(values);
+        return values[Matrix.MSCALE_X] == 1.0f && values[Matrix.MSCALE_Y] == 1.0f
+                && values[Matrix.MSKEW_X] == 0.0f && values[Matrix.MSKEW_Y] == 0.0f
+                && values[Matrix.MPERSP_0] == 0.0f && values[Matrix.MPERSP_1] == 0.0f;
+    }
+
     // Draw popup hint "..." at the bottom right corner of the key.
     protected void drawKeyPopupHint(@Nonnull final Key key, @Nonnull final Canvas canvas,
             @Nonnull final Paint paint, @Nonnull final KeyDrawParams params) {
@@ -587,9 +746,11 @@ public class KeyboardView extends View {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         freeOffscreenBuffer();
+        freeKeyDisplayLists();
     }
 
     public void deallocateMemory() {
         freeOffscreenBuffer();
+        freeKeyDisplayLists();
     }
 }
@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public class ProximityInfo {
     private static final String TAG = ProximityInfo.class.getSimpleName();
@@ -57,11 +58,16 @@ public class ProximityInfo {
     @Nonnull
     private final List<Key>[] mGridNeighbors;
 
+    /**
+     * @param gridNeighbors the nearest keys of each cell of the grid, that have been computed for
+     * the same keys and geometry, or null to compute them.
+     */
     @SuppressWarnings("unchecked")
     ProximityInfo(final int gridWidth, final int gridHeight, final int minWidth, final int height,
             final int mostCommonKeyWidth, final int mostCommonKeyHeight,
             @Nonnull final List<Key> sortedKeys,
-            @Nonnull final TouchPositionCorrection touchPositionCorrection) {
+            @Nonnull final TouchPositionCorrection touchPositionCorrection,
+            @Nullable final List<Key>[] gridNeighbors) {
         mGridWidth = gridWidth;
         mGridHeight = gridHeight;
         mGridSize = mGridWidth * mGridHeight;
@@ -72,12 +78,18 @@ public class ProximityInfo {
         mMostCommonKeyHeight = mostCommonKeyHeight;
         mMostCommonKeyWidth = mostCommonKeyWidth;
         mSortedKeys = sortedKeys;
-        mGridNeighbors = new List[mGridSize];
+        if (gridNeighbors != null && gridNeighbors.length == mGridSize) {
+            mGridNeighbors = gridNeighbors;
+        } else {
+            mGridNeighbors = new List[mGridSize];
+        }
         if (minWidth == 0 || height == 0) {
             // No proximity required. Keyboard might be more keys keyboard.
             return;
         }
-        computeNearestNeighbors();
+        if (mGridNeighbors != gridNeighbors) {
+            computeNearestNeighbors();
+        }
         mNativeProximityInfo = createNativeProximityInfo(touchPositionCorrection);
     }
 
@@ -225,6 +237,14 @@ public class ProximityInfo {
                 sweetSpotCenterXs, sweetSpotCenterYs, sweetSpotRadii);
     }
 
+    /**
+     * Returns the nearest keys of each cell of the grid. The array must not be modified.
+     */
+    @Nonnull
+    List<Key>[] getGridNeighbors() {
+        return mGridNeighbors;
+    }
+
     public long getNativeProximityInfo() {
         return mNativeProximityInfo;
     }
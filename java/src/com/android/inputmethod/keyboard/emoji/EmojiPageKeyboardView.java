@@ -94,6 +94,15 @@ final class EmojiPageKeyboardView extends KeyboardView implements
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean drawsKeyLabelsFromBitmaps() {
+        // The emoji are drawn in color, and a page is drawn too rarely to gain from the bitmaps.
+        return false;
+    }
+
     @Override
     public boolean dispatchPopulateAccessibilityEvent(final AccessibilityEvent event) {
         // Don't populate accessibility event with all Emoji keys.
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Align;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.util.LruCache;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Caches the labels of the keys rasterized into bitmaps, so that drawing a label is a bitmap blit
+ * instead of shaping and rasterizing its text again. Shaping is expensive for the conjuncts of
+ * the Indic scripts, and all the labels are drawn again whenever the keyboard changes, such as
+ * on a shift state change.
+ *
+ * A label bitmap is only the coverage of its glyphs, which is drawn with the color of the paint,
+ * so that the labels of the pressed and the disabled keys share the same bitmap. Labels that are
+ * drawn with a drop shadow or a horizontal scale can't be drawn from a bitmap, and neither can
+ * the labels with colored glyphs, such as the emoji, since a coverage bitmap would draw them as
+ * silhouettes. A bitmap is rasterized for the pixels of the canvas it is drawn on, so it is
+ * blurred on a canvas that scales it.
+ *
+ * The cache is shared by all the keyboard views and is safe to fill from any thread.
+ */
+public final class KeyLabelBitmapCache {
+    private static final int MAX_CACHE_BYTES = 2 * 1024 * 1024;
+    // Antialiasing may cover the pixels around the bounds of the glyphs.
+    private static final int BITMAP_PADDING = 1;
+
+    private static final KeyLabelBitmapCache sInstance = new KeyLabelBitmapCache();
+
+    /**
+     * A rasterized label. Its bitmap is placed relative to the start of the label on its
+     * baseline, as {@link Canvas#drawText} with {@link Align#LEFT} would draw it.
+     */
+    public static final class LabelBitmap {
+        @Nonnull
+        public final Bitmap mBitmap;
+        public final int mOffsetX;
+        public final int mOffsetY;
+        public final float mAdvance;
+
+        LabelBitmap(@Nonnull final Bitmap bitmap, final int offsetX, final int offsetY,
+                final float advance) {
+            mBitmap = bitmap;
+            mOffsetX = offsetX;
+            mOffsetY = offsetY;
+            mAdvance = advance;
+        }
+
+        /**
+         * Draws the label as {@link Canvas#drawText} would draw it with the text align of the
+         * paint, rounded to the nearest pixel.
+         */
+        public void draw(@Nonnull final Canvas canvas, final float x, final float baseline,
+                @Nonnull final Paint paint) {
+            final float startX;
+            switch (paint.getTextAlign()) {
+            case CENTER:
+                startX = x - mAdvance / 2.0f;
+                break;
+            case RIGHT:
+                startX = x - mAdvance;
+                break;
+            default:
+                startX = x;
+                break;
+            }
+            canvas.drawBitmap(mBitmap, Math.round(startX) + mOffsetX,
+                    Math.round(baseline) + mOffsetY, paint);
+        }
+    }
+
+    private static final class CacheKey {
+        @Nonnull
+        private final String mLabel;
+        @Nullable
+        private final Typeface mTypeface;
+        private final float mTextSize;
+        // The text locale selects the glyph variants of the characters shared between scripts.
+        @Nullable
+        private final Locale mTextLocale;
+        private final boolean mIsFakeBoldText;
+        private final float mLetterSpacing;
+        private final int mHashCode;
+
+        public CacheKey(@Nonnull final String label, @Nonnull final Paint paint) {
+            mLabel = label;
+            mTypeface = paint.getTypeface();
+            mTextSize = paint.getTextSize();
+            mTextLocale = getTextLocale(paint);
+            mIsFakeBoldText = paint.isFakeBoldText();
+            mLetterSpacing = getLetterSpacing(paint);
+            int hashCode = label.hashCode();
+            hashCode = hashCode * 31 + (mTypeface == null ? 0 : mTypeface.hashCode());
+            hashCode = hashCode * 31 + Float.floatToIntBits(mTextSize);
+            hashCode = hashCode * 31 + (mTextLocale == null ? 0 : mTextLocale.hashCode());
+            hashCode = hashCode * 31 + (mIsFakeBoldText ? 1 : 0);
+            mHashCode = hashCode * 31 + Float.floatToIntBits(mLetterSpacing);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey key = (CacheKey)o;
+            return mLabel.equals(key.mLabel)
+                    && (mTypeface == null ? key.mTypeface == null
+                            : mTypeface.equals(key.mTypeface))
+                    && mTextSize == key.mTextSize
+                    && (mTextLocale == null ? key.mTextLocale == null
+                            : mTextLocale.equals(key.mTextLocale))
+                    && mIsFakeBoldText == key.mIsFakeBoldText
+                    && mLetterSpacing == key.mLetterSpacing;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private final LruCache<CacheKey, LabelBitmap> mCache =
+            new LruCache<CacheKey, LabelBitmap>(MAX_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(final CacheKey key, final LabelBitmap value) {
+                    return value.mBitmap.getRowBytes() * value.mBitmap.getHeight();
+                }
+            };
+
+    // Guarded by itself.
+    private final Paint mPaint = new Paint();
+    // Working variable for the following methods. Guarded by mPaint.
+    private final Rect mTextBounds = new Rect();
+
+    private KeyLabelBitmapCache() {
+        mPaint.setAntiAlias(true);
+        mPaint.setTextAlign(Align.LEFT);
+    }
+
+    @Nonnull
+    public static KeyLabelBitmapCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the bitmap of a label, and rasterizes it if it's not cached yet. The typeface, the
+     * text size, the text locale, the fake bold and the letter spacing of the paint are used.
+     * Its text scale, shadow and color are not.
+     *
+     * @return the bitmap of the label, or null if the label can't be drawn from a bitmap or
+     * draws nothing. Such a label should be drawn as text.
+     */
+    @Nullable
+    public LabelBitmap getLabelBitmap(@Nonnull final String label, @Nonnull final Paint paint) {
+        if (hasColorGlyphs(label)) {
+            return null;
+        }
+        final CacheKey key = new CacheKey(label, paint);
+        final LabelBitmap cachedLabelBitmap = mCache.get(key);
+        if (cachedLabelBitmap != null) {
+            return cachedLabelBitmap;
+        }
+        final LabelBitmap labelBitmap = rasterize(key);
+        if (labelBitmap != null) {
+            mCache.put(key, labelBitmap);
+        }
+        return labelBitmap;
+    }
+
+    /**
+     * Returns whether a label may be drawn with colored glyphs, which a coverage bitmap can't
+     * hold. The fonts draw the emoji and the pictographs in color, and the symbols too when
+     * they're followed by the emoji presentation selector or make a keycap.
+     */
+    @UsedForTesting
+    static boolean hasColorGlyphs(@Nonnull final String label) {
+        final int length = label.length();
+        for (int i = 0; i < length; i = label.offsetByCodePoints(i, 1)) {
+            final int codePoint = label.codePointAt(i);
+            if ((codePoint >= 0x1F000 && codePoint <= 0x1FAFF) // Emoji and pictographs
+                    || (codePoint >= 0x2300 && codePoint <= 0x23FF) // Miscellaneous Technical
+                    || (codePoint >= 0x2600 && codePoint <= 0x27BF) // Symbols and Dingbats
+                    || (codePoint >= 0x2B00 && codePoint <= 0x2BFF) // Symbols and Arrows
+                    || codePoint == 0xFE0F // VARIATION SELECTOR-16
+                    || codePoint == 0x20E3) { // COMBINING ENCLOSING KEYCAP
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static Locale getTextLocale(@Nonnull final Paint paint) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                ? paint.getTextLocale() : null;
+    }
+
+    private static float getLetterSpacing(@Nonnull final Paint paint) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? paint.getLetterSpacing() : 0.0f;
+    }
+
+    @Nullable
+    private LabelBitmap rasterize(@Nonnull final CacheKey key) {
+        final String label = key.mLabel;
+        synchronized (mPaint) {
+            final Paint paint = mPaint;
+            paint.setTypeface(key.mTypeface);
+            paint.setTextSize(key.mTextSize);
+            if (key.mTextLocale != null) {
+                paint.setTextLocale(key.mTextLocale);
+            }
+            paint.setFakeBoldText(key.mIsFakeBoldText);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                paint.setLetterSpacing(key.mLetterSpacing);
+            }
+            final Rect bounds = mTextBounds;
+            paint.getTextBounds(label, 0, label.length(), bounds);
+            if (bounds.isEmpty()) {
+                return null;
+            }
+            final int offsetX = bounds.left - BITMAP_PADDING;
+            final int offsetY = bounds.top - BITMAP_PADDING;
+            final Bitmap bitmap = Bitmap.createBitmap(bounds.width() + BITMAP_PADDING * 2,
+                    bounds.height() + BITMAP_PADDING * 2, Bitmap.Config.ALPHA_8);
+            final Canvas canvas = new Canvas(bitmap);
+            canvas.drawText(label, 0, label.length(), -offsetX, -offsetY, paint);
+            return new LabelBitmap(bitmap, offsetX, offsetY, paint.measureText(label));
+        }
+    }
+
+    public void onTrimMemory(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // The bitmaps are rasterized again the next time the keyboard is drawn.
+            mCache.evictAll();
+        }
+    }
+
+    @UsedForTesting
+    void clear() {
+        mCache.evictAll();
+    }
+
+    @UsedForTesting
+    int getCachedLabelCount() {
+        // The size of the cache is in bytes.
+        return mCache.snapshot().size();
+    }
+}
@@ -16,14 +16,13 @@
 
 package com.android.inputmethod.keyboard.internal;
 
-import android.content.res.TypedArray;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.inputmethod.latin.R;
+import com.android.inputmethod.latin.utils.AttributeValues;
 import com.android.inputmethod.latin.utils.XmlParseUtils;
 
-import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.util.Arrays;
@@ -59,23 +58,23 @@ public final class KeyStylesSet {
 
         @Override
         @Nullable
-        public String[] getStringArray(final TypedArray a, final int index) {
+        public String[] getStringArray(final AttributeValues a, final int index) {
             return parseStringArray(a, index);
         }
 
         @Override
         @Nullable
-        public String getString(final TypedArray a, final int index) {
+        public String getString(final AttributeValues a, final int index) {
             return parseString(a, index);
         }
 
         @Override
-        public int getInt(final TypedArray a, final int index, final int defaultValue) {
+        public int getInt(final AttributeValues a, final int index, final int defaultValue) {
             return a.getInt(index, defaultValue);
         }
 
         @Override
-        public int getFlags(final TypedArray a, final int index) {
+        public int getFlags(final AttributeValues a, final int index) {
             return a.getInt(index, 0);
         }
     }
@@ -95,7 +94,7 @@ public final class KeyStylesSet {
 
         @Override
         @Nullable
-        public String[] getStringArray(final TypedArray a, final int index) {
+        public String[] getStringArray(final AttributeValues a, final int index) {
             if (a.hasValue(index)) {
                 return parseStringArray(a, index);
             }
@@ -110,7 +109,7 @@ public final class KeyStylesSet {
 
         @Override
         @Nullable
-        public String getString(final TypedArray a, final int index) {
+        public String getString(final AttributeValues a, final int index) {
             if (a.hasValue(index)) {
                 return parseString(a, index);
             }
@@ -123,7 +122,7 @@ public final class KeyStylesSet {
         }
 
         @Override
-        public int getInt(final TypedArray a, final int index, final int defaultValue) {
+        public int getInt(final AttributeValues a, final int index, final int defaultValue) {
             if (a.hasValue(index)) {
                 return a.getInt(index, defaultValue);
             }
@@ -136,7 +135,7 @@ public final class KeyStylesSet {
         }
 
         @Override
-        public int getFlags(final TypedArray a, final int index) {
+        public int getFlags(final AttributeValues a, final int index) {
             final int parentFlags = mStyles.get(mParentStyleName).getFlags(a, index);
             final Integer value = (Integer)mStyleAttributes.get(index);
             final int styleFlags = (value != null) ? value : 0;
@@ -144,7 +143,7 @@ public final class KeyStylesSet {
             return flags | styleFlags | parentFlags;
         }
 
-        public void readKeyAttributes(final TypedArray keyAttr) {
+        public void readKeyAttributes(final AttributeValues keyAttr) {
             // TODO: Currently not all Key attributes can be declared as style.
             readString(keyAttr, R.styleable.Keyboard_Key_altCode);
             readString(keyAttr, R.styleable.Keyboard_Key_keySpec);
@@ -158,19 +157,19 @@ public final class KeyStylesSet {
             readFlags(keyAttr, R.styleable.Keyboard_Key_keyActionFlags);
         }
 
-        private void readString(final TypedArray a, final int index) {
+        private void readString(final AttributeValues a, final int index) {
             if (a.hasValue(index)) {
                 mStyleAttributes.put(index, parseString(a, index));
             }
         }
 
-        private void readInt(final TypedArray a, final int index) {
+        private void readInt(final AttributeValues a, final int index) {
             if (a.hasValue(index)) {
                 mStyleAttributes.put(index, a.getInt(index, 0));
             }
         }
 
-        private void readFlags(final TypedArray a, final int index) {
+        private void readFlags(final AttributeValues a, final int index) {
             if (a.hasValue(index)) {
                 final Integer value = (Integer)mStyleAttributes.get(index);
                 final int styleFlags = value != null ? value : 0;
@@ -178,26 +177,27 @@ public final class KeyStylesSet {
             }
         }
 
-        private void readStringArray(final TypedArray a, final int index) {
+        private void readStringArray(final AttributeValues a, final int index) {
             if (a.hasValue(index)) {
                 mStyleAttributes.put(index, parseStringArray(a, index));
             }
         }
     }
 
-    public void parseKeyStyleAttributes(final TypedArray keyStyleAttr, final TypedArray keyAttrs,
-            final XmlPullParser parser) throws XmlPullParserException {
+    public void parseKeyStyleAttributes(final AttributeValues keyStyleAttr,
+            final AttributeValues keyAttrs, final String positionDescription)
+            throws XmlPullParserException {
         final String styleName = keyStyleAttr.getString(R.styleable.Keyboard_KeyStyle_styleName);
         if (styleName == null) {
-            throw new XmlParseUtils.ParseException(
-                    KeyboardBuilder.TAG_KEY_STYLE + " has no styleName attribute", parser);
+            throw new XmlParseUtils.ParseException(KeyboardBuilder.TAG_KEY_STYLE
+                    + " has no styleName attribute", positionDescription);
         }
         if (DEBUG) {
             Log.d(TAG, String.format("<%s styleName=%s />",
                     KeyboardBuilder.TAG_KEY_STYLE, styleName));
             if (mStyles.containsKey(styleName)) {
                 Log.d(TAG, KeyboardBuilder.TAG_KEY_STYLE + " " + styleName + " is overridden at "
-                        + parser.getPositionDescription());
+                        + positionDescription);
             }
         }
 
@@ -205,7 +205,7 @@ public final class KeyStylesSet {
                 R.styleable.Keyboard_KeyStyle_parentStyle);
         if (parentStyleInAttr != null && !mStyles.containsKey(parentStyleInAttr)) {
             throw new XmlParseUtils.ParseException(
-                    "Unknown parentStyle " + parentStyleInAttr, parser);
+                    "Unknown parentStyle " + parentStyleInAttr, positionDescription);
         }
         final String parentStyleName = (parentStyleInAttr == null) ? EMPTY_STYLE_NAME
                 : parentStyleInAttr;
@@ -215,15 +215,16 @@ public final class KeyStylesSet {
     }
 
     @Nonnull
-    public KeyStyle getKeyStyle(final TypedArray keyAttr, final XmlPullParser parser)
-            throws XmlParseUtils.ParseException {
+    public KeyStyle getKeyStyle(final AttributeValues keyAttr,
+            final String positionDescription) throws XmlParseUtils.ParseException {
         final String styleName = keyAttr.getString(R.styleable.Keyboard_Key_keyStyle);
         if (styleName == null) {
             return mEmptyKeyStyle;
         }
         final KeyStyle style = mStyles.get(styleName);
         if (style == null) {
-            throw new XmlParseUtils.ParseException("Unknown key style: " + styleName, parser);
+            throw new XmlParseUtils.ParseException("Unknown key style: " + styleName,
+                    positionDescription);
         }
         return style;
     }
@@ -16,13 +16,17 @@
 
 package com.android.inputmethod.keyboard.internal;
 
-import android.content.res.TypedArray;
 import android.graphics.Typeface;
 import android.util.SparseIntArray;
 
 import com.android.inputmethod.latin.R;
+import com.android.inputmethod.latin.utils.AttributeValues;
 import com.android.inputmethod.latin.utils.ResourceUtils;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -76,6 +80,9 @@ public final class KeyVisualAttributes {
         R.styleable.Keyboard_Key_keyLabelOffCenterRatio,
         R.styleable.Keyboard_Key_keyHintLabelOffCenterRatio
     };
+    // The typeface style that is written when the key has no typeface.
+    private static final int NO_TYPEFACE = -1;
+
     private static final SparseIntArray sVisualAttributeIds = new SparseIntArray();
     private static final int ATTR_DEFINED = 1;
     private static final int ATTR_NOT_FOUND = 0;
@@ -86,7 +93,7 @@ public final class KeyVisualAttributes {
     }
 
     @Nullable
-    public static KeyVisualAttributes newInstance(@Nonnull final TypedArray keyAttr) {
+    public static KeyVisualAttributes newInstance(@Nonnull final AttributeValues keyAttr) {
         final int indexCount = keyAttr.getIndexCount();
         for (int i = 0; i < indexCount; i++) {
             final int attrId = keyAttr.getIndex(i);
@@ -98,7 +105,7 @@ public final class KeyVisualAttributes {
         return null;
     }
 
-    private KeyVisualAttributes(@Nonnull final TypedArray keyAttr) {
+    private KeyVisualAttributes(@Nonnull final AttributeValues keyAttr) {
         if (keyAttr.hasValue(R.styleable.Keyboard_Key_keyTypeface)) {
             mTypeface = Typeface.defaultFromStyle(
                     keyAttr.getInt(R.styleable.Keyboard_Key_keyTypeface, Typeface.NORMAL));
@@ -145,4 +152,70 @@ public final class KeyVisualAttributes {
         mHintLabelOffCenterRatio = ResourceUtils.getFraction(keyAttr,
                 R.styleable.Keyboard_Key_keyHintLabelOffCenterRatio, 0.0f);
     }
+
+    private KeyVisualAttributes(@Nonnull final ByteBuffer in) {
+        final int typefaceStyle = in.getInt();
+        mTypeface = (typefaceStyle == NO_TYPEFACE) ? null
+                : Typeface.defaultFromStyle(typefaceStyle);
+
+        mLetterRatio = in.getFloat();
+        mLetterSize = in.getInt();
+        mLabelRatio = in.getFloat();
+        mLabelSize = in.getInt();
+        mLargeLetterRatio = in.getFloat();
+        mHintLetterRatio = in.getFloat();
+        mShiftedLetterHintRatio = in.getFloat();
+        mHintLabelRatio = in.getFloat();
+        mPreviewTextRatio = in.getFloat();
+
+        mTextColor = in.getInt();
+        mTextInactivatedColor = in.getInt();
+        mTextShadowColor = in.getInt();
+        mFunctionalTextColor = in.getInt();
+        mHintLetterColor = in.getInt();
+        mHintLabelColor = in.getInt();
+        mShiftedLetterHintInactivatedColor = in.getInt();
+        mShiftedLetterHintActivatedColor = in.getInt();
+        mPreviewTextColor = in.getInt();
+
+        mHintLabelVerticalAdjustment = in.getFloat();
+        mLabelOffCenterRatio = in.getFloat();
+        mHintLabelOffCenterRatio = in.getFloat();
+    }
+
+    /**
+     * Reads attributes that have been written with {@link #writeTo(DataOutput)}.
+     */
+    @Nonnull
+    public static KeyVisualAttributes readFrom(@Nonnull final ByteBuffer in) {
+        return new KeyVisualAttributes(in);
+    }
+
+    public void writeTo(@Nonnull final DataOutput out) throws IOException {
+        out.writeInt(mTypeface == null ? NO_TYPEFACE : mTypeface.getStyle());
+
+        out.writeFloat(mLetterRatio);
+        out.writeInt(mLetterSize);
+        out.writeFloat(mLabelRatio);
+        out.writeInt(mLabelSize);
+        out.writeFloat(mLargeLetterRatio);
+        out.writeFloat(mHintLetterRatio);
+        out.writeFloat(mShiftedLetterHintRatio);
+        out.writeFloat(mHintLabelRatio);
+        out.writeFloat(mPreviewTextRatio);
+
+        out.writeInt(mTextColor);
+        out.writeInt(mTextInactivatedColor);
+        out.writeInt(mTextShadowColor);
+        out.writeInt(mFunctionalTextColor);
+        out.writeInt(mHintLetterColor);
+        out.writeInt(mHintLabelColor);
+        out.writeInt(mShiftedLetterHintInactivatedColor);
+        out.writeInt(mShiftedLetterHintActivatedColor);
+        out.writeInt(mPreviewTextColor);
+
+        out.writeFloat(mHintLabelVerticalAdjustment);
+        out.writeFloat(mLabelOffCenterRatio);
+        out.writeFloat(mHintLabelOffCenterRatio);
+    }
 }
@@ -30,11 +30,14 @@ import android.util.Xml;
 import com.android.inputmethod.annotations.UsedForTesting;
 import com.android.inputmethod.keyboard.Key;
 import com.android.inputmethod.keyboard.Keyboard;
+import com.android.inputmethod.keyboard.KeyboardDiskCache;
 import com.android.inputmethod.keyboard.KeyboardId;
 import com.android.inputmethod.keyboard.KeyboardTheme;
+import com.android.inputmethod.keyboard.internal.KeyboardLayoutCompiler.Element;
 import com.android.inputmethod.latin.R;
 import com.android.inputmethod.latin.common.Constants;
 import com.android.inputmethod.latin.common.StringUtils;
+import com.android.inputmethod.latin.utils.AttributeValues;
 import com.android.inputmethod.latin.utils.ResourceUtils;
 import com.android.inputmethod.latin.utils.XmlParseUtils;
 import com.android.inputmethod.latin.utils.XmlParseUtils.ParseException;
@@ -47,11 +50,13 @@ import java.util.Arrays;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Keyboard Building helper.
  *
- * This class parses Keyboard XML file and eventually build a Keyboard.
+ * This class builds a Keyboard from a Keyboard XML file, which {@link KeyboardLayoutCompiler}
+ * parses once and shares between the keyboards that are built from it.
  * The Keyboard XML file looks like:
  * <pre>
  *   &lt;!-- xml/keyboard.xml --&gt;
@@ -124,16 +129,16 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
     private static final boolean DEBUG = false;
 
     // Keyboard XML Tags
-    private static final String TAG_KEYBOARD = "Keyboard";
-    private static final String TAG_ROW = "Row";
-    private static final String TAG_GRID_ROWS = "GridRows";
-    private static final String TAG_KEY = "Key";
-    private static final String TAG_SPACER = "Spacer";
-    private static final String TAG_INCLUDE = "include";
-    private static final String TAG_MERGE = "merge";
-    private static final String TAG_SWITCH = "switch";
-    private static final String TAG_CASE = "case";
-    private static final String TAG_DEFAULT = "default";
+    static final String TAG_KEYBOARD = "Keyboard";
+    static final String TAG_ROW = "Row";
+    static final String TAG_GRID_ROWS = "GridRows";
+    static final String TAG_KEY = "Key";
+    static final String TAG_SPACER = "Spacer";
+    static final String TAG_INCLUDE = "include";
+    static final String TAG_MERGE = "merge";
+    static final String TAG_SWITCH = "switch";
+    static final String TAG_CASE = "case";
+    static final String TAG_DEFAULT = "default";
     public static final String TAG_KEY_STYLE = "key-style";
 
     private static final int DEFAULT_KEYBOARD_COLUMNS = 10;
@@ -144,6 +149,13 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
     protected final Context mContext;
     protected final Resources mResources;
 
+    @Nullable
+    private KeyboardDiskCache mDiskCache;
+    // The cache key of the keyboard that has been built from its layout, to write it to the disk
+    // cache when it's built.
+    @Nullable
+    private String mDiskCacheKeyToWrite;
+
     private int mCurrentY = 0;
     private KeyboardRow mCurrentRow = null;
     private boolean mLeftEdge;
@@ -165,19 +177,24 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         mParams.mAllowRedundantMoreKeys = enabled;
     }
 
+    /**
+     * Sets the disk cache that the keys of the keyboard are read from, and written to when they
+     * have been built from the layout. Must be called before {@link #load(int, KeyboardId)}.
+     */
+    public void setDiskCache(@Nullable final KeyboardDiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
     public KeyboardBuilder<KP> load(final int xmlId, final KeyboardId id) {
         mParams.mId = id;
-        final XmlResourceParser parser = mResources.getXml(xmlId);
         try {
-            parseKeyboard(parser);
+            buildKeyboard(xmlId);
         } catch (XmlPullParserException e) {
             Log.w(BUILDER_TAG, "keyboard XML parse error", e);
             throw new IllegalArgumentException(e.getMessage(), e);
         } catch (IOException e) {
             Log.w(BUILDER_TAG, "keyboard XML parse error", e);
             throw new RuntimeException(e.getMessage(), e);
-        } finally {
-            parser.close();
         }
         return this;
     }
@@ -193,7 +210,12 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
 
     @Nonnull
     public Keyboard build() {
-        return new Keyboard(mParams);
+        final Keyboard keyboard = new Keyboard(mParams);
+        if (mDiskCache != null && mDiskCacheKeyToWrite != null) {
+            mDiskCache.writeKeyboard(mDiskCacheKeyToWrite, keyboard);
+            mDiskCacheKeyToWrite = null;
+        }
+        return keyboard;
     }
 
     private int mIndent;
@@ -216,22 +238,30 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         mIndent--;
     }
 
-    private void parseKeyboard(final XmlPullParser parser)
-            throws XmlPullParserException, IOException {
-        if (DEBUG) startTag("<%s> %s", TAG_KEYBOARD, mParams.mId);
-        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
-            final int event = parser.next();
-            if (event == XmlPullParser.START_TAG) {
-                final String tag = parser.getName();
-                if (TAG_KEYBOARD.equals(tag)) {
-                    parseKeyboardAttributes(parser);
-                    startKeyboard();
-                    parseKeyboardContent(parser, false);
-                    return;
-                }
-                throw new XmlParseUtils.IllegalStartTag(parser, tag, TAG_KEYBOARD);
+    private void buildKeyboard(final int xmlId) throws XmlPullParserException, IOException {
+        final XmlResourceParser parser = mResources.getXml(xmlId);
+        try {
+            while (parser.next() != XmlPullParser.START_TAG) {
+                // Skip to the root element, that the compiler checks is <Keyboard>.
             }
+            parseKeyboardAttributes(parser);
+        } finally {
+            parser.close();
         }
+        if (mDiskCache != null) {
+            final String cacheKey = mDiskCache.getCacheKey(mResources, xmlId, mParams);
+            if (mDiskCache.readKeyboard(cacheKey, mParams)) {
+                if (DEBUG) Log.d(BUILDER_TAG, "Read " + mParams.mId + " from the disk cache");
+                return;
+            }
+            mDiskCacheKeyToWrite = cacheKey;
+        }
+        final Element keyboard = KeyboardLayoutCompiler.getKeyboard(mResources, xmlId);
+        if (DEBUG) startTag("<%s> %s", TAG_KEYBOARD, mParams.mId);
+        startKeyboard();
+        buildKeyboardContent(keyboard.mChildren);
+        if (DEBUG) endTag("</%s>", TAG_KEYBOARD);
+        endKeyboard();
     }
 
     private void parseKeyboardAttributes(final XmlPullParser parser) {
@@ -272,7 +302,8 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
             params.mDefaultRowHeight = (int)ResourceUtils.getDimensionOrFraction(keyboardAttr,
                     R.styleable.Keyboard_rowHeight, baseHeight, baseHeight / DEFAULT_KEYBOARD_ROWS);
 
-            params.mKeyVisualAttributes = KeyVisualAttributes.newInstance(keyAttr);
+            params.mKeyVisualAttributes = KeyVisualAttributes.newInstance(
+                    AttributeValues.of(mResources, keyAttr));
 
             params.mMoreKeysTemplate = keyboardAttr.getResourceId(
                     R.styleable.Keyboard_moreKeysTemplate, 0);
@@ -295,123 +326,71 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         }
     }
 
-    private void parseKeyboardContent(final XmlPullParser parser, final boolean skip)
+    private void buildKeyboardContent(final Element[] elements)
             throws XmlPullParserException, IOException {
-        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
-            final int event = parser.next();
-            if (event == XmlPullParser.START_TAG) {
-                final String tag = parser.getName();
-                if (TAG_ROW.equals(tag)) {
-                    final KeyboardRow row = parseRowAttributes(parser);
-                    if (DEBUG) startTag("<%s>%s", TAG_ROW, skip ? " skipped" : "");
-                    if (!skip) {
-                        startRow(row);
-                    }
-                    parseRowContent(parser, row, skip);
-                } else if (TAG_GRID_ROWS.equals(tag)) {
-                    if (DEBUG) startTag("<%s>%s", TAG_GRID_ROWS, skip ? " skipped" : "");
-                    parseGridRows(parser, skip);
-                } else if (TAG_INCLUDE.equals(tag)) {
-                    parseIncludeKeyboardContent(parser, skip);
-                } else if (TAG_SWITCH.equals(tag)) {
-                    parseSwitchKeyboardContent(parser, skip);
-                } else if (TAG_KEY_STYLE.equals(tag)) {
-                    parseKeyStyle(parser, skip);
-                } else {
-                    throw new XmlParseUtils.IllegalStartTag(parser, tag, TAG_ROW);
-                }
-            } else if (event == XmlPullParser.END_TAG) {
-                final String tag = parser.getName();
-                if (DEBUG) endTag("</%s>", tag);
-                if (TAG_KEYBOARD.equals(tag)) {
-                    endKeyboard();
-                    return;
-                }
-                if (TAG_CASE.equals(tag) || TAG_DEFAULT.equals(tag) || TAG_MERGE.equals(tag)) {
-                    return;
-                }
-                throw new XmlParseUtils.IllegalEndTag(parser, tag, TAG_ROW);
-            }
-        }
-    }
-
-    private KeyboardRow parseRowAttributes(final XmlPullParser parser)
-            throws XmlPullParserException {
-        final AttributeSet attr = Xml.asAttributeSet(parser);
-        final TypedArray keyboardAttr = mResources.obtainAttributes(attr, R.styleable.Keyboard);
-        try {
-            if (keyboardAttr.hasValue(R.styleable.Keyboard_horizontalGap)) {
-                throw new XmlParseUtils.IllegalAttribute(parser, TAG_ROW, "horizontalGap");
-            }
-            if (keyboardAttr.hasValue(R.styleable.Keyboard_verticalGap)) {
-                throw new XmlParseUtils.IllegalAttribute(parser, TAG_ROW, "verticalGap");
+        for (final Element element : elements) {
+            final String tag = element.mTag;
+            if (TAG_ROW.equals(tag)) {
+                final KeyboardRow row = new KeyboardRow(mParams, element.mKeyboardAttributes,
+                        element.mKeyAttributes, mCurrentY);
+                if (DEBUG) startTag("<%s>", TAG_ROW);
+                startRow(row);
+                buildRowContent(element.mChildren, row);
+                if (DEBUG) endTag("</%s>", TAG_ROW);
+                endRow(row);
+            } else if (TAG_GRID_ROWS.equals(tag)) {
+                if (DEBUG) startEndTag("<%s />", TAG_GRID_ROWS);
+                buildGridRows(element);
+            } else if (TAG_INCLUDE.equals(tag)) {
+                buildInclude(element, null);
+            } else if (TAG_SWITCH.equals(tag)) {
+                buildSwitch(element, null);
+            } else if (TAG_KEY_STYLE.equals(tag)) {
+                buildKeyStyle(element);
+            } else {
+                throw new XmlParseUtils.IllegalStartTag(
+                        element.mPositionDescription, tag, TAG_ROW);
             }
-            return new KeyboardRow(mResources, mParams, parser, mCurrentY);
-        } finally {
-            keyboardAttr.recycle();
         }
     }
 
-    private void parseRowContent(final XmlPullParser parser, final KeyboardRow row,
-            final boolean skip) throws XmlPullParserException, IOException {
-        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
-            final int event = parser.next();
-            if (event == XmlPullParser.START_TAG) {
-                final String tag = parser.getName();
-                if (TAG_KEY.equals(tag)) {
-                    parseKey(parser, row, skip);
-                } else if (TAG_SPACER.equals(tag)) {
-                    parseSpacer(parser, row, skip);
-                } else if (TAG_INCLUDE.equals(tag)) {
-                    parseIncludeRowContent(parser, row, skip);
-                } else if (TAG_SWITCH.equals(tag)) {
-                    parseSwitchRowContent(parser, row, skip);
-                } else if (TAG_KEY_STYLE.equals(tag)) {
-                    parseKeyStyle(parser, skip);
-                } else {
-                    throw new XmlParseUtils.IllegalStartTag(parser, tag, TAG_ROW);
-                }
-            } else if (event == XmlPullParser.END_TAG) {
-                final String tag = parser.getName();
-                if (DEBUG) endTag("</%s>", tag);
-                if (TAG_ROW.equals(tag)) {
-                    if (!skip) {
-                        endRow(row);
-                    }
-                    return;
-                }
-                if (TAG_CASE.equals(tag) || TAG_DEFAULT.equals(tag) || TAG_MERGE.equals(tag)) {
-                    return;
-                }
-                throw new XmlParseUtils.IllegalEndTag(parser, tag, TAG_ROW);
+    private void buildRowContent(final Element[] elements, final KeyboardRow row)
+            throws XmlPullParserException, IOException {
+        for (final Element element : elements) {
+            final String tag = element.mTag;
+            if (TAG_KEY.equals(tag)) {
+                buildKey(element, row);
+            } else if (TAG_SPACER.equals(tag)) {
+                buildSpacer(element, row);
+            } else if (TAG_INCLUDE.equals(tag)) {
+                buildInclude(element, row);
+            } else if (TAG_SWITCH.equals(tag)) {
+                buildSwitch(element, row);
+            } else if (TAG_KEY_STYLE.equals(tag)) {
+                buildKeyStyle(element);
+            } else {
+                throw new XmlParseUtils.IllegalStartTag(
+                        element.mPositionDescription, tag, TAG_ROW);
             }
         }
     }
 
-    private void parseGridRows(final XmlPullParser parser, final boolean skip)
-            throws XmlPullParserException, IOException {
-        if (skip) {
-            XmlParseUtils.checkEndTag(TAG_GRID_ROWS, parser);
-            if (DEBUG) {
-                startEndTag("<%s /> skipped", TAG_GRID_ROWS);
-            }
-            return;
-        }
-        final KeyboardRow gridRows = new KeyboardRow(mResources, mParams, parser, mCurrentY);
-        final TypedArray gridRowAttr = mResources.obtainAttributes(
-                Xml.asAttributeSet(parser), R.styleable.Keyboard_GridRows);
+    private void buildGridRows(final Element element) throws XmlPullParserException {
+        final KeyboardRow gridRows = new KeyboardRow(mParams, element.mKeyboardAttributes,
+                element.mKeyAttributes, mCurrentY);
+        final AttributeValues gridRowAttr = element.mAttributes;
         final int codesArrayId = gridRowAttr.getResourceId(
                 R.styleable.Keyboard_GridRows_codesArray, 0);
         final int textsArrayId = gridRowAttr.getResourceId(
                 R.styleable.Keyboard_GridRows_textsArray, 0);
-        gridRowAttr.recycle();
         if (codesArrayId == 0 && textsArrayId == 0) {
             throw new XmlParseUtils.ParseException(
-                    "Missing codesArray or textsArray attributes", parser);
+                    "Missing codesArray or textsArray attributes", element.mPositionDescription);
         }
         if (codesArrayId != 0 && textsArrayId != 0) {
             throw new XmlParseUtils.ParseException(
-                    "Both codesArray and textsArray attributes specifed", parser);
+                    "Both codesArray and textsArray attributes specifed",
+                    element.mPositionDescription);
         }
         final String[] array = mResources.getStringArray(
                 codesArrayId != 0 ? codesArrayId : textsArrayId);
@@ -419,7 +398,8 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         final float keyWidth = gridRows.getKeyWidth(null, 0.0f);
         final int numColumns = (int)(mParams.mOccupiedWidth / keyWidth);
         for (int index = 0; index < counts; index += numColumns) {
-            final KeyboardRow row = new KeyboardRow(mResources, mParams, parser, mCurrentY);
+            final KeyboardRow row = new KeyboardRow(mParams, element.mKeyboardAttributes,
+                    element.mKeyAttributes, mCurrentY);
             startRow(row);
             for (int c = 0; c < numColumns; c++) {
                 final int i = index + c;
@@ -463,318 +443,229 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
             }
             endRow(row);
         }
-
-        XmlParseUtils.checkEndTag(TAG_GRID_ROWS, parser);
     }
 
-    private void parseKey(final XmlPullParser parser, final KeyboardRow row, final boolean skip)
-            throws XmlPullParserException, IOException {
-        if (skip) {
-            XmlParseUtils.checkEndTag(TAG_KEY, parser);
-            if (DEBUG) startEndTag("<%s /> skipped", TAG_KEY);
-            return;
-        }
-        final TypedArray keyAttr = mResources.obtainAttributes(
-                Xml.asAttributeSet(parser), R.styleable.Keyboard_Key);
-        final KeyStyle keyStyle = mParams.mKeyStyles.getKeyStyle(keyAttr, parser);
+    private void buildKey(final Element element, final KeyboardRow row)
+            throws XmlPullParserException {
+        final AttributeValues keyAttr = element.mKeyAttributes;
+        final KeyStyle keyStyle = mParams.mKeyStyles.getKeyStyle(
+                keyAttr, element.mPositionDescription);
         final String keySpec = keyStyle.getString(keyAttr, R.styleable.Keyboard_Key_keySpec);
         if (TextUtils.isEmpty(keySpec)) {
-            throw new ParseException("Empty keySpec", parser);
+            throw new ParseException("Empty keySpec", element.mPositionDescription);
         }
         final Key key = new Key(keySpec, keyAttr, keyStyle, mParams, row);
-        keyAttr.recycle();
         if (DEBUG) {
             startEndTag("<%s%s %s moreKeys=%s />", TAG_KEY, (key.isEnabled() ? "" : " disabled"),
                     key, Arrays.toString(key.getMoreKeys()));
         }
-        XmlParseUtils.checkEndTag(TAG_KEY, parser);
         endKey(key);
     }
 
-    private void parseSpacer(final XmlPullParser parser, final KeyboardRow row, final boolean skip)
-            throws XmlPullParserException, IOException {
-        if (skip) {
-            XmlParseUtils.checkEndTag(TAG_SPACER, parser);
-            if (DEBUG) startEndTag("<%s /> skipped", TAG_SPACER);
-            return;
-        }
-        final TypedArray keyAttr = mResources.obtainAttributes(
-                Xml.asAttributeSet(parser), R.styleable.Keyboard_Key);
-        final KeyStyle keyStyle = mParams.mKeyStyles.getKeyStyle(keyAttr, parser);
+    private void buildSpacer(final Element element, final KeyboardRow row)
+            throws XmlPullParserException {
+        final AttributeValues keyAttr = element.mKeyAttributes;
+        final KeyStyle keyStyle = mParams.mKeyStyles.getKeyStyle(
+                keyAttr, element.mPositionDescription);
         final Key spacer = new Key.Spacer(keyAttr, keyStyle, mParams, row);
-        keyAttr.recycle();
         if (DEBUG) startEndTag("<%s />", TAG_SPACER);
-        XmlParseUtils.checkEndTag(TAG_SPACER, parser);
         endKey(spacer);
     }
 
-    private void parseIncludeKeyboardContent(final XmlPullParser parser, final boolean skip)
+    private void buildInclude(final Element element, final KeyboardRow row)
             throws XmlPullParserException, IOException {
-        parseIncludeInternal(parser, null, skip);
-    }
-
-    private void parseIncludeRowContent(final XmlPullParser parser, final KeyboardRow row,
-            final boolean skip) throws XmlPullParserException, IOException {
-        parseIncludeInternal(parser, row, skip);
-    }
-
-    private void parseIncludeInternal(final XmlPullParser parser, final KeyboardRow row,
-            final boolean skip) throws XmlPullParserException, IOException {
-        if (skip) {
-            XmlParseUtils.checkEndTag(TAG_INCLUDE, parser);
-            if (DEBUG) startEndTag("</%s> skipped", TAG_INCLUDE);
-            return;
-        }
-        final AttributeSet attr = Xml.asAttributeSet(parser);
-        final TypedArray keyboardAttr = mResources.obtainAttributes(
-                attr, R.styleable.Keyboard_Include);
-        final TypedArray keyAttr = mResources.obtainAttributes(attr, R.styleable.Keyboard_Key);
-        int keyboardLayout = 0;
-        try {
-            XmlParseUtils.checkAttributeExists(
-                    keyboardAttr, R.styleable.Keyboard_Include_keyboardLayout, "keyboardLayout",
-                    TAG_INCLUDE, parser);
-            keyboardLayout = keyboardAttr.getResourceId(
-                    R.styleable.Keyboard_Include_keyboardLayout, 0);
-            if (row != null) {
-                // Override current x coordinate.
-                row.setXPos(row.getKeyX(keyAttr));
-                // Push current Row attributes and update with new attributes.
-                row.pushRowAttributes(keyAttr);
-            }
-        } finally {
-            keyboardAttr.recycle();
-            keyAttr.recycle();
-        }
-
-        XmlParseUtils.checkEndTag(TAG_INCLUDE, parser);
+        final AttributeValues includeAttr = element.mAttributes;
+        XmlParseUtils.checkAttributeExists(
+                includeAttr, R.styleable.Keyboard_Include_keyboardLayout, "keyboardLayout",
+                TAG_INCLUDE, element.mPositionDescription);
+        final int keyboardLayout = includeAttr.getResourceId(
+                R.styleable.Keyboard_Include_keyboardLayout, 0);
         if (DEBUG) {
             startEndTag("<%s keyboardLayout=%s />",TAG_INCLUDE,
                     mResources.getResourceEntryName(keyboardLayout));
         }
-        final XmlResourceParser parserForInclude = mResources.getXml(keyboardLayout);
+        final Element merge = KeyboardLayoutCompiler.getMerge(
+                mResources, keyboardLayout, row != null /* isRowContent */);
+        if (row == null) {
+            buildKeyboardContent(merge.mChildren);
+            return;
+        }
+        final AttributeValues keyAttr = element.mKeyAttributes;
+        // Override current x coordinate.
+        row.setXPos(row.getKeyX(keyAttr));
+        // Push current Row attributes and update with new attributes.
+        row.pushRowAttributes(keyAttr);
         try {
-            parseMerge(parserForInclude, row, skip);
+            buildRowContent(merge.mChildren, row);
         } finally {
-            if (row != null) {
-                // Restore Row attributes.
-                row.popRowAttributes();
-            }
-            parserForInclude.close();
+            // Restore Row attributes.
+            row.popRowAttributes();
         }
     }
 
-    private void parseMerge(final XmlPullParser parser, final KeyboardRow row, final boolean skip)
+    private void buildSwitch(final Element element, final KeyboardRow row)
             throws XmlPullParserException, IOException {
-        if (DEBUG) startTag("<%s>", TAG_MERGE);
-        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
-            final int event = parser.next();
-            if (event == XmlPullParser.START_TAG) {
-                final String tag = parser.getName();
-                if (TAG_MERGE.equals(tag)) {
-                    if (row == null) {
-                        parseKeyboardContent(parser, skip);
-                    } else {
-                        parseRowContent(parser, row, skip);
-                    }
-                    return;
-                }
-                throw new XmlParseUtils.ParseException(
-                        "Included keyboard layout must have <merge> root element", parser);
-            }
-        }
-    }
-
-    private void parseSwitchKeyboardContent(final XmlPullParser parser, final boolean skip)
-            throws XmlPullParserException, IOException {
-        parseSwitchInternal(parser, null, skip);
-    }
-
-    private void parseSwitchRowContent(final XmlPullParser parser, final KeyboardRow row,
-            final boolean skip) throws XmlPullParserException, IOException {
-        parseSwitchInternal(parser, row, skip);
-    }
-
-    private void parseSwitchInternal(final XmlPullParser parser, final KeyboardRow row,
-            final boolean skip) throws XmlPullParserException, IOException {
         if (DEBUG) startTag("<%s> %s", TAG_SWITCH, mParams.mId);
-        boolean selected = false;
-        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
-            final int event = parser.next();
-            if (event == XmlPullParser.START_TAG) {
-                final String tag = parser.getName();
-                if (TAG_CASE.equals(tag)) {
-                    selected |= parseCase(parser, row, selected ? true : skip);
-                } else if (TAG_DEFAULT.equals(tag)) {
-                    selected |= parseDefault(parser, row, selected ? true : skip);
-                } else {
-                    throw new XmlParseUtils.IllegalStartTag(parser, tag, TAG_SWITCH);
-                }
-            } else if (event == XmlPullParser.END_TAG) {
-                final String tag = parser.getName();
-                if (TAG_SWITCH.equals(tag)) {
-                    if (DEBUG) endTag("</%s>", TAG_SWITCH);
-                    return;
-                }
-                throw new XmlParseUtils.IllegalEndTag(parser, tag, TAG_SWITCH);
+        // The first case that matches is selected, or else the default. The others are skipped.
+        for (final Element child : element.mChildren) {
+            final boolean selected = TAG_DEFAULT.equals(child.mTag)
+                    ? true : isCaseSelected(child.mAttributes);
+            if (DEBUG && TAG_DEFAULT.equals(child.mTag)) startTag("<%s>", TAG_DEFAULT);
+            if (!selected) {
+                if (DEBUG) endTag("</%s>", child.mTag);
+                continue;
             }
+            if (row == null) {
+                // Processing Rows.
+                buildKeyboardContent(child.mChildren);
+            } else {
+                // Processing Keys.
+                buildRowContent(child.mChildren, row);
+            }
+            if (DEBUG) endTag("</%s>", child.mTag);
+            break;
         }
+        if (DEBUG) endTag("</%s>", TAG_SWITCH);
     }
 
-    private boolean parseCase(final XmlPullParser parser, final KeyboardRow row, final boolean skip)
-            throws XmlPullParserException, IOException {
-        final boolean selected = parseCaseCondition(parser);
-        if (row == null) {
-            // Processing Rows.
-            parseKeyboardContent(parser, selected ? skip : true);
-        } else {
-            // Processing Keys.
-            parseRowContent(parser, row, selected ? skip : true);
-        }
-        return selected;
-    }
-
-    private boolean parseCaseCondition(final XmlPullParser parser) {
+    private boolean isCaseSelected(final AttributeValues caseAttr) {
         final KeyboardId id = mParams.mId;
         if (id == null) {
             return true;
         }
-        final AttributeSet attr = Xml.asAttributeSet(parser);
-        final TypedArray caseAttr = mResources.obtainAttributes(attr, R.styleable.Keyboard_Case);
-        try {
-            final boolean keyboardLayoutSetMatched = matchString(caseAttr,
-                    R.styleable.Keyboard_Case_keyboardLayoutSet,
-                    id.mSubtype.getKeyboardLayoutSetName());
-            final boolean keyboardLayoutSetElementMatched = matchTypedValue(caseAttr,
-                    R.styleable.Keyboard_Case_keyboardLayoutSetElement, id.mElementId,
-                    KeyboardId.elementIdToName(id.mElementId));
-            final boolean keyboardThemeMacthed = matchTypedValue(caseAttr,
-                    R.styleable.Keyboard_Case_keyboardTheme, mParams.mThemeId,
-                    KeyboardTheme.getKeyboardThemeName(mParams.mThemeId));
-            final boolean modeMatched = matchTypedValue(caseAttr,
-                    R.styleable.Keyboard_Case_mode, id.mMode, KeyboardId.modeName(id.mMode));
-            final boolean navigateNextMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_navigateNext, id.navigateNext());
-            final boolean navigatePreviousMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_navigatePrevious, id.navigatePrevious());
-            final boolean passwordInputMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_passwordInput, id.passwordInput());
-            final boolean clobberSettingsKeyMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_clobberSettingsKey, id.mClobberSettingsKey);
-            final boolean hasShortcutKeyMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_hasShortcutKey, id.mHasShortcutKey);
-            final boolean languageSwitchKeyEnabledMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_languageSwitchKeyEnabled,
-                    id.mLanguageSwitchKeyEnabled);
-            final boolean emojiSwitchKeyEnabledMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_emojiSwitchKeyEnabled,
-                    id.mEmojiSwitchKeyEnabled);
-            final boolean numberRowEnabledMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_numberRowEnabled,
-                    id.mNumberRowEnabled);
-            final boolean isMultiLineMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_isMultiLine, id.isMultiLine());
-            final boolean imeActionMatched = matchInteger(caseAttr,
-                    R.styleable.Keyboard_Case_imeAction, id.imeAction());
-            final boolean isIconDefinedMatched = isIconDefined(caseAttr,
-                    R.styleable.Keyboard_Case_isIconDefined, mParams.mIconsSet);
-            final Locale locale = id.getLocale();
-            final boolean localeCodeMatched = matchLocaleCodes(caseAttr, locale);
-            final boolean languageCodeMatched = matchLanguageCodes(caseAttr, locale);
-            final boolean countryCodeMatched = matchCountryCodes(caseAttr, locale);
-            final boolean splitLayoutMatched = matchBoolean(caseAttr,
-                    R.styleable.Keyboard_Case_isSplitLayout, id.mIsSplitLayout);
-            final boolean selected = keyboardLayoutSetMatched && keyboardLayoutSetElementMatched
-                    && keyboardThemeMacthed && modeMatched && navigateNextMatched
-                    && navigatePreviousMatched && passwordInputMatched && clobberSettingsKeyMatched
-                    && hasShortcutKeyMatched  && languageSwitchKeyEnabledMatched && numberRowEnabledMatched
-                    && emojiSwitchKeyEnabledMatched
-                    && isMultiLineMatched && imeActionMatched && isIconDefinedMatched
-                    && localeCodeMatched && languageCodeMatched && countryCodeMatched
-                    && splitLayoutMatched;
-
-            if (DEBUG) {
-                startTag("<%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s>%s", TAG_CASE,
-                        textAttr(caseAttr.getString(
-                                R.styleable.Keyboard_Case_keyboardLayoutSet), "keyboardLayoutSet"),
-                        textAttr(caseAttr.getString(
-                                R.styleable.Keyboard_Case_keyboardLayoutSetElement),
-                                "keyboardLayoutSetElement"),
-                        textAttr(caseAttr.getString(
-                                R.styleable.Keyboard_Case_keyboardTheme), "keyboardTheme"),
-                        textAttr(caseAttr.getString(R.styleable.Keyboard_Case_mode), "mode"),
-                        textAttr(caseAttr.getString(R.styleable.Keyboard_Case_imeAction),
-                                "imeAction"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_navigateNext,
-                                "navigateNext"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_navigatePrevious,
-                                "navigatePrevious"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_clobberSettingsKey,
-                                "clobberSettingsKey"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_passwordInput,
-                                "passwordInput"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_hasShortcutKey,
-                                "hasShortcutKey"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_languageSwitchKeyEnabled,
-                                "languageSwitchKeyEnabled"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_emojiSwitchKeyEnabled,
-                                "emojiSwitchKeyEnabled"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_numberRowEnabled,
-                                "numberRowEnabled"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_isMultiLine,
-                                "isMultiLine"),
-                        booleanAttr(caseAttr, R.styleable.Keyboard_Case_isSplitLayout,
-                                "splitLayout"),
-                        textAttr(caseAttr.getString(R.styleable.Keyboard_Case_isIconDefined),
-                                "isIconDefined"),
-                        textAttr(caseAttr.getString(R.styleable.Keyboard_Case_localeCode),
-                                "localeCode"),
-                        textAttr(caseAttr.getString(R.styleable.Keyboard_Case_languageCode),
-                                "languageCode"),
-                        textAttr(caseAttr.getString(R.styleable.Keyboard_Case_countryCode),
-                                "countryCode"),
-                        selected ? "" : " skipped");
-            }
+        final boolean keyboardLayoutSetMatched = matchString(caseAttr,
+                R.styleable.Keyboard_Case_keyboardLayoutSet,
+                id.mSubtype.getKeyboardLayoutSetName());
+        final boolean keyboardLayoutSetElementMatched = matchTypedValue(caseAttr,
+                R.styleable.Keyboard_Case_keyboardLayoutSetElement, id.mElementId,
+                KeyboardId.elementIdToName(id.mElementId));
+        final boolean keyboardThemeMacthed = matchTypedValue(caseAttr,
+                R.styleable.Keyboard_Case_keyboardTheme, mParams.mThemeId,
+                KeyboardTheme.getKeyboardThemeName(mParams.mThemeId));
+        final boolean modeMatched = matchTypedValue(caseAttr,
+                R.styleable.Keyboard_Case_mode, id.mMode, KeyboardId.modeName(id.mMode));
+        final boolean navigateNextMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_navigateNext, id.navigateNext());
+        final boolean navigatePreviousMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_navigatePrevious, id.navigatePrevious());
+        final boolean passwordInputMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_passwordInput, id.passwordInput());
+        final boolean clobberSettingsKeyMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_clobberSettingsKey, id.mClobberSettingsKey);
+        final boolean hasShortcutKeyMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_hasShortcutKey, id.mHasShortcutKey);
+        final boolean languageSwitchKeyEnabledMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_languageSwitchKeyEnabled,
+                id.mLanguageSwitchKeyEnabled);
+        final boolean emojiSwitchKeyEnabledMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_emojiSwitchKeyEnabled,
+                id.mEmojiSwitchKeyEnabled);
+        final boolean numberRowEnabledMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_numberRowEnabled,
+                id.mNumberRowEnabled);
+        final boolean isMultiLineMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_isMultiLine, id.isMultiLine());
+        final boolean imeActionMatched = matchInteger(caseAttr,
+                R.styleable.Keyboard_Case_imeAction, id.imeAction());
+        final boolean isIconDefinedMatched = isIconDefined(caseAttr,
+                R.styleable.Keyboard_Case_isIconDefined, mParams.mIconsSet);
+        final Locale locale = id.getLocale();
+        final boolean localeCodeMatched = matchLocaleCodes(caseAttr, locale);
+        final boolean languageCodeMatched = matchLanguageCodes(caseAttr, locale);
+        final boolean countryCodeMatched = matchCountryCodes(caseAttr, locale);
+        final boolean splitLayoutMatched = matchBoolean(caseAttr,
+                R.styleable.Keyboard_Case_isSplitLayout, id.mIsSplitLayout);
+        final boolean selected = keyboardLayoutSetMatched && keyboardLayoutSetElementMatched
+                && keyboardThemeMacthed && modeMatched && navigateNextMatched
+                && navigatePreviousMatched && passwordInputMatched && clobberSettingsKeyMatched
+                && hasShortcutKeyMatched  && languageSwitchKeyEnabledMatched
+                && numberRowEnabledMatched && emojiSwitchKeyEnabledMatched
+                && isMultiLineMatched && imeActionMatched && isIconDefinedMatched
+                && localeCodeMatched && languageCodeMatched && countryCodeMatched
+                && splitLayoutMatched;
 
-            return selected;
-        } finally {
-            caseAttr.recycle();
+        if (DEBUG) {
+            startTag("<%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s%s>%s", TAG_CASE,
+                    textAttr(caseAttr.getString(
+                            R.styleable.Keyboard_Case_keyboardLayoutSet), "keyboardLayoutSet"),
+                    textAttr(caseAttr.getString(
+                            R.styleable.Keyboard_Case_keyboardLayoutSetElement),
+                            "keyboardLayoutSetElement"),
+                    textAttr(caseAttr.getString(
+                            R.styleable.Keyboard_Case_keyboardTheme), "keyboardTheme"),
+                    textAttr(caseAttr.getString(R.styleable.Keyboard_Case_mode), "mode"),
+                    textAttr(caseAttr.getString(R.styleable.Keyboard_Case_imeAction),
+                            "imeAction"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_navigateNext,
+                            "navigateNext"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_navigatePrevious,
+                            "navigatePrevious"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_clobberSettingsKey,
+                            "clobberSettingsKey"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_passwordInput,
+                            "passwordInput"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_hasShortcutKey,
+                            "hasShortcutKey"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_languageSwitchKeyEnabled,
+                            "languageSwitchKeyEnabled"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_emojiSwitchKeyEnabled,
+                            "emojiSwitchKeyEnabled"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_numberRowEnabled,
+                            "numberRowEnabled"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_isMultiLine,
+                            "isMultiLine"),
+                    booleanAttr(caseAttr, R.styleable.Keyboard_Case_isSplitLayout,
+                            "splitLayout"),
+                    textAttr(caseAttr.getString(R.styleable.Keyboard_Case_isIconDefined),
+                            "isIconDefined"),
+                    textAttr(caseAttr.getString(R.styleable.Keyboard_Case_localeCode),
+                            "localeCode"),
+                    textAttr(caseAttr.getString(R.styleable.Keyboard_Case_languageCode),
+                            "languageCode"),
+                    textAttr(caseAttr.getString(R.styleable.Keyboard_Case_countryCode),
+                            "countryCode"),
+                    selected ? "" : " skipped");
         }
+
+        return selected;
     }
 
-    private static boolean matchLocaleCodes(TypedArray caseAttr, final Locale locale) {
+    private static boolean matchLocaleCodes(AttributeValues caseAttr, final Locale locale) {
         return matchString(caseAttr, R.styleable.Keyboard_Case_localeCode, locale.toString());
     }
 
-    private static boolean matchLanguageCodes(TypedArray caseAttr, Locale locale) {
+    private static boolean matchLanguageCodes(AttributeValues caseAttr, Locale locale) {
         return matchString(caseAttr, R.styleable.Keyboard_Case_languageCode, locale.getLanguage());
     }
 
-    private static boolean matchCountryCodes(TypedArray caseAttr, Locale locale) {
+    private static boolean matchCountryCodes(AttributeValues caseAttr, Locale locale) {
         return matchString(caseAttr, R.styleable.Keyboard_Case_countryCode, locale.getCountry());
     }
 
-    private static boolean matchInteger(final TypedArray a, final int index, final int value) {
+    private static boolean matchInteger(final AttributeValues a, final int index,
+            final int value) {
         // If <case> does not have "index" attribute, that means this <case> is wild-card for
         // the attribute.
         return !a.hasValue(index) || a.getInt(index, 0) == value;
     }
 
-    private static boolean matchBoolean(final TypedArray a, final int index, final boolean value) {
+    private static boolean matchBoolean(final AttributeValues a, final int index,
+            final boolean value) {
         // If <case> does not have "index" attribute, that means this <case> is wild-card for
         // the attribute.
         return !a.hasValue(index) || a.getBoolean(index, false) == value;
     }
 
-    private static boolean matchString(final TypedArray a, final int index, final String value) {
+    private static boolean matchString(final AttributeValues a, final int index,
+            final String value) {
         // If <case> does not have "index" attribute, that means this <case> is wild-card for
         // the attribute.
         return !a.hasValue(index)
                 || StringUtils.containsInArray(value, a.getString(index).split("\\|"));
     }
 
-    private static boolean matchTypedValue(final TypedArray a, final int index, final int intValue,
-            final String strValue) {
+    private static boolean matchTypedValue(final AttributeValues a, final int index,
+            final int intValue, final String strValue) {
         // If <case> does not have "index" attribute, that means this <case> is wild-card for
         // the attribute.
         final TypedValue v = a.peekValue(index);
@@ -790,7 +681,7 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         return false;
     }
 
-    private static boolean isIconDefined(final TypedArray a, final int index,
+    private static boolean isIconDefined(final AttributeValues a, final int index,
             final KeyboardIconsSet iconsSet) {
         if (!a.hasValue(index)) {
             return true;
@@ -800,41 +691,13 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         return iconsSet.getIconDrawable(iconId) != null;
     }
 
-    private boolean parseDefault(final XmlPullParser parser, final KeyboardRow row,
-            final boolean skip) throws XmlPullParserException, IOException {
-        if (DEBUG) startTag("<%s>", TAG_DEFAULT);
-        if (row == null) {
-            parseKeyboardContent(parser, skip);
-        } else {
-            parseRowContent(parser, row, skip);
-        }
-        return true;
-    }
-
-    private void parseKeyStyle(final XmlPullParser parser, final boolean skip)
-            throws XmlPullParserException, IOException {
-        final AttributeSet attr = Xml.asAttributeSet(parser);
-        final TypedArray keyStyleAttr = mResources.obtainAttributes(
-                attr, R.styleable.Keyboard_KeyStyle);
-        final TypedArray keyAttrs = mResources.obtainAttributes(attr, R.styleable.Keyboard_Key);
-        try {
-            if (!keyStyleAttr.hasValue(R.styleable.Keyboard_KeyStyle_styleName)) {
-                throw new XmlParseUtils.ParseException("<" + TAG_KEY_STYLE
-                        + "/> needs styleName attribute", parser);
-            }
-            if (DEBUG) {
-                startEndTag("<%s styleName=%s />%s", TAG_KEY_STYLE,
-                        keyStyleAttr.getString(R.styleable.Keyboard_KeyStyle_styleName),
-                        skip ? " skipped" : "");
-            }
-            if (!skip) {
-                mParams.mKeyStyles.parseKeyStyleAttributes(keyStyleAttr, keyAttrs, parser);
-            }
-        } finally {
-            keyStyleAttr.recycle();
-            keyAttrs.recycle();
+    private void buildKeyStyle(final Element element) throws XmlPullParserException {
+        if (DEBUG) {
+            startEndTag("<%s styleName=%s />", TAG_KEY_STYLE,
+                    element.mAttributes.getString(R.styleable.Keyboard_KeyStyle_styleName));
         }
-        XmlParseUtils.checkEndTag(TAG_KEY_STYLE, parser);
+        mParams.mKeyStyles.parseKeyStyleAttributes(element.mAttributes, element.mKeyAttributes,
+                element.mPositionDescription);
     }
 
     private void startKeyboard() {
@@ -877,7 +740,7 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
 
     private void endKeyboard() {
         mParams.removeRedundantMoreKeys();
-        // {@link #parseGridRows(XmlPullParser,boolean)} may populate keyboard rows higher than
+        // {@link #buildGridRows(Element)} may populate keyboard rows higher than
         // previously expected.
         final int actualHeight = mCurrentY - mParams.mVerticalGap + mParams.mBottomPadding;
         mParams.mOccupiedHeight = Math.max(mParams.mOccupiedHeight, actualHeight);
@@ -893,7 +756,8 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         return value != null ? String.format(" %s=%s", name, value) : "";
     }
 
-    private static String booleanAttr(final TypedArray a, final int index, final String name) {
+    private static String booleanAttr(final AttributeValues a, final int index,
+            final String name) {
         return a.hasValue(index)
                 ? String.format(" %s=%s", name, a.getBoolean(index, false)) : "";
     }
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_CASE;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_DEFAULT;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_GRID_ROWS;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_INCLUDE;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_KEY;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_KEYBOARD;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_KEY_STYLE;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_MERGE;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_ROW;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_SPACER;
+import static com.android.inputmethod.keyboard.internal.KeyboardBuilder.TAG_SWITCH;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.util.Xml;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+import com.android.inputmethod.latin.R;
+import com.android.inputmethod.latin.utils.AttributeValues;
+import com.android.inputmethod.latin.utils.XmlParseUtils;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Compiles keyboard layout XML files into trees of {@link Element}s, which
+ * {@link KeyboardBuilder} builds keyboards from.
+ *
+ * A layout file is parsed and its attributes are resolved against the resources once, and the
+ * compiled tree is shared by all the keyboards that are built from it, whatever their
+ * {@link com.android.inputmethod.keyboard.KeyboardId}. The values of the attributes depend on the
+ * configuration of the resources, so the compiled trees are dropped when it changes.
+ *
+ * The grammar of the layout files is checked when they are compiled, as described in
+ * {@link KeyboardBuilder}. The attributes of the root &lt;Keyboard&gt; element are not compiled,
+ * because they are resolved against the theme of the keyboard and load its icons.
+ */
+public final class KeyboardLayoutCompiler {
+    private KeyboardLayoutCompiler() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /**
+     * An element of a compiled layout file. Elements are immutable.
+     */
+    static final class Element {
+        public final String mTag;
+        // Where the element is in its layout file, for error messages.
+        public final String mPositionDescription;
+        // The attributes of the Keyboard_Case, Keyboard_Include, Keyboard_KeyStyle or
+        // Keyboard_GridRows styleable, according to the tag.
+        public final AttributeValues mAttributes;
+        // The attributes of the Keyboard styleable, for Row and GridRows.
+        public final AttributeValues mKeyboardAttributes;
+        // The attributes of the Keyboard_Key styleable.
+        public final AttributeValues mKeyAttributes;
+        public final Element[] mChildren;
+
+        Element(final String tag, final String positionDescription,
+                final AttributeValues attributes, final AttributeValues keyboardAttributes,
+                final AttributeValues keyAttributes, final Element[] children) {
+            mTag = tag;
+            mPositionDescription = positionDescription;
+            mAttributes = attributes;
+            mKeyboardAttributes = keyboardAttributes;
+            mKeyAttributes = keyAttributes;
+            mChildren = children;
+        }
+    }
+
+    private static final Element[] NO_CHILDREN = new Element[0];
+
+    // The keyboard layout files by resource id, and the included layout files that are
+    // compiled as Rows or as Keys.
+    private static final SparseArray<Element> sKeyboards = new SparseArray<>();
+    private static final SparseArray<Element> sRowsMerges = new SparseArray<>();
+    private static final SparseArray<Element> sKeysMerges = new SparseArray<>();
+    private static final Object sLock = new Object();
+    // The resources and configuration the layouts in the caches are compiled with.
+    private static Resources sResources;
+    private static Configuration sConfiguration;
+
+    /**
+     * Returns the compiled root &lt;Keyboard&gt; element of a keyboard layout file. Its
+     * children are the Keyboard content.
+     */
+    @Nonnull
+    static Element getKeyboard(@Nonnull final Resources res, final int xmlId)
+            throws XmlPullParserException, IOException {
+        final Element cached = getCached(res, sKeyboards, xmlId);
+        if (cached != null) {
+            return cached;
+        }
+        final XmlResourceParser parser = res.getXml(xmlId);
+        try {
+            return putCached(res, sKeyboards, xmlId, compileKeyboard(res, parser));
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Returns the compiled root &lt;merge&gt; element of an included layout file.
+     *
+     * @param isRowContent whether the file is included in a Row, and its children are Keys, or
+     * in the Keyboard content, and its children are Rows.
+     */
+    @Nonnull
+    static Element getMerge(@Nonnull final Resources res, final int xmlId,
+            final boolean isRowContent) throws XmlPullParserException, IOException {
+        final SparseArray<Element> cache = isRowContent ? sKeysMerges : sRowsMerges;
+        final Element cached = getCached(res, cache, xmlId);
+        if (cached != null) {
+            return cached;
+        }
+        final XmlResourceParser parser = res.getXml(xmlId);
+        try {
+            return putCached(res, cache, xmlId, compileMerge(res, parser, isRowContent));
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Drops all the compiled layouts.
+     */
+    public static void clear() {
+        synchronized (sLock) {
+            clearLocked();
+        }
+    }
+
+    @UsedForTesting
+    static int getCachedLayoutCount() {
+        synchronized (sLock) {
+            return sKeyboards.size() + sRowsMerges.size() + sKeysMerges.size();
+        }
+    }
+
+    private static void clearLocked() {
+        sKeyboards.clear();
+        sRowsMerges.clear();
+        sKeysMerges.clear();
+        sResources = null;
+        sConfiguration = null;
+    }
+
+    private static boolean isCompiledWithLocked(@Nonnull final Resources res) {
+        return res == sResources && sConfiguration != null
+                && sConfiguration.diff(res.getConfiguration()) == 0;
+    }
+
+    private static Element getCached(@Nonnull final Resources res,
+            @Nonnull final SparseArray<Element> cache, final int xmlId) {
+        synchronized (sLock) {
+            return isCompiledWithLocked(res) ? cache.get(xmlId) : null;
+        }
+    }
+
+    // Layouts are compiled without holding the lock, so that a layout that is compiled in the
+    // background doesn't block the one that is needed to show the keyboard. When two threads
+    // compile the same layout, the first one that finishes wins.
+    @Nonnull
+    private static Element putCached(@Nonnull final Resources res,
+            @Nonnull final SparseArray<Element> cache, final int xmlId,
+            @Nonnull final Element element) {
+        synchronized (sLock) {
+            if (!isCompiledWithLocked(res)) {
+                clearLocked();
+                sResources = res;
+                sConfiguration = new Configuration(res.getConfiguration());
+            }
+            final Element cached = cache.get(xmlId);
+            if (cached != null) {
+                return cached;
+            }
+            cache.put(xmlId, element);
+            return element;
+        }
+    }
+
+    private static AttributeValues obtainAttributes(@Nonnull final Resources res,
+            @Nonnull final AttributeSet attr, @Nonnull final int[] styleable) {
+        final TypedArray a = res.obtainAttributes(attr, styleable);
+        try {
+            return AttributeValues.of(res, a);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    private static Element compileKeyboard(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser) throws XmlPullParserException, IOException {
+        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+            final int event = parser.next();
+            if (event == XmlPullParser.START_TAG) {
+                final String tag = parser.getName();
+                if (TAG_KEYBOARD.equals(tag)) {
+                    final String position = parser.getPositionDescription();
+                    return new Element(TAG_KEYBOARD, position, AttributeValues.EMPTY,
+                            AttributeValues.EMPTY, AttributeValues.EMPTY,
+                            compileContent(res, parser, false /* isRowContent */));
+                }
+                throw new XmlParseUtils.IllegalStartTag(parser, tag, TAG_KEYBOARD);
+            }
+        }
+        throw new XmlParseUtils.ParseException("No " + TAG_KEYBOARD + " element", parser);
+    }
+
+    private static Element compileMerge(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser, final boolean isRowContent)
+            throws XmlPullParserException, IOException {
+        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+            final int event = parser.next();
+            if (event == XmlPullParser.START_TAG) {
+                final String tag = parser.getName();
+                if (TAG_MERGE.equals(tag)) {
+                    final String position = parser.getPositionDescription();
+                    return new Element(TAG_MERGE, position, AttributeValues.EMPTY,
+                            AttributeValues.EMPTY, AttributeValues.EMPTY,
+                            compileContent(res, parser, isRowContent));
+                }
+                break;
+            }
+        }
+        throw new XmlParseUtils.ParseException(
+                "Included keyboard layout must have <merge> root element", parser);
+    }
+
+    /**
+     * Compiles the Keyboard content or the Row content up to the end tag of the current element.
+     */
+    private static Element[] compileContent(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser, final boolean isRowContent)
+            throws XmlPullParserException, IOException {
+        final ArrayList<Element> children = new ArrayList<>();
+        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+            final int event = parser.next();
+            if (event == XmlPullParser.START_TAG) {
+                final String tag = parser.getName();
+                if (TAG_INCLUDE.equals(tag)) {
+                    children.add(compileInclude(res, parser));
+                } else if (TAG_SWITCH.equals(tag)) {
+                    children.add(compileSwitch(res, parser, isRowContent));
+                } else if (TAG_KEY_STYLE.equals(tag)) {
+                    children.add(compileKeyStyle(res, parser));
+                } else if (!isRowContent && TAG_ROW.equals(tag)) {
+                    children.add(compileRow(res, parser));
+                } else if (!isRowContent && TAG_GRID_ROWS.equals(tag)) {
+                    children.add(compileGridRows(res, parser));
+                } else if (isRowContent && (TAG_KEY.equals(tag) || TAG_SPACER.equals(tag))) {
+                    children.add(compileKey(res, parser, tag));
+                } else {
+                    throw new XmlParseUtils.IllegalStartTag(parser, tag, TAG_ROW);
+                }
+            } else if (event == XmlPullParser.END_TAG) {
+                final String tag = parser.getName();
+                if ((isRowContent ? TAG_ROW : TAG_KEYBOARD).equals(tag) || TAG_CASE.equals(tag)
+                        || TAG_DEFAULT.equals(tag) || TAG_MERGE.equals(tag)) {
+                    return children.isEmpty()
+                            ? NO_CHILDREN : children.toArray(new Element[children.size()]);
+                }
+                throw new XmlParseUtils.IllegalEndTag(parser, tag, TAG_ROW);
+            }
+        }
+        throw new XmlParseUtils.ParseException("Unexpected end of document", parser);
+    }
+
+    private static Element compileRow(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser) throws XmlPullParserException, IOException {
+        final String position = parser.getPositionDescription();
+        final AttributeSet attr = Xml.asAttributeSet(parser);
+        final AttributeValues keyboardAttr = obtainAttributes(res, attr, R.styleable.Keyboard);
+        if (keyboardAttr.hasValue(R.styleable.Keyboard_horizontalGap)) {
+            throw new XmlParseUtils.IllegalAttribute(parser, TAG_ROW, "horizontalGap");
+        }
+        if (keyboardAttr.hasValue(R.styleable.Keyboard_verticalGap)) {
+            throw new XmlParseUtils.IllegalAttribute(parser, TAG_ROW, "verticalGap");
+        }
+        final AttributeValues keyAttr = obtainAttributes(res, attr, R.styleable.Keyboard_Key);
+        return new Element(TAG_ROW, position, AttributeValues.EMPTY, keyboardAttr, keyAttr,
+                compileContent(res, parser, true /* isRowContent */));
+    }
+
+    private static Element compileGridRows(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser) throws XmlPullParserException, IOException {
+        final String position = parser.getPositionDescription();
+        final AttributeSet attr = Xml.asAttributeSet(parser);
+        final Element element = new Element(TAG_GRID_ROWS, position,
+                obtainAttributes(res, attr, R.styleable.Keyboard_GridRows),
+                obtainAttributes(res, attr, R.styleable.Keyboard),
+                obtainAttributes(res, attr, R.styleable.Keyboard_Key), NO_CHILDREN);
+        XmlParseUtils.checkEndTag(TAG_GRID_ROWS, parser);
+        return element;
+    }
+
+    private static Element compileKey(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser, @Nonnull final String tag)
+            throws XmlPullParserException, IOException {
+        final Element element = new Element(tag, parser.getPositionDescription(),
+                AttributeValues.EMPTY, AttributeValues.EMPTY,
+                obtainAttributes(res, Xml.asAttributeSet(parser), R.styleable.Keyboard_Key),
+                NO_CHILDREN);
+        XmlParseUtils.checkEndTag(tag, parser);
+        return element;
+    }
+
+    private static Element compileInclude(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser) throws XmlPullParserException, IOException {
+        final String position = parser.getPositionDescription();
+        final AttributeSet attr = Xml.asAttributeSet(parser);
+        final Element element = new Element(TAG_INCLUDE, position,
+                obtainAttributes(res, attr, R.styleable.Keyboard_Include), AttributeValues.EMPTY,
+                obtainAttributes(res, attr, R.styleable.Keyboard_Key), NO_CHILDREN);
+        XmlParseUtils.checkEndTag(TAG_INCLUDE, parser);
+        return element;
+    }
+
+    private static Element compileSwitch(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser, final boolean isRowContent)
+            throws XmlPullParserException, IOException {
+        final String position = parser.getPositionDescription();
+        final ArrayList<Element> cases = new ArrayList<>();
+        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+            final int event = parser.next();
+            if (event == XmlPullParser.START_TAG) {
+                final String tag = parser.getName();
+                if (TAG_CASE.equals(tag)) {
+                    final String casePosition = parser.getPositionDescription();
+                    final AttributeValues caseAttr = obtainAttributes(
+                            res, Xml.asAttributeSet(parser), R.styleable.Keyboard_Case);
+                    cases.add(new Element(TAG_CASE, casePosition, caseAttr,
+                            AttributeValues.EMPTY, AttributeValues.EMPTY,
+                            compileContent(res, parser, isRowContent)));
+                } else if (TAG_DEFAULT.equals(tag)) {
+                    final String defaultPosition = parser.getPositionDescription();
+                    cases.add(new Element(TAG_DEFAULT, defaultPosition, AttributeValues.EMPTY,
+                            AttributeValues.EMPTY, AttributeValues.EMPTY,
+                            compileContent(res, parser, isRowContent)));
+                } else {
+                    throw new XmlParseUtils.IllegalStartTag(parser, tag, TAG_SWITCH);
+                }
+            } else if (event == XmlPullParser.END_TAG) {
+                final String tag = parser.getName();
+                if (TAG_SWITCH.equals(tag)) {
+                    return new Element(TAG_SWITCH, position, AttributeValues.EMPTY,
+                            AttributeValues.EMPTY, AttributeValues.EMPTY,
+                            cases.toArray(new Element[cases.size()]));
+                }
+                throw new XmlParseUtils.IllegalEndTag(parser, tag, TAG_SWITCH);
+            }
+        }
+        throw new XmlParseUtils.ParseException("Unexpected end of document", parser);
+    }
+
+    private static Element compileKeyStyle(@Nonnull final Resources res,
+            @Nonnull final XmlPullParser parser) throws XmlPullParserException, IOException {
+        final String position = parser.getPositionDescription();
+        final AttributeSet attr = Xml.asAttributeSet(parser);
+        final AttributeValues keyStyleAttr =
+                obtainAttributes(res, attr, R.styleable.Keyboard_KeyStyle);
+        if (!keyStyleAttr.hasValue(R.styleable.Keyboard_KeyStyle_styleName)) {
+            throw new XmlParseUtils.ParseException("<" + TAG_KEY_STYLE
+                    + "/> needs styleName attribute", parser);
+        }
+        final Element element = new Element(TAG_KEY_STYLE, position, keyStyleAttr,
+                AttributeValues.EMPTY, obtainAttributes(res, attr, R.styleable.Keyboard_Key),
+                NO_CHILDREN);
+        XmlParseUtils.checkEndTag(TAG_KEY_STYLE, parser);
+        return element;
+    }
+}
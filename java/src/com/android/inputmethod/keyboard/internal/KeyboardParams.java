@@ -24,6 +24,7 @@ import com.android.inputmethod.latin.common.Constants;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -62,6 +63,9 @@ public class KeyboardParams {
 
     public int GRID_WIDTH;
     public int GRID_HEIGHT;
+    /** The nearest keys of each cell of the grid, when they are read from a cache. */
+    @Nullable
+    public List<Key>[] mGridNeighbors;
 
     // Keys are sorted from top-left to bottom-right order.
     @Nonnull
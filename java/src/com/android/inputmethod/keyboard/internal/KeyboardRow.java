@@ -16,17 +16,12 @@
 
 package com.android.inputmethod.keyboard.internal;
 
-import android.content.res.Resources;
-import android.content.res.TypedArray;
-import android.util.Xml;
-
 import com.android.inputmethod.keyboard.Key;
 import com.android.inputmethod.keyboard.Keyboard;
 import com.android.inputmethod.latin.R;
+import com.android.inputmethod.latin.utils.AttributeValues;
 import com.android.inputmethod.latin.utils.ResourceUtils;
 
-import org.xmlpull.v1.XmlPullParser;
-
 import java.util.ArrayDeque;
 
 /**
@@ -61,7 +56,7 @@ public final class KeyboardRow {
          * @param defaultKeyWidth a default key width.
          * @param keyboardWidth the keyboard width that is required to calculate keyWidth attribute.
          */
-        public RowAttributes(final TypedArray keyAttr, final float defaultKeyWidth,
+        public RowAttributes(final AttributeValues keyAttr, final float defaultKeyWidth,
                 final int keyboardWidth) {
             mDefaultKeyWidth = keyAttr.getFraction(R.styleable.Keyboard_Key_keyWidth,
                     keyboardWidth, keyboardWidth, defaultKeyWidth);
@@ -78,7 +73,7 @@ public final class KeyboardRow {
          * @param defaultRowAttr default Row attributes.
          * @param keyboardWidth the keyboard width that is required to calculate keyWidth attribute.
          */
-        public RowAttributes(final TypedArray keyAttr, final RowAttributes defaultRowAttr,
+        public RowAttributes(final AttributeValues keyAttr, final RowAttributes defaultRowAttr,
                 final int keyboardWidth) {
             mDefaultKeyWidth = keyAttr.getFraction(R.styleable.Keyboard_Key_keyWidth,
                     keyboardWidth, keyboardWidth, defaultRowAttr.mDefaultKeyWidth);
@@ -93,19 +88,17 @@ public final class KeyboardRow {
     // Will be updated by {@link Key}'s constructor.
     private float mCurrentX;
 
-    public KeyboardRow(final Resources res, final KeyboardParams params,
-            final XmlPullParser parser, final int y) {
+    /**
+     * @param keyboardAttr the Keyboard attributes of the Row or GridRows tag.
+     * @param keyAttr the Key attributes of the Row or GridRows tag.
+     */
+    public KeyboardRow(final KeyboardParams params, final AttributeValues keyboardAttr,
+            final AttributeValues keyAttr, final int y) {
         mParams = params;
-        final TypedArray keyboardAttr = res.obtainAttributes(Xml.asAttributeSet(parser),
-                R.styleable.Keyboard);
         mRowHeight = (int)ResourceUtils.getDimensionOrFraction(keyboardAttr,
                 R.styleable.Keyboard_rowHeight, params.mBaseHeight, params.mDefaultRowHeight);
-        keyboardAttr.recycle();
-        final TypedArray keyAttr = res.obtainAttributes(Xml.asAttributeSet(parser),
-                R.styleable.Keyboard_Key);
         mRowAttributesStack.push(new RowAttributes(
                 keyAttr, params.mDefaultKeyWidth, params.mBaseWidth));
-        keyAttr.recycle();
 
         mCurrentY = y;
         mCurrentX = 0.0f;
@@ -115,7 +108,7 @@ public final class KeyboardRow {
         return mRowHeight;
     }
 
-    public void pushRowAttributes(final TypedArray keyAttr) {
+    public void pushRowAttributes(final AttributeValues keyAttr) {
         final RowAttributes newAttributes = new RowAttributes(
                 keyAttr, mRowAttributesStack.peek(), mParams.mBaseWidth);
         mRowAttributesStack.push(newAttributes);
@@ -149,7 +142,7 @@ public final class KeyboardRow {
         return mCurrentY;
     }
 
-    public float getKeyX(final TypedArray keyAttr) {
+    public float getKeyX(final AttributeValues keyAttr) {
         if (keyAttr == null || !keyAttr.hasValue(R.styleable.Keyboard_Key_keyXPos)) {
             return mCurrentX;
         }
@@ -167,7 +160,7 @@ public final class KeyboardRow {
         return Math.max(keyXPos + keyboardRightEdge, mCurrentX);
     }
 
-    public float getKeyWidth(final TypedArray keyAttr, final float keyXPos) {
+    public float getKeyWidth(final AttributeValues keyAttr, final float keyXPos) {
         if (keyAttr == null) {
             return getDefaultKeyWidth();
         }
@@ -76,6 +76,14 @@ public final class MoreKeySpec {
         mIconId = KeySpecParser.getIconId(moreKeySpec);
     }
 
+    public MoreKeySpec(final int code, @Nullable final String label,
+            @Nullable final String outputText, final int iconId) {
+        mCode = code;
+        mLabel = label;
+        mOutputText = outputText;
+        mIconId = iconId;
+    }
+
     @Nonnull
     public Key buildKey(final int x, final int y, final int labelFlags,
             @Nonnull final KeyboardParams params) {
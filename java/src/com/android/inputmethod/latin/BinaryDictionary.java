@@ -18,7 +18,6 @@ package com.android.inputmethod.latin;
 
 import android.text.TextUtils;
 import android.util.Log;
-import android.util.SparseArray;
 
 import com.android.inputmethod.annotations.UsedForTesting;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
@@ -35,6 +34,7 @@ import com.android.inputmethod.latin.makedict.WordProperty;
 import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
 import com.android.inputmethod.latin.utils.BinaryDictionaryUtils;
 import com.android.inputmethod.latin.utils.JniUtils;
+import com.android.inputmethod.latin.utils.SuggestionBuffer;
 import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
@@ -96,20 +96,7 @@ public final class BinaryDictionary extends Dictionary {
     private final boolean mIsUpdatable;
     private boolean mHasUpdated;
 
-    private final SparseArray<DicTraverseSession> mDicTraverseSessions = new SparseArray<>();
-
-    // TODO: There should be a way to remove used DicTraverseSession objects from
-    // {@code mDicTraverseSessions}.
-    private DicTraverseSession getTraverseSession(final int traverseSessionId) {
-        synchronized(mDicTraverseSessions) {
-            DicTraverseSession traverseSession = mDicTraverseSessions.get(traverseSessionId);
-            if (traverseSession == null) {
-                traverseSession = new DicTraverseSession(mLocale, mNativeDict, mDictSize);
-                mDicTraverseSessions.put(traverseSessionId, traverseSession);
-            }
-            return traverseSession;
-        }
-    }
+    private final DicTraverseSessionPool mDicTraverseSessionPool;
 
     /**
      * Constructs binary dictionary using existing dictionary file.
@@ -125,6 +112,7 @@ public final class BinaryDictionary extends Dictionary {
             final boolean isUpdatable) {
         super(dictType, locale);
         mDictSize = length;
+        mDicTraverseSessionPool = new DicTraverseSessionPool(locale, length);
         mDictFilePath = filename;
         mIsUpdatable = isUpdatable;
         mHasUpdated = false;
@@ -145,6 +133,7 @@ public final class BinaryDictionary extends Dictionary {
             final Map<String, String> attributeMap) {
         super(dictType, locale);
         mDictSize = 0;
+        mDicTraverseSessionPool = new DicTraverseSessionPool(locale, 0);
         mDictFilePath = filename;
         // On memory dictionary is always updatable.
         mIsUpdatable = true;
@@ -273,7 +262,83 @@ public final class BinaryDictionary extends Dictionary {
         if (!isValidDictionary()) {
             return null;
         }
-        final DicTraverseSession session = getTraverseSession(sessionId);
+        final DicTraverseSession session =
+                mDicTraverseSessionPool.acquire(sessionId, mNativeDict);
+        try {
+            if (!searchSuggestions(session, composedData, ngramContext, proximityInfoHandle,
+                    settingsValuesForSuggestion, weightForLocale,
+                    inOutWeightOfLangModelVsSpatialModel)) {
+                return null;
+            }
+            final int count = session.mOutputSuggestionCount[0];
+            final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
+            for (int j = 0; j < count; ++j) {
+                final int start = j * DICTIONARY_MAX_WORD_LENGTH;
+                final int len = getOutputWordLength(session, start);
+                if (len > 0) {
+                    suggestions.add(new SuggestedWordInfo(
+                            new String(session.mOutputCodePoints, start, len),
+                            "" /* prevWordsContext */,
+                            (int)(session.mOutputScores[j] * weightForLocale),
+                            session.mOutputTypes[j],
+                            this /* sourceDict */,
+                            session.mSpaceIndices[j] /* indexOfTouchPointOfSecondWord */,
+                            session.mOutputAutoCommitFirstWordConfidence[0]));
+                }
+            }
+            return suggestions;
+        } finally {
+            mDicTraverseSessionPool.release(sessionId, session);
+        }
+    }
+
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionBuffer outSuggestions) {
+        if (!isValidDictionary()) {
+            return;
+        }
+        final DicTraverseSession session =
+                mDicTraverseSessionPool.acquire(sessionId, mNativeDict);
+        try {
+            if (!searchSuggestions(session, composedData, ngramContext, proximityInfoHandle,
+                    settingsValuesForSuggestion, weightForLocale,
+                    inOutWeightOfLangModelVsSpatialModel)) {
+                return;
+            }
+            // The words are offered straight from the session arrays: only those that make it
+            // into the buffer are copied, and no String is created here.
+            final int count = session.mOutputSuggestionCount[0];
+            for (int j = 0; j < count; ++j) {
+                final int start = j * DICTIONARY_MAX_WORD_LENGTH;
+                final int len = getOutputWordLength(session, start);
+                if (len > 0) {
+                    outSuggestions.add(session.mOutputCodePoints, start, len,
+                            (int)(session.mOutputScores[j] * weightForLocale),
+                            session.mOutputTypes[j],
+                            this /* sourceDict */,
+                            session.mSpaceIndices[j] /* indexOfTouchPointOfSecondWord */,
+                            session.mOutputAutoCommitFirstWordConfidence[0]);
+                }
+            }
+        } finally {
+            mDicTraverseSessionPool.release(sessionId, session);
+        }
+    }
+
+    /**
+     * Runs the native search and leaves its results in the output arrays of the session.
+     * @return whether there was something to search.
+     */
+    private boolean searchSuggestions(final DicTraverseSession session,
+            final ComposedData composedData, final NgramContext ngramContext,
+            final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final float weightForLocale, final float[] inOutWeightOfLangModelVsSpatialModel) {
         Arrays.fill(session.mInputCodePoints, Constants.NOT_A_CODE);
         ngramContext.outputToArray(session.mPrevWordCodePointArrays,
                 session.mIsBeginningOfSentenceArray);
@@ -285,7 +350,7 @@ public final class BinaryDictionary extends Dictionary {
                     composedData.copyCodePointsExceptTrailingSingleQuotesAndReturnCodePointCount(
                         session.mInputCodePoints);
             if (inputSize < 0) {
-                return null;
+                return false;
             }
         } else {
             inputSize = inputPointers.getPointerSize();
@@ -304,7 +369,7 @@ public final class BinaryDictionary extends Dictionary {
         }
         // TOOD: Pass multiple previous words information for n-gram.
         getSuggestionsNative(mNativeDict, proximityInfoHandle,
-                getTraverseSession(sessionId).getSession(), inputPointers.getXCoordinates(),
+                session.getSession(), inputPointers.getXCoordinates(),
                 inputPointers.getYCoordinates(), inputPointers.getTimes(),
                 inputPointers.getPointerIds(), session.mInputCodePoints, inputSize,
                 session.mNativeSuggestOptions.getOptions(), session.mPrevWordCodePointArrays,
@@ -317,27 +382,15 @@ public final class BinaryDictionary extends Dictionary {
             inOutWeightOfLangModelVsSpatialModel[0] =
                     session.mInputOutputWeightOfLangModelVsSpatialModel[0];
         }
-        final int count = session.mOutputSuggestionCount[0];
-        final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
-        for (int j = 0; j < count; ++j) {
-            final int start = j * DICTIONARY_MAX_WORD_LENGTH;
-            int len = 0;
-            while (len < DICTIONARY_MAX_WORD_LENGTH
-                    && session.mOutputCodePoints[start + len] != 0) {
-                ++len;
-            }
-            if (len > 0) {
-                suggestions.add(new SuggestedWordInfo(
-                        new String(session.mOutputCodePoints, start, len),
-                        "" /* prevWordsContext */,
-                        (int)(session.mOutputScores[j] * weightForLocale),
-                        session.mOutputTypes[j],
-                        this /* sourceDict */,
-                        session.mSpaceIndices[j] /* indexOfTouchPointOfSecondWord */,
-                        session.mOutputAutoCommitFirstWordConfidence[0]));
-            }
+        return true;
+    }
+
+    private static int getOutputWordLength(final DicTraverseSession session, final int start) {
+        int len = 0;
+        while (len < DICTIONARY_MAX_WORD_LENGTH && session.mOutputCodePoints[start + len] != 0) {
+            ++len;
         }
-        return suggestions;
+        return len;
     }
 
     public boolean isValidDictionary() {
@@ -489,6 +542,23 @@ public final class BinaryDictionary extends Dictionary {
         return true;
     }
 
+    // Remove an n-gram entry from the binary dictionary in native code.
+    public boolean removeNgramEntry(final NgramContext ngramContext, final String word) {
+        if (!ngramContext.isValid() || TextUtils.isEmpty(word)) {
+            return false;
+        }
+        final int[][] prevWordCodePointArrays = new int[ngramContext.getPrevWordCount()][];
+        final boolean[] isBeginningOfSentenceArray = new boolean[ngramContext.getPrevWordCount()];
+        ngramContext.outputToArray(prevWordCodePointArrays, isBeginningOfSentenceArray);
+        final int[] wordCodePoints = StringUtils.toCodePointArray(word);
+        if (!removeNgramEntryNative(mNativeDict, prevWordCodePointArrays,
+                isBeginningOfSentenceArray, wordCodePoints)) {
+            return false;
+        }
+        mHasUpdated = true;
+        return true;
+    }
+
     // Update entries for the word occurrence with the ngramContext.
     public boolean updateEntriesForWordWithNgramContext(@Nonnull final NgramContext ngramContext,
             final String word, final boolean isValidWord, final int count, final int timestamp) {
@@ -507,7 +577,6 @@ public final class BinaryDictionary extends Dictionary {
         return true;
     }
 
-    @UsedForTesting
     public void updateEntriesForInputEvents(final WordInputEventForPersonalization[] inputEvents) {
         if (!isValidDictionary()) {
             return;
@@ -550,6 +619,22 @@ public final class BinaryDictionary extends Dictionary {
         return true;
     }
 
+    public boolean hasUpdated() {
+        return mHasUpdated;
+    }
+
+    /**
+     * Writes the dictionary to its file if it has been updated, without reopening it. Unlike
+     * {@link #flush()}, this only reads the dictionary, so it can be looked up at the same time.
+     * @return whether the file was written.
+     */
+    public boolean flushWithoutReopening() {
+        if (!isValidDictionary() || !mHasUpdated) {
+            return false;
+        }
+        return flushNative(mNativeDict, mDictFilePath);
+    }
+
     // Run GC and flush to dict file if the dictionary has been updated.
     public boolean flushWithGCIfHasUpdated() {
         if (mHasUpdated) {
@@ -622,6 +707,11 @@ public final class BinaryDictionary extends Dictionary {
         }
     }
 
+    @UsedForTesting
+    long getNativeDictForTesting() {
+        return mNativeDict;
+    }
+
     @UsedForTesting
     public String getPropertyForGettingStats(final String query) {
         if (!isValidDictionary()) {
@@ -637,19 +727,25 @@ public final class BinaryDictionary extends Dictionary {
 
     @Override
     public void close() {
-        synchronized (mDicTraverseSessions) {
-            final int sessionsSize = mDicTraverseSessions.size();
-            for (int index = 0; index < sessionsSize; ++index) {
-                final DicTraverseSession traverseSession = mDicTraverseSessions.valueAt(index);
-                if (traverseSession != null) {
-                    traverseSession.close();
-                }
-            }
-            mDicTraverseSessions.clear();
-        }
+        mDicTraverseSessionPool.close();
         closeInternalLocked();
     }
 
+    @Override
+    public long getEstimatedSessionNativeBytes() {
+        return mDicTraverseSessionPool.getEstimatedNativeBytes();
+    }
+
+    @Override
+    public long getEstimatedNativeBytes() {
+        return mDictSize + getEstimatedSessionNativeBytes();
+    }
+
+    @Override
+    public void trimMemory() {
+        mDicTraverseSessionPool.closeIdleSessions();
+    }
+
     private synchronized void closeInternalLocked() {
         if (mNativeDict != 0) {
             closeNative(mNativeDict);
@@ -22,15 +22,19 @@ import android.net.Uri;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
 import android.util.Log;
+import android.util.Pair;
 
 import com.android.inputmethod.annotations.ExternallyReferenced;
 import com.android.inputmethod.latin.ContactsManager.ContactsChangedListener;
 import com.android.inputmethod.latin.common.StringUtils;
 import com.android.inputmethod.latin.permissions.PermissionsUtil;
+import com.android.inputmethod.latin.utils.ExecutorUtils;
 import in.androidtweak.inputmethod.indic.personalization.AccountUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 
@@ -50,6 +54,16 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
     private final boolean mUseFirstLastBigrams;
     private final ContactsManager mContactsManager;
 
+    // The names of the contacts in the dictionary, and for each word and n-gram the number of
+    // names or account addresses it comes from, so that the words and n-grams of the contacts
+    // that changed are removed only once no other name has them. Only accessed on the keyboard
+    // executor. The names are null until the dictionary has been built in this instance, since
+    // the contents of a dictionary loaded from its file are unknown.
+    @Nullable
+    private HashSet<String> mContactNames;
+    private final HashMap<String, Integer> mWordCounts = new HashMap<>();
+    private final HashMap<Pair<NgramContext, String>, Integer> mNgramCounts = new HashMap<>();
+
     protected ContactsBinaryDictionary(final Context context, final Locale locale,
             final File dictFile, final String name) {
         super(context, getDictName(name, locale, dictFile), locale, Dictionary.TYPE_CONTACTS,
@@ -80,6 +94,9 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
      */
     @Override
     public void loadInitialContentsLocked() {
+        mContactNames = null;
+        mWordCounts.clear();
+        mNgramCounts.clear();
         loadDeviceAccountsEmailAddressesLocked();
         loadDictionaryForUriLocked(ContactsContract.Profile.CONTENT_URI);
         // TODO: Switch this URL to the newer ContactsContract too
@@ -103,6 +120,7 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
             addUnigramLocked(word, ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS,
                     false /* isNotAWord */, false /* isPossiblyOffensive */,
                     BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            incrementCount(mWordCounts, word);
         }
     }
 
@@ -115,62 +133,178 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
             Log.i(TAG, "No permission to read contacts. Not loading the Dictionary.");
         }
 
+        final boolean isContactsUri = uri.equals(Contacts.CONTENT_URI);
+        final long lastUpdatedTimestamp = isContactsUri
+                ? mContactsManager.getLastUpdatedTimestamp(ContactsManager.NOT_A_TIMESTAMP)
+                : ContactsManager.NOT_A_TIMESTAMP;
         final ArrayList<String> validNames = mContactsManager.getValidNames(uri);
         for (final String name : validNames) {
             addNameLocked(name);
         }
-        if (uri.equals(Contacts.CONTENT_URI)) {
+        if (isContactsUri) {
+            mContactNames = new HashSet<>(validNames);
             // Since we were able to add content successfully, update the local
             // state of the manager.
-            mContactsManager.updateLocalState(validNames);
+            mContactsManager.updateLocalState(validNames, lastUpdatedTimestamp);
         }
     }
 
     /**
-     * Adds the words in a name (e.g., firstname/lastname) to the binary dictionary along with their
-     * bigrams depending on locale.
+     * Returns the words in a name (e.g., firstname/lastname) that go in the dictionary.
      */
-    private void addNameLocked(final String name) {
+    private static ArrayList<String> getWordsInName(final String name) {
+        final ArrayList<String> words = new ArrayList<>();
         int len = StringUtils.codePointCount(name);
-        NgramContext ngramContext = NgramContext.getEmptyPrevWordsContext(
-                BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM);
         // TODO: Better tokenization for non-Latin writing systems
         for (int i = 0; i < len; i++) {
             if (Character.isLetter(name.codePointAt(i))) {
                 int end = ContactsDictionaryUtils.getWordEndPosition(name, len, i);
                 String word = name.substring(i, end);
                 if (DEBUG_DUMP) {
-                    Log.d(TAG, "addName word = " + word);
+                    Log.d(TAG, "getWordsInName word = " + word);
                 }
                 i = end - 1;
                 // Don't add single letter words, possibly confuses
                 // capitalization of i.
                 final int wordLen = StringUtils.codePointCount(word);
                 if (wordLen <= MAX_WORD_LENGTH && wordLen > 1) {
-                    if (DEBUG) {
-                        Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
-                    }
-                    runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                    addUnigramLocked(word,
-                            ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS, false /* isNotAWord */,
-                            false /* isPossiblyOffensive */,
-                            BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    if (ngramContext.isValid() && mUseFirstLastBigrams) {
-                        runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                        addNgramEntryLocked(ngramContext,
-                                word,
-                                ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
-                                BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    }
-                    ngramContext = ngramContext.getNextNgramContext(
-                            new NgramContext.WordInfo(word));
+                    words.add(word);
                 }
             }
         }
+        return words;
     }
 
+    /**
+     * Adds the words in a name (e.g., firstname/lastname) to the binary dictionary along with their
+     * bigrams depending on locale.
+     */
+    private void addNameLocked(final String name) {
+        NgramContext ngramContext = NgramContext.getEmptyPrevWordsContext(
+                BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM);
+        for (final String word : getWordsInName(name)) {
+            if (DEBUG) {
+                Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
+            }
+            runGCIfRequiredLocked(true /* mindsBlockByGC */);
+            addUnigramLocked(word,
+                    ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS, false /* isNotAWord */,
+                    false /* isPossiblyOffensive */,
+                    BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            incrementCount(mWordCounts, word);
+            if (ngramContext.isValid() && mUseFirstLastBigrams) {
+                runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                addNgramEntryLocked(ngramContext,
+                        word,
+                        ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
+                        BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+                incrementCount(mNgramCounts, Pair.create(ngramContext, word));
+            }
+            ngramContext = ngramContext.getNextNgramContext(
+                    new NgramContext.WordInfo(word));
+        }
+    }
+
+    /**
+     * Removes the words in a name and their bigrams from the binary dictionary, except those
+     * that other names still have.
+     */
+    private void removeNameLocked(final String name) {
+        NgramContext ngramContext = NgramContext.getEmptyPrevWordsContext(
+                BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM);
+        final ArrayList<String> wordsToRemove = new ArrayList<>();
+        for (final String word : getWordsInName(name)) {
+            if (DEBUG) {
+                Log.d(TAG, "removeName " + name + ", " + word + ", "  + ngramContext);
+            }
+            if (ngramContext.isValid() && mUseFirstLastBigrams
+                    && decrementCount(mNgramCounts, Pair.create(ngramContext, word))) {
+                removeNgramEntryLocked(ngramContext, word);
+            }
+            if (decrementCount(mWordCounts, word)) {
+                wordsToRemove.add(word);
+            }
+            ngramContext = ngramContext.getNextNgramContext(
+                    new NgramContext.WordInfo(word));
+        }
+        // The n-grams of the words are removed first.
+        for (final String word : wordsToRemove) {
+            removeUnigramLocked(word);
+        }
+    }
+
+    private static <K> void incrementCount(final HashMap<K, Integer> counts, final K key) {
+        final Integer count = counts.get(key);
+        counts.put(key, null == count ? 1 : count + 1);
+    }
+
+    /**
+     * @return whether no more names have the key.
+     */
+    private static <K> boolean decrementCount(final HashMap<K, Integer> counts, final K key) {
+        final Integer count = counts.get(key);
+        if (null == count || count <= 1) {
+            counts.remove(key);
+            return true;
+        }
+        counts.put(key, count - 1);
+        return false;
+    }
+
+    /**
+     * Adds the names of the contacts that were added or renamed, and removes those of the
+     * contacts that were removed or renamed, instead of rebuilding the dictionary. The dictionary
+     * is rebuilt if its contents are unknown.
+     */
     @Override
-    public void onContactsChange() {
-        setNeedsToRecreate();
+    public void onContactsChange(final ArrayList<String> validNames) {
+        final HashSet<String> names = new HashSet<>(validNames);
+        // mContactNames is only accessed by the tasks of this dictionary.
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (null == mContactNames) {
+                    setNeedsToRecreate();
+                    return;
+                }
+                updateDictionaryWithWriteLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateContactNamesLocked(names);
+                    }
+                });
+            }
+        }, ExecutorUtils.LANE_UPDATE);
+    }
+
+    private void updateContactNamesLocked(final HashSet<String> names) {
+        final HashSet<String> contactNames = mContactNames;
+        if (null == contactNames) {
+            // Rebuilt in the meantime.
+            return;
+        }
+        // Diffed here rather than when the change was detected, since the dictionary may have
+        // been updated in between.
+        final ArrayList<String> removedNames = new ArrayList<>();
+        for (final String name : contactNames) {
+            if (!names.contains(name)) {
+                removedNames.add(name);
+            }
+        }
+        for (final String name : removedNames) {
+            removeNameLocked(name);
+            contactNames.remove(name);
+        }
+        int addedNameCount = 0;
+        for (final String name : names) {
+            if (contactNames.add(name)) {
+                addNameLocked(name);
+                addedNameCount++;
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Updated contacts: " + addedNameCount + " names added, "
+                    + removedNames.size() + " names removed");
+        }
     }
 }
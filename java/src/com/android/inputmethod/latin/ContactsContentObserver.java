@@ -30,8 +30,11 @@ import com.android.inputmethod.latin.permissions.PermissionsUtil;
 import com.android.inputmethod.latin.utils.ExecutorUtils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 /**
  * A content observer that listens to updates to content provider {@link Contacts#CONTENT_URI}.
  */
@@ -65,8 +68,10 @@ public class ContactsContentObserver implements Runnable {
         mContentObserver = new ContentObserver(null /* handler */) {
             @Override
             public void onChange(boolean self) {
-                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD)
-                        .execute(ContactsContentObserver.this);
+                // Querying the contacts provider is housekeeping: it must not hold up the
+                // tasks that suggestions wait for.
+                ExecutorUtils.getSerialExecutor(TAG)
+                        .execute(ContactsContentObserver.this, ExecutorUtils.LANE_BULK);
             }
         };
         final ContentResolver contentResolver = mContext.getContentResolver();
@@ -88,46 +93,64 @@ public class ContactsContentObserver implements Runnable {
             }
             return;
         }
-        if (haveContentsChanged()) {
+        final ArrayList<String> validNames = getValidNamesIfChanged();
+        if (null != validNames) {
             if (DebugFlags.DEBUG_ENABLED) {
                 Log.d(TAG, "run() : Contacts have changed. Notifying listeners.");
             }
-            mContactsChangedListener.onContactsChange();
+            mContactsChangedListener.onContactsChange(validNames);
         }
         mRunning.set(false);
     }
 
-    boolean haveContentsChanged() {
+    /**
+     * Returns the valid names in the Contacts DB if they changed since the last update of the
+     * manager, and updates the manager. The names are only queried if the number of contacts
+     * changed or some contacts were updated since.
+     *
+     * @return the valid names, or null if they did not change.
+     */
+    @Nullable
+    ArrayList<String> getValidNamesIfChanged() {
         if (!PermissionsUtil.checkAllPermissionsGranted(
                 mContext, Manifest.permission.READ_CONTACTS)) {
             Log.i(TAG, "No permission to read contacts. Marking contacts as not changed.");
-            return false;
+            return null;
         }
 
         final long startTime = SystemClock.uptimeMillis();
         final int contactCount = mManager.getContactCount();
         if (contactCount > ContactsDictionaryConstants.MAX_CONTACTS_PROVIDER_QUERY_LIMIT) {
-            // If there are too many contacts then return false. In this rare case it is impossible
-            // to include all of them anyways and the cost of rebuilding the dictionary is too high.
+            // If there are too many contacts then return null. In this rare case it is impossible
+            // to include all of them anyways and the cost of updating the dictionary is too high.
             // TODO: Sort and check only the most recent contacts?
-            return false;
+            return null;
         }
-        if (contactCount != mManager.getContactCountAtLastRebuild()) {
+        final boolean hasCountChanged = contactCount != mManager.getContactCountAtLastRebuild();
+        final long lastUpdatedTimestampAtLastRebuild =
+                mManager.getLastUpdatedTimestampAtLastRebuild();
+        final long lastUpdatedTimestamp =
+                mManager.getLastUpdatedTimestamp(lastUpdatedTimestampAtLastRebuild);
+        if (!hasCountChanged && ContactsManager.NOT_A_TIMESTAMP != lastUpdatedTimestamp
+                && lastUpdatedTimestamp == lastUpdatedTimestampAtLastRebuild) {
             if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(TAG, "haveContentsChanged() : Count changed from "
-                        + mManager.getContactCountAtLastRebuild() + " to " + contactCount);
+                Log.d(TAG, "getValidNamesIfChanged() : No contact updated, checked in "
+                        + (SystemClock.uptimeMillis() - startTime) + " ms");
             }
-            return true;
+            return null;
         }
         final ArrayList<String> names = mManager.getValidNames(Contacts.CONTENT_URI);
-        if (names.hashCode() != mManager.getHashCodeAtLastRebuild()) {
-            return true;
-        }
+        final boolean haveNamesChanged =
+                !mManager.getNamesAtLastRebuild().equals(new HashSet<>(names));
+        // Also updated when only other fields changed, so that these contacts are not checked
+        // again.
+        mManager.updateLocalState(names, lastUpdatedTimestamp);
         if (DebugFlags.DEBUG_ENABLED) {
-            Log.d(TAG, "haveContentsChanged() : No change detected in "
-                    + (SystemClock.uptimeMillis() - startTime) + " ms)");
+            Log.d(TAG, "getValidNamesIfChanged() : Count changed: " + hasCountChanged
+                    + ", names changed: " + haveNamesChanged + ", checked in "
+                    + (SystemClock.uptimeMillis() - startTime) + " ms");
         }
-        return false;
+        return haveNamesChanged ? names : null;
     }
 
     public void unregister() {
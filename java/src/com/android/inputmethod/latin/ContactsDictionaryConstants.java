@@ -29,6 +29,12 @@ public class ContactsDictionaryConstants {
     public static final String[] PROJECTION = { BaseColumns._ID, Contacts.DISPLAY_NAME,
             Contacts.TIMES_CONTACTED, Contacts.LAST_TIME_CONTACTED, Contacts.IN_VISIBLE_GROUP };
     public static final String[] PROJECTION_ID_ONLY = { BaseColumns._ID };
+    /**
+     * Projection for the contacts updated since a given time. The column exists since
+     * {@link android.os.Build.VERSION_CODES#JELLY_BEAN_MR2}.
+     */
+    public static final String[] PROJECTION_LAST_UPDATED_TIMESTAMP =
+            { Contacts.CONTACT_LAST_UPDATED_TIMESTAMP };
 
     /**
      * Frequency for contacts information into the dictionary
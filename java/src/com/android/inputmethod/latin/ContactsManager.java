@@ -20,6 +20,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.ContactsContract.Contacts;
 import android.text.TextUtils;
 import android.util.Log;
@@ -31,8 +32,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages all interactions with Contacts DB.
@@ -48,6 +51,8 @@ public class ContactsManager {
      */
     public static final int MAX_CONTACT_NAMES = 200;
 
+    public static final long NOT_A_TIMESTAMP = -1;
+
     protected static class RankedContact {
         public final String mName;
         public final long mLastContactedTime;
@@ -105,7 +110,12 @@ public class ContactsManager {
      * to Contacts content provider.
      */
     public static interface ContactsChangedListener {
-        public void onContactsChange();
+        /**
+         * Called when the valid names in the Contacts DB have changed.
+         *
+         * @param validNames all the valid names, as returned by {@link #getValidNames(Uri)}.
+         */
+        public void onContactsChange(ArrayList<String> validNames);
     }
 
     /**
@@ -115,10 +125,15 @@ public class ContactsManager {
     private AtomicInteger mContactCountAtLastRebuild = new AtomicInteger(0);
 
     /**
-     * The hash code of list of valid contacts names in the most recent dictionary
-     * rebuild.
+     * The valid contacts names in the most recent dictionary update.
+     */
+    private volatile Set<String> mNamesAtLastRebuild = Collections.emptySet();
+
+    /**
+     * The time the most recently updated contact was updated at, as of the most recent
+     * dictionary update, or {@link #NOT_A_TIMESTAMP} if unknown.
      */
-    private AtomicInteger mHashCodeAtLastRebuild = new AtomicInteger(0);
+    private AtomicLong mLastUpdatedTimestampAtLastRebuild = new AtomicLong(NOT_A_TIMESTAMP);
 
     private final Context mContext;
     private final ContactsContentObserver mObserver;
@@ -137,8 +152,12 @@ public class ContactsManager {
         return mContactCountAtLastRebuild.get();
     }
 
-    public int getHashCodeAtLastRebuild() {
-        return mHashCodeAtLastRebuild.get();
+    public Set<String> getNamesAtLastRebuild() {
+        return mNamesAtLastRebuild;
+    }
+
+    public long getLastUpdatedTimestampAtLastRebuild() {
+        return mLastUpdatedTimestampAtLastRebuild.get();
     }
 
     /**
@@ -214,6 +233,39 @@ public class ContactsManager {
         return 0;
     }
 
+    /**
+     * Returns the time the most recently updated contact was updated at, querying only the
+     * contacts updated after the given time.
+     *
+     * @param since the time returned by a previous call, or {@link #NOT_A_TIMESTAMP}.
+     * @return the given time if no contact was updated since, or {@link #NOT_A_TIMESTAMP} if the
+     *     contacts provider doesn't record when contacts are updated.
+     */
+    public long getLastUpdatedTimestamp(final long since) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return NOT_A_TIMESTAMP;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Contacts.CONTENT_URI,
+                    ContactsDictionaryConstants.PROJECTION_LAST_UPDATED_TIMESTAMP,
+                    Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                    new String[] { Long.toString(since) },
+                    Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " DESC");
+            if (null == cursor) {
+                return NOT_A_TIMESTAMP;
+            }
+            return cursor.moveToFirst() ? cursor.getLong(0) : since;
+        } catch (final SQLiteException e) {
+            Log.e(TAG, "SQLiteException in the remote Contacts process.", e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+        return NOT_A_TIMESTAMP;
+    }
+
     private static boolean isValidName(final String name) {
         if (TextUtils.isEmpty(name) || name.indexOf(Constants.CODE_COMMERCIAL_AT) != -1) {
             return false;
@@ -230,10 +282,15 @@ public class ContactsManager {
     /**
      * Updates the local state of the manager. This should be called when the callers
      * are done with all the updates of the content provider successfully.
+     *
+     * @param names the names returned by {@link #getValidNames(Uri)}.
+     * @param lastUpdatedTimestamp the value of {@link #getLastUpdatedTimestamp(long)} from before
+     *     the names were queried.
      */
-    public void updateLocalState(final ArrayList<String> names) {
+    public void updateLocalState(final ArrayList<String> names, final long lastUpdatedTimestamp) {
         mContactCountAtLastRebuild.set(getContactCount());
-        mHashCodeAtLastRebuild.set(names.hashCode());
+        mNamesAtLastRebuild = Collections.unmodifiableSet(new HashSet<>(names));
+        mLastUpdatedTimestampAtLastRebuild.set(lastUpdatedTimestamp);
     }
 
     /**
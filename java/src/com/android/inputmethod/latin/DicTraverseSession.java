@@ -52,6 +52,8 @@ public final class DicTraverseSession {
     private static native void releaseDicTraverseSessionNative(long nativeDicTraverseSession);
 
     private long mNativeDicTraverseSession;
+    // The number of times its DicTraverseSessionPool was closed when the session was checked out.
+    int mPoolGeneration;
 
     public DicTraverseSession(Locale locale, long dictionary, long dictSize) {
         mNativeDicTraverseSession = createNativeDicTraverseSession(
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.os.SystemClock;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A bounded pool of the native traverse sessions of a {@link BinaryDictionary}.
+ *
+ * Each session owns a native cache of a few hundred search nodes. Sessions used to be kept
+ * forever, one per session id, so every id the IME or the spell checker ever used held one. The
+ * pool keeps only a few idle sessions, and closes those that stayed idle for a while.
+ *
+ * A session is checked out by one thread at a time, so two lookups never share one. Checking out
+ * and giving back are lock-free. The session last given back under the same session id is
+ * preferred, since its cache may allow continuing the search of the previous keystroke.
+ *
+ * A session is bound to the native dictionary it was created for. Sessions checked out before
+ * the pool was closed are closed as soon as they are given back, instead of being pooled for
+ * the next native dictionary.
+ */
+final class DicTraverseSessionPool {
+    @UsedForTesting
+    static final int MAX_IDLE_SESSIONS = 4;
+    @UsedForTesting
+    static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // Must be equal to DICTIONARY_SIZE_THRESHOLD_TO_USE_LARGE_CACHE_FOR_SUGGESTION in
+    // native/jni/src/suggest/core/session/dic_traverse_session.cpp
+    private static final long DICTIONARY_SIZE_THRESHOLD_TO_USE_LARGE_CACHE = 256 * 1024;
+    // Must be equal to the priority queue capacities in
+    // native/jni/src/suggest/core/dicnode/dic_nodes_cache.cpp, and MAX_RESULTS in
+    // native/jni/src/defines.h
+    private static final int LARGE_PRIORITY_QUEUE_CAPACITY = 310;
+    private static final int SMALL_PRIORITY_QUEUE_CAPACITY = 100;
+    private static final int TERMINAL_QUEUE_CAPACITY = 18;
+    // These are estimates: a search node is mostly its output code point buffer, and the
+    // proximity states of the input pointers account for most of the rest of a session.
+    private static final int ESTIMATED_DIC_NODE_BYTES = 400;
+    private static final int ESTIMATED_SESSION_OVERHEAD_BYTES = 64 * 1024;
+
+    private static final class IdleSession {
+        public final DicTraverseSession mSession;
+        public final int mSessionId;
+        public final long mIdleSinceMillis;
+
+        public IdleSession(final DicTraverseSession session, final int sessionId,
+                final long idleSinceMillis) {
+            mSession = session;
+            mSessionId = sessionId;
+            mIdleSinceMillis = idleSinceMillis;
+        }
+    }
+
+    private final Locale mLocale;
+    private final long mDictSize;
+    private final int mEstimatedSessionBytes;
+    // Most recently given back sessions first.
+    private final ConcurrentLinkedDeque<IdleSession> mIdleSessions =
+            new ConcurrentLinkedDeque<>();
+    private final AtomicInteger mInUseCount = new AtomicInteger();
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicInteger mCreatedCount = new AtomicInteger();
+    private final AtomicInteger mEvictedCount = new AtomicInteger();
+
+    public DicTraverseSessionPool(final Locale locale, final long dictSize) {
+        mLocale = locale;
+        mDictSize = dictSize;
+        final int queueCapacity = dictSize >= DICTIONARY_SIZE_THRESHOLD_TO_USE_LARGE_CACHE
+                ? LARGE_PRIORITY_QUEUE_CAPACITY : SMALL_PRIORITY_QUEUE_CAPACITY;
+        mEstimatedSessionBytes = ESTIMATED_SESSION_OVERHEAD_BYTES
+                + (3 * queueCapacity + TERMINAL_QUEUE_CAPACITY) * ESTIMATED_DIC_NODE_BYTES;
+    }
+
+    /**
+     * Checks out a session for a lookup. It must be given back with {@link #release} once the
+     * results have been read.
+     * @param nativeDict the native dictionary to create a new session for, if none is idle.
+     */
+    @Nonnull
+    public DicTraverseSession acquire(final int sessionId, final long nativeDict) {
+        mInUseCount.incrementAndGet();
+        final int generation = mGeneration.get();
+        IdleSession idleSession;
+        while (null != (idleSession = pollIdleSession(sessionId))) {
+            if (idleSession.mSession.mPoolGeneration == generation) {
+                return idleSession.mSession;
+            }
+            // Given back while the pool was being closed.
+            idleSession.mSession.close();
+        }
+        mCreatedCount.incrementAndGet();
+        final DicTraverseSession session = new DicTraverseSession(mLocale, nativeDict, mDictSize);
+        session.mPoolGeneration = generation;
+        return session;
+    }
+
+    /**
+     * Gives back a session checked out with {@link #acquire}.
+     */
+    public void release(final int sessionId, @Nonnull final DicTraverseSession session) {
+        release(sessionId, session, SystemClock.uptimeMillis());
+    }
+
+    @UsedForTesting
+    void release(final int sessionId, @Nonnull final DicTraverseSession session,
+            final long now) {
+        mInUseCount.decrementAndGet();
+        if (session.mPoolGeneration != mGeneration.get()) {
+            session.close();
+            return;
+        }
+        final IdleSession idleSession = new IdleSession(session, sessionId, now);
+        mIdleSessions.offerFirst(idleSession);
+        // If the pool was closed in the meantime, whoever takes the session out closes it.
+        if (session.mPoolGeneration != mGeneration.get()
+                && mIdleSessions.removeFirstOccurrence(idleSession)) {
+            session.close();
+            return;
+        }
+        // Sessions are only evicted here, so a dictionary that is no longer looked up keeps at
+        // most MAX_IDLE_SESSIONS of them until it's closed.
+        evictIdleSessions(now);
+    }
+
+    /**
+     * Closes all the idle sessions, and the sessions in use once they are given back. The pool
+     * can still be used afterwards, with new sessions. Like the native dictionary they were
+     * created for, the sessions must not be running a lookup while the dictionary is being
+     * closed.
+     */
+    public void close() {
+        mGeneration.incrementAndGet();
+        closeIdleSessions();
+    }
+
+    /**
+     * Closes the idle sessions only, to free their memory. The sessions in use are still pooled
+     * once they are given back.
+     */
+    public void closeIdleSessions() {
+        IdleSession idleSession;
+        while (null != (idleSession = mIdleSessions.pollFirst())) {
+            idleSession.mSession.close();
+        }
+    }
+
+    public int getIdleCount() {
+        return mIdleSessions.size();
+    }
+
+    public int getInUseCount() {
+        return mInUseCount.get();
+    }
+
+    /**
+     * Returns an estimate of the native memory held by the sessions of this pool.
+     */
+    public long getEstimatedNativeBytes() {
+        return (long)(getIdleCount() + getInUseCount()) * mEstimatedSessionBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "traverse sessions: idle=%d inUse=%d created=%d evicted=%d nativeBytes~%d",
+                getIdleCount(), getInUseCount(), mCreatedCount.get(), mEvictedCount.get(),
+                getEstimatedNativeBytes());
+    }
+
+    private IdleSession pollIdleSession(final int sessionId) {
+        for (final IdleSession idleSession : mIdleSessions) {
+            // Only the thread that actually removes the entry gets the session.
+            if (idleSession.mSessionId == sessionId
+                    && mIdleSessions.removeFirstOccurrence(idleSession)) {
+                return idleSession;
+            }
+        }
+        return mIdleSessions.pollFirst();
+    }
+
+    private void evictIdleSessions(final long now) {
+        while (mIdleSessions.size() > MAX_IDLE_SESSIONS) {
+            if (!evictIdleSession(mIdleSessions.pollLast())) {
+                return;
+            }
+        }
+        final Iterator<IdleSession> iterator = mIdleSessions.descendingIterator();
+        while (iterator.hasNext()) {
+            final IdleSession idleSession = iterator.next();
+            if (now - idleSession.mIdleSinceMillis < IDLE_TIMEOUT_MILLIS) {
+                return;
+            }
+            if (mIdleSessions.removeLastOccurrence(idleSession)) {
+                evictIdleSession(idleSession);
+            }
+        }
+    }
+
+    private boolean evictIdleSession(final IdleSession idleSession) {
+        if (null == idleSession) {
+            return false;
+        }
+        idleSession.mSession.close();
+        mEvictedCount.incrementAndGet();
+        return true;
+    }
+}
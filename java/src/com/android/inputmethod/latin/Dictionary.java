@@ -19,6 +19,7 @@ package com.android.inputmethod.latin;
 import com.android.inputmethod.annotations.UsedForTesting;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.common.ComposedData;
+import com.android.inputmethod.latin.utils.SuggestionBuffer;
 import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
 
 import java.util.ArrayList;
@@ -102,6 +103,24 @@ public abstract class Dictionary {
             final int sessionId, final float weightForLocale,
             final float[] inOutWeightOfLangModelVsSpatialModel);
 
+    /**
+     * Searches for suggestions for a given context and offers them to the given buffer. This
+     * takes the same arguments as {@link #getSuggestions}, but dictionaries that can read their
+     * results as code points offer them without creating a word info for each, so only the
+     * suggestions that make it into the buffer cost any allocation.
+     * @param outSuggestions the buffer the suggestions are offered to.
+     */
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionBuffer outSuggestions) {
+        outSuggestions.addAll(getSuggestions(composedData, ngramContext, proximityInfoHandle,
+                settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel));
+    }
+
     /**
      * Checks if the given word has to be treated as a valid word. Please note that some
      * dictionaries have entries that should be treated as invalid words.
@@ -153,6 +172,39 @@ public abstract class Dictionary {
         return true;
     }
 
+    /**
+     * Returns a number that changes whenever the contents of this dictionary change, so that
+     * results computed from this dictionary can be reused until then. Dictionaries that never
+     * change keep the default.
+     */
+    public int getContentVersion() {
+        return 0;
+    }
+
+    /**
+     * Returns an estimate of the native memory held by the traverse sessions of this dictionary,
+     * for dumps. Dictionaries that don't search natively keep the default.
+     */
+    public long getEstimatedSessionNativeBytes() {
+        return 0;
+    }
+
+    /**
+     * Returns an estimate of all the native memory held by this dictionary, its data and its
+     * traverse sessions, for the memory budget of {@link DictionaryRegistry}.
+     */
+    public long getEstimatedNativeBytes() {
+        return getEstimatedSessionNativeBytes();
+    }
+
+    /**
+     * Releases the memory that this dictionary allocates again when needed, such as its idle
+     * traverse sessions. The dictionary stays usable.
+     */
+    public void trimMemory() {
+        // empty base implementation
+    }
+
     /**
      * Override to clean up any resources.
      */
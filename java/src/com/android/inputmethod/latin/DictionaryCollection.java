@@ -20,6 +20,7 @@ import android.util.Log;
 
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.common.ComposedData;
+import com.android.inputmethod.latin.utils.SuggestionBuffer;
 import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
 
 import java.util.ArrayList;
@@ -82,6 +83,56 @@ public final class DictionaryCollection extends Dictionary {
         return suggestions;
     }
 
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionBuffer outSuggestions) {
+        final CopyOnWriteArrayList<Dictionary> dictionaries = mDictionaries;
+        final int length = dictionaries.size();
+        for (int i = 0; i < length; ++i) {
+            dictionaries.get(i).collectSuggestions(composedData, ngramContext,
+                    proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                    weightForLocale, inOutWeightOfLangModelVsSpatialModel, outSuggestions);
+        }
+    }
+
+    @Override
+    public int getContentVersion() {
+        int contentVersion = 0;
+        for (int i = mDictionaries.size() - 1; i >= 0; --i) {
+            contentVersion += mDictionaries.get(i).getContentVersion();
+        }
+        return contentVersion;
+    }
+
+    @Override
+    public long getEstimatedSessionNativeBytes() {
+        long nativeBytes = 0;
+        for (int i = mDictionaries.size() - 1; i >= 0; --i) {
+            nativeBytes += mDictionaries.get(i).getEstimatedSessionNativeBytes();
+        }
+        return nativeBytes;
+    }
+
+    @Override
+    public long getEstimatedNativeBytes() {
+        long nativeBytes = 0;
+        for (int i = mDictionaries.size() - 1; i >= 0; --i) {
+            nativeBytes += mDictionaries.get(i).getEstimatedNativeBytes();
+        }
+        return nativeBytes;
+    }
+
+    @Override
+    public void trimMemory() {
+        for (int i = mDictionaries.size() - 1; i >= 0; --i) {
+            mDictionaries.get(i).trimMemory();
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         for (int i = mDictionaries.size() - 1; i >= 0; --i)
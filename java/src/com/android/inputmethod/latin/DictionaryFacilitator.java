@@ -123,6 +123,15 @@ public interface DictionaryFacilitator {
             final String dictNamePrefix,
             @Nullable final DictionaryInitializationListener listener);
 
+    /**
+     * Sets the other locales the user types in, whose main dictionaries are looked up along
+     * with the dictionaries of the current locale. Their main dictionaries are loaded
+     * asynchronously. Does nothing if the locales did not change.
+     *
+     * @param locales the other locales, in order of preference, none of them the current one.
+     */
+    void resetSecondaryDictionaries(final Context context, @Nonnull final List<Locale> locales);
+
     @UsedForTesting
     void resetDictionariesForTesting(
             final Context context,
@@ -134,6 +143,13 @@ public interface DictionaryFacilitator {
 
     void closeDictionaries();
 
+    /**
+     * Releases memory according to the level given to
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}, then has the
+     * {@link DictionaryRegistry} release what it can.
+     */
+    void onTrimMemory(final int level);
+
     @UsedForTesting
     ExpandableBinaryDictionary getSubDictForTesting(final String dictName);
 
@@ -164,6 +180,31 @@ public interface DictionaryFacilitator {
             final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
             final int inputStyle);
 
+    /**
+     * Same as {@link #getSuggestionResults(ComposedData, NgramContext, Keyboard,
+     * SettingsValuesForSuggestion, int, int)}, but also looks up alternative spellings of the
+     * typed word, for example the other native-script spellings of the keys typed with a
+     * transliteration method. The suggestions for all the spellings are merged in one result.
+     */
+    @Nonnull SuggestionResults getSuggestionResults(final ComposedData composedData,
+            @Nonnull final List<String> alternativeTypedWords, final NgramContext ngramContext,
+            @Nonnull final Keyboard keyboard,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final int inputStyle);
+
+    /**
+     * Looks up the suggestions for a word that the user has not typed yet, the last letter of
+     * which is typed at the center of its key. The results are cached apart from the others, and
+     * {@link #getSuggestionResults(ComposedData, List, NgramContext, Keyboard,
+     * SettingsValuesForSuggestion, int, int)} returns them when the user does type that word,
+     * wherever they touch the key of the last letter.
+     * @return the results, which are empty if the word can't be looked up ahead.
+     */
+    @Nonnull SuggestionResults precomputeSuggestionResults(final ComposedData composedData,
+            @Nonnull final List<String> alternativeTypedWords, final NgramContext ngramContext,
+            @Nonnull final Keyboard keyboard,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId);
+
     boolean isValidSpellingWord(final String word);
 
     boolean isValidSuggestionWord(final String word);
@@ -17,37 +17,55 @@
 package com.android.inputmethod.latin;
 
 import android.Manifest;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.LruCache;
 
 import com.android.inputmethod.annotations.UsedForTesting;
 import com.android.inputmethod.keyboard.Keyboard;
+import com.android.inputmethod.keyboard.ProximityInfo;
 import com.android.inputmethod.latin.NgramContext.WordInfo;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.common.ComposedData;
 import com.android.inputmethod.latin.common.Constants;
+import com.android.inputmethod.latin.common.InputPointers;
 import com.android.inputmethod.latin.common.StringUtils;
+import com.android.inputmethod.latin.define.DebugFlags;
+import com.android.inputmethod.latin.define.ProductionFlags;
 import com.android.inputmethod.latin.permissions.PermissionsUtil;
 import in.androidtweak.inputmethod.indic.personalization.UserHistoryDictionary;
 import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
 import com.android.inputmethod.latin.utils.ExecutorUtils;
+import com.android.inputmethod.latin.utils.LatencyStats;
+import com.android.inputmethod.latin.utils.ScriptUtils;
+import com.android.inputmethod.latin.utils.SuggestionBuffer;
 import com.android.inputmethod.latin.utils.SuggestionResults;
+import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -68,7 +86,46 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     // dictionary.
     private static final int CAPITALIZED_FORM_MAX_PROBABILITY_FOR_INSERT = 140;
 
+    // Suggestions for alternative spellings of the typed word rank slightly below those for the
+    // word as it was composed.
+    private static final float WEIGHT_FOR_ALTERNATIVE_TYPED_WORDS = 0.9f;
+    // Time the lookups of the alternative spellings may take on top of that of the typed word.
+    // The alternatives are looked up in order while the next one is expected to fit, so that a
+    // keystroke costs at most this much more than without them.
+    private static final long ALTERNATIVE_LOOKUPS_BUDGET_MS = 10;
+
+    private static final boolean IS_PARALLEL_DICTIONARY_LOOKUP_ENABLED =
+            ProductionFlags.ENABLE_PARALLEL_DICTIONARY_LOOKUP
+                    && Runtime.getRuntime().availableProcessors() > 1;
+    // Time after which the suggestions of the dictionaries that are still being looked up in
+    // parallel are dropped, so that the results are delivered on time.
+    private static final long PARALLEL_DICTIONARY_LOOKUP_DEADLINE_MS = 150;
+
+    private static final boolean USES_WARM_START =
+            ProductionFlags.ENABLE_MAIN_DICTIONARY_WARM_START;
+    // This class is loaded when the IME service is created, which is close to the start of the
+    // process. The times below are measured from then, once per process.
+    private static final long PROCESS_START_UPTIME_MILLIS = SystemClock.uptimeMillis();
+    private static final AtomicLong sFirstSuggestionUptimeMillis = new AtomicLong();
+    private static final AtomicLong sFirstMainDictionaryUptimeMillis = new AtomicLong();
+    private static volatile boolean sIsFirstMainDictionaryWarmStarted;
+
+    private final MainDictionaryWarmStart mWarmStart = new MainDictionaryWarmStart();
+
+    // Words found in the main dictionary of another language only, committed in a row, after
+    // which that language becomes the most probable one. One word is not enough, as a word
+    // borrowed from another language is common in a sentence.
+    private static final int CONFIDENCE_TO_SWITCH_MOST_PROBABLE_LANGUAGE = 2;
+
     private DictionaryGroup mDictionaryGroup = new DictionaryGroup();
+    // The other languages the user types in. They only have a main dictionary, so that
+    // looking them up costs about one more dictionary. Replaced as a whole under mLock.
+    private volatile DictionaryGroup[] mSecondaryDictionaryGroups = new DictionaryGroup[0];
+    // The group of the language the user is most likely typing in. Guarded by mLock.
+    private DictionaryGroup mMostProbableDictionaryGroup = mDictionaryGroup;
+    // Incremented when the most probable language changes, so that the suggestions cached with
+    // the previous weights are dropped.
+    private volatile int mLanguageWeightsVersion;
     private volatile CountDownLatch mLatchForWaitingLoadingMainDictionaries = new CountDownLatch(0);
     // To synchronize assigning mDictionaryGroup to ensure closing dictionaries.
     private final Object mLock = new Object();
@@ -82,10 +139,42 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         DICT_TYPE_TO_CLASS.put(Dictionary.TYPE_CONTACTS, ContactsBinaryDictionary.class);
     }
 
+    // Sub-dictionaries whose contents come from the system, the same for all the users in the
+    // process. The IME and the spell checker share one instance of them, whatever the name
+    // prefix they ask for, and so read them from one file and observe the system once.
+    private static final HashSet<String> SHARED_SUB_DICTIONARY_TYPES = new HashSet<>();
+
+    static {
+        SHARED_SUB_DICTIONARY_TYPES.add(Dictionary.TYPE_USER);
+        SHARED_SUB_DICTIONARY_TYPES.add(Dictionary.TYPE_CONTACTS);
+    }
+
+    private final LatencyStats mSuggestionLatencyStats = new LatencyStats("suggestions");
+    private final HashMap<String, LatencyStats> mLookupLatencyStats = new HashMap<>();
+    private final LatencyStats mAlternativeLookupLatencyStats = new LatencyStats("alternatives");
+
     private static final String DICT_FACTORY_METHOD_NAME = "getDictionary";
     private static final Class<?>[] DICT_FACTORY_METHOD_ARG_TYPES =
             new Class[] { Context.class, Locale.class, File.class, String.class, String.class };
 
+    // Committed words are learned in batches on the keyboard executor, so that the lookups
+    // deciding how to learn them don't run on the input thread, and the words committed in a row
+    // are learned in one dictionary update.
+    private static final long USER_HISTORY_LEARNING_DELAY_MS = 300;
+    // How long a next-word prediction waits for the pending words to be learned.
+    private static final long USER_HISTORY_LEARNING_TIMEOUT_FOR_PREDICTIONS_MS = 50;
+
+    private final ArrayList<UserHistoryEvent> mPendingUserHistoryEvents = new ArrayList<>();
+    // Guarded by mPendingUserHistoryEvents.
+    private boolean mIsUserHistoryLearningScheduled;
+
+    private final Runnable mLearnPendingUserHistoryEventsTask = new Runnable() {
+        @Override
+        public void run() {
+            learnPendingUserHistoryEvents();
+        }
+    };
+
     private LruCache<String, Boolean> mValidSpellingWordReadCache;
     private LruCache<String, Boolean> mValidSpellingWordWriteCache;
 
@@ -134,16 +223,25 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
          */
         @Nullable public final String mAccount;
 
+        /**
+         * The script the language is written in, as defined in {@link ScriptUtils}.
+         */
+        public final int mScript;
+
         @Nullable private Dictionary mMainDict;
         // Confidence that the most probable language is actually the language the user is
         // typing in. For now, this is simply the number of times a word from this language
         // has been committed in a row.
         private int mConfidence = 0;
 
-        public float mWeightForTypingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
-        public float mWeightForGesturingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+        public volatile float mWeightForTypingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+        public volatile float mWeightForGesturingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
         public final ConcurrentHashMap<String, ExpandableBinaryDictionary> mSubDictMap =
                 new ConcurrentHashMap<>();
+        // Results of the recent lookups in the dictionaries of this group. They are cleared
+        // when a dictionary is replaced, and dropped when the contents of one change.
+        public final SuggestionResultsCache mSuggestionResultsCache =
+                new SuggestionResultsCache();
 
         public DictionaryGroup() {
             this(null /* locale */, null /* mainDict */, null /* account */,
@@ -156,6 +254,8 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                 final Map<String, ExpandableBinaryDictionary> subDicts) {
             mLocale = locale;
             mAccount = account;
+            mScript = null == locale ? ScriptUtils.SCRIPT_UNKNOWN
+                    : ScriptUtils.getScriptFromLocale(locale);
             // The main dictionary can be asynchronously loaded.
             setMainDict(mainDict);
             for (final Map.Entry<String, ExpandableBinaryDictionary> entry : subDicts.entrySet()) {
@@ -163,9 +263,25 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             }
         }
 
+        public void setIsMostProbableLanguage(final boolean isMostProbableLanguage) {
+            if (isMostProbableLanguage) {
+                mWeightForTypingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+                mWeightForGesturingInLocale = WEIGHT_FOR_MOST_PROBABLE_LANGUAGE;
+            } else {
+                mConfidence = 0;
+                mWeightForTypingInLocale = WEIGHT_FOR_TYPING_IN_NOT_MOST_PROBABLE_LANGUAGE;
+                mWeightForGesturingInLocale = WEIGHT_FOR_GESTURING_IN_NOT_MOST_PROBABLE_LANGUAGE;
+            }
+        }
+
+        public float getWeightForLocale(final boolean isBatchMode) {
+            return isBatchMode ? mWeightForGesturingInLocale : mWeightForTypingInLocale;
+        }
+
         private void setSubDict(final String dictType, final ExpandableBinaryDictionary dict) {
             if (dict != null) {
                 mSubDictMap.put(dictType, dict);
+                mSuggestionResultsCache.clear();
             }
         }
 
@@ -173,11 +289,25 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             // Close old dictionary if exists. Main dictionary can be assigned multiple times.
             final Dictionary oldDict = mMainDict;
             mMainDict = mainDict;
+            mSuggestionResultsCache.clear();
             if (oldDict != null && mainDict != oldDict) {
-                oldDict.close();
+                DictionaryRegistry.getInstance().release(oldDict);
             }
         }
 
+        /**
+         * Returns the sum of the content versions of the dictionaries of this group. It changes
+         * whenever one of them changes, as long as the set of dictionaries stays the same.
+         */
+        public int getContentVersion() {
+            final Dictionary mainDict = mMainDict;
+            int contentVersion = null == mainDict ? 0 : mainDict.getContentVersion();
+            for (final ExpandableBinaryDictionary subDict : mSubDictMap.values()) {
+                contentVersion += subDict.getContentVersion();
+            }
+            return contentVersion;
+        }
+
         public Dictionary getDict(final String dictType) {
             if (Dictionary.TYPE_MAIN.equals(dictType)) {
                 return mMainDict;
@@ -207,16 +337,71 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             final Dictionary dict;
             if (Dictionary.TYPE_MAIN.equals(dictType)) {
                 dict = mMainDict;
+                // The registry counts the references, so the dictionary must not be released
+                // again by a later close or replacement.
+                mMainDict = null;
             } else {
                 dict = mSubDictMap.remove(dictType);
             }
             if (dict != null) {
-                dict.close();
+                mSuggestionResultsCache.clear();
+                DictionaryRegistry.getInstance().release(dict);
             }
         }
     }
 
+    /**
+     * A word committed or reverted by the user, to be learned or unlearned later.
+     */
+    private static final class UserHistoryEvent {
+        public final DictionaryGroup mDictionaryGroup;
+        public final String mWord;
+        public final boolean mIsUnlearning;
+        public final boolean mWasAutoCapitalized;
+        public final NgramContext mNgramContext;
+        public final int mTimestamp;
+        public final boolean mBlockPotentiallyOffensive;
+        public final int mEventType;
+
+        public UserHistoryEvent(final DictionaryGroup dictionaryGroup, final String suggestion,
+                final boolean wasAutoCapitalized, final NgramContext ngramContext,
+                final int timestamp, final boolean blockPotentiallyOffensive) {
+            mDictionaryGroup = dictionaryGroup;
+            mWord = suggestion;
+            mIsUnlearning = false;
+            mWasAutoCapitalized = wasAutoCapitalized;
+            mNgramContext = ngramContext;
+            mTimestamp = timestamp;
+            mBlockPotentiallyOffensive = blockPotentiallyOffensive;
+            mEventType = Constants.NOT_A_CODE;
+        }
+
+        public UserHistoryEvent(final DictionaryGroup dictionaryGroup, final String word,
+                final int eventType) {
+            mDictionaryGroup = dictionaryGroup;
+            mWord = word;
+            mIsUnlearning = true;
+            mWasAutoCapitalized = false;
+            mNgramContext = NgramContext.EMPTY_PREV_WORDS_INFO;
+            mTimestamp = 0;
+            mBlockPotentiallyOffensive = false;
+            mEventType = eventType;
+        }
+    }
+
+    /**
+     * What the dictionaries of a group know about a word to learn.
+     */
+    private static final class WordLookup {
+        public int mMaxFrequency = Dictionary.NOT_A_PROBABILITY;
+        public int mMainDictFrequency = Dictionary.NOT_A_PROBABILITY;
+        public boolean mIsValid;
+    }
+
     public DictionaryFacilitatorImpl() {
+        for (final String dictType : ALL_DICTIONARY_TYPES) {
+            mLookupLatencyStats.put(dictType, new LatencyStats(dictType));
+        }
     }
 
     @Override
@@ -224,7 +409,19 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     }
 
     @Override
-    public void onFinishInput(Context context) {
+    public void onFinishInput(final Context context) {
+        final Locale locale = mDictionaryGroup.mLocale;
+        if (!USES_WARM_START || null == locale) {
+            return;
+        }
+        // Not on the keyboard executor, which loads the main dictionaries.
+        ExecutorUtils.getSerialExecutor(MainDictionaryWarmStart.class.getSimpleName()).execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mWarmStart.savePrefixes(context, locale);
+                    }
+                }, ExecutorUtils.LANE_BULK);
     }
 
     @Override
@@ -247,9 +444,36 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         return null;
     }
 
+    /**
+     * Returns the sub-dictionary of the given type, shared through the registry with the other
+     * users of the same dictionary. Dictionaries read from a given file, for tests, are not
+     * shared. The dictionaries of {@link #SHARED_SUB_DICTIONARY_TYPES} are shared regardless of
+     * the name prefix.
+     */
     @Nullable
     private static ExpandableBinaryDictionary getSubDict(final String dictType,
-            final Context context, final Locale locale, final File dictFile,
+            final Context context, final Locale locale, @Nullable final File dictFile,
+            final String dictNamePrefix, @Nullable final String account) {
+        if (null != dictFile) {
+            return createSubDict(dictType, context, locale, dictFile, dictNamePrefix, account);
+        }
+        final String sharedDictNamePrefix =
+                SHARED_SUB_DICTIONARY_TYPES.contains(dictType) ? "" : dictNamePrefix;
+        final String key = sharedDictNamePrefix + dictType + ":" + locale
+                + (null == account ? "" : ":" + account);
+        return DictionaryRegistry.getInstance().acquire(key,
+                new DictionaryRegistry.Factory<ExpandableBinaryDictionary>() {
+                    @Override
+                    public ExpandableBinaryDictionary create() {
+                        return createSubDict(dictType, context, locale, null /* dictFile */,
+                                sharedDictNamePrefix, account);
+                    }
+                });
+    }
+
+    @Nullable
+    private static ExpandableBinaryDictionary createSubDict(final String dictType,
+            final Context context, final Locale locale, @Nullable final File dictFile,
             final String dictNamePrefix, @Nullable final String account) {
         final Class<? extends ExpandableBinaryDictionary> dictClass =
                 DICT_TYPE_TO_CLASS.get(dictType);
@@ -275,6 +499,77 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         return locale.equals(dictionaryGroup.mLocale) ? dictionaryGroup : null;
     }
 
+    @Nullable
+    static DictionaryGroup findDictionaryGroupWithLocale(final DictionaryGroup[] dictionaryGroups,
+            final Locale locale) {
+        for (final DictionaryGroup dictionaryGroup : dictionaryGroups) {
+            if (locale.equals(dictionaryGroup.mLocale)) {
+                return dictionaryGroup;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the group of the current locale followed by those of the other languages.
+     */
+    @Nonnull
+    private DictionaryGroup[] getDictionaryGroups() {
+        final DictionaryGroup[] secondaryDictionaryGroups = mSecondaryDictionaryGroups;
+        final DictionaryGroup[] dictionaryGroups =
+                new DictionaryGroup[secondaryDictionaryGroups.length + 1];
+        dictionaryGroups[0] = mDictionaryGroup;
+        System.arraycopy(secondaryDictionaryGroups, 0, dictionaryGroups, 1,
+                secondaryDictionaryGroups.length);
+        return dictionaryGroups;
+    }
+
+    /**
+     * Returns the group of the current locale followed by those of the other languages that are
+     * written in the script of the typed word. The dictionaries of another script could only
+     * offer corrections to words the user is not typing.
+     */
+    @Nonnull
+    private DictionaryGroup[] getDictionaryGroupsForTypedWord(@Nonnull final String typedWord) {
+        final DictionaryGroup dictionaryGroup = mDictionaryGroup;
+        final DictionaryGroup[] secondaryDictionaryGroups = mSecondaryDictionaryGroups;
+        final int firstLetter = getFirstLetter(typedWord);
+        if (0 == secondaryDictionaryGroups.length || Constants.NOT_A_CODE == firstLetter) {
+            return new DictionaryGroup[] { dictionaryGroup };
+        }
+        final ArrayList<DictionaryGroup> dictionaryGroups = new ArrayList<>();
+        dictionaryGroups.add(dictionaryGroup);
+        for (final DictionaryGroup secondaryDictionaryGroup : secondaryDictionaryGroups) {
+            if (ScriptUtils.SCRIPT_UNKNOWN != secondaryDictionaryGroup.mScript
+                    && ScriptUtils.isLetterPartOfScript(firstLetter,
+                            secondaryDictionaryGroup.mScript)) {
+                dictionaryGroups.add(secondaryDictionaryGroup);
+            }
+        }
+        return dictionaryGroups.toArray(new DictionaryGroup[dictionaryGroups.size()]);
+    }
+
+    private static int getFirstLetter(@Nonnull final String word) {
+        for (int i = 0; i < word.length(); i = word.offsetByCodePoints(i, 1)) {
+            final int codePoint = word.codePointAt(i);
+            if (Character.isLetter(codePoint)) {
+                return codePoint;
+            }
+        }
+        return Constants.NOT_A_CODE;
+    }
+
+    // The language of the current locale is the most probable one until words of another one
+    // are committed.
+    private void resetMostProbableLanguageLocked() {
+        mMostProbableDictionaryGroup = mDictionaryGroup;
+        mDictionaryGroup.setIsMostProbableLanguage(true);
+        for (final DictionaryGroup dictionaryGroup : mSecondaryDictionaryGroups) {
+            dictionaryGroup.setIsMostProbableLanguage(false);
+        }
+        mLanguageWeightsVersion++;
+    }
+
     @Override
     public void resetDictionaries(
             final Context context,
@@ -285,6 +580,8 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             @Nullable final String account,
             final String dictNamePrefix,
             @Nullable final DictionaryInitializationListener listener) {
+        // The words still pending are learned before their dictionaries may be closed.
+        flushPendingUserHistoryEvents();
         final HashMap<Locale, ArrayList<String>> existingDictionariesToCleanup = new HashMap<>();
         // TODO: Make subDictTypesToUse configurable by resource or a static final list.
         final HashSet<String> subDictTypesToUse = new HashSet<>();
@@ -354,6 +651,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         synchronized (mLock) {
             oldDictionaryGroup = mDictionaryGroup;
             mDictionaryGroup = newDictionaryGroup;
+            resetMostProbableLanguageLocked();
             if (hasAtLeastOneUninitializedMainDictionary()) {
                 asyncReloadUninitializedMainDictionaries(context, newLocale, listener);
             }
@@ -368,9 +666,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                     existingDictionariesToCleanup.get(localeToCleanUp);
             final DictionaryGroup dictionarySetToCleanup =
                     findDictionaryGroupWithLocale(oldDictionaryGroup, localeToCleanUp);
-            for (final String dictType : dictTypesToCleanUp) {
-                dictionarySetToCleanup.closeDict(dictType);
-            }
+            asyncCloseDictionaries(dictionarySetToCleanup, dictTypesToCleanUp);
         }
 
         if (mValidSpellingWordWriteCache != null) {
@@ -378,6 +674,119 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         }
     }
 
+    @Override
+    public void resetSecondaryDictionaries(final Context context,
+            @Nonnull final List<Locale> locales) {
+        final ArrayList<DictionaryGroup> dictionaryGroupsToLoad = new ArrayList<>();
+        final ArrayList<DictionaryGroup> dictionaryGroupsToClose = new ArrayList<>();
+        synchronized (mLock) {
+            final DictionaryGroup[] oldDictionaryGroups = mSecondaryDictionaryGroups;
+            final DictionaryGroup[] newDictionaryGroups = new DictionaryGroup[locales.size()];
+            boolean hasChanged = oldDictionaryGroups.length != newDictionaryGroups.length;
+            for (int i = 0; i < newDictionaryGroups.length; i++) {
+                final Locale locale = locales.get(i);
+                DictionaryGroup dictionaryGroup =
+                        findDictionaryGroupWithLocale(oldDictionaryGroups, locale);
+                if (null == dictionaryGroup) {
+                    dictionaryGroup = new DictionaryGroup(locale, null /* mainDict */,
+                            null /* account */,
+                            Collections.<String, ExpandableBinaryDictionary>emptyMap());
+                    dictionaryGroupsToLoad.add(dictionaryGroup);
+                }
+                hasChanged |= i >= oldDictionaryGroups.length
+                        || dictionaryGroup != oldDictionaryGroups[i];
+                newDictionaryGroups[i] = dictionaryGroup;
+            }
+            if (!hasChanged) {
+                return;
+            }
+            for (final DictionaryGroup dictionaryGroup : oldDictionaryGroups) {
+                if (null == findDictionaryGroupWithLocale(newDictionaryGroups,
+                        dictionaryGroup.mLocale)) {
+                    dictionaryGroupsToClose.add(dictionaryGroup);
+                }
+            }
+            mSecondaryDictionaryGroups = newDictionaryGroups;
+            resetMostProbableLanguageLocked();
+            mDictionaryGroup.mSuggestionResultsCache.clear();
+        }
+        for (final DictionaryGroup dictionaryGroup : dictionaryGroupsToLoad) {
+            asyncLoadSecondaryMainDictionary(context, dictionaryGroup);
+        }
+        if (dictionaryGroupsToClose.isEmpty()) {
+            return;
+        }
+        // Closed after the committed words being learned, which look them up.
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+            @Override
+            public void run() {
+                for (final DictionaryGroup dictionaryGroup : dictionaryGroupsToClose) {
+                    dictionaryGroup.closeDict(Dictionary.TYPE_MAIN);
+                }
+            }
+        });
+    }
+
+    private void asyncLoadSecondaryMainDictionary(final Context context,
+            final DictionaryGroup dictionaryGroup) {
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isSecondaryDictionaryGroup(dictionaryGroup)) {
+                    // Replaced before it was loaded.
+                    return;
+                }
+                final Dictionary mainDict = acquireMainDictionary(context,
+                        dictionaryGroup.mLocale, BinaryDictionaryGetter.getDictionaryFiles(
+                                dictionaryGroup.mLocale, context, true));
+                synchronized (mLock) {
+                    if (isSecondaryDictionaryGroup(dictionaryGroup)) {
+                        dictionaryGroup.setMainDict(mainDict);
+                        mDictionaryGroup.mSuggestionResultsCache.clear();
+                        return;
+                    }
+                }
+                DictionaryRegistry.getInstance().release(mainDict);
+            }
+        });
+    }
+
+    private boolean isSecondaryDictionaryGroup(@Nonnull final DictionaryGroup dictionaryGroup) {
+        for (final DictionaryGroup secondaryDictionaryGroup : mSecondaryDictionaryGroups) {
+            if (secondaryDictionaryGroup == dictionaryGroup) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the main dictionary made of the given files, shared through the registry with the
+     * other users of the same files.
+     */
+    @Nonnull
+    private static Dictionary acquireMainDictionary(final Context context, final Locale locale,
+            @Nullable final ArrayList<AssetFileAddress> dictionaryFiles) {
+        final StringBuilder key = new StringBuilder(Dictionary.TYPE_MAIN).append(":")
+                .append(locale);
+        for (final AssetFileAddress file : null == dictionaryFiles
+                ? Collections.<AssetFileAddress>emptyList() : dictionaryFiles) {
+            // A file updated in place is a new dictionary.
+            key.append(":").append(file.mFilename).append("@").append(file.mOffset)
+                    .append("+").append(file.mLength).append("/")
+                    .append(new File(file.mFilename).lastModified());
+        }
+        return DictionaryRegistry.getInstance().acquire(key.toString(),
+                new DictionaryRegistry.Factory<Dictionary>() {
+                    @Override
+                    public Dictionary create() {
+                        // Empty if none of the files is valid, but never null.
+                        return DictionaryFactory.createMainDictionaryFromFiles(context, locale,
+                                dictionaryFiles);
+                    }
+                });
+    }
+
     private void asyncReloadUninitializedMainDictionaries(final Context context,
             final Locale locale, final DictionaryInitializationListener listener) {
         final CountDownLatch latchForWaitingLoadingMainDictionary = new CountDownLatch(1);
@@ -401,20 +810,83 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             Log.w(TAG, "Expected a dictionary group for " + locale + " but none found");
             return;
         }
-        final Dictionary mainDict =
-                DictionaryFactory.createMainDictionaryFromManager(context, locale);
+        // A warm start opens the files of the last session without asking the dictionary pack.
+        final ArrayList<AssetFileAddress> savedDictionaryFiles = USES_WARM_START
+                ? MainDictionaryWarmStart.getSavedDictionaryFiles(context, locale) : null;
+        final boolean isWarmStart = null != savedDictionaryFiles;
+        final ArrayList<AssetFileAddress> dictionaryFiles = isWarmStart ? savedDictionaryFiles
+                : BinaryDictionaryGetter.getDictionaryFiles(locale, context, true);
+        final Dictionary mainDict = acquireMainDictionary(context, locale, dictionaryFiles);
         synchronized (mLock) {
-            if (locale.equals(dictionaryGroup.mLocale)) {
+            if (dictionaryGroup == mDictionaryGroup) {
                 dictionaryGroup.setMainDict(mainDict);
             } else {
                 // Dictionary facilitator has been reset for another locale.
-                mainDict.close();
+                DictionaryRegistry.getInstance().release(mainDict);
             }
         }
         if (listener != null) {
             listener.onUpdateMainDictionaryAvailability(hasAtLeastOneInitializedMainDictionary());
         }
         latchForWaitingLoadingMainDictionary.countDown();
+        if (sFirstMainDictionaryUptimeMillis.compareAndSet(0, SystemClock.uptimeMillis())) {
+            sIsFirstMainDictionaryWarmStarted = isWarmStart;
+        }
+        if (USES_WARM_START) {
+            // Suggestions are served meanwhile, from the pages already in memory.
+            ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+                @Override
+                public void run() {
+                    warmUpMainDictionary(context, locale, listener, mainDict, dictionaryFiles,
+                            isWarmStart);
+                }
+            });
+        }
+    }
+
+    private void warmUpMainDictionary(final Context context, final Locale locale,
+            final DictionaryInitializationListener listener, final Dictionary mainDict,
+            final ArrayList<AssetFileAddress> dictionaryFiles, final boolean isWarmStart) {
+        if (mainDict != mDictionaryGroup.getDict(Dictionary.TYPE_MAIN)) {
+            // Replaced or closed already.
+            return;
+        }
+        final long startTime = SystemClock.uptimeMillis();
+        final List<String> prefixes = MainDictionaryWarmStart.getSavedPrefixes(context, locale);
+        final long readAheadBytes =
+                MainDictionaryWarmStart.warmUp(mainDict, dictionaryFiles, prefixes);
+        if (DebugFlags.DEBUG_ENABLED) {
+            Log.d(TAG, "Warmed up the main dictionary for " + locale + " in "
+                    + (SystemClock.uptimeMillis() - startTime) + "ms: read ahead "
+                    + readAheadBytes / 1024 + "KB, looked up " + prefixes.size() + " prefixes");
+        }
+        if (!isWarmStart) {
+            MainDictionaryWarmStart.saveDictionaryFiles(context, locale, dictionaryFiles);
+            return;
+        }
+        // The files of the last session may have been updated or disabled since.
+        final ArrayList<AssetFileAddress> currentDictionaryFiles =
+                BinaryDictionaryGetter.getDictionaryFiles(locale, context, true);
+        if (MainDictionaryWarmStart.isSameDictionaryFiles(dictionaryFiles,
+                currentDictionaryFiles)) {
+            return;
+        }
+        MainDictionaryWarmStart.saveDictionaryFiles(context, locale, currentDictionaryFiles);
+        final Dictionary currentMainDict =
+                acquireMainDictionary(context, locale, currentDictionaryFiles);
+        synchronized (mLock) {
+            final DictionaryGroup dictionaryGroup =
+                    findDictionaryGroupWithLocale(mDictionaryGroup, locale);
+            if (null != dictionaryGroup
+                    && mainDict == dictionaryGroup.getDict(Dictionary.TYPE_MAIN)) {
+                dictionaryGroup.setMainDict(currentMainDict);
+            } else {
+                DictionaryRegistry.getInstance().release(currentMainDict);
+            }
+        }
+        if (listener != null) {
+            listener.onUpdateMainDictionaryAvailability(hasAtLeastOneInitializedMainDictionary());
+        }
     }
 
     @UsedForTesting
@@ -449,14 +921,67 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     }
 
     public void closeDictionaries() {
+        // The words still pending are learned before the user history dictionary is closed.
+        flushPendingUserHistoryEvents();
         final DictionaryGroup dictionaryGroupToClose;
+        final DictionaryGroup[] secondaryDictionaryGroupsToClose;
         synchronized (mLock) {
             dictionaryGroupToClose = mDictionaryGroup;
+            secondaryDictionaryGroupsToClose = mSecondaryDictionaryGroups;
             mDictionaryGroup = new DictionaryGroup();
+            mSecondaryDictionaryGroups = new DictionaryGroup[0];
+            resetMostProbableLanguageLocked();
         }
-        for (final String dictType : ALL_DICTIONARY_TYPES) {
-            dictionaryGroupToClose.closeDict(dictType);
+        asyncCloseDictionaries(dictionaryGroupToClose, Arrays.asList(ALL_DICTIONARY_TYPES));
+        for (final DictionaryGroup dictionaryGroup : secondaryDictionaryGroupsToClose) {
+            asyncCloseDictionaries(dictionaryGroup,
+                    Collections.singletonList(Dictionary.TYPE_MAIN));
+        }
+    }
+
+    /**
+     * Closes dictionaries of a group that is no longer used. They're closed on the keyboard
+     * executor, after the committed words being learned there, which would otherwise queue
+     * updates to the dictionaries on their own executors after they're closed.
+     */
+    private static void asyncCloseDictionaries(@Nonnull final DictionaryGroup dictionaryGroup,
+            @Nonnull final Collection<String> dictTypes) {
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+            @Override
+            public void run() {
+                for (final String dictType : dictTypes) {
+                    dictionaryGroup.closeDict(dictType);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        mDictionaryGroup.mSuggestionResultsCache.clear();
+        final DictionaryGroup[] secondaryDictionaryGroupsToClose;
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // The other languages are looked up again once the dictionaries are reset.
+            synchronized (mLock) {
+                secondaryDictionaryGroupsToClose = mSecondaryDictionaryGroups;
+                mSecondaryDictionaryGroups = new DictionaryGroup[0];
+                resetMostProbableLanguageLocked();
+            }
+        } else {
+            secondaryDictionaryGroupsToClose = new DictionaryGroup[0];
         }
+        // After the committed words being learned, which look up the other languages, so that
+        // the registry can close the dictionaries given up here.
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+            @Override
+            public void run() {
+                for (final DictionaryGroup dictionaryGroup : secondaryDictionaryGroupsToClose) {
+                    dictionaryGroup.closeDict(Dictionary.TYPE_MAIN);
+                }
+                DictionaryRegistry.getInstance().onTrimMemory(level);
+            }
+        });
     }
 
     @UsedForTesting
@@ -491,6 +1016,11 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     public void waitForLoadingDictionariesForTesting(final long timeout, final TimeUnit unit)
             throws InterruptedException {
         waitForLoadingMainDictionaries(timeout, unit);
+        try {
+            flushPendingUserHistoryEvents().get(timeout, unit);
+        } catch (final ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Failed to learn the pending words", e);
+        }
         for (final ExpandableBinaryDictionary dict : mDictionaryGroup.mSubDictMap.values()) {
             dict.waitAllTasksForTests();
         }
@@ -499,23 +1029,267 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     public void addToUserHistory(final String suggestion, final boolean wasAutoCapitalized,
             @Nonnull final NgramContext ngramContext, final long timeStampInSeconds,
             final boolean blockPotentiallyOffensive) {
+        if (USES_WARM_START) {
+            mWarmStart.onWordCommitted(suggestion);
+        }
+        // The lookups deciding how to learn the words run later, with those of the next words.
+        enqueueUserHistoryEvent(new UserHistoryEvent(mDictionaryGroup, suggestion,
+                wasAutoCapitalized, ngramContext, (int) timeStampInSeconds,
+                blockPotentiallyOffensive));
+    }
+
+    private void enqueueUserHistoryEvent(@Nonnull final UserHistoryEvent event) {
+        synchronized (mPendingUserHistoryEvents) {
+            mPendingUserHistoryEvents.add(event);
+            if (mIsUserHistoryLearningScheduled) {
+                return;
+            }
+            mIsUserHistoryLearningScheduled = true;
+        }
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).schedule(
+                mLearnPendingUserHistoryEventsTask, USER_HISTORY_LEARNING_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Learns the pending events now rather than after the delay. They're learned on the keyboard
+     * executor, after the events handed over before and before the dictionaries queued to be
+     * closed there afterwards.
+     */
+    private Future<?> flushPendingUserHistoryEvents() {
+        return ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).submit(
+                mLearnPendingUserHistoryEventsTask);
+    }
+
+    /**
+     * Learns the pending events before a next-word prediction, which is asked for right after a
+     * word is committed and would otherwise not see it. Waits until the user history dictionary
+     * has applied them too, but no longer than a short timeout, after which the prediction is
+     * made with what the dictionaries know so far.
+     */
+    private void learnPendingUserHistoryEventsBeforePredicting() {
+        synchronized (mPendingUserHistoryEvents) {
+            if (mPendingUserHistoryEvents.isEmpty()) {
+                return;
+            }
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                USER_HISTORY_LEARNING_TIMEOUT_FOR_PREDICTIONS_MS);
+        try {
+            flushPendingUserHistoryEvents().get(
+                    USER_HISTORY_LEARNING_TIMEOUT_FOR_PREDICTIONS_MS, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException | ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Predicting the next word before the pending words are learned");
+            return;
+        }
+        final ExpandableBinaryDictionary userHistoryDictionary =
+                mDictionaryGroup.getSubDict(Dictionary.TYPE_USER_HISTORY);
+        if (null != userHistoryDictionary) {
+            userHistoryDictionary.waitForQueuedUpdates(Math.max(0,
+                    TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+    }
+
+    /**
+     * Applies the pending learning and unlearning events, in order. Only runs on the keyboard
+     * executor, which is single-threaded, so that the batches are applied in order.
+     */
+    private void learnPendingUserHistoryEvents() {
+        final ArrayList<UserHistoryEvent> events;
+        synchronized (mPendingUserHistoryEvents) {
+            events = new ArrayList<>(mPendingUserHistoryEvents);
+            mPendingUserHistoryEvents.clear();
+            mIsUserHistoryLearningScheduled = false;
+        }
+        int batchStart = 0;
+        for (int i = 0; i < events.size(); i++) {
+            final UserHistoryEvent event = events.get(i);
+            if (event.mIsUnlearning) {
+                unlearnUserHistoryEvent(event);
+                batchStart = i + 1;
+                continue;
+            }
+            final boolean isLastOfBatch = i + 1 == events.size()
+                    || events.get(i + 1).mIsUnlearning
+                    || events.get(i + 1).mDictionaryGroup != event.mDictionaryGroup;
+            if (isLastOfBatch) {
+                learnUserHistoryEvents(event.mDictionaryGroup, events.subList(batchStart, i + 1));
+                batchStart = i + 1;
+            }
+        }
+    }
+
+    private void learnUserHistoryEvents(@Nonnull final DictionaryGroup dictionaryGroup,
+            @Nonnull final List<UserHistoryEvent> events) {
+        final Locale locale = dictionaryGroup.mLocale;
+        if (null == locale) {
+            return;
+        }
+        // Gather all the words to look up, so that each dictionary is swept once for the batch.
+        final HashMap<String, WordLookup> lookups = new HashMap<>();
+        final ArrayList<UserHistoryEvent> wordEvents = new ArrayList<>();
+        final ArrayList<String> words = new ArrayList<>();
+        final ArrayList<NgramContext> ngramContexts = new ArrayList<>();
+        for (final UserHistoryEvent event : events) {
+            if (mValidSpellingWordWriteCache != null) {
+                getWordLookup(lookups, event.mWord.toLowerCase(locale));
+                getWordLookup(lookups,
+                        StringUtils.capitalizeFirstAndDowncaseRest(event.mWord, locale));
+            }
+            NgramContext ngramContextForCurrentWord = event.mNgramContext;
+            for (final String word : event.mWord.split(Constants.WORD_SEPARATOR)) {
+                wordEvents.add(event);
+                words.add(word);
+                ngramContexts.add(ngramContextForCurrentWord);
+                getWordLookup(lookups, word);
+                getWordLookup(lookups, word.toLowerCase(locale));
+                ngramContextForCurrentWord =
+                        ngramContextForCurrentWord.getNextNgramContext(new WordInfo(word));
+            }
+        }
+        for (final String dictType : ALL_DICTIONARY_TYPES) {
+            final Dictionary dictionary = dictionaryGroup.getDict(dictType);
+            if (null == dictionary) continue;
+            final boolean isMainDict = Dictionary.TYPE_MAIN.equals(dictType);
+            for (final Map.Entry<String, WordLookup> entry : lookups.entrySet()) {
+                final String word = entry.getKey();
+                if (TextUtils.isEmpty(word)) continue;
+                final WordLookup lookup = entry.getValue();
+                final int frequency = dictionary.getFrequency(word);
+                if (frequency >= lookup.mMaxFrequency) {
+                    lookup.mMaxFrequency = frequency;
+                }
+                if (isMainDict) {
+                    lookup.mMainDictFrequency = frequency;
+                }
+                if (!lookup.mIsValid) {
+                    lookup.mIsValid = dictionary.isValidWord(word);
+                }
+            }
+        }
+
+        if (mSecondaryDictionaryGroups.length > 0) {
+            for (final String word : words) {
+                updateMostProbableLanguage(dictionaryGroup, word);
+            }
+        }
+
         // Update the spelling cache before learning. Words that are not yet added to user history
         // and appear in no other language model are not considered valid.
-        putWordIntoValidSpellingWordCache("addToUserHistory", suggestion);
+        if (mValidSpellingWordWriteCache != null) {
+            for (final UserHistoryEvent event : events) {
+                putWordIntoValidSpellingWordCache(lookups, event.mWord, locale);
+            }
+        }
 
-        final String[] words = suggestion.split(Constants.WORD_SEPARATOR);
-        NgramContext ngramContextForCurrentWord = ngramContext;
-        for (int i = 0; i < words.length; i++) {
-            final String currentWord = words[i];
-            final boolean wasCurrentWordAutoCapitalized = (i == 0) ? wasAutoCapitalized : false;
-            addWordToUserHistory(mDictionaryGroup, ngramContextForCurrentWord, currentWord,
-                    wasCurrentWordAutoCapitalized, (int) timeStampInSeconds,
-                    blockPotentiallyOffensive);
-            ngramContextForCurrentWord =
-                    ngramContextForCurrentWord.getNextNgramContext(new WordInfo(currentWord));
+        final ExpandableBinaryDictionary userHistoryDictionary =
+                dictionaryGroup.getSubDict(Dictionary.TYPE_USER_HISTORY);
+        if (userHistoryDictionary == null || !isForLocale(userHistoryDictionary.mLocale)) {
+            return;
+        }
+        final ArrayList<WordInputEventForPersonalization> inputEvents = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            final UserHistoryEvent event = wordEvents.get(i);
+            final String word = words.get(i);
+            // Only the first word of a suggestion was auto-capitalized.
+            final boolean wasAutoCapitalized = event.mWasAutoCapitalized
+                    && (i == 0 || wordEvents.get(i - 1) != event);
+            final WordInputEventForPersonalization inputEvent = createUserHistoryInputEvent(
+                    lookups, ngramContexts.get(i), word, locale, wasAutoCapitalized,
+                    event.mTimestamp, event.mBlockPotentiallyOffensive);
+            if (null != inputEvent) {
+                inputEvents.add(inputEvent);
+            }
+        }
+        if (!inputEvents.isEmpty()) {
+            userHistoryDictionary.updateEntriesForInputEvents(inputEvents, null /* callback */);
         }
     }
 
+    /**
+     * Counts a committed word for the language whose main dictionary is the only one to know
+     * it, and makes that language the most probable one once enough of its words were
+     * committed in a row. Words known in several languages or in none don't tell anything.
+     */
+    private void updateMostProbableLanguage(@Nonnull final DictionaryGroup dictionaryGroup,
+            @Nonnull final String word) {
+        if (TextUtils.isEmpty(word)) {
+            return;
+        }
+        final DictionaryGroup[] secondaryDictionaryGroups = mSecondaryDictionaryGroups;
+        DictionaryGroup wordDictionaryGroup = null;
+        for (int i = -1; i < secondaryDictionaryGroups.length; i++) {
+            final DictionaryGroup group = i < 0 ? dictionaryGroup : secondaryDictionaryGroups[i];
+            final Dictionary mainDict = group.getDict(Dictionary.TYPE_MAIN);
+            if (null == mainDict || null == group.mLocale || (!mainDict.isInDictionary(word)
+                    && !mainDict.isInDictionary(word.toLowerCase(group.mLocale)))) {
+                continue;
+            }
+            if (null != wordDictionaryGroup) {
+                return;
+            }
+            wordDictionaryGroup = group;
+        }
+        if (null == wordDictionaryGroup) {
+            return;
+        }
+        synchronized (mLock) {
+            if (dictionaryGroup != mDictionaryGroup
+                    || secondaryDictionaryGroups != mSecondaryDictionaryGroups) {
+                // Reset meanwhile.
+                return;
+            }
+            for (final DictionaryGroup group : getDictionaryGroups()) {
+                group.mConfidence = group == wordDictionaryGroup ? group.mConfidence + 1 : 0;
+            }
+            if (wordDictionaryGroup == mMostProbableDictionaryGroup
+                    || wordDictionaryGroup.mConfidence
+                            < CONFIDENCE_TO_SWITCH_MOST_PROBABLE_LANGUAGE) {
+                return;
+            }
+            mMostProbableDictionaryGroup.setIsMostProbableLanguage(false);
+            wordDictionaryGroup.setIsMostProbableLanguage(true);
+            mMostProbableDictionaryGroup = wordDictionaryGroup;
+            mLanguageWeightsVersion++;
+        }
+    }
+
+    @Nonnull
+    private static WordLookup getWordLookup(@Nonnull final HashMap<String, WordLookup> lookups,
+            @Nonnull final String word) {
+        WordLookup lookup = lookups.get(word);
+        if (null == lookup) {
+            lookup = new WordLookup();
+            lookups.put(word, lookup);
+        }
+        return lookup;
+    }
+
+    private boolean isValidSpellingWord(@Nonnull final HashMap<String, WordLookup> lookups,
+            @Nonnull final String word) {
+        if (mValidSpellingWordReadCache != null) {
+            final Boolean cachedValue = mValidSpellingWordReadCache.get(word);
+            if (cachedValue != null) {
+                return cachedValue;
+            }
+        }
+        return lookups.get(word).mIsValid;
+    }
+
+    private void putWordIntoValidSpellingWordCache(
+            @Nonnull final HashMap<String, WordLookup> lookups,
+            @Nonnull final String originalWord, @Nonnull final Locale locale) {
+        final String lowerCaseWord = originalWord.toLowerCase(locale);
+        final boolean lowerCaseValid = isValidSpellingWord(lookups, lowerCaseWord);
+        mValidSpellingWordWriteCache.put(lowerCaseWord, lowerCaseValid);
+
+        final String capitalWord =
+                StringUtils.capitalizeFirstAndDowncaseRest(originalWord, locale);
+        // If the lower case form of the word is valid, the upper case must be valid.
+        final boolean capitalValid = lowerCaseValid || isValidSpellingWord(lookups, capitalWord);
+        mValidSpellingWordWriteCache.put(capitalWord, capitalValid);
+    }
+
     private void putWordIntoValidSpellingWordCache(
             @Nonnull final String caller,
             @Nonnull final String originalWord) {
@@ -539,22 +1313,20 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         mValidSpellingWordWriteCache.put(capitalWord, capitalValid);
     }
 
-    private void addWordToUserHistory(final DictionaryGroup dictionaryGroup,
-            final NgramContext ngramContext, final String word, final boolean wasAutoCapitalized,
+    @Nullable
+    private static WordInputEventForPersonalization createUserHistoryInputEvent(
+            @Nonnull final HashMap<String, WordLookup> lookups,
+            @Nonnull final NgramContext ngramContext, @Nonnull final String word,
+            @Nonnull final Locale locale, final boolean wasAutoCapitalized,
             final int timeStampInSeconds, final boolean blockPotentiallyOffensive) {
-        final ExpandableBinaryDictionary userHistoryDictionary =
-                dictionaryGroup.getSubDict(Dictionary.TYPE_USER_HISTORY);
-        if (userHistoryDictionary == null || !isForLocale(userHistoryDictionary.mLocale)) {
-            return;
-        }
-        final int maxFreq = getFrequency(word);
+        final int maxFreq = lookups.get(word).mMaxFrequency;
         if (maxFreq == 0 && blockPotentiallyOffensive) {
-            return;
+            return null;
         }
-        final String lowerCasedWord = word.toLowerCase(dictionaryGroup.mLocale);
+        final String lowerCasedWord = word.toLowerCase(locale);
         final String secondWord;
         if (wasAutoCapitalized) {
-            if (isValidSuggestionWord(word) && !isValidSuggestionWord(lowerCasedWord)) {
+            if (lookups.get(word).mIsValid && !lookups.get(lowerCasedWord).mIsValid) {
                 // If the word was auto-capitalized and exists only as a capitalized word in the
                 // dictionary, then we must not downcase it before registering it. For example,
                 // the name of the contacts in start-of-sentence position would come here with the
@@ -571,10 +1343,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             // History dictionary in order to avoid suggesting them until the dictionary
             // consolidation is done.
             // TODO: Remove this hack when ready.
-            final int lowerCaseFreqInMainDict = dictionaryGroup.hasDict(Dictionary.TYPE_MAIN,
-                    null /* account */) ?
-                    dictionaryGroup.getDict(Dictionary.TYPE_MAIN).getFrequency(lowerCasedWord) :
-                    Dictionary.NOT_A_PROBABILITY;
+            final int lowerCaseFreqInMainDict = lookups.get(lowerCasedWord).mMainDictFrequency;
             if (maxFreq < lowerCaseFreqInMainDict
                     && lowerCaseFreqInMainDict >= CAPITALIZED_FORM_MAX_PROBABILITY_FOR_INSERT) {
                 // Use lower cased word as the word can be a distracter of the popular word.
@@ -583,32 +1352,38 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                 secondWord = word;
             }
         }
+        if (TextUtils.isEmpty(secondWord)
+                || secondWord.length() > BinaryDictionary.DICTIONARY_MAX_WORD_LENGTH) {
+            return null;
+        }
         // We demote unrecognized words (frequency < 0, below) by specifying them as "invalid".
         // We don't add words with 0-frequency (assuming they would be profanity etc.).
         final boolean isValid = maxFreq > 0;
-        UserHistoryDictionary.addToDictionary(userHistoryDictionary, ngramContext, secondWord,
-                isValid, timeStampInSeconds);
+        return new WordInputEventForPersonalization(secondWord, ngramContext, isValid,
+                timeStampInSeconds);
     }
 
-    private void removeWord(final String dictName, final String word) {
-        final ExpandableBinaryDictionary dictionary = mDictionaryGroup.getSubDict(dictName);
-        if (dictionary != null) {
-            dictionary.removeUnigramEntryDynamically(word);
+    private void unlearnUserHistoryEvent(@Nonnull final UserHistoryEvent event) {
+        // TODO: Decide whether or not to remove the word on EVENT_BACKSPACE.
+        if (event.mEventType != Constants.EVENT_BACKSPACE) {
+            final ExpandableBinaryDictionary dictionary =
+                    event.mDictionaryGroup.getSubDict(Dictionary.TYPE_USER_HISTORY);
+            if (dictionary != null) {
+                dictionary.removeUnigramEntryDynamically(event.mWord);
+            }
         }
+
+        // Update the spelling cache after unlearning. Words that are removed from user history
+        // and appear in no other language model are not considered valid.
+        putWordIntoValidSpellingWordCache("unlearnFromUserHistory", event.mWord.toLowerCase());
     }
 
     @Override
     public void unlearnFromUserHistory(final String word,
             @Nonnull final NgramContext ngramContext, final long timeStampInSeconds,
             final int eventType) {
-        // TODO: Decide whether or not to remove the word on EVENT_BACKSPACE.
-        if (eventType != Constants.EVENT_BACKSPACE) {
-            removeWord(Dictionary.TYPE_USER_HISTORY, word);
-        }
-
-        // Update the spelling cache after unlearning. Words that are removed from user history
-        // and appear in no other language model are not considered valid.
-        putWordIntoValidSpellingWordCache("unlearnFromUserHistory", word.toLowerCase());
+        // Queued after the words committed before, which may include this one.
+        enqueueUserHistoryEvent(new UserHistoryEvent(mDictionaryGroup, word, eventType));
     }
 
     // TODO: Revise the way to fusion suggestion results.
@@ -617,31 +1392,374 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             NgramContext ngramContext, @Nonnull final Keyboard keyboard,
             SettingsValuesForSuggestion settingsValuesForSuggestion, int sessionId,
             int inputStyle) {
-        long proximityInfoHandle = keyboard.getProximityInfo().getNativeProximityInfo();
+        return getSuggestionResults(composedData, Collections.<String>emptyList(), ngramContext,
+                keyboard, settingsValuesForSuggestion, sessionId, inputStyle);
+    }
+
+    @Override
+    @Nonnull public SuggestionResults getSuggestionResults(final ComposedData composedData,
+            @Nonnull final List<String> alternativeTypedWords, final NgramContext ngramContext,
+            @Nonnull final Keyboard keyboard,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final int inputStyle) {
+        return getSuggestionResults(composedData, alternativeTypedWords, ngramContext, keyboard,
+                settingsValuesForSuggestion, sessionId, inputStyle, false /* isSpeculative */);
+    }
+
+    @Override
+    @Nonnull public SuggestionResults precomputeSuggestionResults(
+            final ComposedData composedData, @Nonnull final List<String> alternativeTypedWords,
+            final NgramContext ngramContext, @Nonnull final Keyboard keyboard,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId) {
+        return getSuggestionResults(composedData, alternativeTypedWords, ngramContext, keyboard,
+                settingsValuesForSuggestion, sessionId, SuggestedWords.INPUT_STYLE_TYPING,
+                true /* isSpeculative */);
+    }
+
+    @Nonnull
+    private SuggestionResults getSuggestionResults(final ComposedData composedData,
+            @Nonnull final List<String> alternativeTypedWords, final NgramContext ngramContext,
+            @Nonnull final Keyboard keyboard,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final int inputStyle, final boolean isSpeculative) {
+        final long startTime = System.nanoTime();
+        if (!isSpeculative && composedData.mTypedWord.isEmpty()) {
+            learnPendingUserHistoryEventsBeforePredicting();
+        }
+        final DictionaryGroup[] dictionaryGroups =
+                getDictionaryGroupsForTypedWord(composedData.mTypedWord);
+        final DictionaryGroup dictionaryGroup = dictionaryGroups[0];
+        final SuggestionResultsCache cache = dictionaryGroup.mSuggestionResultsCache;
+        // Backspacing and typing the same letters again asks for results computed moments ago,
+        // and typing a letter that was looked up ahead asks for results computed in between.
+        final SuggestionResultsCache.Key cacheKey = isSpeculative ? null
+                : SuggestionResultsCache.createKey(composedData, alternativeTypedWords,
+                        ngramContext, keyboard.mId, inputStyle,
+                        settingsValuesForSuggestion.mBlockPotentiallyOffensive);
+        final SuggestionResultsCache.Key speculativeKey =
+                isSpeculative || ProductionFlags.ENABLE_SPECULATIVE_SUGGESTIONS
+                ? SuggestionResultsCache.createSpeculativeKey(composedData,
+                        alternativeTypedWords, ngramContext, keyboard.mId, inputStyle,
+                        settingsValuesForSuggestion.mBlockPotentiallyOffensive)
+                : null;
+        final int contentVersion = getContentVersion(dictionaryGroups);
+        if (null != cacheKey) {
+            final SuggestionResults cachedResults = cache.get(cacheKey, contentVersion);
+            if (null != cachedResults) {
+                return cachedResults;
+            }
+        }
+        if (null != speculativeKey) {
+            final SuggestionResults speculativeResults =
+                    cache.getSpeculative(speculativeKey, contentVersion);
+            if (null != speculativeResults) {
+                return speculativeResults;
+            }
+        }
+        if (isSpeculative && null == speculativeKey) {
+            return new SuggestionResults(SuggestedWords.MAX_SUGGESTIONS,
+                    ngramContext.isBeginningOfSentenceContext(),
+                    false /* firstSuggestionExceedsConfidenceThreshold */);
+        }
+        final ProximityInfo proximityInfo = keyboard.getProximityInfo();
+        final long proximityInfoHandle = proximityInfo.getNativeProximityInfo();
         final SuggestionResults suggestionResults = new SuggestionResults(
                 SuggestedWords.MAX_SUGGESTIONS, ngramContext.isBeginningOfSentenceContext(),
                 false /* firstSuggestionExceedsConfidenceThreshold */);
-        final float[] weightOfLangModelVsSpatialModel =
-                new float[] { Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL };
-        for (final String dictType : ALL_DICTIONARY_TYPES) {
-            final Dictionary dictionary = mDictionaryGroup.getDict(dictType);
-            if (null == dictionary) continue;
-            final float weightForLocale = composedData.mIsBatchMode
-                    ? mDictionaryGroup.mWeightForGesturingInLocale
-                    : mDictionaryGroup.mWeightForTypingInLocale;
-            final ArrayList<SuggestedWordInfo> dictionarySuggestions =
-                    dictionary.getSuggestions(composedData, ngramContext,
-                            proximityInfoHandle, settingsValuesForSuggestion, sessionId,
-                            weightForLocale, weightOfLangModelVsSpatialModel);
-            if (null == dictionarySuggestions) continue;
-            suggestionResults.addAll(dictionarySuggestions);
-            if (null != suggestionResults.mRawSuggestions) {
-                suggestionResults.mRawSuggestions.addAll(dictionarySuggestions);
+        final int alternativeCount = alternativeTypedWords.size();
+        final ComposedData[] alternativeComposedData = new ComposedData[alternativeCount];
+        for (int i = 0; i < alternativeCount; i++) {
+            alternativeComposedData[i] =
+                    createComposedDataWithoutCoordinates(alternativeTypedWords.get(i));
+        }
+        // Dictionaries offer their suggestions to a pooled buffer, so that word infos are only
+        // created for the few suggestions that end up in the results. The suggestions of all
+        // the languages are merged there, their scores scaled by the weight of their language.
+        final SuggestionBuffer suggestionBuffer = SuggestionBuffer.obtain();
+        if (IS_PARALLEL_DICTIONARY_LOOKUP_ENABLED) {
+            getSuggestionsInParallel(suggestionBuffer, suggestionResults.mRawSuggestions,
+                    dictionaryGroups, composedData, alternativeComposedData, ngramContext,
+                    proximityInfo, settingsValuesForSuggestion, sessionId);
+        } else {
+            for (final DictionaryGroup group : dictionaryGroups) {
+                final float weightForLocale = group.getWeightForLocale(composedData.mIsBatchMode);
+                final float[] weightOfLangModelVsSpatialModel =
+                        new float[] { Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL };
+                for (final String dictType : ALL_DICTIONARY_TYPES) {
+                    final Dictionary dictionary = group.getDict(dictType);
+                    if (null == dictionary) continue;
+                    getSuggestionsFromDictionary(dictType, dictionary, composedData,
+                            alternativeComposedData, ngramContext, proximityInfoHandle,
+                            settingsValuesForSuggestion, sessionId, weightForLocale,
+                            weightOfLangModelVsSpatialModel, suggestionBuffer,
+                            suggestionResults.mRawSuggestions);
+                }
             }
         }
+        suggestionBuffer.outputTo(suggestionResults);
+        suggestionBuffer.recycle();
+        // Results that may have seen a dictionary change half-way are not cached.
+        if (getContentVersion(dictionaryGroups) == contentVersion) {
+            if (null != cacheKey) {
+                cache.put(cacheKey, suggestionResults, contentVersion);
+            } else if (isSpeculative) {
+                cache.putSpeculative(speculativeKey, suggestionResults, contentVersion);
+            }
+        }
+        if (isSpeculative) {
+            return suggestionResults;
+        }
+        mSuggestionLatencyStats.record(System.nanoTime() - startTime);
+        if (!suggestionResults.isEmpty()
+                && sFirstSuggestionUptimeMillis.compareAndSet(0, SystemClock.uptimeMillis())) {
+            Log.i(TAG, "First suggestions " + (sFirstSuggestionUptimeMillis.get()
+                    - PROCESS_START_UPTIME_MILLIS) + "ms after the process start");
+        }
         return suggestionResults;
     }
 
+    /**
+     * Returns the sum of the content versions of the given groups, and of the version of their
+     * weights, which the cached suggestions depend on too.
+     */
+    private int getContentVersion(@Nonnull final DictionaryGroup[] dictionaryGroups) {
+        int contentVersion = mLanguageWeightsVersion;
+        for (final DictionaryGroup dictionaryGroup : dictionaryGroups) {
+            contentVersion += dictionaryGroup.getContentVersion();
+        }
+        return contentVersion;
+    }
+
+    /**
+     * Looks up all the dictionaries at the same time. The main dictionary of the current locale
+     * is looked up on the calling thread while the others, including the main dictionaries of
+     * the other languages, run on the suggestion executor, each in its own traverse session
+     * since each dictionary owns its sessions. All of them share the proximity info of the
+     * keyboard. Each lookup fills a result of its own, which is merged on the calling thread
+     * once it is done. The results of the dictionaries that did not finish before the deadline
+     * are dropped, but their lookups keep running, so they hold on to the proximity info until
+     * they are done rather than to its native handle.
+     *
+     * Unlike serial lookups, the weight of the language model that the main dictionary computes
+     * is not passed on to the other dictionaries, which compute their own.
+     */
+    private void getSuggestionsInParallel(@Nonnull final SuggestionBuffer outSuggestions,
+            @Nullable final ArrayList<SuggestedWordInfo> outRawSuggestions,
+            @Nonnull final DictionaryGroup[] dictionaryGroups, final ComposedData composedData,
+            @Nonnull final ComposedData[] alternativeComposedData,
+            final NgramContext ngramContext, @Nonnull final ProximityInfo proximityInfo,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId) {
+        final long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(PARALLEL_DICTIONARY_LOOKUP_DEADLINE_MS);
+        final ExecutorService executor =
+                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.SUGGESTION);
+        final ArrayList<String> pendingDictTypes = new ArrayList<>();
+        final ArrayList<Locale> pendingLocales = new ArrayList<>();
+        final ArrayList<Future<LookupResult>> pendingLookups = new ArrayList<>();
+        for (final DictionaryGroup dictionaryGroup : dictionaryGroups) {
+            final float weightForLocale =
+                    dictionaryGroup.getWeightForLocale(composedData.mIsBatchMode);
+            for (final String dictType : ALL_DICTIONARY_TYPES) {
+                if (dictionaryGroup == dictionaryGroups[0]
+                        && Dictionary.TYPE_MAIN.equals(dictType)) continue;
+                final Dictionary dictionary = dictionaryGroup.getDict(dictType);
+                if (null == dictionary) continue;
+                pendingDictTypes.add(dictType);
+                pendingLocales.add(dictionaryGroup.mLocale);
+                pendingLookups.add(submitSuggestionLookup(executor, null != outRawSuggestions,
+                        dictType, dictionary, composedData, alternativeComposedData, ngramContext,
+                        proximityInfo, settingsValuesForSuggestion, sessionId,
+                        weightForLocale));
+            }
+        }
+        final DictionaryGroup dictionaryGroup = dictionaryGroups[0];
+        final Dictionary mainDict = dictionaryGroup.getDict(Dictionary.TYPE_MAIN);
+        if (null != mainDict) {
+            getSuggestionsFromDictionary(Dictionary.TYPE_MAIN, mainDict, composedData,
+                    alternativeComposedData, ngramContext, proximityInfo.getNativeProximityInfo(),
+                    settingsValuesForSuggestion, sessionId,
+                    dictionaryGroup.getWeightForLocale(composedData.mIsBatchMode),
+                    new float[] { Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL },
+                    outSuggestions, outRawSuggestions);
+        }
+        final int pendingCount = pendingLookups.size();
+        for (int i = 0; i < pendingCount; i++) {
+            final Future<LookupResult> lookup = pendingLookups.get(i);
+            try {
+                final LookupResult result = lookup.get(
+                        Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                outSuggestions.addAll(result.mSuggestions);
+                result.mSuggestions.recycle();
+                if (null != outRawSuggestions) {
+                    outRawSuggestions.addAll(result.mRawSuggestions);
+                }
+            } catch (final TimeoutException e) {
+                lookup.cancel(false /* mayInterruptIfRunning */);
+                getLookupLatencyStats(pendingDictTypes.get(i)).recordDropped();
+                Log.w(TAG, "Dropped late suggestions from " + pendingDictTypes.get(i) + " for "
+                        + pendingLocales.get(i));
+            } catch (final ExecutionException e) {
+                Log.e(TAG, "Failed to get suggestions from " + pendingDictTypes.get(i) + " for "
+                        + pendingLocales.get(i), e);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * The suggestions of one dictionary looked up in parallel, only read by the calling thread
+     * once the lookup is done, and dropped if it is late.
+     *
+     * A late lookup outlives the call that submitted it, and the keyboard may have been replaced
+     * since. The native proximity info is released when its ProximityInfo is finalized, so the
+     * result holds on to it: being stored once the native lookup has returned, it can't be
+     * collected before.
+     */
+    private static final class LookupResult {
+        @Nonnull public final SuggestionBuffer mSuggestions;
+        @Nullable public final ArrayList<SuggestedWordInfo> mRawSuggestions;
+        @Nonnull private final ProximityInfo mProximityInfo;
+
+        public LookupResult(@Nonnull final SuggestionBuffer suggestions,
+                @Nullable final ArrayList<SuggestedWordInfo> rawSuggestions,
+                @Nonnull final ProximityInfo proximityInfo) {
+            mSuggestions = suggestions;
+            mRawSuggestions = rawSuggestions;
+            mProximityInfo = proximityInfo;
+        }
+    }
+
+    @Nonnull
+    private Future<LookupResult> submitSuggestionLookup(
+            @Nonnull final ExecutorService executor, final boolean needsRawSuggestions,
+            final String dictType, @Nonnull final Dictionary dictionary,
+            final ComposedData composedData,
+            @Nonnull final ComposedData[] alternativeComposedData,
+            final NgramContext ngramContext, @Nonnull final ProximityInfo proximityInfo,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale) {
+        return executor.submit(new Callable<LookupResult>() {
+            @Override
+            public LookupResult call() {
+                // Each lookup gets its own buffer. It is recycled by the calling thread
+                // once merged, or left to the garbage collector if the lookup is late.
+                final SuggestionBuffer buffer = SuggestionBuffer.obtain();
+                final ArrayList<SuggestedWordInfo> rawSuggestions =
+                        needsRawSuggestions ? new ArrayList<SuggestedWordInfo>() : null;
+                getSuggestionsFromDictionary(dictType, dictionary, composedData,
+                        alternativeComposedData, ngramContext,
+                        proximityInfo.getNativeProximityInfo(), settingsValuesForSuggestion,
+                        sessionId, weightForLocale,
+                        null /* inOutWeightOfLangModelVsSpatialModel */, buffer, rawSuggestions);
+                return new LookupResult(buffer, rawSuggestions, proximityInfo);
+            }
+        });
+    }
+
+    /**
+     * Looks up one dictionary for the typed word and its alternatives, offers the suggestions
+     * to the given buffer, and records how long it took.
+     *
+     * When raw suggestions are requested, all the suggestions of the dictionary are needed and
+     * not only the best ones, so they are fetched as word infos instead.
+     */
+    private void getSuggestionsFromDictionary(final String dictType,
+            @Nonnull final Dictionary dictionary, final ComposedData composedData,
+            @Nonnull final ComposedData[] alternativeComposedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale,
+            @Nullable final float[] inOutWeightOfLangModelVsSpatialModel,
+            @Nonnull final SuggestionBuffer outSuggestions,
+            @Nullable final ArrayList<SuggestedWordInfo> outRawSuggestions) {
+        final long startTime = System.nanoTime();
+        getSuggestionsFromDictionary(dictionary, composedData, ngramContext, proximityInfoHandle,
+                settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel, outSuggestions, outRawSuggestions);
+        // Each alternative costs a native lookup of its own. They are only looked up in the main
+        // dictionary, which holds the words the typed spelling may miss, in the same traverse
+        // session, one after the other, and only as many as fit in their budget. The likeliest
+        // come first, so the ones left out are the least likely.
+        if (Dictionary.TYPE_MAIN.equals(dictType)) {
+            long lastLookupNanos = System.nanoTime() - startTime;
+            long alternativesNanos = 0;
+            for (int i = 0; i < alternativeComposedData.length; i++) {
+                if (!fitsInAlternativeLookupsBudget(alternativesNanos, lastLookupNanos)) {
+                    for (int j = i; j < alternativeComposedData.length; j++) {
+                        mAlternativeLookupLatencyStats.recordDropped();
+                    }
+                    break;
+                }
+                final long alternativeStartTime = System.nanoTime();
+                getSuggestionsFromDictionary(dictionary, alternativeComposedData[i],
+                        ngramContext, proximityInfoHandle, settingsValuesForSuggestion,
+                        sessionId, weightForLocale * WEIGHT_FOR_ALTERNATIVE_TYPED_WORDS,
+                        null /* inOutWeightOfLangModelVsSpatialModel */, outSuggestions,
+                        outRawSuggestions);
+                lastLookupNanos = System.nanoTime() - alternativeStartTime;
+                alternativesNanos += lastLookupNanos;
+                mAlternativeLookupLatencyStats.record(lastLookupNanos);
+            }
+        }
+        getLookupLatencyStats(dictType).record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Returns whether one more alternative spelling may be looked up, expecting it to take as
+     * long as the previous lookup, without the alternatives exceeding their budget.
+     *
+     * @param spentNanos the time the alternatives looked up so far took.
+     * @param lastLookupNanos the time the previous lookup, of the typed word or an alternative,
+     * took.
+     */
+    @UsedForTesting
+    static boolean fitsInAlternativeLookupsBudget(final long spentNanos,
+            final long lastLookupNanos) {
+        return spentNanos + lastLookupNanos
+                <= TimeUnit.MILLISECONDS.toNanos(ALTERNATIVE_LOOKUPS_BUDGET_MS);
+    }
+
+    private static void getSuggestionsFromDictionary(@Nonnull final Dictionary dictionary,
+            final ComposedData composedData, final NgramContext ngramContext,
+            final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale,
+            @Nullable final float[] inOutWeightOfLangModelVsSpatialModel,
+            @Nonnull final SuggestionBuffer outSuggestions,
+            @Nullable final ArrayList<SuggestedWordInfo> outRawSuggestions) {
+        if (null == outRawSuggestions) {
+            dictionary.collectSuggestions(composedData, ngramContext, proximityInfoHandle,
+                    settingsValuesForSuggestion, sessionId, weightForLocale,
+                    inOutWeightOfLangModelVsSpatialModel, outSuggestions);
+            return;
+        }
+        final ArrayList<SuggestedWordInfo> suggestions = dictionary.getSuggestions(composedData,
+                ngramContext, proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                weightForLocale, inOutWeightOfLangModelVsSpatialModel);
+        if (null == suggestions) return;
+        outSuggestions.addAll(suggestions);
+        outRawSuggestions.addAll(suggestions);
+    }
+
+    @Nonnull
+    private LatencyStats getLookupLatencyStats(final String dictType) {
+        return mLookupLatencyStats.get(dictType);
+    }
+
+    // Alternative spellings were not typed as such, so they don't come with touch coordinates.
+    @Nonnull
+    private static ComposedData createComposedDataWithoutCoordinates(@Nonnull final String word) {
+        final int codePointCount = word.codePointCount(0, word.length());
+        final InputPointers inputPointers = new InputPointers(codePointCount);
+        for (int i = 0; i < codePointCount; i++) {
+            inputPointers.addPointerAt(i, Constants.NOT_A_COORDINATE, Constants.NOT_A_COORDINATE,
+                    0 /* pointerId */, 0 /* time */);
+        }
+        return new ComposedData(inputPointers, false /* isBatchMode */, word);
+    }
+
     public boolean isValidSpellingWord(final String word) {
         if (mValidSpellingWordReadCache != null) {
             final Boolean cachedValue = mValidSpellingWordReadCache.get(word);
@@ -677,22 +1795,6 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         return false;
     }
 
-    private int getFrequency(final String word) {
-        if (TextUtils.isEmpty(word)) {
-            return Dictionary.NOT_A_PROBABILITY;
-        }
-        int maxFreq = Dictionary.NOT_A_PROBABILITY;
-        for (final String dictType : ALL_DICTIONARY_TYPES) {
-            final Dictionary dictionary = mDictionaryGroup.getDict(dictType);
-            if (dictionary == null) continue;
-            final int tempFreq = dictionary.getFrequency(word);
-            if (tempFreq >= maxFreq) {
-                maxFreq = tempFreq;
-            }
-        }
-        return maxFreq;
-    }
-
     private boolean clearSubDictionary(final String dictName) {
         final ExpandableBinaryDictionary dictionary = mDictionaryGroup.getSubDict(dictName);
         if (dictionary == null) {
@@ -729,8 +1831,59 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         return statsOfEnabledSubDicts;
     }
 
+    private static String getStartupStats() {
+        final long firstSuggestionUptimeMillis = sFirstSuggestionUptimeMillis.get();
+        final long firstMainDictionaryUptimeMillis = sFirstMainDictionaryUptimeMillis.get();
+        final StringBuilder builder = new StringBuilder("startup: first suggestions ");
+        if (0 == firstSuggestionUptimeMillis) {
+            builder.append("not yet");
+        } else {
+            builder.append("after ")
+                    .append(firstSuggestionUptimeMillis - PROCESS_START_UPTIME_MILLIS)
+                    .append("ms");
+        }
+        builder.append(", main dictionary ");
+        if (0 == firstMainDictionaryUptimeMillis) {
+            builder.append("not loaded yet");
+        } else {
+            builder.append("loaded after ")
+                    .append(firstMainDictionaryUptimeMillis - PROCESS_START_UPTIME_MILLIS)
+                    .append("ms")
+                    .append(sIsFirstMainDictionaryWarmStarted ? " (warm start)" : " (cold start)");
+        }
+        return builder.toString();
+    }
+
     @Override
     public String dump(final Context context) {
-        return "";
+        final StringBuilder builder = new StringBuilder("Dictionary lookups");
+        builder.append(IS_PARALLEL_DICTIONARY_LOOKUP_ENABLED ? " (parallel)" : " (serial)");
+        builder.append("\n    ").append(getStartupStats());
+        builder.append("\n    ").append(mSuggestionLatencyStats);
+        builder.append("\n    ").append(mAlternativeLookupLatencyStats);
+        builder.append("\n    ").append(mDictionaryGroup.mSuggestionResultsCache);
+        for (final DictionaryGroup dictionaryGroup : getDictionaryGroups()) {
+            final Dictionary mainDict = dictionaryGroup.getDict(Dictionary.TYPE_MAIN);
+            builder.append("\n    language ").append(dictionaryGroup.mLocale)
+                    .append(": weight ").append(dictionaryGroup.mWeightForTypingInLocale)
+                    .append(" typing, ").append(dictionaryGroup.mWeightForGesturingInLocale)
+                    .append(" gesturing, confidence ").append(dictionaryGroup.mConfidence)
+                    .append(null != mainDict && mainDict.isInitialized()
+                            ? "" : ", main dictionary not loaded");
+        }
+        for (final String dictType : ALL_DICTIONARY_TYPES) {
+            builder.append("\n    ").append(getLookupLatencyStats(dictType));
+            final Dictionary dictionary = mDictionaryGroup.getDict(dictType);
+            if (null != dictionary) {
+                builder.append(", traverse sessions ~")
+                        .append(dictionary.getEstimatedSessionNativeBytes() / 1024)
+                        .append("KB");
+            }
+            if (dictionary instanceof ExpandableBinaryDictionary) {
+                builder.append(", read lock timeouts ").append(
+                        ((ExpandableBinaryDictionary)dictionary).getReadLockTimeoutCount());
+            }
+        }
+        return builder.toString();
     }
 }
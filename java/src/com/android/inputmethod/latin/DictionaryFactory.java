@@ -51,9 +51,22 @@ public final class DictionaryFactory {
                     createReadOnlyBinaryDictionary(context, locale));
         }
 
+        return createMainDictionaryFromFiles(context, locale,
+                BinaryDictionaryGetter.getDictionaryFiles(locale, context, true));
+    }
+
+    /**
+     * Initializes a main dictionary collection from the given dictionary files.
+     *
+     * @param context application context to report broken files to the dictionary pack
+     * @param locale the locale of the dictionary
+     * @param assetFileList the dictionary files, as returned by
+     *     {@link BinaryDictionaryGetter#getDictionaryFiles}
+     * @return an initialized instance of DictionaryCollection
+     */
+    public static DictionaryCollection createMainDictionaryFromFiles(final Context context,
+            final Locale locale, final ArrayList<AssetFileAddress> assetFileList) {
         final LinkedList<Dictionary> dictList = new LinkedList<>();
-        final ArrayList<AssetFileAddress> assetFileList =
-                BinaryDictionaryGetter.getDictionaryFiles(locale, context, true);
         if (null != assetFileList) {
             for (final AssetFileAddress f : assetFileList) {
                 final ReadOnlyBinaryDictionary readOnlyBinaryDictionary =
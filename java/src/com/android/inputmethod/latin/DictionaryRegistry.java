@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.Log;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+import com.android.inputmethod.compat.ActivityManagerCompatUtils;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps track of the dictionaries opened in the process and of the native memory they hold.
+ *
+ * A dictionary is acquired under a key that identifies its contents, and released by each of
+ * its users when done. A dictionary that nobody uses any more stays open, so that switching
+ * back to its locale doesn't open it again, until the dictionaries of the process hold more
+ * than the memory budget or the system asks to trim memory. Unused dictionaries are then
+ * closed, least recently acquired first. Dictionaries in use are never closed here, but their
+ * idle traverse sessions are released when memory runs low.
+ */
+public final class DictionaryRegistry {
+    private static final String TAG = DictionaryRegistry.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final long DEFAULT_MEMORY_BUDGET_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Opens a dictionary that is not registered yet.
+     */
+    public interface Factory<T extends Dictionary> {
+        @Nullable
+        T create();
+    }
+
+    private static final class Entry {
+        public final String mKey;
+        public final Dictionary mDictionary;
+        public int mRefCount;
+        public long mEstimatedBytes;
+
+        public Entry(final String key, final Dictionary dictionary, final long estimatedBytes) {
+            mKey = key;
+            mDictionary = dictionary;
+            mRefCount = 1;
+            mEstimatedBytes = estimatedBytes;
+        }
+    }
+
+    private static final DictionaryRegistry sInstance = new DictionaryRegistry();
+
+    private final Object mLock = new Object();
+    // In the order of the last acquisition, least recent first. Guarded by mLock.
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<>(16 /* initialCapacity */, 0.75f /* loadFactor */,
+                    true /* accessOrder */);
+    private final IdentityHashMap<Dictionary, Entry> mEntriesByDictionary =
+            new IdentityHashMap<>();
+    private long mMemoryBudgetBytes = DEFAULT_MEMORY_BUDGET_BYTES;
+    private int mClosedUnusedCount;
+
+    public static DictionaryRegistry getInstance() {
+        return sInstance;
+    }
+
+    private DictionaryRegistry() {
+        // Singleton.
+    }
+
+    public static void init(final Context context) {
+        final int budgetKb = context.getResources().getInteger(
+                ActivityManagerCompatUtils.isLowRamDevice(context)
+                        ? R.integer.config_dictionary_memory_budget_kb_low_ram
+                        : R.integer.config_dictionary_memory_budget_kb);
+        sInstance.setMemoryBudget(budgetKb * 1024L);
+    }
+
+    public void setMemoryBudget(final long memoryBudgetBytes) {
+        final ArrayList<Dictionary> dictionariesToClose;
+        synchronized (mLock) {
+            mMemoryBudgetBytes = memoryBudgetBytes;
+            dictionariesToClose = removeUnusedEntriesLocked(memoryBudgetBytes);
+        }
+        closeDictionaries(dictionariesToClose);
+    }
+
+    /**
+     * Returns the dictionary registered under the key, or opens and registers a new one. Each
+     * dictionary returned must be given back to {@link #release(Dictionary)}.
+     *
+     * @param key identifies the contents of the dictionary, so that all the users of a key can
+     *     share one dictionary.
+     * @param factory opens the dictionary if none is registered. It's called without any lock
+     *     held.
+     * @return the dictionary, or null if the factory did not open one.
+     */
+    @Nullable
+    public <T extends Dictionary> T acquire(@Nonnull final String key,
+            @Nonnull final Factory<T> factory) {
+        synchronized (mLock) {
+            final T dictionary = acquireLocked(key);
+            if (null != dictionary) {
+                return dictionary;
+            }
+        }
+        final T newDictionary = factory.create();
+        if (null == newDictionary) {
+            return null;
+        }
+        final long estimatedBytes = newDictionary.getEstimatedNativeBytes();
+        final T dictionary;
+        final ArrayList<Dictionary> dictionariesToClose;
+        synchronized (mLock) {
+            final T registeredDictionary = acquireLocked(key);
+            if (null != registeredDictionary) {
+                // Opened at the same time by another thread.
+                dictionary = registeredDictionary;
+                dictionariesToClose = new ArrayList<>();
+                dictionariesToClose.add(newDictionary);
+            } else {
+                dictionary = newDictionary;
+                final Entry entry = new Entry(key, newDictionary, estimatedBytes);
+                mEntries.put(key, entry);
+                mEntriesByDictionary.put(newDictionary, entry);
+                dictionariesToClose = removeUnusedEntriesLocked(mMemoryBudgetBytes);
+            }
+        }
+        closeDictionaries(dictionariesToClose);
+        if (DEBUG) {
+            Log.d(TAG, "Opened " + key + ": ~" + estimatedBytes / 1024 + "KB");
+        }
+        return dictionary;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private <T extends Dictionary> T acquireLocked(@Nonnull final String key) {
+        final Entry entry = mEntries.get(key);
+        if (null == entry) {
+            return null;
+        }
+        entry.mRefCount++;
+        return (T)entry.mDictionary;
+    }
+
+    /**
+     * Gives back a dictionary. It's closed right away if it was not acquired here, and
+     * otherwise once it's no longer used and the memory it holds is needed.
+     */
+    public void release(@Nullable final Dictionary dictionary) {
+        if (null == dictionary) {
+            return;
+        }
+        // Estimated without the lock, since it may read the size of the files.
+        final long estimatedBytes = dictionary.getEstimatedNativeBytes();
+        final ArrayList<Dictionary> dictionariesToClose;
+        synchronized (mLock) {
+            final Entry entry = mEntriesByDictionary.get(dictionary);
+            if (null == entry) {
+                dictionariesToClose = new ArrayList<>();
+                dictionariesToClose.add(dictionary);
+            } else {
+                if (entry.mRefCount <= 0) {
+                    Log.e(TAG, "Released " + entry.mKey + " more times than acquired");
+                    return;
+                }
+                entry.mRefCount--;
+                // Updatable dictionaries grow while they are used.
+                entry.mEstimatedBytes = estimatedBytes;
+                dictionariesToClose = removeUnusedEntriesLocked(mMemoryBudgetBytes);
+            }
+        }
+        closeDictionaries(dictionariesToClose);
+    }
+
+    /**
+     * Returns the registered dictionaries of the given class, used or not.
+     */
+    @Nonnull
+    public <T extends Dictionary> ArrayList<T> getDictionaries(@Nonnull final Class<T> cls) {
+        final ArrayList<T> dictionaries = new ArrayList<>();
+        synchronized (mLock) {
+            for (final Entry entry : mEntries.values()) {
+                if (cls.isInstance(entry.mDictionary)) {
+                    dictionaries.add(cls.cast(entry.mDictionary));
+                }
+            }
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Releases memory according to the level given to
+     * {@link ComponentCallbacks2#onTrimMemory(int)}. Half of the budget is kept for unused
+     * dictionaries while the process runs with moderately low memory, and none once memory runs
+     * low or the keyboard is hidden. The idle traverse sessions of the dictionaries in use are
+     * released as well.
+     */
+    public void onTrimMemory(final int level) {
+        final ArrayList<Dictionary> dictionariesToClose;
+        final ArrayList<Dictionary> dictionariesToTrim = new ArrayList<>();
+        synchronized (mLock) {
+            final long unusedBytesToKeep;
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                unusedBytesToKeep = 0;
+            } else {
+                unusedBytesToKeep = mMemoryBudgetBytes / 2;
+            }
+            dictionariesToClose = removeUnusedEntriesLocked(
+                    Math.min(mMemoryBudgetBytes, getUsedBytesLocked() + unusedBytesToKeep));
+            for (final Entry entry : mEntries.values()) {
+                dictionariesToTrim.add(entry.mDictionary);
+            }
+        }
+        closeDictionaries(dictionariesToClose);
+        for (final Dictionary dictionary : dictionariesToTrim) {
+            dictionary.trimMemory();
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Trimmed memory at level " + level + ": closed "
+                    + dictionariesToClose.size() + " unused dictionaries");
+        }
+    }
+
+    private long getUsedBytesLocked() {
+        long usedBytes = 0;
+        for (final Entry entry : mEntries.values()) {
+            if (entry.mRefCount > 0) {
+                usedBytes += entry.mEstimatedBytes;
+            }
+        }
+        return usedBytes;
+    }
+
+    /**
+     * Unregisters the least recently acquired unused dictionaries until all the dictionaries
+     * hold no more than the given memory, or until none is unused.
+     * @return the unregistered dictionaries, to be closed without the lock held.
+     */
+    @Nonnull
+    private ArrayList<Dictionary> removeUnusedEntriesLocked(final long maxBytes) {
+        final ArrayList<Dictionary> removedDictionaries = new ArrayList<>();
+        long totalBytes = 0;
+        for (final Entry entry : mEntries.values()) {
+            totalBytes += entry.mEstimatedBytes;
+        }
+        final Iterator<Entry> iterator = mEntries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.mRefCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            mEntriesByDictionary.remove(entry.mDictionary);
+            totalBytes -= entry.mEstimatedBytes;
+            removedDictionaries.add(entry.mDictionary);
+            mClosedUnusedCount++;
+            if (DEBUG) {
+                Log.d(TAG, "Closing unused " + entry.mKey);
+            }
+        }
+        return removedDictionaries;
+    }
+
+    private static void closeDictionaries(@Nonnull final ArrayList<Dictionary> dictionaries) {
+        for (final Dictionary dictionary : dictionaries) {
+            dictionary.close();
+        }
+    }
+
+    @UsedForTesting
+    int getRefCount(@Nonnull final Dictionary dictionary) {
+        synchronized (mLock) {
+            final Entry entry = mEntriesByDictionary.get(dictionary);
+            return null == entry ? 0 : entry.mRefCount;
+        }
+    }
+
+    @UsedForTesting
+    boolean isRegistered(@Nonnull final Dictionary dictionary) {
+        synchronized (mLock) {
+            return mEntriesByDictionary.containsKey(dictionary);
+        }
+    }
+
+    public String dump() {
+        final StringBuilder builder = new StringBuilder("Dictionary registry");
+        synchronized (mLock) {
+            long usedBytes = 0;
+            long unusedBytes = 0;
+            for (final Entry entry : mEntries.values()) {
+                if (entry.mRefCount > 0) {
+                    usedBytes += entry.mEstimatedBytes;
+                } else {
+                    unusedBytes += entry.mEstimatedBytes;
+                }
+            }
+            builder.append(": budget ").append(mMemoryBudgetBytes / 1024).append("KB, used ~")
+                    .append(usedBytes / 1024).append("KB, unused ~")
+                    .append(unusedBytes / 1024).append("KB, closed unused ")
+                    .append(mClosedUnusedCount);
+            for (final Entry entry : mEntries.values()) {
+                builder.append("\n    ").append(entry.mKey).append(": refs ")
+                        .append(entry.mRefCount).append(", ~")
+                        .append(entry.mEstimatedBytes / 1024).append("KB");
+            }
+        }
+        return builder.toString();
+    }
+}
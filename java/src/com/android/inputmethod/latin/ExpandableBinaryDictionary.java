@@ -24,6 +24,7 @@ import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.common.ComposedData;
 import com.android.inputmethod.latin.common.FileUtils;
 import com.android.inputmethod.latin.define.DecoderSpecificConstants;
+import com.android.inputmethod.latin.define.ProductionFlags;
 import com.android.inputmethod.latin.makedict.DictionaryHeader;
 import com.android.inputmethod.latin.makedict.FormatSpec;
 import com.android.inputmethod.latin.makedict.UnsupportedFormatException;
@@ -32,6 +33,7 @@ import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
 import com.android.inputmethod.latin.utils.AsyncResultHolder;
 import com.android.inputmethod.latin.utils.CombinedFormatUtils;
 import com.android.inputmethod.latin.utils.ExecutorUtils;
+import com.android.inputmethod.latin.utils.SuggestionBuffer;
 import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
@@ -42,6 +44,7 @@ import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -67,6 +70,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private static final int TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS = 100;
 
+    private static final boolean USES_SNAPSHOTS = ProductionFlags.ENABLE_DICTIONARY_SNAPSHOTS;
+
     /**
      * The maximum length of a word in this dictionary.
      */
@@ -83,9 +88,15 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     /**
      * The binary dictionary generated dynamically from the fusion dictionary. This is used to
-     * answer unigram and bigram queries.
+     * answer unigram and bigram queries. It's only replaced by tasks running on the executor.
+     */
+    private volatile BinaryDictionary mBinaryDictionary;
+
+    /**
+     * In snapshot mode, the dictionary being built by a task while lookups keep using
+     * {@link #mBinaryDictionary}. Only accessed by tasks running on the executor.
      */
-    private BinaryDictionary mBinaryDictionary;
+    private BinaryDictionary mShadowBinaryDictionary;
 
     /**
      * The name of this dictionary, used as a part of the filename for storing the binary
@@ -96,6 +107,11 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     /** Dictionary file */
     private final File mDictFile;
 
+    /** Runs the tasks of this dictionary, and of any other instance for the same file, in order. */
+    private final ExecutorUtils.SerialExecutor mExecutor;
+    /** Whether this instance gave up its ownership of the executor when it was closed. */
+    private final AtomicBoolean mIsExecutorReleased = new AtomicBoolean();
+
     /** Indicates whether a task for reloading the dictionary has been scheduled. */
     private final AtomicBoolean mIsReloading;
 
@@ -104,6 +120,12 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private final ReentrantReadWriteLock mLock;
 
+    /** Incremented after each task that holds the write lock, which may change the contents. */
+    private volatile int mContentVersion;
+
+    /** The number of lookups that gave up waiting for a task holding the write lock. */
+    private final AtomicInteger mReadLockTimeoutCount = new AtomicInteger();
+
     private Map<String, String> mAdditionalAttributeMap = null;
 
     /* A extension for a binary dictionary file. */
@@ -125,7 +147,15 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     public boolean isValidDictionaryLocked() {
-        return mBinaryDictionary.isValidDictionary();
+        return getWritableBinaryDictionaryLocked().isValidDictionary();
+    }
+
+    /**
+     * Returns the dictionary that the tasks running on the executor change: the one being built,
+     * if any, and otherwise the one used for lookups.
+     */
+    private BinaryDictionary getWritableBinaryDictionaryLocked() {
+        return null != mShadowBinaryDictionary ? mShadowBinaryDictionary : mBinaryDictionary;
     }
 
     /**
@@ -145,6 +175,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         mDictName = dictName;
         mContext = context;
         mDictFile = getDictFile(context, dictName, dictFile);
+        mExecutor = ExecutorUtils.acquireSerialExecutor(mDictFile.getAbsolutePath());
         mBinaryDictionary = null;
         mIsReloading = new AtomicBoolean();
         mNeedsToRecreate = false;
@@ -162,12 +193,102 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         return dictFile != null ? dictFile.getName() : name + "." + locale.toString();
     }
 
-    private void asyncExecuteTaskWithWriteLock(final Runnable task) {
-        asyncExecuteTaskWithLock(mLock.writeLock(), task);
+    private void asyncExecuteTaskWithWriteLock(final Runnable task, final int lane) {
+        asyncExecuteTask(new Runnable() {
+            @Override
+            public void run() {
+                runWithWriteLock(task);
+            }
+        }, lane);
+    }
+
+    private void runWithWriteLock(final Runnable task) {
+        mLock.writeLock().lock();
+        try {
+            task.run();
+        } finally {
+            // Only one task holds the write lock at a time.
+            mContentVersion++;
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a task on the executor without holding any lock. Since all the tasks that change this
+     * dictionary run one at a time on its serial executor, the task may still read the
+     * dictionary without locking, but it must only change it with {@link #runWithWriteLock}.
+     *
+     * @param lane one of the lanes of {@link ExecutorUtils}, which only orders the tasks of
+     *     different dictionaries: the tasks of this one always run in the order given.
+     */
+    private void asyncExecuteTask(final Runnable task, final int lane) {
+        mExecutor.execute(task, lane);
+    }
+
+    /**
+     * Returns the executor that runs the tasks of this dictionary, for subclasses whose own
+     * state is only accessed by these tasks.
+     */
+    @Nonnull
+    protected ExecutorUtils.SerialExecutor getExecutor() {
+        return mExecutor;
+    }
+
+    @Override
+    public int getContentVersion() {
+        return mContentVersion;
+    }
+
+    public int getReadLockTimeoutCount() {
+        return mReadLockTimeoutCount.get();
+    }
+
+    private void onReadLockTimeout(final String operation) {
+        final int count = mReadLockTimeoutCount.incrementAndGet();
+        if (DEBUG) {
+            Log.w(TAG, operation + " timed out waiting for the lock of " + mDictName
+                    + " (" + count + " times)");
+        }
+    }
+
+    @Override
+    public long getEstimatedSessionNativeBytes() {
+        final BinaryDictionary binaryDictionary = mBinaryDictionary;
+        return null == binaryDictionary ? 0 : binaryDictionary.getEstimatedSessionNativeBytes();
+    }
+
+    @Override
+    public long getEstimatedNativeBytes() {
+        // Updatable dictionaries are read into native buffers, which are about as large as
+        // their files.
+        return getFileBytes(mDictFile) + getEstimatedSessionNativeBytes();
+    }
+
+    private static long getFileBytes(@Nonnull final File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        final File[] files = file.listFiles();
+        if (null == files) {
+            return 0;
+        }
+        long bytes = 0;
+        for (final File child : files) {
+            bytes += getFileBytes(child);
+        }
+        return bytes;
+    }
+
+    @Override
+    public void trimMemory() {
+        final BinaryDictionary binaryDictionary = mBinaryDictionary;
+        if (null != binaryDictionary) {
+            binaryDictionary.trimMemory();
+        }
     }
 
-    private static void asyncExecuteTaskWithLock(final Lock lock, final Runnable task) {
-        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(new Runnable() {
+    private void asyncExecuteTaskWithLock(final Lock lock, final Runnable task, final int lane) {
+        asyncExecuteTask(new Runnable() {
             @Override
             public void run() {
                 lock.lock();
@@ -177,7 +298,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     lock.unlock();
                 }
             }
-        });
+        }, lane);
     }
 
     @Nullable
@@ -193,7 +314,26 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     /**
-     * Closes and cleans up the binary dictionary.
+     * Makes lookups use the given dictionary, and closes the one they used so far. Only the
+     * swap holds the write lock, so lookups wait at most for it.
+     */
+    private void publishBinaryDictionary(@Nonnull final BinaryDictionary binaryDictionary) {
+        final BinaryDictionary oldBinaryDictionary = mBinaryDictionary;
+        runWithWriteLock(new Runnable() {
+            @Override
+            public void run() {
+                mBinaryDictionary = binaryDictionary;
+            }
+        });
+        // Lookups hold the read lock, so none of them can still be using the old dictionary.
+        if (oldBinaryDictionary != null && oldBinaryDictionary != binaryDictionary) {
+            oldBinaryDictionary.close();
+        }
+    }
+
+    /**
+     * Closes and cleans up the binary dictionary. Subclasses must give their last tasks to the
+     * executor before calling this.
      */
     @Override
     public void close() {
@@ -202,7 +342,10 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             public void run() {
                 closeBinaryDictionary();
             }
-        });
+        }, ExecutorUtils.LANE_UPDATE);
+        if (mIsExecutorReleased.compareAndSet(false, true)) {
+            ExecutorUtils.releaseSerialExecutor(mExecutor);
+        }
     }
 
     protected Map<String, String> getHeaderAttributeMap() {
@@ -223,24 +366,64 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             public void run() {
                 removeBinaryDictionaryLocked();
             }
-        });
+        }, ExecutorUtils.LANE_UPDATE);
     }
 
     void removeBinaryDictionaryLocked() {
         closeBinaryDictionary();
+        removeDictFileLocked();
+        onBinaryDictionaryRemovedLocked();
+    }
+
+    private void removeDictFileLocked() {
         if (mDictFile.exists() && !FileUtils.deleteRecursively(mDictFile)) {
             Log.e(TAG, "Can't remove a file: " + mDictFile.getName());
         }
     }
 
-    private void openBinaryDictionaryLocked() {
-        mBinaryDictionary = new BinaryDictionary(
+    /**
+     * Called on the executor once the dictionary has been loaded from its file or created,
+     * before lookups use it. Subclasses may update it further with the *Locked methods.
+     */
+    protected void onBinaryDictionaryOpenedLocked() {
+        // empty base implementation
+    }
+
+    /**
+     * Called on the executor right before the dictionary is written to its file. If writing
+     * succeeds, {@link #onBinaryDictionaryFlushedLocked()} follows.
+     */
+    protected void onBinaryDictionaryFlushingLocked() {
+        // empty base implementation
+    }
+
+    /**
+     * Called on the executor once all the updates applied to the dictionary so far have been
+     * written to its file.
+     */
+    protected void onBinaryDictionaryFlushedLocked() {
+        // empty base implementation
+    }
+
+    /**
+     * Called on the executor once the dictionary and its file have been removed.
+     */
+    protected void onBinaryDictionaryRemovedLocked() {
+        // empty base implementation
+    }
+
+    private BinaryDictionary openBinaryDictionary() {
+        return new BinaryDictionary(
                 mDictFile.getAbsolutePath(), 0 /* offset */, mDictFile.length(),
                 true /* useFullEditDistance */, mLocale, mDictType, true /* isUpdatable */);
     }
 
     void createOnMemoryBinaryDictionaryLocked() {
-        mBinaryDictionary = new BinaryDictionary(
+        mBinaryDictionary = createOnMemoryBinaryDictionary();
+    }
+
+    private BinaryDictionary createOnMemoryBinaryDictionary() {
+        return new BinaryDictionary(
                 mDictFile.getAbsolutePath(), true /* useFullEditDistance */, mLocale, mDictType,
                 DICTIONARY_FORMAT_VERSION, getHeaderAttributeMap());
     }
@@ -252,14 +435,14 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 removeBinaryDictionaryLocked();
                 createOnMemoryBinaryDictionaryLocked();
             }
-        });
+        }, ExecutorUtils.LANE_UPDATE);
     }
 
     /**
      * Check whether GC is needed and run GC if required.
      */
     public void runGCIfRequired(final boolean mindsBlockByGC) {
-        asyncExecuteTaskWithWriteLock(new Runnable() {
+        final Runnable task = new Runnable() {
             @Override
             public void run() {
                 if (getBinaryDictionary() == null) {
@@ -267,17 +450,81 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 }
                 runGCIfRequiredLocked(mindsBlockByGC);
             }
-        });
+        };
+        if (USES_SNAPSHOTS) {
+            asyncExecuteTask(task, ExecutorUtils.LANE_BULK);
+        } else {
+            asyncExecuteTaskWithWriteLock(task, ExecutorUtils.LANE_BULK);
+        }
     }
 
     protected void runGCIfRequiredLocked(final boolean mindsBlockByGC) {
-        if (mBinaryDictionary.needsToRunGC(mindsBlockByGC)) {
-            mBinaryDictionary.flushWithGC();
+        final BinaryDictionary binaryDictionary = getWritableBinaryDictionaryLocked();
+        if (!binaryDictionary.needsToRunGC(mindsBlockByGC)) {
+            return;
+        }
+        if (binaryDictionary != mBinaryDictionary) {
+            // The dictionary being built is only flushed once it's complete.
+            binaryDictionary.flushWithGC();
+            return;
+        }
+        onBinaryDictionaryFlushingLocked();
+        final boolean flushed = USES_SNAPSHOTS
+                ? flushIntoSnapshotLocked(true /* runsGC */) : binaryDictionary.flushWithGC();
+        if (flushed) {
+            onBinaryDictionaryFlushedLocked();
         }
     }
 
-    private void updateDictionaryWithWriteLock(@Nonnull final Runnable updateTask) {
+    /**
+     * Writes the dictionary used for lookups to its file, reopens the file into a new dictionary,
+     * runs GC on the new one if requested, and makes lookups use it. Writing the file only reads
+     * the dictionary and GC only changes the new one, so lookups go on meanwhile.
+     * @return whether the file has all the contents of the dictionary.
+     */
+    private boolean flushIntoSnapshotLocked(final boolean runsGC) {
+        final BinaryDictionary binaryDictionary = mBinaryDictionary;
+        if (binaryDictionary.hasUpdated()) {
+            if (!binaryDictionary.flushWithoutReopening()) {
+                return false;
+            }
+        } else if (!runsGC) {
+            // The file already has the contents of the dictionary.
+            return true;
+        }
+        final BinaryDictionary snapshot = openBinaryDictionary();
+        if (!snapshot.isValidDictionary()) {
+            Log.e(TAG, "Cannot reopen " + mDictName + " after flushing it.");
+            snapshot.close();
+            return false;
+        }
+        if (runsGC) {
+            snapshot.flushWithGC();
+        }
+        publishBinaryDictionary(snapshot);
+        return true;
+    }
+
+    /**
+     * Runs a task that changes the dictionary, after running GC if it's required. In snapshot
+     * mode GC doesn't hold the write lock, so only the change itself blocks lookups. The task
+     * doesn't run if the dictionary is not loaded.
+     */
+    protected void updateDictionaryWithWriteLock(@Nonnull final Runnable updateTask) {
         reloadDictionaryIfRequired();
+        if (USES_SNAPSHOTS) {
+            asyncExecuteTask(new Runnable() {
+                @Override
+                public void run() {
+                    if (getBinaryDictionary() == null) {
+                        return;
+                    }
+                    runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                    runWithWriteLock(updateTask);
+                }
+            }, ExecutorUtils.LANE_UPDATE);
+            return;
+        }
         final Runnable task = new Runnable() {
             @Override
             public void run() {
@@ -288,7 +535,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 updateTask.run();
             }
         };
-        asyncExecuteTaskWithWriteLock(task);
+        asyncExecuteTaskWithWriteLock(task, ExecutorUtils.LANE_UPDATE);
     }
 
     /**
@@ -306,25 +553,29 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     protected void addUnigramLocked(final String word, final int frequency,
             final boolean isNotAWord, final boolean isPossiblyOffensive, final int timestamp) {
-        if (!mBinaryDictionary.addUnigramEntry(word, frequency,
+        if (!getWritableBinaryDictionaryLocked().addUnigramEntry(word, frequency,
                 false /* isBeginningOfSentence */, isNotAWord, isPossiblyOffensive, timestamp)) {
             Log.e(TAG, "Cannot add unigram entry. word: " + word);
         }
     }
 
+    protected void removeUnigramLocked(final String word) {
+        if (!getWritableBinaryDictionaryLocked().removeUnigramEntry(word)) {
+            if (DEBUG) {
+                Log.i(TAG, "Cannot remove unigram entry: " + word);
+            }
+        }
+    }
+
     /**
      * Dynamically remove the unigram entry from the dictionary.
      */
     public void removeUnigramEntryDynamically(final String word) {
-        reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(new Runnable() {
+        updateDictionaryWithWriteLock(new Runnable() {
             @Override
             public void run() {
+                // GC may have replaced the dictionary.
                 final BinaryDictionary binaryDictionary = getBinaryDictionary();
-                if (binaryDictionary == null) {
-                    return;
-                }
-                runGCIfRequiredLocked(true /* mindsBlockByGC */);
                 if (!binaryDictionary.removeUnigramEntry(word)) {
                     if (DEBUG) {
                         Log.i(TAG, "Cannot remove unigram entry: " + word);
@@ -339,14 +590,9 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     public void addNgramEntry(@Nonnull final NgramContext ngramContext, final String word,
             final int frequency, final int timestamp) {
-        reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(new Runnable() {
+        updateDictionaryWithWriteLock(new Runnable() {
             @Override
             public void run() {
-                if (getBinaryDictionary() == null) {
-                    return;
-                }
-                runGCIfRequiredLocked(true /* mindsBlockByGC */);
                 addNgramEntryLocked(ngramContext, word, frequency, timestamp);
             }
         });
@@ -354,7 +600,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     protected void addNgramEntryLocked(@Nonnull final NgramContext ngramContext, final String word,
             final int frequency, final int timestamp) {
-        if (!mBinaryDictionary.addNgramEntry(ngramContext, word, frequency, timestamp)) {
+        if (!getWritableBinaryDictionaryLocked().addNgramEntry(ngramContext, word, frequency,
+                timestamp)) {
             if (DEBUG) {
                 Log.i(TAG, "Cannot add n-gram entry.");
                 Log.i(TAG, "  NgramContext: " + ngramContext + ", word: " + word);
@@ -362,6 +609,16 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         }
     }
 
+    protected void removeNgramEntryLocked(@Nonnull final NgramContext ngramContext,
+            final String word) {
+        if (!getWritableBinaryDictionaryLocked().removeNgramEntry(ngramContext, word)) {
+            if (DEBUG) {
+                Log.i(TAG, "Cannot remove n-gram entry.");
+                Log.i(TAG, "  NgramContext: " + ngramContext + ", word: " + word);
+            }
+        }
+    }
+
     /**
      * Update dictionary for the word with the ngramContext.
      */
@@ -370,21 +627,22 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         updateDictionaryWithWriteLock(new Runnable() {
             @Override
             public void run() {
-                final BinaryDictionary binaryDictionary = getBinaryDictionary();
-                if (binaryDictionary == null) {
-                    return;
-                }
-                if (!binaryDictionary.updateEntriesForWordWithNgramContext(ngramContext, word,
-                        isValidWord, count, timestamp)) {
-                    if (DEBUG) {
-                        Log.e(TAG, "Cannot update counter. word: " + word
-                                + " context: " + ngramContext.toString());
-                    }
-                }
+                updateEntriesForWordLocked(ngramContext, word, isValidWord, count, timestamp);
             }
         });
     }
 
+    protected void updateEntriesForWordLocked(@Nonnull final NgramContext ngramContext,
+            final String word, final boolean isValidWord, final int count, final int timestamp) {
+        if (!getWritableBinaryDictionaryLocked().updateEntriesForWordWithNgramContext(ngramContext,
+                word, isValidWord, count, timestamp)) {
+            if (DEBUG) {
+                Log.e(TAG, "Cannot update counter. word: " + word
+                        + " context: " + ngramContext.toString());
+            }
+        }
+    }
+
     /**
      * Used by Sketch.
      * {@see https://cs.corp.google.com/#android/vendor/unbundled_google/packages/LatinIMEGoogle/tools/sketch/ime-simulator/src/com/android/inputmethod/sketch/imesimulator/ImeSimulator.java&q=updateEntriesForInputEventsCallback&l=286}
@@ -395,34 +653,36 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     /**
-     * Dynamically update entries according to input events.
+     * Dynamically update entries according to input events, in one task.
      *
      * Used by Sketch.
      * {@see https://cs.corp.google.com/#android/vendor/unbundled_google/packages/LatinIMEGoogle/tools/sketch/ime-simulator/src/com/android/inputmethod/sketch/imesimulator/ImeSimulator.java&q=updateEntriesForInputEventsCallback&l=286}
      */
-    @UsedForTesting
     public void updateEntriesForInputEvents(
             @Nonnull final ArrayList<WordInputEventForPersonalization> inputEvents,
             final UpdateEntriesForInputEventsCallback callback) {
-        reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(new Runnable() {
+        final WordInputEventForPersonalization[] inputEventArray =
+                inputEvents.toArray(new WordInputEventForPersonalization[inputEvents.size()]);
+        updateDictionaryWithWriteLock(new Runnable() {
             @Override
             public void run() {
-                try {
-                    final BinaryDictionary binaryDictionary = getBinaryDictionary();
-                    if (binaryDictionary == null) {
-                        return;
-                    }
-                    binaryDictionary.updateEntriesForInputEvents(
-                            inputEvents.toArray(
-                                    new WordInputEventForPersonalization[inputEvents.size()]));
-                } finally {
-                    if (callback != null) {
-                        callback.onFinished();
-                    }
-                }
+                updateEntriesForInputEventsLocked(inputEventArray);
             }
         });
+        if (callback != null) {
+            // Tasks run in order, so this one runs once the update is done or was skipped.
+            asyncExecuteTask(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFinished();
+                }
+            }, ExecutorUtils.LANE_UPDATE);
+        }
+    }
+
+    protected void updateEntriesForInputEventsLocked(
+            @Nonnull final WordInputEventForPersonalization[] inputEvents) {
+        getWritableBinaryDictionaryLocked().updateEntriesForInputEvents(inputEvents);
     }
 
     @Override
@@ -449,6 +709,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     removeBinaryDictionary();
                 }
                 return suggestions;
+            } else {
+                onReadLockTimeout("getSuggestions");
             }
         } catch (final InterruptedException e) {
             Log.e(TAG, "Interrupted tryLock() in getSuggestionsWithSessionId().", e);
@@ -460,6 +722,42 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         return null;
     }
 
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionBuffer outSuggestions) {
+        reloadDictionaryIfRequired();
+        boolean lockAcquired = false;
+        try {
+            lockAcquired = mLock.readLock().tryLock(
+                    TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            if (lockAcquired) {
+                if (mBinaryDictionary == null) {
+                    return;
+                }
+                mBinaryDictionary.collectSuggestions(composedData, ngramContext,
+                        proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                        weightForLocale, inOutWeightOfLangModelVsSpatialModel, outSuggestions);
+                if (mBinaryDictionary.isCorrupted()) {
+                    Log.i(TAG, "Dictionary (" + mDictName +") is corrupted. "
+                            + "Remove and regenerate it.");
+                    removeBinaryDictionary();
+                }
+            } else {
+                onReadLockTimeout("collectSuggestions");
+            }
+        } catch (final InterruptedException e) {
+            Log.e(TAG, "Interrupted tryLock() in collectSuggestions().", e);
+        } finally {
+            if (lockAcquired) {
+                mLock.readLock().unlock();
+            }
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         reloadDictionaryIfRequired();
@@ -472,6 +770,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     return false;
                 }
                 return isInDictionaryLocked(word);
+            } else {
+                onReadLockTimeout("isInDictionary");
             }
         } catch (final InterruptedException e) {
             Log.e(TAG, "Interrupted tryLock() in isInDictionary().", e);
@@ -500,6 +800,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     return NOT_A_PROBABILITY;
                 }
                 return mBinaryDictionary.getMaxFrequencyOfExactMatches(word);
+            } else {
+                onReadLockTimeout("getMaxFrequencyOfExactMatches");
             }
         } catch (final InterruptedException e) {
             Log.e(TAG, "Interrupted tryLock() in getMaxFrequencyOfExactMatches().", e);
@@ -514,7 +816,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     /**
      * Loads the current binary dictionary from internal storage. Assumes the dictionary file
-     * exists.
+     * exists. Lookups only start using it once it has been loaded and migrated.
      */
     void loadBinaryDictionaryLocked() {
         if (DBG_STRESS_TEST) {
@@ -528,29 +830,73 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 Log.w("Interrupted while loading: " + mDictName, e);
             }
         }
-        final BinaryDictionary oldBinaryDictionary = mBinaryDictionary;
-        openBinaryDictionaryLocked();
-        if (oldBinaryDictionary != null) {
-            oldBinaryDictionary.close();
-        }
-        if (mBinaryDictionary.isValidDictionary()
-                && needsToMigrateDictionary(mBinaryDictionary.getFormatVersion())) {
-            if (!mBinaryDictionary.migrateTo(DICTIONARY_FORMAT_VERSION)) {
+        final BinaryDictionary binaryDictionary = openBinaryDictionary();
+        if (binaryDictionary.isValidDictionary()
+                && needsToMigrateDictionary(binaryDictionary.getFormatVersion())) {
+            if (!binaryDictionary.migrateTo(DICTIONARY_FORMAT_VERSION)) {
                 Log.e(TAG, "Dictionary migration failed: " + mDictName);
-                removeBinaryDictionaryLocked();
+                binaryDictionary.close();
+                // The file is gone, so lookups must not keep using the dictionary loaded from
+                // it before. This may run without the write lock when snapshots are used.
+                runWithWriteLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        removeBinaryDictionaryLocked();
+                    }
+                });
+                return;
             }
         }
+        if (!USES_SNAPSHOTS) {
+            publishBinaryDictionary(binaryDictionary);
+            onBinaryDictionaryOpenedLocked();
+            return;
+        }
+        // Nothing but this task can use the new dictionary until it's published.
+        mShadowBinaryDictionary = binaryDictionary;
+        try {
+            onBinaryDictionaryOpenedLocked();
+        } finally {
+            mShadowBinaryDictionary = null;
+            publishBinaryDictionary(binaryDictionary);
+        }
     }
 
     /**
      * Create a new binary dictionary and load initial contents.
      */
     void createNewDictionaryLocked() {
-        removeBinaryDictionaryLocked();
+        if (USES_SNAPSHOTS) {
+            // Lookups keep using the current dictionary while the new one is being built. Its
+            // files are mapped in memory, so it can still be read once they are deleted.
+            removeDictFileLocked();
+            mShadowBinaryDictionary = createOnMemoryBinaryDictionary();
+            try {
+                loadInitialContentsLocked();
+                onBinaryDictionaryOpenedLocked();
+                // Run GC and flush to file when initial contents have been loaded.
+                onBinaryDictionaryFlushingLocked();
+                if (mShadowBinaryDictionary.flushWithGCIfHasUpdated()) {
+                    onBinaryDictionaryFlushedLocked();
+                }
+            } finally {
+                final BinaryDictionary binaryDictionary = mShadowBinaryDictionary;
+                mShadowBinaryDictionary = null;
+                publishBinaryDictionary(binaryDictionary);
+            }
+            return;
+        }
+        // The dictionary is created again rather than removed, so the hook is not called.
+        closeBinaryDictionary();
+        removeDictFileLocked();
         createOnMemoryBinaryDictionaryLocked();
         loadInitialContentsLocked();
+        onBinaryDictionaryOpenedLocked();
         // Run GC and flush to file when initial contents have been loaded.
-        mBinaryDictionary.flushWithGCIfHasUpdated();
+        onBinaryDictionaryFlushingLocked();
+        if (mBinaryDictionary.flushWithGCIfHasUpdated()) {
+            onBinaryDictionaryFlushedLocked();
+        }
     }
 
     /**
@@ -596,7 +942,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             return;
         }
         final File dictFile = mDictFile;
-        asyncExecuteTaskWithWriteLock(new Runnable() {
+        final Runnable task = new Runnable() {
             @Override
             public void run() {
                 try {
@@ -623,13 +969,37 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     isReloading.set(false);
                 }
             }
-        });
+        };
+        // Lookups get nothing from this dictionary until it's loaded.
+        if (USES_SNAPSHOTS) {
+            // The new dictionary is only published once it's ready.
+            asyncExecuteTask(task, ExecutorUtils.LANE_CRITICAL);
+        } else {
+            asyncExecuteTaskWithWriteLock(task, ExecutorUtils.LANE_CRITICAL);
+        }
     }
 
     /**
      * Flush binary dictionary to dictionary file.
      */
     public void asyncFlushBinaryDictionary() {
+        if (USES_SNAPSHOTS) {
+            asyncExecuteTask(new Runnable() {
+                @Override
+                public void run() {
+                    final BinaryDictionary binaryDictionary = getBinaryDictionary();
+                    if (binaryDictionary == null) {
+                        return;
+                    }
+                    onBinaryDictionaryFlushingLocked();
+                    if (flushIntoSnapshotLocked(binaryDictionary.needsToRunGC(
+                            false /* mindsBlockByGC */))) {
+                        onBinaryDictionaryFlushedLocked();
+                    }
+                }
+            }, ExecutorUtils.LANE_BULK);
+            return;
+        }
         asyncExecuteTaskWithWriteLock(new Runnable() {
             @Override
             public void run() {
@@ -637,13 +1007,18 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 if (binaryDictionary == null) {
                     return;
                 }
+                onBinaryDictionaryFlushingLocked();
+                final boolean flushed;
                 if (binaryDictionary.needsToRunGC(false /* mindsBlockByGC */)) {
-                    binaryDictionary.flushWithGC();
+                    flushed = binaryDictionary.flushWithGC();
                 } else {
-                    binaryDictionary.flush();
+                    flushed = binaryDictionary.flush();
+                }
+                if (flushed) {
+                    onBinaryDictionaryFlushedLocked();
                 }
             }
-        });
+        }, ExecutorUtils.LANE_BULK);
     }
 
     public DictionaryStats getDictionaryStats() {
@@ -657,10 +1032,31 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             public void run() {
                 result.set(new DictionaryStats(mLocale, dictName, dictName, dictFile, 0));
             }
-        });
+        }, ExecutorUtils.LANE_CRITICAL);
         return result.get(null /* defaultValue */, TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS);
     }
 
+    /**
+     * Waits until the updates queued so far are applied, or until the timeout expires.
+     *
+     * @return true if the updates were applied before the timeout.
+     */
+    public boolean waitForQueuedUpdates(final long timeoutMillis) {
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        asyncExecuteTask(new Runnable() {
+            @Override
+            public void run() {
+                countDownLatch.countDown();
+            }
+        }, ExecutorUtils.LANE_UPDATE);
+        try {
+            return countDownLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while waiting for the dictionary updates.", e);
+            return false;
+        }
+    }
+
     @UsedForTesting
     public void waitAllTasksForTests() {
         final CountDownLatch countDownLatch = new CountDownLatch(1);
@@ -669,7 +1065,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             public void run() {
                 countDownLatch.countDown();
             }
-        });
+        }, ExecutorUtils.LANE_UPDATE);
         try {
             countDownLatch.await();
         } catch (InterruptedException e) {
@@ -717,7 +1113,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     token = result.mNextToken;
                 } while (token != 0);
             }
-        });
+        }, ExecutorUtils.LANE_BULK);
     }
 
     /**
@@ -749,7 +1145,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                 } while (token != 0);
                 result.set(wordPropertyList.toArray(new WordProperty[wordPropertyList.size()]));
             }
-        });
+        }, ExecutorUtils.LANE_CRITICAL);
         // TODO: Figure out the best timeout duration for this API.
         return result.get(DEFAULT_WORD_PROPERTIES_FOR_SYNC,
                 TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS);
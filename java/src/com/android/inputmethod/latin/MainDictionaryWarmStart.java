@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+import com.android.inputmethod.compat.PreferenceManagerCompat;
+import com.android.inputmethod.compat.UserManagerCompatUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the main dictionary files of each locale and the word prefixes the user commits
+ * most, so that a new process can warm start.
+ *
+ * Finding the main dictionary files asks the dictionary pack and reads the header of each
+ * candidate file. On a warm start, the files of the last session are opened right away instead,
+ * and the regular search runs afterwards in case they changed.
+ *
+ * Dictionaries are memory-mapped, so their pages are read from the storage by the first lookups
+ * that touch them. Once a dictionary is open, the beginning of each file, which holds the header
+ * and the top of the trie, is read ahead, and the recorded prefixes are looked up, which pages in
+ * the trie paths that the first words typed are likely to walk.
+ *
+ * The files are kept in device-protected storage, so that a warm start also works before the
+ * user unlocks the device. The prefixes tell what the user typed, so they are kept in
+ * credential-protected storage, and are neither saved nor looked up while the user is locked.
+ */
+final class MainDictionaryWarmStart {
+    private static final String TAG = MainDictionaryWarmStart.class.getSimpleName();
+
+    private static final String PREF_FILE_NAME = "main_dictionary_warm_start";
+    private static final String PREFIXES_PREF_FILE_NAME = "main_dictionary_warm_start_prefixes";
+    private static final String PREF_KEY_FILES_PREFIX = "files_";
+    private static final String PREF_KEY_PREFIXES_PREFIX = "prefixes_";
+    private static final String ENTRY_SEPARATOR = "\n";
+    private static final String FIELD_SEPARATOR = "\t";
+
+    private static final int PREFIX_CODE_POINT_COUNT = 3;
+    private static final int MAX_SAVED_PREFIXES = 64;
+    // Prefixes first seen after this many are not counted, to bound the memory.
+    private static final int MAX_COUNTED_PREFIXES = 512;
+    private static final long READ_AHEAD_BYTES = 512 * 1024;
+    private static final int READ_AHEAD_BUFFER_SIZE = 64 * 1024;
+
+    // Number of commits of each prefix since the last save.
+    private final HashMap<String, Integer> mPrefixCounts = new HashMap<>();
+
+    /**
+     * Counts the prefix of a committed word. Cheap enough for the input thread.
+     */
+    public void onWordCommitted(@Nonnull final String word) {
+        if (TextUtils.isEmpty(word)) {
+            return;
+        }
+        final String prefix = word.substring(0, word.offsetByCodePoints(0,
+                Math.min(PREFIX_CODE_POINT_COUNT, word.codePointCount(0, word.length()))));
+        synchronized (mPrefixCounts) {
+            final Integer count = mPrefixCounts.get(prefix);
+            if (null != count) {
+                mPrefixCounts.put(prefix, count + 1);
+            } else if (mPrefixCounts.size() < MAX_COUNTED_PREFIXES) {
+                mPrefixCounts.put(prefix, 1);
+            }
+        }
+    }
+
+    /**
+     * Merges the prefixes committed since the last save into those saved for the locale. Reads
+     * and writes the preferences, so it should not run on the input thread. The prefixes
+     * committed while the user is locked are dropped.
+     */
+    public void savePrefixes(@Nonnull final Context context, @Nonnull final Locale locale) {
+        final HashMap<String, Integer> prefixCounts;
+        synchronized (mPrefixCounts) {
+            if (mPrefixCounts.isEmpty()) {
+                return;
+            }
+            prefixCounts = new HashMap<>(mPrefixCounts);
+            mPrefixCounts.clear();
+        }
+        final SharedPreferences prefs = getPrefixesPreferences(context);
+        if (null == prefs) {
+            return;
+        }
+        // The prefixes saved before rank after the new ones committed as often.
+        final LinkedHashMap<String, Integer> mergedCounts = new LinkedHashMap<>(prefixCounts);
+        for (final String prefix : getSavedPrefixes(context, locale)) {
+            if (!mergedCounts.containsKey(prefix)) {
+                mergedCounts.put(prefix, 0);
+            }
+        }
+        final ArrayList<Map.Entry<String, Integer>> entries =
+                new ArrayList<>(mergedCounts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(final Map.Entry<String, Integer> lhs,
+                    final Map.Entry<String, Integer> rhs) {
+                return rhs.getValue() - lhs.getValue();
+            }
+        });
+        final ArrayList<String> prefixes = new ArrayList<>();
+        for (final Map.Entry<String, Integer> entry : entries) {
+            if (prefixes.size() >= MAX_SAVED_PREFIXES) {
+                break;
+            }
+            prefixes.add(entry.getKey());
+        }
+        prefs.edit()
+                .putString(PREF_KEY_PREFIXES_PREFIX + locale,
+                        TextUtils.join(ENTRY_SEPARATOR, prefixes))
+                .apply();
+    }
+
+    /**
+     * Returns the prefixes saved for the locale, or none while the user is locked.
+     */
+    @Nonnull
+    public static List<String> getSavedPrefixes(@Nonnull final Context context,
+            @Nonnull final Locale locale) {
+        final SharedPreferences prefs = getPrefixesPreferences(context);
+        final String prefixes = null == prefs ? null
+                : prefs.getString(PREF_KEY_PREFIXES_PREFIX + locale, null);
+        if (TextUtils.isEmpty(prefixes)) {
+            return Collections.emptyList();
+        }
+        final ArrayList<String> prefixList = new ArrayList<>();
+        Collections.addAll(prefixList, prefixes.split(ENTRY_SEPARATOR));
+        return prefixList;
+    }
+
+    /**
+     * Returns the main dictionary files of the last session for the locale, or null if there are
+     * none or if one of them changed since.
+     */
+    @Nullable
+    public static ArrayList<AssetFileAddress> getSavedDictionaryFiles(
+            @Nonnull final Context context, @Nonnull final Locale locale) {
+        final String files =
+                getPreferences(context).getString(PREF_KEY_FILES_PREFIX + locale, null);
+        if (TextUtils.isEmpty(files)) {
+            return null;
+        }
+        final ArrayList<AssetFileAddress> fileList = new ArrayList<>();
+        for (final String entry : files.split(ENTRY_SEPARATOR)) {
+            final String[] fields = entry.split(FIELD_SEPARATOR);
+            if (fields.length != 4) {
+                return null;
+            }
+            final File file = new File(fields[0]);
+            final long offset;
+            final long length;
+            final long lastModified;
+            try {
+                offset = Long.parseLong(fields[1]);
+                length = Long.parseLong(fields[2]);
+                lastModified = Long.parseLong(fields[3]);
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+            if (!file.isFile() || file.lastModified() != lastModified
+                    || offset + length > file.length()) {
+                return null;
+            }
+            fileList.add(new AssetFileAddress(fields[0], offset, length));
+        }
+        return fileList;
+    }
+
+    public static void saveDictionaryFiles(@Nonnull final Context context,
+            @Nonnull final Locale locale, @Nonnull final List<AssetFileAddress> files) {
+        final ArrayList<String> entries = new ArrayList<>();
+        for (final AssetFileAddress file : files) {
+            entries.add(TextUtils.join(FIELD_SEPARATOR, new Object[] { file.mFilename,
+                    file.mOffset, file.mLength, new File(file.mFilename).lastModified() }));
+        }
+        getPreferences(context).edit()
+                .putString(PREF_KEY_FILES_PREFIX + locale, TextUtils.join(ENTRY_SEPARATOR, entries))
+                .apply();
+    }
+
+    public static boolean isSameDictionaryFiles(@Nonnull final List<AssetFileAddress> lhs,
+            @Nonnull final List<AssetFileAddress> rhs) {
+        if (lhs.size() != rhs.size()) {
+            return false;
+        }
+        for (int i = 0; i < lhs.size(); i++) {
+            final AssetFileAddress lhsFile = lhs.get(i);
+            final AssetFileAddress rhsFile = rhs.get(i);
+            if (!lhsFile.mFilename.equals(rhsFile.mFilename) || lhsFile.mOffset != rhsFile.mOffset
+                    || lhsFile.mLength != rhsFile.mLength) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pages in the parts of the main dictionary that the first lookups are likely to touch.
+     * @return the number of bytes read ahead.
+     */
+    public static long warmUp(@Nonnull final Dictionary mainDict,
+            @Nonnull final List<AssetFileAddress> files, @Nonnull final List<String> prefixes) {
+        long readAheadBytes = 0;
+        final byte[] buffer = new byte[READ_AHEAD_BUFFER_SIZE];
+        for (final AssetFileAddress file : files) {
+            readAheadBytes += readAhead(file, buffer);
+        }
+        for (final String prefix : prefixes) {
+            mainDict.getFrequency(prefix);
+        }
+        return readAheadBytes;
+    }
+
+    // Reading the file through the page cache makes the first accesses to the mapping cheap.
+    private static long readAhead(@Nonnull final AssetFileAddress file,
+            @Nonnull final byte[] buffer) {
+        final long length = Math.min(file.mLength, READ_AHEAD_BYTES);
+        long readBytes = 0;
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file.mFilename, "r");
+            randomAccessFile.seek(file.mOffset);
+            while (readBytes < length) {
+                final int read = randomAccessFile.read(buffer, 0,
+                        (int)Math.min(buffer.length, length - readBytes));
+                if (read < 0) {
+                    break;
+                }
+                readBytes += read;
+            }
+        } catch (final IOException e) {
+            Log.w(TAG, "Cannot read ahead " + file, e);
+        } finally {
+            if (null != randomAccessFile) {
+                try {
+                    randomAccessFile.close();
+                } catch (final IOException e) {
+                    // Nothing to do.
+                }
+            }
+        }
+        return readBytes;
+    }
+
+    @UsedForTesting
+    static void forget(@Nonnull final Context context, @Nonnull final Locale locale) {
+        getPreferences(context).edit().remove(PREF_KEY_FILES_PREFIX + locale).commit();
+        final SharedPreferences prefixesPrefs = getPrefixesPreferences(context);
+        if (null != prefixesPrefs) {
+            prefixesPrefs.edit().remove(PREF_KEY_PREFIXES_PREFIX + locale).commit();
+        }
+    }
+
+    private static SharedPreferences getPreferences(@Nonnull final Context context) {
+        // Like the settings, so that a warm start also works before the user unlocks the device.
+        return PreferenceManagerCompat.getDeviceContext(context).getSharedPreferences(
+                PREF_FILE_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Nullable
+    private static SharedPreferences getPrefixesPreferences(@Nonnull final Context context) {
+        if (UserManagerCompatUtils.getUserLockState(context)
+                == UserManagerCompatUtils.LOCK_STATE_LOCKED) {
+            return null;
+        }
+        return context.getSharedPreferences(PREFIXES_PREF_FILE_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable index of the entries of the personal dictionary, used by
+ * {@link PersonalDictionaryLookup}.
+ *
+ * The entries are kept in two arrays, one sorted by lowercased word and one, of the entries that
+ * have a shortcut, sorted by shortcut. Words and shortcuts are found by binary search, and words
+ * are completed by scanning the range that starts with a prefix. Lookups for a single word or
+ * shortcut don't allocate.
+ *
+ * A word in a locale applies to that locale and to the more specific ones: a word for "en"
+ * applies to "en_US", and a word for no locale applies to all of them.
+ */
+final class PersonalDictionaryIndex {
+    /**
+     * A row of the personal dictionary.
+     */
+    static final class Entry {
+        public final long mId;
+        // The word as the user entered it.
+        public final String mWord;
+        // The word lowercased in its locale.
+        public final String mLowercasedWord;
+        public final Locale mLocale;
+        public final int mFrequency;
+        @Nullable
+        public final String mShortcut;
+
+        public Entry(final long id, @Nonnull final String word, @Nonnull final Locale locale,
+                final int frequency, @Nullable final String shortcut) {
+            mId = id;
+            mWord = word;
+            mLowercasedWord = word.toLowerCase(locale);
+            mLocale = locale;
+            mFrequency = frequency;
+            mShortcut = shortcut;
+        }
+    }
+
+    private static final Comparator<Entry> FREQUENCY_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry lhs, final Entry rhs) {
+            if (lhs.mFrequency != rhs.mFrequency) {
+                return rhs.mFrequency > lhs.mFrequency ? 1 : -1;
+            }
+            return lhs.mId < rhs.mId ? -1 : (lhs.mId == rhs.mId ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<Entry> WORD_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry lhs, final Entry rhs) {
+            final int result = lhs.mLowercasedWord.compareTo(rhs.mLowercasedWord);
+            return 0 != result ? result : FREQUENCY_COMPARATOR.compare(lhs, rhs);
+        }
+    };
+
+    private static final Comparator<Entry> SHORTCUT_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry lhs, final Entry rhs) {
+            final int result = lhs.mShortcut.compareTo(rhs.mShortcut);
+            return 0 != result ? result : FREQUENCY_COMPARATOR.compare(lhs, rhs);
+        }
+    };
+
+    static final PersonalDictionaryIndex EMPTY =
+            build(Collections.<Entry>emptyList(), 0 /* maxEntryCount */);
+
+    private final Entry[] mEntriesByWord;
+    // The lowercased words of mEntriesByWord, for binary search.
+    private final String[] mLowercasedWords;
+    private final Entry[] mEntriesByShortcut;
+    // The shortcuts of mEntriesByShortcut, for binary search.
+    private final String[] mShortcuts;
+    private final int mWordCount;
+
+    private PersonalDictionaryIndex(final Entry[] entriesByWord, final Entry[] entriesByShortcut) {
+        mEntriesByWord = entriesByWord;
+        mLowercasedWords = new String[entriesByWord.length];
+        int wordCount = 0;
+        for (int i = 0; i < entriesByWord.length; i++) {
+            mLowercasedWords[i] = entriesByWord[i].mLowercasedWord;
+            if (0 == i || !mLowercasedWords[i].equals(mLowercasedWords[i - 1])) {
+                wordCount++;
+            }
+        }
+        mWordCount = wordCount;
+        mEntriesByShortcut = entriesByShortcut;
+        mShortcuts = new String[entriesByShortcut.length];
+        for (int i = 0; i < entriesByShortcut.length; i++) {
+            mShortcuts[i] = entriesByShortcut[i].mShortcut;
+        }
+    }
+
+    /**
+     * Builds an index of the entries. If there are more than the given number of entries, the
+     * least frequent ones are left out.
+     */
+    @Nonnull
+    static PersonalDictionaryIndex build(@Nonnull final Collection<Entry> entries,
+            final int maxEntryCount) {
+        final ArrayList<Entry> entriesToIndex = new ArrayList<>(entries);
+        if (entriesToIndex.size() > maxEntryCount) {
+            Collections.sort(entriesToIndex, FREQUENCY_COMPARATOR);
+            entriesToIndex.subList(maxEntryCount, entriesToIndex.size()).clear();
+        }
+        final Entry[] entriesByWord = entriesToIndex.toArray(new Entry[entriesToIndex.size()]);
+        Arrays.sort(entriesByWord, WORD_COMPARATOR);
+        final ArrayList<Entry> entriesWithShortcut = new ArrayList<>();
+        for (final Entry entry : entriesByWord) {
+            if (null != entry.mShortcut) {
+                entriesWithShortcut.add(entry);
+            }
+        }
+        final Entry[] entriesByShortcut =
+                entriesWithShortcut.toArray(new Entry[entriesWithShortcut.size()]);
+        Arrays.sort(entriesByShortcut, SHORTCUT_COMPARATOR);
+        return new PersonalDictionaryIndex(entriesByWord, entriesByShortcut);
+    }
+
+    public int getWordCount() {
+        return mWordCount;
+    }
+
+    public int getShortcutCount() {
+        return mEntriesByShortcut.length;
+    }
+
+    /**
+     * Returns whether an entry of the given locale applies to the input locale, that is whether
+     * every part the entry locale specifies is the same in the input locale.
+     * This is {@link com.android.inputmethod.latin.common.LocaleUtils#isMatch} for the match
+     * level of the two locales, without allocating.
+     */
+    static boolean appliesToLocale(@Nonnull final Locale entryLocale,
+            @Nonnull final Locale inputLocale) {
+        final String language = entryLocale.getLanguage();
+        if (language.isEmpty()) {
+            return true;
+        }
+        if (!language.equals(inputLocale.getLanguage())) {
+            return false;
+        }
+        final String country = entryLocale.getCountry();
+        if (country.isEmpty()) {
+            return true;
+        }
+        if (!country.equals(inputLocale.getCountry())) {
+            return false;
+        }
+        final String variant = entryLocale.getVariant();
+        return variant.isEmpty() || variant.equals(inputLocale.getVariant());
+    }
+
+    /**
+     * Returns the index of the first of the sorted strings that is not less than the key.
+     */
+    private static int lowerBound(@Nonnull final String[] sortedStrings,
+            @Nonnull final String key) {
+        int low = 0;
+        int high = sortedStrings.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sortedStrings[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns whether the given lowercased word is in the dictionary for the input locale.
+     */
+    public boolean isValidWord(@Nonnull final String lowercasedWord,
+            @Nonnull final Locale inputLocale) {
+        for (int i = lowerBound(mLowercasedWords, lowercasedWord);
+                i < mLowercasedWords.length && mLowercasedWords[i].equals(lowercasedWord); i++) {
+            if (appliesToLocale(mEntriesByWord[i].mLocale, inputLocale)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the most frequent expansion of the shortcut in exactly the given locale.
+     */
+    @Nullable
+    private String expandShortcutForExactLocale(@Nonnull final String shortcut,
+            @Nonnull final String language, @Nonnull final String country) {
+        for (int i = lowerBound(mShortcuts, shortcut);
+                i < mShortcuts.length && mShortcuts[i].equals(shortcut); i++) {
+            final Locale locale = mEntriesByShortcut[i].mLocale;
+            if (locale.getLanguage().equals(language) && locale.getCountry().equals(country)
+                    && locale.getVariant().isEmpty()) {
+                return mEntriesByShortcut[i].mWord;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Expands the shortcut for the input locale: with an entry for the language and country of
+     * the input locale if any, else for its language, else for no locale.
+     */
+    @Nullable
+    public String expandShortcut(@Nonnull final String shortcut,
+            @Nonnull final Locale inputLocale) {
+        final String language = inputLocale.getLanguage();
+        final String country = inputLocale.getCountry();
+        if (!country.isEmpty()) {
+            final String expansion = expandShortcutForExactLocale(shortcut, language, country);
+            if (null != expansion) {
+                return expansion;
+            }
+        }
+        final String expansion = expandShortcutForExactLocale(shortcut, language, "");
+        if (null != expansion) {
+            return expansion;
+        }
+        return language.isEmpty() ? null : expandShortcutForExactLocale(shortcut, "", "");
+    }
+
+    /**
+     * Outputs the words of the dictionary for the input locale that start with the given
+     * lowercased prefix, in the order of their lowercased forms, as the user entered them.
+     *
+     * @param outWords receives the words. At most its length are output.
+     * @return the number of words output.
+     */
+    public int getCompletions(@Nonnull final String lowercasedPrefix,
+            @Nonnull final Locale inputLocale, @Nonnull final String[] outWords) {
+        int count = 0;
+        String lastLowercasedWord = null;
+        for (int i = lowerBound(mLowercasedWords, lowercasedPrefix);
+                i < mLowercasedWords.length && count < outWords.length
+                        && mLowercasedWords[i].startsWith(lowercasedPrefix); i++) {
+            if (mLowercasedWords[i].equals(lastLowercasedWord)
+                    || !appliesToLocale(mEntriesByWord[i].mLocale, inputLocale)) {
+                continue;
+            }
+            // The most frequent entry of a word comes first.
+            outWords[count++] = mEntriesByWord[i].mWord;
+            lastLowercasedWord = mLowercasedWords[i];
+        }
+        return count;
+    }
+
+    @Nonnull
+    public Set<String> getWordsForLocale(@Nonnull final Locale inputLocale) {
+        final HashSet<String> words = new HashSet<>();
+        for (final Entry entry : mEntriesByWord) {
+            if (appliesToLocale(entry.mLocale, inputLocale)) {
+                words.add(entry.mWord);
+            }
+        }
+        return words;
+    }
+
+    @Nonnull
+    public Set<String> getShortcutsForLocale(@Nonnull final Locale inputLocale) {
+        final String language = inputLocale.getLanguage();
+        final String country = inputLocale.getCountry();
+        final HashSet<String> shortcuts = new HashSet<>();
+        for (final Entry entry : mEntriesByShortcut) {
+            final Locale locale = entry.mLocale;
+            if (!locale.getVariant().isEmpty()) {
+                continue;
+            }
+            final String entryLanguage = locale.getLanguage();
+            final String entryCountry = locale.getCountry();
+            if ((entryLanguage.equals(language) && (entryCountry.isEmpty()
+                    || (!country.isEmpty() && entryCountry.equals(country))))
+                    || (entryLanguage.isEmpty() && entryCountry.isEmpty())) {
+                shortcuts.add(entry.mShortcut);
+            }
+        }
+        return shortcuts;
+    }
+}
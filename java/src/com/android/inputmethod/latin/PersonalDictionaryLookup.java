@@ -26,19 +26,16 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.inputmethod.annotations.UsedForTesting;
-import com.android.inputmethod.latin.common.CollectionUtils;
 import com.android.inputmethod.latin.common.LocaleUtils;
 import com.android.inputmethod.latin.define.DebugFlags;
 import com.android.inputmethod.latin.utils.ExecutorUtils;
 
 import java.io.Closeable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -49,7 +46,11 @@ import javax.annotation.Nullable;
 
 /**
  * This class provides the ability to look into the system-wide "Personal dictionary". It loads the
- * data once when created and reloads it when notified of changes to {@link UserDictionary}
+ * data once when created and reloads it when notified of changes to {@link UserDictionary}. When
+ * only some rows changed, only those rows are queried again.
+ *
+ * The entries are kept in an immutable {@link PersonalDictionaryIndex} that is rebuilt on the
+ * executor of the service and replaced atomically, so lookups never wait for a reload.
  *
  * It can be used directly to validate words or expand shortcuts, and it can be used by instances
  * of {@link PersonalLanguageModelHelper} that create language model files for a specific input
@@ -70,7 +71,15 @@ public class PersonalDictionaryLookup implements Closeable {
      * that number is exceeded, the lowest-frequency items will be dropped.  Note, there is no
      * explicit cap on the number of locales in every entry.
      */
-    private static final int MAX_NUM_ENTRIES = 1000;
+    private static final int MAX_NUM_ENTRIES = 10000;
+
+    /**
+     * When more rows than this changed since the last load, everything is reloaded instead of
+     * querying the rows one by one.
+     */
+    private static final int MAX_NUM_ROWS_TO_RELOAD = 20;
+
+    private static final long NOT_A_ROW_ID = -1;
 
     /**
      * The delay (in milliseconds) to impose on reloads.  Previously scheduled reloads will be
@@ -153,6 +162,15 @@ public class PersonalDictionaryLookup implements Closeable {
             if (DebugFlags.DEBUG_ENABLED) {
                 Log.d(mTag, "onChange() : URI = " + uri);
             }
+            // Remember what changed, since the pending reload may be cancelled below.
+            final long rowId = getRowId(uri);
+            synchronized (mChangedRowIds) {
+                if (NOT_A_ROW_ID == rowId) {
+                    mNeedsFullReload = true;
+                } else {
+                    mChangedRowIds.add(rowId);
+                }
+            }
             // Cancel (but don't interrupt) any pending reloads (except the initial load).
             if (mReloadFuture != null && !mReloadFuture.isCancelled() &&
                     !mReloadFuture.isDone()) {
@@ -185,6 +203,11 @@ public class PersonalDictionaryLookup implements Closeable {
     private final PersonalDictionaryContentObserver mPersonalDictionaryContentObserver =
             new PersonalDictionaryContentObserver();
 
+    @UsedForTesting
+    void onChangeForTesting(@Nullable final Uri uri) {
+        mPersonalDictionaryContentObserver.onChange(false /* selfChange */, uri);
+    }
+
     /**
      * Indicates that a load is in progress, so no need for another.
      */
@@ -196,16 +219,21 @@ public class PersonalDictionaryLookup implements Closeable {
     private AtomicBoolean mIsClosed = new AtomicBoolean(false);
 
     /**
-     * We store a map from a dictionary word to the set of locales & raw string(as it appears)
-     * We then iterate over the set of locales to find a match using LocaleUtils.
+     * The index of the loaded entries, or null before the initial load.
+     */
+    private volatile PersonalDictionaryIndex mIndex;
+
+    /**
+     * The loaded rows by id. Only accessed by the thread that set {@link #mIsLoading}.
      */
-    private volatile HashMap<String, HashMap<Locale, String>> mDictWords;
+    private final HashMap<Long, PersonalDictionaryIndex.Entry> mEntriesById = new HashMap<>();
 
     /**
-     * We store a map from a shortcut to a word for each locale.
-     * Shortcuts that apply to any locale are keyed by {@link #ANY_LOCALE}.
+     * The rows that changed since the last load, and whether rows changed that are not known.
+     * Guarded by mChangedRowIds.
      */
-    private volatile HashMap<Locale, HashMap<String, String>> mShortcutsPerLocale;
+    private final HashSet<Long> mChangedRowIds = new HashSet<>();
+    private boolean mNeedsFullReload = true;
 
     /**
      *  The last-scheduled reload future.  Saved in order to cancel a pending reload if a new one
@@ -301,7 +329,13 @@ public class PersonalDictionaryLookup implements Closeable {
      * @return true if the initial load is successful
      */
     public boolean isLoaded() {
-        return mDictWords != null && mShortcutsPerLocale != null;
+        return mIndex != null;
+    }
+
+    @Nonnull
+    private PersonalDictionaryIndex getIndex() {
+        final PersonalDictionaryIndex index = mIndex;
+        return null == index ? PersonalDictionaryIndex.EMPTY : index;
     }
 
     /**
@@ -316,26 +350,7 @@ public class PersonalDictionaryLookup implements Closeable {
      * @return set of words that apply to the given locale.
      */
     public Set<String> getWordsForLocale(@Nonnull final Locale inputLocale) {
-        final HashMap<String, HashMap<Locale, String>> dictWords = mDictWords;
-        if (CollectionUtils.isNullOrEmpty(dictWords)) {
-            return Collections.emptySet();
-        }
-
-        final Set<String> words = new HashSet<>();
-        final String inputLocaleString = inputLocale.toString();
-        for (String word : dictWords.keySet()) {
-            HashMap<Locale, String> localeStringMap = dictWords.get(word);
-                if (!CollectionUtils.isNullOrEmpty(localeStringMap)) {
-                    for (Locale wordLocale : localeStringMap.keySet()) {
-                        final String wordLocaleString = wordLocale.toString();
-                        final int match = LocaleUtils.getMatchLevel(wordLocaleString, inputLocaleString);
-                        if (LocaleUtils.isMatch(match)) {
-                            words.add(localeStringMap.get(wordLocale));
-                        }
-                    }
-            }
-        }
-        return words;
+        return getIndex().getWordsForLocale(inputLocale);
     }
 
     /**
@@ -350,35 +365,7 @@ public class PersonalDictionaryLookup implements Closeable {
      * @return set of shortcuts that apply to the given locale.
      */
     public Set<String> getShortcutsForLocale(@Nonnull final Locale inputLocale) {
-        final Map<Locale, HashMap<String, String>> shortcutsPerLocale = mShortcutsPerLocale;
-        if (CollectionUtils.isNullOrEmpty(shortcutsPerLocale)) {
-            return Collections.emptySet();
-        }
-
-        final Set<String> shortcuts = new HashSet<>();
-        if (!TextUtils.isEmpty(inputLocale.getCountry())) {
-            // First look for the country-specific shortcut: en_US, en_UK, fr_FR, etc.
-            final Map<String, String> countryShortcuts = shortcutsPerLocale.get(inputLocale);
-            if (!CollectionUtils.isNullOrEmpty(countryShortcuts)) {
-                shortcuts.addAll(countryShortcuts.keySet());
-            }
-        }
-
-        // Next look for the language-specific shortcut: en, fr, etc.
-        final Locale languageOnlyLocale =
-                LocaleUtils.constructLocaleFromString(inputLocale.getLanguage());
-        final Map<String, String> languageShortcuts = shortcutsPerLocale.get(languageOnlyLocale);
-        if (!CollectionUtils.isNullOrEmpty(languageShortcuts)) {
-            shortcuts.addAll(languageShortcuts.keySet());
-        }
-
-        // If all else fails, look for a global shortcut.
-        final Map<String, String> globalShortcuts = shortcutsPerLocale.get(ANY_LOCALE);
-        if (!CollectionUtils.isNullOrEmpty(globalShortcuts)) {
-            shortcuts.addAll(globalShortcuts.keySet());
-        }
-
-        return shortcuts;
+        return getIndex().getShortcutsForLocale(inputLocale);
     }
 
     /**
@@ -404,47 +391,31 @@ public class PersonalDictionaryLookup implements Closeable {
         if (DebugFlags.DEBUG_ENABLED) {
             Log.d(mTag, "isValidWord() : Word [" + word + "] in Locale [" + inputLocale + "]");
         }
-        // Atomically obtain the current copy of mDictWords;
-        final HashMap<String, HashMap<Locale, String>> dictWords = mDictWords;
         // Lowercase the word using the given locale. Note, that dictionary
         // words are lowercased using their locale, and theoretically the
         // lowercasing between two matching locales may differ. For simplicity
         // we ignore that possibility.
         final String lowercased = word.toLowerCase(inputLocale);
-        final HashMap<Locale, String> dictLocales = dictWords.get(lowercased);
-
-        if (CollectionUtils.isNullOrEmpty(dictLocales)) {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(mTag, "isValidWord() : No entry for word [" + word + "]");
-            }
-            return false;
-        } else {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(mTag, "isValidWord() : Found entry for word [" + word + "]");
-            }
-            // Iterate over the locales this word is in.
-            for (final Locale dictLocale : dictLocales.keySet()) {
-                final int matchLevel = LocaleUtils.getMatchLevel(dictLocale.toString(),
-                        inputLocale.toString());
-                if (DebugFlags.DEBUG_ENABLED) {
-                    Log.d(mTag, "isValidWord() : MatchLevel for DictLocale [" + dictLocale
-                            + "] and InputLocale [" + inputLocale + "] is " + matchLevel);
-                }
-                if (LocaleUtils.isMatch(matchLevel)) {
-                    if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "isValidWord() : MatchLevel " + matchLevel + " IS a match");
-                    }
-                    return true;
-                }
-                if (DebugFlags.DEBUG_ENABLED) {
-                    Log.d(mTag, "isValidWord() : MatchLevel " + matchLevel + " is NOT a match");
-                }
-            }
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(mTag, "isValidWord() : False, since none of the locales matched");
-            }
-            return false;
+        final boolean isValid = getIndex().isValidWord(lowercased, inputLocale);
+        if (DebugFlags.DEBUG_ENABLED) {
+            Log.d(mTag, "isValidWord() : " + isValid + " for word [" + word + "]");
         }
+        return isValid;
+    }
+
+    /**
+     * Outputs the words of the dictionary for the given locale that start with the given
+     * prefix, ignoring case, as they were entered. Words defined for more general locales are
+     * included, as in {@link #isValidWord}. Only the lowercased prefix is allocated.
+     *
+     * @param prefix the prefix to complete
+     * @param inputLocale the locale in which to complete the prefix
+     * @param outWords receives the words. At most its length are output.
+     * @return the number of words output.
+     */
+    public int getCompletions(@Nonnull final String prefix, @Nonnull final Locale inputLocale,
+            @Nonnull final String[] outWords) {
+        return getIndex().getCompletions(prefix.toLowerCase(inputLocale), inputLocale, outWords);
     }
 
     /**
@@ -460,69 +431,38 @@ public class PersonalDictionaryLookup implements Closeable {
             Log.d(mTag, "expandShortcut() : Shortcut [" + shortcut + "] for [" + inputLocale + "]");
         }
 
-        // Atomically obtain the current copy of mShortcuts;
-        final HashMap<Locale, HashMap<String, String>> shortcutsPerLocale = mShortcutsPerLocale;
-
-        // Exit as early as possible. Most users don't use shortcuts.
-        if (CollectionUtils.isNullOrEmpty(shortcutsPerLocale)) {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(mTag, "expandShortcut() : User has no shortcuts");
-            }
-            return null;
-        }
-
-        if (!TextUtils.isEmpty(inputLocale.getCountry())) {
-            // First look for the country-specific shortcut: en_US, en_UK, fr_FR, etc.
-            final String expansionForCountry = expandShortcut(
-                    shortcutsPerLocale, shortcut, inputLocale);
-            if (!TextUtils.isEmpty(expansionForCountry)) {
-                if (DebugFlags.DEBUG_ENABLED) {
-                    Log.d(mTag, "expandShortcut() : Country expansion is ["
-                            + expansionForCountry + "]");
-                }
-                return expansionForCountry;
-            }
-        }
-
-        // Next look for the language-specific shortcut: en, fr, etc.
-        final Locale languageOnlyLocale =
-                LocaleUtils.constructLocaleFromString(inputLocale.getLanguage());
-        final String expansionForLanguage = expandShortcut(
-                shortcutsPerLocale, shortcut, languageOnlyLocale);
-        if (!TextUtils.isEmpty(expansionForLanguage)) {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(mTag, "expandShortcut() : Language expansion is ["
-                        + expansionForLanguage + "]");
-            }
-            return expansionForLanguage;
-        }
-
-        // If all else fails, look for a global shortcut.
-        final String expansionForGlobal = expandShortcut(shortcutsPerLocale, shortcut, ANY_LOCALE);
-        if (!TextUtils.isEmpty(expansionForGlobal) && DebugFlags.DEBUG_ENABLED) {
-            Log.d(mTag, "expandShortcut() : Global expansion is [" + expansionForGlobal + "]");
+        final String expansion = getIndex().expandShortcut(shortcut, inputLocale);
+        if (DebugFlags.DEBUG_ENABLED) {
+            Log.d(mTag, "expandShortcut() : Expansion is [" + expansion + "]");
         }
-        return expansionForGlobal;
+        return expansion;
     }
 
-    @Nullable private String expandShortcut(
-            @Nullable final HashMap<Locale, HashMap<String, String>> shortcutsPerLocale,
-            @Nonnull final String shortcut,
-            @Nonnull final Locale locale) {
-        if (CollectionUtils.isNullOrEmpty(shortcutsPerLocale)) {
-            return null;
+    /**
+     * Returns the id of the row a change notification is for, or {@link #NOT_A_ROW_ID} if it's
+     * for the entire dictionary.
+     */
+    private static long getRowId(@Nullable final Uri uri) {
+        if (null == uri) {
+            return NOT_A_ROW_ID;
+        }
+        final String lastPathSegment = uri.getLastPathSegment();
+        if (TextUtils.isEmpty(lastPathSegment) || !TextUtils.isDigitsOnly(lastPathSegment)) {
+            return NOT_A_ROW_ID;
         }
-        final HashMap<String, String> localeShortcuts = shortcutsPerLocale.get(locale);
-        if (CollectionUtils.isNullOrEmpty(localeShortcuts)) {
-            return null;
+        try {
+            return Long.parseLong(lastPathSegment);
+        } catch (final NumberFormatException e) {
+            return NOT_A_ROW_ID;
         }
-        return localeShortcuts.get(shortcut);
     }
 
     /**
-     * Loads the personal dictionary in the current thread.
+     * Loads the personal dictionary in the current thread: all of it the first time or when it
+     * changed entirely, and otherwise only the rows that changed.
      *
-     * Only one reload can happen at a time. If already running, will exit quickly.
+     * Only one reload can happen at a time. If already running, will exit quickly, and the
+     * changes will be loaded by the next reload.
      */
     private void loadPersonalDictionary() {
         // Bail out if already in the process of loading.
@@ -530,40 +470,98 @@ public class PersonalDictionaryLookup implements Closeable {
             Log.i(mTag, "loadPersonalDictionary() : Already Loading (exit)");
             return;
         }
-        Log.i(mTag, "loadPersonalDictionary() : Start Loading");
-        HashMap<String, HashMap<Locale, String>> dictWords = new HashMap<>();
-        HashMap<Locale, HashMap<String, String>> shortcutsPerLocale = new HashMap<>();
-        // Load the dictionary.  Items are returned in the default sort order (by frequency).
-        Cursor cursor = mResolver.query(UserDictionary.Words.CONTENT_URI,
-                null, null, null, UserDictionary.Words.DEFAULT_SORT_ORDER);
-        if (null == cursor || cursor.getCount() < 1) {
-            Log.i(mTag, "loadPersonalDictionary() : Empty");
-        } else {
-            // Iterate over the entries in the personal dictionary.  Note, that iteration is in
-            // descending frequency by default.
-            while (dictWords.size() < MAX_NUM_ENTRIES && cursor.moveToNext()) {
-                // If there is no column for locale, skip this entry. An empty
-                // locale on the other hand will not be skipped.
-                final int dictLocaleIndex = cursor.getColumnIndex(UserDictionary.Words.LOCALE);
-                if (dictLocaleIndex < 0) {
-                    if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "loadPersonalDictionary() : Entry without LOCALE, skipping");
-                    }
-                    continue;
+        final boolean needsFullReload;
+        final ArrayList<Long> changedRowIds;
+        synchronized (mChangedRowIds) {
+            needsFullReload = mNeedsFullReload
+                    || mChangedRowIds.size() > MAX_NUM_ROWS_TO_RELOAD;
+            changedRowIds = new ArrayList<>(mChangedRowIds);
+            mChangedRowIds.clear();
+            mNeedsFullReload = false;
+        }
+        try {
+            if (needsFullReload) {
+                Log.i(mTag, "loadPersonalDictionary() : Start Loading");
+                mEntriesById.clear();
+                // Load the dictionary.  Items are returned in the default sort order (by
+                // frequency).
+                loadRows(null /* selection */, null /* selectionArgs */);
+            } else {
+                Log.i(mTag, "loadPersonalDictionary() : Reloading "
+                        + changedRowIds.size() + " rows");
+                for (final long rowId : changedRowIds) {
+                    // Deleted rows are not returned.
+                    mEntriesById.remove(rowId);
+                    loadRows(UserDictionary.Words._ID + "=?",
+                            new String[] { Long.toString(rowId) });
                 }
-                // If there is no column for word, skip this entry.
-                final int dictWordIndex = cursor.getColumnIndex(UserDictionary.Words.WORD);
-                if (dictWordIndex < 0) {
-                    if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "loadPersonalDictionary() : Entry without WORD, skipping");
-                    }
-                    continue;
+            }
+
+            final PersonalDictionaryIndex index =
+                    PersonalDictionaryIndex.build(mEntriesById.values(), MAX_NUM_ENTRIES);
+            final List<DictionaryStats> stats = new ArrayList<>();
+            stats.add(new DictionaryStats(ANY_LOCALE, Dictionary.TYPE_USER,
+                    index.getWordCount()));
+            stats.add(new DictionaryStats(ANY_LOCALE, Dictionary.TYPE_USER_SHORTCUT,
+                    index.getShortcutCount()));
+            mDictionaryStats = stats;
+
+            // Atomically replace the index.
+            mIndex = index;
+
+            Log.i(mTag, "loadPersonalDictionary() : Loaded " + index.getWordCount()
+                    + " words and " + index.getShortcutCount() + " shortcuts");
+        } finally {
+            // Allow other calls to loadPersonalDictionary to execute now.
+            mIsLoading.set(false);
+        }
+
+        notifyListeners();
+    }
+
+    /**
+     * Queries the given rows of the personal dictionary and adds them to {@link #mEntriesById}.
+     */
+    private void loadRows(@Nullable final String selection,
+            @Nullable final String[] selectionArgs) {
+        final Cursor cursor = mResolver.query(UserDictionary.Words.CONTENT_URI,
+                null, selection, selectionArgs, UserDictionary.Words.DEFAULT_SORT_ORDER);
+        if (null == cursor) {
+            Log.i(mTag, "loadRows() : Empty");
+            return;
+        }
+        try {
+            if (cursor.getCount() < 1) {
+                Log.i(mTag, "loadRows() : Empty");
+                return;
+            }
+            // If there is no column for locale or word, no entry can be loaded. An empty locale
+            // on the other hand will not be skipped.
+            final int dictLocaleIndex = cursor.getColumnIndex(UserDictionary.Words.LOCALE);
+            if (dictLocaleIndex < 0) {
+                if (DebugFlags.DEBUG_ENABLED) {
+                    Log.d(mTag, "loadRows() : Entries without LOCALE, skipping");
+                }
+                return;
+            }
+            final int dictWordIndex = cursor.getColumnIndex(UserDictionary.Words.WORD);
+            if (dictWordIndex < 0) {
+                if (DebugFlags.DEBUG_ENABLED) {
+                    Log.d(mTag, "loadRows() : Entries without WORD, skipping");
                 }
+                return;
+            }
+            final int idIndex = cursor.getColumnIndex(UserDictionary.Words._ID);
+            final int frequencyIndex = cursor.getColumnIndex(UserDictionary.Words.FREQUENCY);
+            final int shortcutIndex = cursor.getColumnIndex(UserDictionary.Words.SHORTCUT);
+            // Iterate over the entries in the personal dictionary.  Note, that iteration is in
+            // descending frequency by default.
+            while (cursor.moveToNext()) {
                 // If the word is null, skip this entry.
                 final String rawDictWord = cursor.getString(dictWordIndex);
                 if (null == rawDictWord) {
                     if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "loadPersonalDictionary() : Null word");
+                        Log.d(mTag, "loadRows() : Null word");
                     }
                     continue;
                 }
@@ -572,80 +570,29 @@ public class PersonalDictionaryLookup implements Closeable {
                 String localeString = cursor.getString(dictLocaleIndex);
                 if (null == localeString) {
                     if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "loadPersonalDictionary() : Null locale for word [" +
+                        Log.d(mTag, "loadRows() : Null locale for word [" +
                                 rawDictWord + "], assuming all locales");
                     }
                     // For purposes of LocaleUtils, an empty locale matches everything.
                     localeString = "";
                 }
                 final Locale dictLocale = LocaleUtils.constructLocaleFromString(localeString);
-                // Lowercase the word before storing it.
-                final String dictWord = rawDictWord.toLowerCase(dictLocale);
+                // Rows without an id can't be reloaded alone, but are kept until the next full
+                // reload.
+                final long id = idIndex < 0 ? -1 - cursor.getPosition() : cursor.getLong(idIndex);
+                final int frequency = frequencyIndex < 0 ? 0 : cursor.getInt(frequencyIndex);
+                // Map shortcuts to the raw input, which might be capitalized.
+                // This lets the user create a shortcut from "gm" to "General Motors".
+                final String shortcut = shortcutIndex < 0 ? null : cursor.getString(shortcutIndex);
                 if (DebugFlags.DEBUG_ENABLED) {
-                    Log.d(mTag, "loadPersonalDictionary() : Adding word [" + dictWord
-                            + "] for locale " + dictLocale + "with value" + rawDictWord);
-                }
-                // Check if there is an existing entry for this word.
-                HashMap<Locale, String> dictLocales = dictWords.get(dictWord);
-                if (CollectionUtils.isNullOrEmpty(dictLocales)) {
-                    // If there is no entry for this word, create one.
-                    if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "loadPersonalDictionary() : Word [" + dictWord +
-                                "] not seen for other locales, creating new entry");
-                    }
-                    dictLocales = new HashMap<>();
-                    dictWords.put(dictWord, dictLocales);
+                    Log.d(mTag, "loadRows() : Adding word [" + rawDictWord + "] for locale "
+                            + dictLocale + " with shortcut " + shortcut);
                 }
-                // Append the locale to the list of locales this word is in.
-                dictLocales.put(dictLocale, rawDictWord);
-
-                // If there is no column for a shortcut, we're done.
-                final int shortcutIndex = cursor.getColumnIndex(UserDictionary.Words.SHORTCUT);
-                if (shortcutIndex < 0) {
-                    if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "loadPersonalDictionary() : Entry without SHORTCUT, done");
-                    }
-                    continue;
-                }
-                // If the shortcut is null, we're done.
-                final String shortcut = cursor.getString(shortcutIndex);
-                if (shortcut == null) {
-                    if (DebugFlags.DEBUG_ENABLED) {
-                        Log.d(mTag, "loadPersonalDictionary() : Null shortcut");
-                    }
-                    continue;
-                }
-                // Else, save the shortcut.
-                HashMap<String, String> localeShortcuts = shortcutsPerLocale.get(dictLocale);
-                if (localeShortcuts == null) {
-                    localeShortcuts = new HashMap<>();
-                    shortcutsPerLocale.put(dictLocale, localeShortcuts);
-                }
-                // Map to the raw input, which might be capitalized.
-                // This lets the user create a shortcut from "gm" to "General Motors".
-                localeShortcuts.put(shortcut, rawDictWord);
+                mEntriesById.put(id, new PersonalDictionaryIndex.Entry(
+                        id, rawDictWord, dictLocale, frequency, shortcut));
             }
+        } finally {
+            cursor.close();
         }
-
-        List<DictionaryStats> stats = new ArrayList<>();
-        stats.add(new DictionaryStats(ANY_LOCALE, Dictionary.TYPE_USER, dictWords.size()));
-        int numShortcuts = 0;
-        for (HashMap<String, String> shortcuts : shortcutsPerLocale.values()) {
-            numShortcuts += shortcuts.size();
-        }
-        stats.add(new DictionaryStats(ANY_LOCALE, Dictionary.TYPE_USER_SHORTCUT, numShortcuts));
-        mDictionaryStats = stats;
-
-        // Atomically replace the copy of mDictWords and mShortcuts.
-        mDictWords = dictWords;
-        mShortcutsPerLocale = shortcutsPerLocale;
-
-        // Allow other calls to loadPersonalDictionary to execute now.
-        mIsLoading.set(false);
-
-        Log.i(mTag, "loadPersonalDictionary() : Loaded " + mDictWords.size()
-                + " words and " + numShortcuts + " shortcuts");
-
-        notifyListeners();
     }
 }
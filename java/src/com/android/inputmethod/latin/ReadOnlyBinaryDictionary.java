@@ -18,6 +18,7 @@ package com.android.inputmethod.latin;
 
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.common.ComposedData;
+import com.android.inputmethod.latin.utils.SuggestionBuffer;
 import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
 
 import java.util.ArrayList;
@@ -67,6 +68,24 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
         return null;
     }
 
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionBuffer outSuggestions) {
+        if (mLock.readLock().tryLock()) {
+            try {
+                mBinaryDictionary.collectSuggestions(composedData, ngramContext,
+                        proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                        weightForLocale, inOutWeightOfLangModelVsSpatialModel, outSuggestions);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         if (mLock.readLock().tryLock()) {
@@ -115,6 +134,22 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
         return NOT_A_PROBABILITY;
     }
 
+    @Override
+    public long getEstimatedSessionNativeBytes() {
+        // The pool of the binary dictionary is thread-safe, and stays readable once closed.
+        return mBinaryDictionary.getEstimatedSessionNativeBytes();
+    }
+
+    @Override
+    public long getEstimatedNativeBytes() {
+        return mBinaryDictionary.getEstimatedNativeBytes();
+    }
+
+    @Override
+    public void trimMemory() {
+        mBinaryDictionary.trimMemory();
+    }
+
     @Override
     public void close() {
         mLock.writeLock().lock();
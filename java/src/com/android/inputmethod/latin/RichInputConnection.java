@@ -53,7 +53,6 @@ import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import org.smc.ime.InputMethod;
 /**
  * Enrichment class for InputConnection to simplify interaction and add functionality.
  *
@@ -137,7 +136,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      */
     private long mLastSlowInputConnectionTime = -SLOW_INPUTCONNECTION_PERSIST_MS;
 
-    private InputMethod mTransliterationMethod;
+    private TransliterationEngine mTransliterationEngine;
 
     public RichInputConnection(final InputMethodService parent) {
         mParent = parent;
@@ -298,54 +297,34 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         }
     }
 
-    public void setTransliterationMethod(InputMethod transliterationMethod) {
-        mTransliterationMethod = transliterationMethod;
+    public void setTransliterationEngine(final TransliterationEngine transliterationEngine) {
+        mTransliterationEngine = transliterationEngine;
     }
 
-    static int firstDivergence(String str1, String str2) {
-        int length = str1.length() > str2.length() ? str2.length() : str1.length();
-        for(int i = 0; i < length; i++) {
-            if(str1.charAt(i) != str2.charAt(i)) {
-                return i;
-            }
-        }
-        return length - 1; // Default
-    }
-
-    private String context = "";
+    /**
+     * Commits the typed text after running it through the transliteration engine, if any.
+     *
+     * Each code point of the text is fed to the engine in turn, and the characters before the
+     * cursor that the engine rewrites are deleted before its replacement is committed.
+     *
+     * @param text The typed text.
+     * @param newCursorPosition The new cursor position around the text.
+     */
     public void applyTransliteration(final CharSequence text, final int newCursorPosition) {
-        String replacement = "";
-
-        /* if we've a transliteration method set, use that. Else just append the code and get on with life */
-        if(mTransliterationMethod != null && text.length() > 0 && !TextUtils.isEmpty(text)) {
-            Log.d("IndicKeyboard", "Text: " + mCommittedTextBeforeComposingText.toString());
-            Log.d("IndicKeyboard", "transliteration...: " + text);
-            int startPos = mCommittedTextBeforeComposingText.length() > mTransliterationMethod.getMaxKeyLength() ? mCommittedTextBeforeComposingText.length() - mTransliterationMethod.getMaxKeyLength() : 0;
-            String input = mCommittedTextBeforeComposingText.subSequence(startPos, mCommittedTextBeforeComposingText.length()).toString() + text;
-            replacement = mTransliterationMethod.transliterate(input, context, false);
-
-            Log.d("IndicKeyboard", "input: " + input + ", Replacement: " + replacement);
-
-            Log.d("IndicKeyboard", "--------: input: " + Integer.toString(input.length()) +  ", replacement: " + Integer.toString(replacement.length()));
-            //if (input.length() > replacement.length()) {
-
-            //}
-
-            int divIndex = firstDivergence(input, replacement);
-            deleteSurroundingText(input.length() - 1 - divIndex, 0);
-            replacement = replacement.substring(divIndex);
-            Log.d("IndicKeyboard", "delete " +  Integer.toString(input.length() - 1 - divIndex));
-
-            //mCommittedTextBeforeComposingText.replace(startPos + divIndex, startPos + divIndex + replacement.length() + 2, replacement);
-
-            //Log.d("IndicKeyboard", "--------" + mCommittedTextBeforeComposingText.toString());
-
-            context += text;
-            if(context.length() > mTransliterationMethod.getContextLength()) {
-                context = context.substring(context.length() - mTransliterationMethod.getContextLength());
+        if (null == mTransliterationEngine || TextUtils.isEmpty(text)) {
+            commitText(text, newCursorPosition);
+            return;
+        }
+        final int length = text.length();
+        for (int i = 0; i < length; i = Character.offsetByCodePoints(text, i, 1)) {
+            final TransliterationEngine.Delta delta = mTransliterationEngine.advance(
+                    mCommittedTextBeforeComposingText, mCommittedTextBeforeComposingText.length(),
+                    Character.codePointAt(text, i));
+            if (delta.getDeleteCount() > 0) {
+                deleteSurroundingText(delta.getDeleteCount(), 0);
             }
+            commitText(delta.getInsertText(), newCursorPosition);
         }
-        commitText(replacement, newCursorPosition);
     }
 
     /**
@@ -32,10 +32,13 @@ import com.android.inputmethod.latin.utils.BinaryDictionaryUtils;
 import com.android.inputmethod.latin.utils.SuggestionResults;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * This class loads a dictionary and provides a list of suggestions for a given sequence of
@@ -54,6 +57,11 @@ public final class Suggest {
     private static final int SUPPRESS_SUGGEST_THRESHOLD = -2000000000;
 
     private static final boolean DBG = DebugFlags.DEBUG_ENABLED;
+
+    // Number of other native-script spellings of the typed keys to look up when transliterating.
+    // Each of them costs a native lookup of the main dictionary of each language, as long as
+    // they fit in the time the facilitator allows the alternatives of a keystroke.
+    private static final int MAX_TRANSLITERATION_ALTERNATIVES = 3;
     private final DictionaryFacilitator mDictionaryFacilitator;
 
     private static final int MAXIMUM_AUTO_CORRECT_LENGTH_FOR_GERMAN = 12;
@@ -95,10 +103,16 @@ public final class Suggest {
         public void onGetSuggestedWords(final SuggestedWords suggestedWords);
     }
 
+    /**
+     * @param transliterationSource the keys typed to compose the word, before transliteration,
+     * as returned by {@link WordComposer#getTransliterationSource()} on the UI thread when the
+     * suggestions were requested.
+     */
     public void getSuggestedWords(final WordComposer wordComposer,
             final NgramContext ngramContext, final Keyboard keyboard,
             final SettingsValuesForSuggestion settingsValuesForSuggestion,
             final boolean isCorrectionEnabled, final int inputStyle, final int sequenceNumber,
+            @Nullable final String transliterationSource,
             final OnGetSuggestedWordsCallback callback) {
         if (wordComposer.isBatchMode()) {
             getSuggestedWordsForBatchInput(wordComposer, ngramContext, keyboard,
@@ -106,7 +120,7 @@ public final class Suggest {
         } else {
             getSuggestedWordsForNonBatchInput(wordComposer, ngramContext, keyboard,
                     settingsValuesForSuggestion, inputStyle, isCorrectionEnabled,
-                    sequenceNumber, callback);
+                    sequenceNumber, transliterationSource, callback);
         }
     }
 
@@ -135,6 +149,46 @@ public final class Suggest {
         return suggestionsContainer;
     }
 
+    /**
+     * Returns the other native-script spellings of the keys typed to compose the word, when a
+     * transliteration method is active.
+     */
+    @Nonnull
+    private static List<String> getTransliterationAlternatives(
+            @Nonnull final WordComposer wordComposer, @Nullable final String keys,
+            @Nonnull final String typedWord) {
+        final TransliterationEngine engine = wordComposer.getTransliterationEngine();
+        if (null == engine || null == keys) {
+            return Collections.emptyList();
+        }
+        return getTransliterationAlternatives(getTransliterationExpansions(engine, keys),
+                typedWord);
+    }
+
+    /**
+     * Returns the native-script spellings of the given keys that the alternatives are taken
+     * from, starting with the one the engine composes for them.
+     */
+    @Nonnull
+    public static ArrayList<String> getTransliterationExpansions(
+            @Nonnull final TransliterationEngine engine, @Nonnull final String keys) {
+        return engine.getExpansions(keys, MAX_TRANSLITERATION_ALTERNATIVES + 1);
+    }
+
+    /**
+     * Returns the spellings to look up along with the typed word, out of the given expansions.
+     * The expansions are modified.
+     */
+    @Nonnull
+    public static List<String> getTransliterationAlternatives(
+            @Nonnull final ArrayList<String> expansions, @Nonnull final String typedWord) {
+        expansions.remove(typedWord);
+        while (expansions.size() > MAX_TRANSLITERATION_ALTERNATIVES) {
+            expansions.remove(expansions.size() - 1);
+        }
+        return expansions;
+    }
+
     private static SuggestedWordInfo getWhitelistedWordInfoOrNull(
             @Nonnull final ArrayList<SuggestedWordInfo> suggestions) {
         if (suggestions.isEmpty()) {
@@ -153,7 +207,8 @@ public final class Suggest {
             final NgramContext ngramContext, final Keyboard keyboard,
             final SettingsValuesForSuggestion settingsValuesForSuggestion,
             final int inputStyleIfNotPrediction, final boolean isCorrectionEnabled,
-            final int sequenceNumber, final OnGetSuggestedWordsCallback callback) {
+            final int sequenceNumber, @Nullable final String transliterationSource,
+            final OnGetSuggestedWordsCallback callback) {
         final String typedWordString = wordComposer.getTypedWord();
         final int trailingSingleQuotesCount =
                 StringUtils.getTrailingSingleQuotesCount(typedWordString);
@@ -162,8 +217,11 @@ public final class Suggest {
                 : typedWordString;
 
         final SuggestionResults suggestionResults = mDictionaryFacilitator.getSuggestionResults(
-                wordComposer.getComposedDataSnapshot(), ngramContext, keyboard,
-                settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyleIfNotPrediction);
+                wordComposer.getComposedDataSnapshot(),
+                getTransliterationAlternatives(wordComposer, transliterationSource,
+                        typedWordString), ngramContext,
+                keyboard, settingsValuesForSuggestion, SESSION_ID_TYPING,
+                inputStyleIfNotPrediction);
         final Locale locale = mDictionaryFacilitator.getLocale();
         final ArrayList<SuggestedWordInfo> suggestionsContainer =
                 getTransformedSuggestedWordInfoList(wordComposer, suggestionResults,
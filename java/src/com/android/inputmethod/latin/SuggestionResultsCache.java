@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.util.LruCache;
+
+import com.android.inputmethod.keyboard.KeyboardId;
+import com.android.inputmethod.latin.common.ComposedData;
+import com.android.inputmethod.latin.common.InputPointers;
+import com.android.inputmethod.latin.utils.SuggestionResults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A small cache of the suggestion results computed for recently typed words.
+ *
+ * Backspacing and typing the same letters again asks for the suggestions of words that were
+ * looked up moments before. The results are cached by typed word, the coordinates it was typed
+ * at, n-gram context, keyboard and input style, and all of them are dropped as soon as the
+ * contents of a dictionary change, as reported by {@link Dictionary#getContentVersion()}.
+ *
+ * The results looked up ahead of the next keystroke are kept apart, so that they don't evict
+ * those of the words typed before. They are keyed on the word and on the coordinates of all of
+ * its letters but the last one, so they are used wherever the user touches the key of the last
+ * letter.
+ *
+ * Cached results are shared between the callers that hit them and must not be modified.
+ */
+final class SuggestionResultsCache {
+    private static final int MAX_CACHED_RESULTS = 16;
+    private static final int MAX_SPECULATIVE_RESULTS = 4;
+
+    static final class Key {
+        @Nonnull private final String mTypedWord;
+        // The proximity correction depends on where exactly each letter was typed.
+        @Nonnull private final int[] mXCoordinates;
+        @Nonnull private final int[] mYCoordinates;
+        @Nonnull private final List<String> mAlternativeTypedWords;
+        @Nonnull private final NgramContext mNgramContext;
+        @Nullable private final KeyboardId mKeyboardId;
+        private final int mInputStyle;
+        private final boolean mBlockPotentiallyOffensive;
+        private final int mHashCode;
+
+        public Key(@Nonnull final String typedWord, @Nonnull final int[] xCoordinates,
+                @Nonnull final int[] yCoordinates,
+                @Nonnull final List<String> alternativeTypedWords,
+                @Nonnull final NgramContext ngramContext, @Nullable final KeyboardId keyboardId,
+                final int inputStyle, final boolean blockPotentiallyOffensive) {
+            mTypedWord = typedWord;
+            mXCoordinates = xCoordinates;
+            mYCoordinates = yCoordinates;
+            mAlternativeTypedWords = alternativeTypedWords;
+            mNgramContext = ngramContext;
+            mKeyboardId = keyboardId;
+            mInputStyle = inputStyle;
+            mBlockPotentiallyOffensive = blockPotentiallyOffensive;
+            int hashCode = typedWord.hashCode();
+            hashCode = 31 * hashCode + Arrays.hashCode(xCoordinates);
+            hashCode = 31 * hashCode + Arrays.hashCode(yCoordinates);
+            hashCode = 31 * hashCode + alternativeTypedWords.hashCode();
+            hashCode = 31 * hashCode + ngramContext.hashCode();
+            hashCode = 31 * hashCode + (null == keyboardId ? 0 : keyboardId.hashCode());
+            hashCode = 31 * hashCode + inputStyle;
+            mHashCode = 31 * hashCode + (blockPotentiallyOffensive ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key)o;
+            return mHashCode == other.mHashCode
+                    && mInputStyle == other.mInputStyle
+                    && mBlockPotentiallyOffensive == other.mBlockPotentiallyOffensive
+                    && mTypedWord.equals(other.mTypedWord)
+                    && Arrays.equals(mXCoordinates, other.mXCoordinates)
+                    && Arrays.equals(mYCoordinates, other.mYCoordinates)
+                    && mAlternativeTypedWords.equals(other.mAlternativeTypedWords)
+                    && mNgramContext.equals(other.mNgramContext)
+                    && (null == mKeyboardId ? null == other.mKeyboardId
+                            : mKeyboardId.equals(other.mKeyboardId));
+        }
+    }
+
+    private final LruCache<Key, SuggestionResults> mCache = new LruCache<>(MAX_CACHED_RESULTS);
+    private final LruCache<Key, SuggestionResults> mSpeculativeCache =
+            new LruCache<>(MAX_SPECULATIVE_RESULTS);
+    private int mContentVersion;
+    private int mHitCount;
+    private int mMissCount;
+    private int mSpeculativeHitCount;
+
+    /**
+     * Returns the key for a lookup, or null if the results of that lookup can't be cached.
+     * Gestures are not cached since their results depend on the whole trail and not only on
+     * the letters it went through.
+     */
+    @Nullable
+    public static Key createKey(@Nonnull final ComposedData composedData,
+            @Nonnull final List<String> alternativeTypedWords,
+            @Nonnull final NgramContext ngramContext, @Nullable final KeyboardId keyboardId,
+            final int inputStyle, final boolean blockPotentiallyOffensive) {
+        if (composedData.mIsBatchMode) {
+            return null;
+        }
+        final String typedWord = composedData.mTypedWord;
+        return createKey(composedData, typedWord.codePointCount(0, typedWord.length()),
+                alternativeTypedWords, ngramContext, keyboardId, inputStyle,
+                blockPotentiallyOffensive);
+    }
+
+    /**
+     * Returns the key for a lookup ahead of the next keystroke, or null if the results of that
+     * lookup can't be cached. The coordinates of the last letter are left out, since the
+     * lookup only knows the key the user is likely to touch. The alternative spellings of a
+     * transliterated word only depend on the typed keys, so they are part of the key.
+     */
+    @Nullable
+    public static Key createSpeculativeKey(@Nonnull final ComposedData composedData,
+            @Nonnull final List<String> alternativeTypedWords,
+            @Nonnull final NgramContext ngramContext, @Nullable final KeyboardId keyboardId,
+            final int inputStyle, final boolean blockPotentiallyOffensive) {
+        final String typedWord = composedData.mTypedWord;
+        if (composedData.mIsBatchMode || typedWord.isEmpty()) {
+            return null;
+        }
+        return createKey(composedData, typedWord.codePointCount(0, typedWord.length()) - 1,
+                alternativeTypedWords, ngramContext, keyboardId, inputStyle,
+                blockPotentiallyOffensive);
+    }
+
+    @Nonnull
+    private static Key createKey(@Nonnull final ComposedData composedData,
+            final int letterCount, @Nonnull final List<String> alternativeTypedWords,
+            @Nonnull final NgramContext ngramContext, @Nullable final KeyboardId keyboardId,
+            final int inputStyle, final boolean blockPotentiallyOffensive) {
+        // The pointers of the letters that were deleted stay after those of the typed word, and
+        // are not looked up.
+        final InputPointers inputPointers = composedData.mInputPointers;
+        final int pointerSize = Math.min(inputPointers.getPointerSize(), letterCount);
+        return new Key(composedData.mTypedWord,
+                Arrays.copyOf(inputPointers.getXCoordinates(), pointerSize),
+                Arrays.copyOf(inputPointers.getYCoordinates(), pointerSize),
+                new ArrayList<>(alternativeTypedWords),
+                ngramContext, keyboardId, inputStyle, blockPotentiallyOffensive);
+    }
+
+    /**
+     * Returns the cached results for the given key.
+     * @param contentVersion the current content version of the dictionaries. When it differs from
+     * the one the cached results were computed with, all of them are dropped.
+     */
+    @Nullable
+    public synchronized SuggestionResults get(@Nonnull final Key key,
+            final int contentVersion) {
+        updateContentVersion(contentVersion);
+        final SuggestionResults results = mCache.get(key);
+        if (null == results) {
+            ++mMissCount;
+        } else {
+            ++mHitCount;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the results looked up ahead of the next keystroke for the given key, as created by
+     * {@link #createSpeculativeKey}.
+     * @param contentVersion the current content version of the dictionaries.
+     */
+    @Nullable
+    public synchronized SuggestionResults getSpeculative(@Nonnull final Key key,
+            final int contentVersion) {
+        updateContentVersion(contentVersion);
+        final SuggestionResults results = mSpeculativeCache.get(key);
+        if (null != results) {
+            ++mSpeculativeHitCount;
+        }
+        return results;
+    }
+
+    private void updateContentVersion(final int contentVersion) {
+        if (contentVersion != mContentVersion) {
+            mCache.evictAll();
+            mSpeculativeCache.evictAll();
+            mContentVersion = contentVersion;
+        }
+    }
+
+    /**
+     * Caches the results for the given key, unless the dictionaries changed while the results
+     * were being computed.
+     * @param contentVersion the content version of the dictionaries before the results were
+     * computed.
+     */
+    public synchronized void put(@Nonnull final Key key,
+            @Nonnull final SuggestionResults results, final int contentVersion) {
+        if (contentVersion != mContentVersion) {
+            return;
+        }
+        mCache.put(key, results);
+    }
+
+    /**
+     * Caches the results looked up ahead of the next keystroke for the given key, as created by
+     * {@link #createSpeculativeKey}.
+     * @param contentVersion the content version of the dictionaries before the results were
+     * computed.
+     */
+    public synchronized void putSpeculative(@Nonnull final Key key,
+            @Nonnull final SuggestionResults results, final int contentVersion) {
+        if (contentVersion != mContentVersion) {
+            return;
+        }
+        mSpeculativeCache.put(key, results);
+    }
+
+    public synchronized void clear() {
+        mCache.evictAll();
+        mSpeculativeCache.evictAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "suggestion cache: size=%d hits=%d misses=%d"
+                + " speculativeSize=%d speculativeHits=%d", mCache.size(), mHitCount, mMissCount,
+                mSpeculativeCache.size(), mSpeculativeHitCount);
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.util.LruCache;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.smc.ime.InputMethod;
+
+/**
+ * Transliteration engine shared by {@link WordComposer} and {@link RichInputConnection}.
+ *
+ * A transliteration method only ever looks at the last {@link #getMaxKeyLength()} characters
+ * plus the typed character, and at the last {@link #getContextLength()} typed keys. The engine
+ * reads those limits once when it is created and remembers the output of the method for every
+ * (window, context) pair it has already seen, so that typing the same key sequences again does
+ * not rescan the rules of the method.
+ *
+ * The engine is incremental: it keeps the tail of the text before the cursor and the context of
+ * typed keys between calls to {@link #advance(CharSequence, int, int)}, and each typed code point
+ * produces a {@link Delta} telling how many chars to delete before the cursor and what to insert
+ * instead. Every delta is remembered so that {@link #undo(CharSequence, int)} can revert the last
+ * keystrokes on backspace without transliterating anything again. The state is shared by both
+ * call sites, and is checked against the text of the caller on every call so that it gets
+ * resynchronized whenever the text was changed behind the back of the engine.
+ */
+public final class TransliterationEngine {
+    // Number of (window, context) pairs to remember. A window is at most a handful of chars, so
+    // this is a few tens of kilobytes at worst and covers the working set of a typing session.
+    private static final int MAX_CACHED_WINDOWS = 1024;
+    // Number of keystrokes that can be reverted with backspace.
+    @UsedForTesting
+    static final int MAX_UNDO_DEPTH = 48;
+    // Number of spellings explored at each key by getExpansions.
+    private static final int EXPANSION_BEAM_WIDTH = 8;
+    // A noncharacter that can't appear in typed text, used to join the window and the context.
+    private static final char KEY_SEPARATOR = '\uFFFF';
+
+    /**
+     * The change to apply to the text before the cursor for one keystroke: first delete
+     * {@link #getDeleteCount()} chars before the cursor, then insert {@link #getInsertText()}.
+     * Instances are reused across calls and are only valid until the next call to the engine.
+     */
+    public static final class Delta {
+        private int mDeleteCount;
+        @Nonnull private String mInsertText = "";
+
+        public int getDeleteCount() {
+            return mDeleteCount;
+        }
+
+        @Nonnull
+        public String getInsertText() {
+            return mInsertText;
+        }
+
+        void set(final int deleteCount, @Nonnull final String insertText) {
+            mDeleteCount = deleteCount;
+            mInsertText = insertText;
+        }
+    }
+
+    // A spelling explored by getExpansions, with the number of keys it changed from the typed ones.
+    // Instances are reused across calls.
+    private static final class Expansion {
+        final StringBuilder mText = new StringBuilder();
+        final StringBuilder mContext = new StringBuilder();
+        int mCost;
+
+        boolean hasSameState(@Nonnull final Expansion other) {
+            return contentEquals(mText, other.mText) && contentEquals(mContext, other.mContext);
+        }
+    }
+
+    // The state of the engine before a keystroke, along with what that keystroke changed.
+    private static final class UndoRecord {
+        final StringBuilder mDeletedText = new StringBuilder();
+        final StringBuilder mInsertedText = new StringBuilder();
+        final StringBuilder mTail = new StringBuilder();
+        final StringBuilder mContext = new StringBuilder();
+    }
+
+    @Nonnull private final InputMethod mMethod;
+    private final int mMaxKeyLength;
+    private final int mContextLength;
+    private final LruCache<String, String> mTransliterationCache =
+            new LruCache<>(MAX_CACHED_WINDOWS);
+    // The last getMaxKeyLength() chars before the cursor, as far as the engine knows.
+    private final StringBuilder mTail = new StringBuilder();
+    private final StringBuilder mContext = new StringBuilder();
+    private final StringBuilder mInputBuilder = new StringBuilder();
+    private final StringBuilder mKeyBuilder = new StringBuilder();
+    private final Delta mDelta = new Delta();
+    // Ring buffer of undo records. The oldest records are overwritten when it's full.
+    private final UndoRecord[] mUndoRecords = new UndoRecord[MAX_UNDO_DEPTH];
+    private int mUndoStart;
+    private int mUndoCount;
+    // The context of typed keys when the current word was started, which getExpansions starts
+    // from. It's read on the suggestion thread.
+    @Nonnull private volatile String mWordStartContext = "";
+    // The buffers of getExpansions, which are guarded by mExpansionBeam.
+    private final Expansion[] mExpansionBeam = new Expansion[EXPANSION_BEAM_WIDTH];
+    private final Expansion[] mExpansionCandidates = new Expansion[EXPANSION_BEAM_WIDTH * 2];
+    private final StringBuilder mExpansionInputBuilder = new StringBuilder();
+    private final StringBuilder mExpansionKeyBuilder = new StringBuilder();
+
+    public TransliterationEngine(@Nonnull final InputMethod method) {
+        mMethod = method;
+        mMaxKeyLength = method.getMaxKeyLength();
+        mContextLength = method.getContextLength();
+        for (int i = 0; i < MAX_UNDO_DEPTH; i++) {
+            mUndoRecords[i] = new UndoRecord();
+        }
+        for (int i = 0; i < mExpansionBeam.length; i++) {
+            mExpansionBeam[i] = new Expansion();
+        }
+        for (int i = 0; i < mExpansionCandidates.length; i++) {
+            mExpansionCandidates[i] = new Expansion();
+        }
+    }
+
+    public int getMaxKeyLength() {
+        return mMaxKeyLength;
+    }
+
+    public int getContextLength() {
+        return mContextLength;
+    }
+
+    /**
+     * Transliterates the given window against the current context.
+     *
+     * @param input the text to transliterate, made of the last {@link #getMaxKeyLength()} chars
+     *     before the cursor followed by the typed character.
+     * @return the transliterated text.
+     */
+    @Nonnull
+    public String transliterate(@Nonnull final String input) {
+        return transliterate(input, mContext, mKeyBuilder);
+    }
+
+    @Nonnull
+    private String transliterate(@Nonnull final CharSequence input,
+            @Nonnull final CharSequence context, @Nonnull final StringBuilder keyBuilder) {
+        keyBuilder.setLength(0);
+        keyBuilder.append(input).append(KEY_SEPARATOR).append(context);
+        final String key = keyBuilder.toString();
+        final String cachedReplacement = mTransliterationCache.get(key);
+        if (null != cachedReplacement) {
+            return cachedReplacement;
+        }
+        final String replacement;
+        // Expansions are computed on the suggestion thread while keys are typed on the input
+        // thread, so calls to the method are serialized.
+        synchronized (mMethod) {
+            replacement = mMethod.transliterate(input.toString(), context.toString(), false);
+        }
+        mTransliterationCache.put(key, replacement);
+        return replacement;
+    }
+
+    /**
+     * Computes likely native-script spellings of a word from the keys typed to compose it.
+     *
+     * Transliteration schemes tell similar letters apart by case, like n and N, which users often
+     * don't bother typing. This explores the case alternatives of every typed letter with a beam
+     * of {@link #EXPANSION_BEAM_WIDTH} spellings, keeping the ones with the fewest letters changed
+     * from the typed keys. The beam starts from the context of typed keys the engine had when the
+     * word was started, so that the spelling of the typed keys is the one
+     * {@link #advance(CharSequence, int, int)} composed. This doesn't touch the state of the
+     * engine, and may be called from any thread.
+     *
+     * @param keys the keys typed to compose the word.
+     * @param maxExpansions the maximum number of spellings to return.
+     * @return the spellings, starting with the one of the typed keys, without duplicates.
+     */
+    @Nonnull
+    public ArrayList<String> getExpansions(@Nonnull final String keys, final int maxExpansions) {
+        final ArrayList<String> expansions = new ArrayList<>(maxExpansions);
+        synchronized (mExpansionBeam) {
+            final Expansion[] beam = mExpansionBeam;
+            final Expansion[] candidates = mExpansionCandidates;
+            beam[0].mText.setLength(0);
+            beam[0].mContext.setLength(0);
+            beam[0].mContext.append(mWordStartContext);
+            beam[0].mCost = 0;
+            int beamSize = 1;
+            final int length = keys.length();
+            for (int i = 0; i < length; i = keys.offsetByCodePoints(i, 1)) {
+                final int codePoint = keys.codePointAt(i);
+                final int alternativeCodePoint = Character.isUpperCase(codePoint)
+                        ? Character.toLowerCase(codePoint) : Character.toUpperCase(codePoint);
+                int candidateCount = 0;
+                for (int j = 0; j < beamSize; j++) {
+                    advance(beam[j], codePoint, beam[j].mCost, candidates[candidateCount++]);
+                    if (alternativeCodePoint != codePoint) {
+                        advance(beam[j], alternativeCodePoint, beam[j].mCost + 1,
+                                candidates[candidateCount++]);
+                    }
+                }
+                // The sort is stable, so the typed spelling stays ahead of the others of same
+                // cost.
+                sortByCost(candidates, candidateCount);
+                beamSize = 0;
+                for (int j = 0; j < candidateCount && beamSize < EXPANSION_BEAM_WIDTH; j++) {
+                    if (containsState(beam, beamSize, candidates[j])) {
+                        continue;
+                    }
+                    // Swap rather than copy: the previous beam isn't needed anymore.
+                    final Expansion expansion = candidates[j];
+                    candidates[j] = beam[beamSize];
+                    beam[beamSize++] = expansion;
+                }
+            }
+            for (int i = 0; i < beamSize && expansions.size() < maxExpansions; i++) {
+                final StringBuilder text = beam[i].mText;
+                if (text.length() > 0 && !containsText(expansions, text)) {
+                    expansions.add(text.toString());
+                }
+            }
+        }
+        return expansions;
+    }
+
+    // Computes the expansion of the given one with a typed code point into the destination.
+    // Must be called with the lock of the expansion buffers held.
+    private void advance(@Nonnull final Expansion expansion, final int codePoint, final int cost,
+            @Nonnull final Expansion destination) {
+        final StringBuilder text = expansion.mText;
+        final int windowStart = Math.max(0, text.length() - mMaxKeyLength);
+        final StringBuilder input = mExpansionInputBuilder;
+        input.setLength(0);
+        input.append(text, windowStart, text.length()).appendCodePoint(codePoint);
+        final String replacement =
+                transliterate(input, expansion.mContext, mExpansionKeyBuilder);
+        destination.mText.setLength(0);
+        destination.mText.append(text, 0, windowStart).append(replacement);
+        destination.mContext.setLength(0);
+        destination.mContext.append(expansion.mContext).appendCodePoint(codePoint);
+        trimToLength(destination.mContext, mContextLength);
+        destination.mCost = cost;
+    }
+
+    // Stable insertion sort, which doesn't allocate and is fast enough for a couple of beams.
+    private static void sortByCost(@Nonnull final Expansion[] expansions, final int count) {
+        for (int i = 1; i < count; i++) {
+            final Expansion expansion = expansions[i];
+            int j = i - 1;
+            while (j >= 0 && expansions[j].mCost > expansion.mCost) {
+                expansions[j + 1] = expansions[j];
+                --j;
+            }
+            expansions[j + 1] = expansion;
+        }
+    }
+
+    private static boolean containsState(@Nonnull final Expansion[] expansions, final int count,
+            @Nonnull final Expansion expansion) {
+        for (int i = 0; i < count; i++) {
+            if (expansions[i].hasSameState(expansion)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsText(@Nonnull final ArrayList<String> texts,
+            @Nonnull final CharSequence text) {
+        for (final String t : texts) {
+            if (contentEquals(t, text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contentEquals(@Nonnull final CharSequence s1,
+            @Nonnull final CharSequence s2) {
+        final int length = s1.length();
+        if (length != s2.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s1.charAt(i) != s2.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Feeds one typed code point to the engine.
+     *
+     * @param text the text before the cursor. Only the chars up to {@code end} are considered.
+     * @param end the index of the cursor in {@code text}, not counting the typed code point.
+     * @param codePoint the typed code point.
+     * @return the change to apply to the text before the cursor, where the typed code point has
+     *     not been inserted yet.
+     */
+    @Nonnull
+    public Delta advance(@Nonnull final CharSequence text, final int end, final int codePoint) {
+        syncTail(text, end);
+        mInputBuilder.setLength(0);
+        mInputBuilder.append(mTail).appendCodePoint(codePoint);
+        final String input = mInputBuilder.toString();
+        final String replacement = transliterate(input);
+        final int tailLength = mTail.length();
+        final int insertStart =
+                Math.min(tailLength, Math.max(0, firstDivergence(input, replacement)));
+        final String insertText = replacement.substring(insertStart);
+
+        final UndoRecord record = pushUndoRecord();
+        record.mDeletedText.setLength(0);
+        record.mDeletedText.append(mTail, insertStart, tailLength);
+        record.mInsertedText.setLength(0);
+        record.mInsertedText.append(insertText);
+        record.mTail.setLength(0);
+        record.mTail.append(mTail);
+        record.mContext.setLength(0);
+        record.mContext.append(mContext);
+
+        mTail.setLength(insertStart);
+        mTail.append(insertText);
+        trimToLength(mTail, mMaxKeyLength);
+        mContext.appendCodePoint(codePoint);
+        trimToLength(mContext, mContextLength);
+
+        mDelta.set(tailLength - insertStart, insertText);
+        return mDelta;
+    }
+
+    /**
+     * Reverts the last keystroke fed to {@link #advance(CharSequence, int, int)}.
+     *
+     * @param text the text before the cursor. Only the chars up to {@code end} are considered.
+     * @param end the index of the cursor in {@code text}.
+     * @return the change to apply to the text before the cursor to restore it as it was before
+     *     the keystroke, or null if the keystroke can't be reverted because the text has changed
+     *     since, in which case the caller should delete normally.
+     */
+    @Nullable
+    public Delta undo(@Nonnull final CharSequence text, final int end) {
+        if (0 == mUndoCount) {
+            return null;
+        }
+        final UndoRecord record = mUndoRecords[(mUndoStart + mUndoCount - 1) % MAX_UNDO_DEPTH];
+        if (!endsWith(text, end, mTail) || !endsWith(text, end, record.mInsertedText)) {
+            resetState();
+            return null;
+        }
+        --mUndoCount;
+        mTail.setLength(0);
+        mTail.append(record.mTail);
+        mContext.setLength(0);
+        mContext.append(record.mContext);
+        mDelta.set(record.mInsertedText.length(), record.mDeletedText.toString());
+        return mDelta;
+    }
+
+    /**
+     * Forgets the text before the cursor and the keystrokes that can be reverted. The context of
+     * typed keys is kept, as the method may still want to look at keys typed before, and a new
+     * word starts from it.
+     */
+    public void resetState() {
+        mTail.setLength(0);
+        mWordStartContext = mContext.toString();
+        mUndoStart = 0;
+        mUndoCount = 0;
+    }
+
+    @UsedForTesting
+    String getContext() {
+        return mContext.toString();
+    }
+
+    @Nonnull
+    private UndoRecord pushUndoRecord() {
+        if (MAX_UNDO_DEPTH == mUndoCount) {
+            mUndoStart = (mUndoStart + 1) % MAX_UNDO_DEPTH;
+            --mUndoCount;
+        }
+        final UndoRecord record = mUndoRecords[(mUndoStart + mUndoCount) % MAX_UNDO_DEPTH];
+        ++mUndoCount;
+        return record;
+    }
+
+    /**
+     * Makes sure the tail matches the end of the text. If the known tail is still at the end of the
+     * text but is shorter than it should be, it's simply extended. Otherwise the text was changed
+     * by someone else, and the state is rebuilt from the text.
+     */
+    private void syncTail(@Nonnull final CharSequence text, final int end) {
+        final int expectedLength = Math.min(mMaxKeyLength, end);
+        if (!endsWith(text, end, mTail)) {
+            resetState();
+        } else if (mTail.length() == expectedLength) {
+            return;
+        }
+        final int tailStart = end - expectedLength;
+        mTail.insert(0, text, tailStart, end - mTail.length());
+    }
+
+    private static boolean endsWith(@Nonnull final CharSequence text, final int end,
+            @Nonnull final CharSequence suffix) {
+        final int suffixLength = suffix.length();
+        if (suffixLength > end) {
+            return false;
+        }
+        final int offset = end - suffixLength;
+        for (int i = 0; i < suffixLength; i++) {
+            if (text.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void trimToLength(@Nonnull final StringBuilder sb, final int length) {
+        final int overflow = sb.length() - length;
+        if (overflow > 0) {
+            sb.delete(0, overflow);
+        }
+    }
+
+    /**
+     * Returns the index of the first char where the two strings differ. If one string is a prefix
+     * of the other, this returns the index of the last char of the shorter string.
+     */
+    public static int firstDivergence(@Nonnull final String str1, @Nonnull final String str2) {
+        final int length = Math.min(str1.length(), str2.length());
+        for (int i = 0; i < length; i++) {
+            if (str1.charAt(i) != str2.charAt(i)) {
+                return i;
+            }
+        }
+        return length - 1; // Default
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.inputmethod.latin.utils.ExecutorUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nonnull;
+
+import org.smc.ime.InputMethod;
+
+/**
+ * Process-wide cache of transliteration engines, keyed by the name of their method.
+ *
+ * Parsing a transliteration method is expensive, so each method is parsed once and kept around
+ * for as long as it has been used recently. The methods of the enabled subtypes can be parsed in
+ * the background with {@link #warmUp(Context, Collection)} so that switching subtypes doesn't
+ * stall the first keystroke.
+ */
+public final class TransliterationEngineCache {
+    private static final String TAG = TransliterationEngineCache.class.getSimpleName();
+
+    // Number of methods to keep. Users seldom enable more than a few transliteration subtypes;
+    // the least recently used methods are evicted beyond that.
+    private static final int MAX_CACHED_METHODS = 4;
+
+    private static final LruCache<String, TransliterationEngine> sEngines =
+            new LruCache<>(MAX_CACHED_METHODS);
+    // The methods being parsed. Whoever asks for a method that is being parsed waits for that
+    // parse only, so the input thread never waits for a warm-up of another method.
+    private static final ConcurrentHashMap<String, FutureTask<TransliterationEngine>>
+            sPendingEngines = new ConcurrentHashMap<>();
+
+    private TransliterationEngineCache() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /**
+     * Returns the engine for the given method, parsing the method if it's not in the cache.
+     *
+     * @param name the name of the transliteration method, as found in the subtype extra value.
+     * @param context the context used to read the method.
+     * @return the engine. Its text state is reset, but its cache of transliterations is kept.
+     * @throws RuntimeException if the method can't be read.
+     */
+    @Nonnull
+    public static TransliterationEngine getEngine(@Nonnull final String name,
+            @Nonnull final Context context) {
+        final TransliterationEngine engine = getOrCreateEngine(name, context);
+        engine.resetState();
+        return engine;
+    }
+
+    /**
+     * Parses the given methods in the background and puts them in the cache. They are parsed on
+     * their own executor, since the keyboard executor may be busy loading dictionaries when the
+     * subtypes change.
+     */
+    public static void warmUp(@Nonnull final Context context,
+            @Nonnull final Collection<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final ArrayList<String> namesToWarmUp = new ArrayList<>(names);
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.TRANSLITERATION).execute(new Runnable() {
+            @Override
+            public void run() {
+                final int count = Math.min(namesToWarmUp.size(), MAX_CACHED_METHODS);
+                for (int i = 0; i < count; i++) {
+                    final String name = namesToWarmUp.get(i);
+                    try {
+                        getOrCreateEngine(name, appContext);
+                    } catch (final RuntimeException e) {
+                        Log.e(TAG, "Could not warm up transliteration method " + name, e);
+                    }
+                }
+            }
+        });
+    }
+
+    @Nonnull
+    private static TransliterationEngine getOrCreateEngine(@Nonnull final String name,
+            @Nonnull final Context context) {
+        final TransliterationEngine cachedEngine = sEngines.get(name);
+        if (null != cachedEngine) {
+            return cachedEngine;
+        }
+        final FutureTask<TransliterationEngine> newTask =
+                new FutureTask<>(new Callable<TransliterationEngine>() {
+                    @Override
+                    public TransliterationEngine call() throws Exception {
+                        // It may have been parsed since it was looked up above.
+                        final TransliterationEngine engine = sEngines.get(name);
+                        if (null != engine) {
+                            return engine;
+                        }
+                        final TransliterationEngine newEngine =
+                                new TransliterationEngine(InputMethod.fromName(name, context));
+                        sEngines.put(name, newEngine);
+                        return newEngine;
+                    }
+                });
+        final FutureTask<TransliterationEngine> pendingTask =
+                sPendingEngines.putIfAbsent(name, newTask);
+        final FutureTask<TransliterationEngine> task;
+        if (null == pendingTask) {
+            task = newTask;
+            try {
+                task.run();
+            } finally {
+                // Once parsed, the method is in the cache. If it failed, the next caller tries
+                // again.
+                sPendingEngines.remove(name, task);
+            }
+        } else {
+            task = pendingTask;
+        }
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (final InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
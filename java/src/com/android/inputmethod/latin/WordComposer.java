@@ -30,12 +30,9 @@ import com.android.inputmethod.latin.define.DecoderSpecificConstants;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import android.util.Log;
 
 import javax.annotation.Nonnull;
 
-import org.smc.ime.InputMethod;
-
 /**
  * A place to store the currently composing word with information such as adjacent key codes as well
  */
@@ -68,7 +65,12 @@ public final class WordComposer {
     // as an ad-hockery here.
     private String mRejectedBatchModeSuggestion;
 
-    private InputMethod mTransliterationMethod;
+    private TransliterationEngine mTransliterationEngine;
+    // The keys typed to compose the word when transliterating. It's only valid while every
+    // keystroke went through the engine: a word resumed from the text or a deletion that could
+    // not be reverted makes the keys unknown.
+    private final StringBuilder mTransliterationSource = new StringBuilder();
+    private boolean mIsTransliterationSourceValid = true;
 
     // Cache these values for performance
     private CharSequence mTypedWordCache;
@@ -115,8 +117,25 @@ public final class WordComposer {
         }
     }
 
-    public void setTransliterationMethod(InputMethod transliterationMethod) {
-        mTransliterationMethod = transliterationMethod;
+    public void setTransliterationEngine(final TransliterationEngine transliterationEngine) {
+        mTransliterationEngine = transliterationEngine;
+    }
+
+    public TransliterationEngine getTransliterationEngine() {
+        return mTransliterationEngine;
+    }
+
+    /**
+     * Returns the keys typed to compose the word, before transliteration. They change with each
+     * keystroke, so this must be called on the UI thread.
+     * @return the keys, or null if no transliteration engine is set or the keys are not known.
+     */
+    public String getTransliterationSource() {
+        if (null == mTransliterationEngine || !mIsTransliterationSourceValid
+                || 0 == mTransliterationSource.length()) {
+            return null;
+        }
+        return mTransliterationSource.toString();
     }
 
     /**
@@ -124,6 +143,11 @@ public final class WordComposer {
      */
     public void reset() {
         mCombinerChain.reset();
+        if (null != mTransliterationEngine) {
+            mTransliterationEngine.resetState();
+        }
+        mTransliterationSource.setLength(0);
+        mIsTransliterationSourceValid = true;
         mEvents.clear();
         mAutoCorrection = null;
         mCapsCount = 0;
@@ -176,50 +200,43 @@ public final class WordComposer {
         return processedEvent;
     }
 
-    static int firstDivergence(String str1, String str2) {
-        int length = str1.length() > str2.length() ? str2.length() : str1.length();
-        for(int i = 0; i < length; i++) {
-            if(str1.charAt(i) != str2.charAt(i)) {
-                return i;
-            }
-        }
-        return length - 1; // Default
-    }
-
-    private String context = "";
     public void applyTransliteration(final Event event) {
-        final int primaryCode = event.mCodePoint;
-
+        if (null == mTransliterationEngine || Constants.CODE_DELETE == event.mKeyCode
+                || Event.NOT_A_CODE_POINT == event.mCodePoint) {
+            return;
+        }
         refreshTypedWordCache();
+        // The combiner chain has already appended the typed code point.
+        final int end = mTypedWordCache.length();
+        final int typedStart = end - Character.charCount(event.mCodePoint);
+        final TransliterationEngine.Delta delta =
+                mTransliterationEngine.advance(mTypedWordCache, typedStart, event.mCodePoint);
+        mCombinerChain.replace(typedStart - delta.getDeleteCount(), end, delta.getInsertText());
+        mTransliterationSource.appendCodePoint(event.mCodePoint);
+    }
 
-        String mTypedWord = mTypedWordCache.toString();
-
-        Log.d("IndicKeyboard", "applyProcessedEvent: " + primaryCode);
-
-        /* if we've a transliteration method set, use that. Else just append the code and get on with life */
-        if(mTransliterationMethod != null && Constants.CODE_DELETE != event.mKeyCode) {
-            Log.d("IndicKeyboard", "transliteration...: " + mTypedWord);
-            String current = new String(Character.toChars(primaryCode));
-            Log.d("IndicKeyboard", "typed length: " + Integer.toString(mTypedWord.length()) + ", maxkeyLength: " + Integer.toString(mTransliterationMethod.getMaxKeyLength()));
-            int startPos = mTypedWord.length() - 1 > mTransliterationMethod.getMaxKeyLength() ? mTypedWord.length() - mTransliterationMethod.getMaxKeyLength() - 1: 0;
-            String input = mTypedWord.subSequence(startPos, mTypedWord.length()).toString();
-            String replacement = mTransliterationMethod.transliterate(input, context, false);
-
-            Log.d("IndicKeyboard", "input: " + input + ", Replacement: " + replacement);
-
-            int divIndex = firstDivergence(input, replacement);
-            replacement = replacement.substring(divIndex);
-
-            //mTypedWordCache = mTypedWord.replace(input, replacement);
-            Log.d("IndicKeyboard", "out: " + mTypedWordCache + ", first: " + replacement);
-            Log.d("IndicKeyboard", "--------");
-            mCombinerChain.replace(startPos + divIndex, mTypedWord.length(), replacement);
-
-            context += current;
-            if(context.length() > mTransliterationMethod.getContextLength()) {
-                context = context.substring(context.length() - mTransliterationMethod.getContextLength());
-            }
+    /**
+     * Reverts the last transliterated keystroke on backspace, so that deleting restores the
+     * composing word as it was before that key was typed.
+     * @return true if the event was handled, false if it should be applied as a normal deletion.
+     */
+    private boolean undoTransliteration(final Event event) {
+        if (null == mTransliterationEngine || Constants.CODE_DELETE != event.mKeyCode) {
+            return false;
+        }
+        final int end = mTypedWordCache.length();
+        final TransliterationEngine.Delta delta = mTransliterationEngine.undo(mTypedWordCache, end);
+        if (null == delta) {
+            mIsTransliterationSourceValid = false;
+            return false;
+        }
+        mCombinerChain.replace(end - delta.getDeleteCount(), end, delta.getInsertText());
+        final int sourceLength = mTransliterationSource.length();
+        if (sourceLength > 0) {
+            mTransliterationSource.setLength(sourceLength
+                    - Character.charCount(mTransliterationSource.codePointBefore(sourceLength)));
         }
+        return true;
     }
 
     /**
@@ -231,7 +248,9 @@ public final class WordComposer {
      * @param event the event to apply. Must not be null.
      */
     public void applyProcessedEvent(final Event event) {
-        mCombinerChain.applyProcessedEvent(event);
+        if (!undoTransliteration(event)) {
+            mCombinerChain.applyProcessedEvent(event);
+        }
         final int primaryCode = event.mCodePoint;
         final int keyX = event.mX;
         final int keyY = event.mY;
@@ -338,6 +357,7 @@ public final class WordComposer {
                     processEvent(Event.createEventForCodePointFromUnknownSource(codePoint));
             applyProcessedEvent(processedEvent);
         }
+        mIsTransliterationSourceValid = false;
     }
 
     /**
@@ -358,6 +378,7 @@ public final class WordComposer {
             applyProcessedEvent(processedEvent);
         }
         mIsResumed = true;
+        mIsTransliterationSourceValid = false;
     }
 
     /**
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.utils;
+
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The values of the attributes of a {@link TypedArray}, copied out of it so that they can be
+ * kept after it's recycled and read again without going through the resources.
+ *
+ * The getters behave like those of {@link TypedArray} with the same names. Only the attributes
+ * that have a value are kept. Colors that refer to a color state list are resolved to its
+ * default color when the values are copied, with the theme of the array.
+ */
+public final class AttributeValues {
+    public static final AttributeValues EMPTY = new AttributeValues(null /* metrics */,
+            new int[0], new TypedValue[0], new int[0]);
+
+    @Nullable
+    private final DisplayMetrics mMetrics;
+    // The indices that have a value, in increasing order, and their values.
+    private final int[] mIndices;
+    private final TypedValue[] mValues;
+    // The default colors of the values that refer to a color state list, 0 for the others.
+    private final int[] mStateListColors;
+
+    private AttributeValues(@Nullable final DisplayMetrics metrics, final int[] indices,
+            final TypedValue[] values, final int[] stateListColors) {
+        mMetrics = metrics;
+        mIndices = indices;
+        mValues = values;
+        mStateListColors = stateListColors;
+    }
+
+    /**
+     * Copies the values of the array. The array is not recycled.
+     */
+    @Nonnull
+    public static AttributeValues of(@Nonnull final Resources res, @Nonnull final TypedArray a) {
+        final int length = a.length();
+        final int[] indices = new int[length];
+        final TypedValue[] values = new TypedValue[length];
+        int count = 0;
+        TypedValue value = new TypedValue();
+        for (int index = 0; index < length; index++) {
+            if (a.getValue(index, value)) {
+                indices[count] = index;
+                values[count] = value;
+                count++;
+                value = new TypedValue();
+            }
+        }
+        final int[] stateListColors = new int[count];
+        for (int i = 0; i < count; i++) {
+            final TypedValue v = values[i];
+            if (v.type == TypedValue.TYPE_STRING && v.resourceId != 0
+                    && "color".equals(res.getResourceTypeName(v.resourceId))) {
+                stateListColors[i] = a.getColor(indices[i], 0);
+            }
+        }
+        return new AttributeValues(res.getDisplayMetrics(), Arrays.copyOf(indices, count),
+                Arrays.copyOf(values, count), stateListColors);
+    }
+
+    private int find(final int index) {
+        return Arrays.binarySearch(mIndices, index);
+    }
+
+    public int getIndexCount() {
+        return mIndices.length;
+    }
+
+    public int getIndex(final int at) {
+        return mIndices[at];
+    }
+
+    public boolean hasValue(final int index) {
+        return find(index) >= 0;
+    }
+
+    /**
+     * Returns the value of the attribute, or null if it has none. The value must not be changed.
+     */
+    @Nullable
+    public TypedValue peekValue(final int index) {
+        final int at = find(index);
+        return at < 0 ? null : mValues[at];
+    }
+
+    @Nullable
+    public String getString(final int index) {
+        final TypedValue value = peekValue(index);
+        if (value == null) {
+            return null;
+        }
+        final CharSequence string = value.type == TypedValue.TYPE_STRING
+                ? value.string : value.coerceToString();
+        return string == null ? null : string.toString();
+    }
+
+    public int getInt(final int index, final int defValue) {
+        final TypedValue value = peekValue(index);
+        if (value == null) {
+            return defValue;
+        }
+        if (ResourceUtils.isIntegerValue(value)) {
+            return value.data;
+        }
+        checkNotAttribute(value);
+        final CharSequence string = value.coerceToString();
+        if (string == null) {
+            return defValue;
+        }
+        try {
+            return Integer.decode(string.toString());
+        } catch (final NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    public boolean getBoolean(final int index, final boolean defValue) {
+        final TypedValue value = peekValue(index);
+        if (value == null) {
+            return defValue;
+        }
+        if (ResourceUtils.isIntegerValue(value)) {
+            return value.data != 0;
+        }
+        checkNotAttribute(value);
+        final CharSequence string = value.coerceToString();
+        if (string == null) {
+            return defValue;
+        }
+        return "1".equals(string) || "true".equalsIgnoreCase(string.toString());
+    }
+
+    public float getFraction(final int index, final int base, final int pbase,
+            final float defValue) {
+        final TypedValue value = peekValue(index);
+        if (value == null) {
+            return defValue;
+        }
+        if (ResourceUtils.isFractionValue(value)) {
+            return TypedValue.complexToFraction(value.data, base, pbase);
+        }
+        checkNotAttribute(value);
+        throw new UnsupportedOperationException("Can't convert to fraction: " + value);
+    }
+
+    public float getDimension(final int index, final float defValue) {
+        final TypedValue value = peekValue(index);
+        if (value == null) {
+            return defValue;
+        }
+        if (ResourceUtils.isDimensionValue(value)) {
+            return TypedValue.complexToDimension(value.data, mMetrics);
+        }
+        checkNotAttribute(value);
+        throw new UnsupportedOperationException("Can't convert to dimension: " + value);
+    }
+
+    public int getDimensionPixelSize(final int index, final int defValue) {
+        final TypedValue value = peekValue(index);
+        if (value == null) {
+            return defValue;
+        }
+        if (ResourceUtils.isDimensionValue(value)) {
+            return TypedValue.complexToDimensionPixelSize(value.data, mMetrics);
+        }
+        checkNotAttribute(value);
+        throw new UnsupportedOperationException("Can't convert to dimension: " + value);
+    }
+
+    public int getColor(final int index, final int defValue) {
+        final int at = find(index);
+        if (at < 0) {
+            return defValue;
+        }
+        final TypedValue value = mValues[at];
+        if (ResourceUtils.isIntegerValue(value)) {
+            return value.data;
+        }
+        if (value.type == TypedValue.TYPE_STRING && value.resourceId != 0) {
+            return mStateListColors[at];
+        }
+        checkNotAttribute(value);
+        throw new UnsupportedOperationException("Can't convert to color: " + value);
+    }
+
+    public int getResourceId(final int index, final int defValue) {
+        final TypedValue value = peekValue(index);
+        return (value == null || value.resourceId == 0) ? defValue : value.resourceId;
+    }
+
+    private static void checkNotAttribute(@Nonnull final TypedValue value) {
+        if (value.type == TypedValue.TYPE_ATTRIBUTE) {
+            throw new UnsupportedOperationException("Failed to resolve attribute: " + value);
+        }
+    }
+}
@@ -21,10 +21,20 @@ import android.util.Log;
 import com.android.inputmethod.annotations.UsedForTesting;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
 
 /**
  * Utilities to manage executors.
@@ -34,25 +44,107 @@ public class ExecutorUtils {
     private static final String TAG = "ExecutorUtils";
 
     public static final String KEYBOARD = "Keyboard";
+    /**
+     * Builds, caches and prerenders keyboards in the background, at a low priority, so that this
+     * work doesn't hold up the loading of the dictionaries on {@link #KEYBOARD}.
+     */
+    public static final String KEYBOARD_BUILDER = "KeyboardBuilder";
+    /**
+     * Parses transliteration methods ahead of their first use, at a low priority, so that this
+     * work neither waits behind the loading of the dictionaries nor delays it.
+     */
+    public static final String TRANSLITERATION = "Transliteration";
     public static final String SPELLING = "Spelling";
+    public static final String SUGGESTION = "Suggestion";
+    private static final String DICTIONARY = "Dictionary";
+    private static final String TIMER = "Timer";
+
+    // The lanes of the dictionary pool, most urgent first. When several dictionaries have tasks
+    // waiting, the pool runs the ones of the most urgent lane first.
+    /** Work that suggestions or a waiting caller need, like loading a dictionary. */
+    public static final int LANE_CRITICAL = 0;
+    /** Changes to the contents of a dictionary. */
+    public static final int LANE_UPDATE = 1;
+    /** Housekeeping nobody waits for, like flushing, GC or rebuilding a dictionary. */
+    public static final int LANE_BULK = 2;
+    private static final String[] LANE_NAMES = { "critical", "update", "bulk" };
+
+    // Dictionary lookups for suggestions are fanned out to one thread per dictionary, as long as
+    // there are cores to run them.
+    private static final int SUGGESTION_THREAD_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    // The tasks of different dictionaries run in parallel, on a few threads only, since they
+    // mostly compete with the lookups for the same cores and for I/O.
+    private static final int DICTIONARY_THREAD_COUNT =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final long DICTIONARY_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static ScheduledThreadPoolExecutor sKeyboardExecutorService =
+            newExecutorService(KEYBOARD);
+    private static ScheduledThreadPoolExecutor sKeyboardBuilderExecutorService =
+            newLowPriorityExecutorService(KEYBOARD_BUILDER);
+    private static ScheduledThreadPoolExecutor sTransliterationExecutorService =
+            newLowPriorityExecutorService(TRANSLITERATION);
+    private static ScheduledThreadPoolExecutor sSpellingExecutorService =
+            newExecutorService(SPELLING);
+    // Only created when first used, since lookups only run in parallel when they are enabled.
+    // Guarded by ExecutorUtils.class.
+    private static ScheduledExecutorService sSuggestionExecutorService;
+
+    // Runs the steps of the serial executors, most urgent lane first.
+    private static final ThreadPoolExecutor sDictionaryExecutorService = new ThreadPoolExecutor(
+            DICTIONARY_THREAD_COUNT, DICTIONARY_THREAD_COUNT,
+            DICTIONARY_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>(), new ExecutorFactory(DICTIONARY));
+    static {
+        sDictionaryExecutorService.allowCoreThreadTimeOut(true);
+    }
+    // Hands the delayed tasks of the serial executors over to them when they are due.
+    private static final ScheduledThreadPoolExecutor sTimerExecutorService =
+            newExecutorService(TIMER);
+
+    // Guarded by itself.
+    private static final HashMap<String, SerialExecutor> sSerialExecutors = new HashMap<>();
+    private static final AtomicLong sStepSequenceNumber = new AtomicLong();
+    private static final LaneStats[] sLaneStats = new LaneStats[LANE_NAMES.length];
+    static {
+        for (int lane = 0; lane < sLaneStats.length; ++lane) {
+            sLaneStats[lane] = new LaneStats();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newExecutorService(final String name) {
+        return new ScheduledThreadPoolExecutor(1 /* corePoolSize */, new ExecutorFactory(name));
+    }
 
-    private static ScheduledExecutorService sKeyboardExecutorService = newExecutorService(KEYBOARD);
-    private static ScheduledExecutorService sSpellingExecutorService = newExecutorService(SPELLING);
+    private static ScheduledThreadPoolExecutor newLowPriorityExecutorService(final String name) {
+        return new ScheduledThreadPoolExecutor(1 /* corePoolSize */,
+                new ExecutorFactory(name, Thread.MIN_PRIORITY));
+    }
 
-    private static ScheduledExecutorService newExecutorService(final String name) {
-        return Executors.newSingleThreadScheduledExecutor(new ExecutorFactory(name));
+    private static ScheduledExecutorService newExecutorService(final String name,
+            final int threadCount) {
+        return Executors.newScheduledThreadPool(threadCount, new ExecutorFactory(name));
     }
 
     private static class ExecutorFactory implements ThreadFactory {
         private final String mName;
+        private final int mThreadPriority;
 
         private ExecutorFactory(final String name) {
+            this(name, Thread.NORM_PRIORITY);
+        }
+
+        private ExecutorFactory(final String name, final int threadPriority) {
             mName = name;
+            mThreadPriority = threadPriority;
         }
 
         @Override
         public Thread newThread(final Runnable runnable) {
             Thread thread = new Thread(runnable, TAG);
+            thread.setPriority(mThreadPriority);
             thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
                 @Override
                 public void uncaughtException(Thread thread, Throwable ex) {
@@ -87,13 +179,307 @@ public class ExecutorUtils {
         switch (name) {
             case KEYBOARD:
                 return sKeyboardExecutorService;
+            case KEYBOARD_BUILDER:
+                return sKeyboardBuilderExecutorService;
+            case TRANSLITERATION:
+                return sTransliterationExecutorService;
             case SPELLING:
                 return sSpellingExecutorService;
+            case SUGGESTION:
+                return getSuggestionExecutorService();
             default:
                 throw new IllegalArgumentException("Invalid executor: " + name);
         }
     }
 
+    private static synchronized ScheduledExecutorService getSuggestionExecutorService() {
+        if (null == sSuggestionExecutorService) {
+            sSuggestionExecutorService = newExecutorService(SUGGESTION, SUGGESTION_THREAD_COUNT);
+        }
+        return sSuggestionExecutorService;
+    }
+
+    /**
+     * Returns the serial executor for the given key, which is kept for the life of the process.
+     * This is for the few keys that are not tied to a dictionary.
+     */
+    @Nonnull
+    public static SerialExecutor getSerialExecutor(@Nonnull final String key) {
+        synchronized (sSerialExecutors) {
+            final SerialExecutor serialExecutor = getSerialExecutorLocked(key);
+            serialExecutor.mIsPinned = true;
+            return serialExecutor;
+        }
+    }
+
+    /**
+     * Returns the serial executor for the given key, usually the path of a dictionary file, so
+     * that all the instances of a dictionary share it and their tasks run in order. The caller
+     * is counted as one of its owners until it calls {@link #releaseSerialExecutor}.
+     */
+    @Nonnull
+    public static SerialExecutor acquireSerialExecutor(@Nonnull final String key) {
+        synchronized (sSerialExecutors) {
+            final SerialExecutor serialExecutor = getSerialExecutorLocked(key);
+            ++serialExecutor.mOwnerCount;
+            return serialExecutor;
+        }
+    }
+
+    /**
+     * Gives up one ownership of a serial executor returned by {@link #acquireSerialExecutor}.
+     * The tasks already given to it still run. Once it has no owners and no tasks left, it is
+     * forgotten, and the next caller for its key gets a new one.
+     */
+    public static void releaseSerialExecutor(@Nonnull final SerialExecutor serialExecutor) {
+        synchronized (sSerialExecutors) {
+            --serialExecutor.mOwnerCount;
+            removeSerialExecutorIfUnusedLocked(serialExecutor);
+        }
+    }
+
+    @Nonnull
+    private static SerialExecutor getSerialExecutorLocked(@Nonnull final String key) {
+        SerialExecutor serialExecutor = sSerialExecutors.get(key);
+        if (null == serialExecutor) {
+            serialExecutor = new SerialExecutor(key);
+            sSerialExecutors.put(key, serialExecutor);
+        }
+        return serialExecutor;
+    }
+
+    // Only removed while idle, so that the tasks of a key never run on two executors at once.
+    private static void removeSerialExecutorIfUnusedLocked(
+            @Nonnull final SerialExecutor serialExecutor) {
+        if (serialExecutor.mIsPinned || serialExecutor.mOwnerCount > 0
+                || !serialExecutor.isIdle()) {
+            return;
+        }
+        if (serialExecutor == sSerialExecutors.get(serialExecutor.mKey)) {
+            sSerialExecutors.remove(serialExecutor.mKey);
+        }
+    }
+
+    @UsedForTesting
+    static boolean hasSerialExecutor(@Nonnull final String key) {
+        synchronized (sSerialExecutors) {
+            return sSerialExecutors.containsKey(key);
+        }
+    }
+
+    /**
+     * Runs the tasks given to it one at a time and in the order they were given, on the
+     * dictionary pool. Different serial executors run in parallel.
+     *
+     * Each task is given a lane. Only one step of a serial executor waits in the pool at a time,
+     * with the most urgent lane of the tasks it has queued, so that a critical task given after
+     * bulk ones makes them run sooner instead of overtaking them.
+     */
+    public static final class SerialExecutor {
+        private final String mKey;
+        // Guarded by sSerialExecutors.
+        private boolean mIsPinned;
+        private int mOwnerCount;
+        // Guarded by this.
+        private final ArrayDeque<Task> mTasks = new ArrayDeque<>();
+        private final int[] mTaskCountPerLane = new int[LANE_NAMES.length];
+        // Whether a step is waiting in or running on the pool.
+        private boolean mHasStep;
+        // The tasks waiting for their delay.
+        private int mScheduledTaskCount;
+
+        SerialExecutor(@Nonnull final String key) {
+            mKey = key;
+        }
+
+        public void execute(@Nonnull final Runnable runnable, final int lane) {
+            if (sExecutorServiceForTests != null) {
+                sExecutorServiceForTests.execute(runnable);
+                return;
+            }
+            sLaneStats[lane].mQueuedCount.incrementAndGet();
+            final int stepLane;
+            synchronized (this) {
+                mTasks.addLast(new Task(runnable, lane));
+                ++mTaskCountPerLane[lane];
+                if (mHasStep) {
+                    return;
+                }
+                mHasStep = true;
+                stepLane = lane;
+            }
+            sDictionaryExecutorService.execute(new Step(this, stepLane));
+        }
+
+        /**
+         * Gives the task to {@link #execute(Runnable, int)} after the delay.
+         */
+        public void schedule(@Nonnull final Runnable runnable, final long delay,
+                @Nonnull final TimeUnit unit, final int lane) {
+            if (sExecutorServiceForTests != null) {
+                sExecutorServiceForTests.schedule(runnable, delay, unit);
+                return;
+            }
+            synchronized (this) {
+                ++mScheduledTaskCount;
+            }
+            sTimerExecutorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    execute(runnable, lane);
+                    // After the task is queued, so that this executor isn't idle in between.
+                    synchronized (SerialExecutor.this) {
+                        --mScheduledTaskCount;
+                    }
+                    onIdle();
+                }
+            }, delay, unit);
+        }
+
+        boolean isIdle() {
+            synchronized (this) {
+                return !mHasStep && mTasks.isEmpty() && 0 == mScheduledTaskCount;
+            }
+        }
+
+        private void onIdle() {
+            synchronized (sSerialExecutors) {
+                removeSerialExecutorIfUnusedLocked(this);
+            }
+        }
+
+        void runNextTask() {
+            final Task task;
+            synchronized (this) {
+                // A step is only queued while there are tasks.
+                task = mTasks.pollFirst();
+                --mTaskCountPerLane[task.mLane];
+            }
+            final LaneStats laneStats = sLaneStats[task.mLane];
+            laneStats.mQueuedCount.decrementAndGet();
+            laneStats.mWaitStats.record(System.nanoTime() - task.mQueuedNanos);
+            try {
+                task.mRunnable.run();
+            } finally {
+                // Even if the task threw, so that the tasks after it still run.
+                scheduleNextStep();
+            }
+        }
+
+        private void scheduleNextStep() {
+            final int stepLane;
+            synchronized (this) {
+                if (mTasks.isEmpty()) {
+                    mHasStep = false;
+                    stepLane = -1;
+                } else {
+                    int lane = 0;
+                    while (0 == mTaskCountPerLane[lane]) {
+                        ++lane;
+                    }
+                    stepLane = lane;
+                }
+            }
+            if (stepLane < 0) {
+                // Not while holding this, which is taken after the lock of the executors.
+                onIdle();
+                return;
+            }
+            sDictionaryExecutorService.execute(new Step(this, stepLane));
+        }
+
+        @Override
+        public String toString() {
+            return mKey;
+        }
+    }
+
+    private static final class Task {
+        public final Runnable mRunnable;
+        public final int mLane;
+        public final long mQueuedNanos;
+
+        public Task(final Runnable runnable, final int lane) {
+            mRunnable = runnable;
+            mLane = lane;
+            mQueuedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Runs the next task of a serial executor. Steps of more urgent lanes come first in the
+     * queue of the pool, and steps of the same lane in the order they were queued.
+     */
+    private static final class Step implements Runnable, Comparable<Step> {
+        private final SerialExecutor mSerialExecutor;
+        private final int mLane;
+        private final long mSequenceNumber;
+
+        public Step(final SerialExecutor serialExecutor, final int lane) {
+            mSerialExecutor = serialExecutor;
+            mLane = lane;
+            mSequenceNumber = sStepSequenceNumber.getAndIncrement();
+        }
+
+        @Override
+        public void run() {
+            mSerialExecutor.runNextTask();
+        }
+
+        @Override
+        public int compareTo(final Step other) {
+            if (mLane != other.mLane) {
+                return mLane < other.mLane ? -1 : 1;
+            }
+            return mSequenceNumber < other.mSequenceNumber ? -1
+                    : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+
+    private static final class LaneStats {
+        // The tasks given to the serial executors that have not started yet.
+        public final AtomicInteger mQueuedCount = new AtomicInteger();
+        // How long the tasks waited before they started.
+        public final LatencyStats mWaitStats = new LatencyStats("wait");
+    }
+
+    /**
+     * Returns the number of tasks of the lane that have not started yet.
+     */
+    public static int getQueuedTaskCount(final int lane) {
+        return sLaneStats[lane].mQueuedCount.get();
+    }
+
+    public static String dump() {
+        final StringBuilder builder = new StringBuilder("Executors:");
+        builder.append("\n  ").append(KEYBOARD).append(": queued ")
+                .append(sKeyboardExecutorService.getQueue().size());
+        builder.append("\n  ").append(KEYBOARD_BUILDER).append(": queued ")
+                .append(sKeyboardBuilderExecutorService.getQueue().size());
+        builder.append("\n  ").append(TRANSLITERATION).append(": queued ")
+                .append(sTransliterationExecutorService.getQueue().size());
+        builder.append("\n  ").append(SPELLING).append(": queued ")
+                .append(sSpellingExecutorService.getQueue().size());
+        final int serialExecutorCount;
+        synchronized (sSerialExecutors) {
+            serialExecutorCount = sSerialExecutors.size();
+        }
+        builder.append(String.format(Locale.ROOT, "\n  %s: threads %d/%d, serial executors %d",
+                DICTIONARY, sDictionaryExecutorService.getActiveCount(),
+                DICTIONARY_THREAD_COUNT, serialExecutorCount));
+        for (int lane = 0; lane < sLaneStats.length; ++lane) {
+            builder.append("\n    ").append(LANE_NAMES[lane]).append(": queued ")
+                    .append(sLaneStats[lane].mQueuedCount.get()).append(", ")
+                    .append(sLaneStats[lane].mWaitStats);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Cancels the tasks of an executor, and waits for the running one to complete. The serial
+     * executors are left alone: they are shared between their owners, and their tasks write
+     * the dictionaries to their files.
+     */
     public static void killTasks(final String name) {
         final ScheduledExecutorService executorService = getBackgroundExecutor(name);
         executorService.shutdownNow();
@@ -110,9 +496,23 @@ public class ExecutorUtils {
             case KEYBOARD:
                 sKeyboardExecutorService = newExecutorService(KEYBOARD);
                 break;
+            case KEYBOARD_BUILDER:
+                sKeyboardBuilderExecutorService =
+                        newLowPriorityExecutorService(KEYBOARD_BUILDER);
+                break;
+            case TRANSLITERATION:
+                sTransliterationExecutorService =
+                        newLowPriorityExecutorService(TRANSLITERATION);
+                break;
             case SPELLING:
                 sSpellingExecutorService = newExecutorService(SPELLING);
                 break;
+            case SUGGESTION:
+                // Created again when next used.
+                synchronized (ExecutorUtils.class) {
+                    sSuggestionExecutorService = null;
+                }
+                break;
             default:
                 throw new IllegalArgumentException("Invalid executor: " + name);
         }
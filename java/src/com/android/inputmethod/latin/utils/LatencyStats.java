@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.utils;
+
+import java.util.Locale;
+
+/**
+ * Thread-safe accumulator of the durations of an operation, for dumping.
+ */
+public final class LatencyStats {
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final String mName;
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private long mDroppedCount;
+
+    public LatencyStats(final String name) {
+        mName = name;
+    }
+
+    /**
+     * Records one run of the operation.
+     * @param durationNanos how long the run took, in nanoseconds.
+     */
+    public synchronized void record(final long durationNanos) {
+        ++mCount;
+        mTotalNanos += durationNanos;
+        if (durationNanos > mMaxNanos) {
+            mMaxNanos = durationNanos;
+        }
+    }
+
+    /**
+     * Records one run of the operation whose result was not used, for example because it did
+     * not finish in time.
+     */
+    public synchronized void recordDropped() {
+        ++mDroppedCount;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized float getAverageMillis() {
+        return 0 == mCount ? 0.0f : (float)mTotalNanos / mCount / NANOS_PER_MILLI;
+    }
+
+    public synchronized float getMaxMillis() {
+        return (float)mMaxNanos / NANOS_PER_MILLI;
+    }
+
+    public synchronized void reset() {
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mDroppedCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%s: count=%d avg=%.2fms max=%.2fms dropped=%d",
+                mName, mCount, getAverageMillis(), getMaxMillis(), mDroppedCount);
+    }
+}
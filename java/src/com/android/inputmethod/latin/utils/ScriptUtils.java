@@ -47,6 +47,8 @@ public class ScriptUtils {
     public static final int SCRIPT_THAI = 17;
 
     private static final TreeMap<String, Integer> mLanguageCodeToScriptCode;
+    // Languages that the keyboard has dictionaries for but the spell checker doesn't.
+    private static final TreeMap<String, Integer> mKeyboardLanguageCodeToScriptCode;
 
     static {
         mLanguageCodeToScriptCode = new TreeMap<>();
@@ -68,6 +70,16 @@ public class ScriptUtils {
         mLanguageCodeToScriptCode.put("ta", SCRIPT_TAMIL);
         mLanguageCodeToScriptCode.put("te", SCRIPT_TELUGU);
         mLanguageCodeToScriptCode.put("th", SCRIPT_THAI);
+
+        mKeyboardLanguageCodeToScriptCode = new TreeMap<>();
+        mKeyboardLanguageCodeToScriptCode.put("as", SCRIPT_BENGALI);
+        mKeyboardLanguageCodeToScriptCode.put("en", SCRIPT_LATIN);
+        mKeyboardLanguageCodeToScriptCode.put("hi", SCRIPT_DEVANAGARI);
+        mKeyboardLanguageCodeToScriptCode.put("kn", SCRIPT_KANNADA);
+        mKeyboardLanguageCodeToScriptCode.put("mai", SCRIPT_DEVANAGARI);
+        mKeyboardLanguageCodeToScriptCode.put("mr", SCRIPT_DEVANAGARI);
+        mKeyboardLanguageCodeToScriptCode.put("ne", SCRIPT_DEVANAGARI);
+        mKeyboardLanguageCodeToScriptCode.put("sa", SCRIPT_DEVANAGARI);
     }
 
     /*
@@ -192,4 +204,19 @@ public class ScriptUtils {
         }
         return script;
     }
+
+    /**
+     * @param locale the locale of a keyboard dictionary
+     * @return the script the language is written in, or {@link #SCRIPT_UNKNOWN} if it is not
+     * known. Unlike {@link #getScriptFromSpellCheckerLocale(Locale)}, this doesn't default to
+     * Latin.
+     */
+    public static int getScriptFromLocale(final Locale locale) {
+        final String language = locale.getLanguage();
+        Integer script = mLanguageCodeToScriptCode.get(language);
+        if (script == null) {
+            script = mKeyboardLanguageCodeToScriptCode.get(language);
+        }
+        return script == null ? SCRIPT_UNKNOWN : script;
+    }
 }
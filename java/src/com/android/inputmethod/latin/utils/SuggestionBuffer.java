@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.utils;
+
+import com.android.inputmethod.annotations.UsedForTesting;
+import com.android.inputmethod.latin.Dictionary;
+import com.android.inputmethod.latin.SuggestedWords;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.common.StringUtils;
+import com.android.inputmethod.latin.define.DecoderSpecificConstants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A fixed-capacity buffer of the best suggestions offered by dictionaries, kept as code points
+ * and scores in preallocated arrays.
+ *
+ * Dictionaries return many more candidates than the suggestion strip shows. Offering them here
+ * instead of building a {@link SuggestedWordInfo} for each means that Strings and word infos are
+ * only created, in {@link #outputTo(SuggestionResults)}, for the candidates that survive. The
+ * entries are ranked like {@link SuggestionResults} ranks them: higher score first, then fewer
+ * code points, then the word itself.
+ *
+ * Buffers are not thread-safe. Use {@link #obtain()} and {@link #recycle()} to reuse them.
+ */
+public final class SuggestionBuffer {
+    private static final int MAX_WORD_LENGTH = DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH;
+    // One buffer for the input thread, one for the speculation thread, one per suggestion thread,
+    // and one for the spell checker are in use at the same time at most, so this many buffers
+    // never need to be allocated again.
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static final ArrayList<SuggestionBuffer> sPool = new ArrayList<>();
+
+    private final int mCapacity;
+    private final int[] mScores;
+    private final int[] mCodePointCounts;
+    // The code points of the entry in slot i start at i * MAX_WORD_LENGTH.
+    private final int[] mCodePoints;
+    private final int[] mKinds;
+    private final int[] mIndicesOfTouchPointOfSecondWord;
+    private final int[] mAutoCommitFirstWordConfidences;
+    private final Dictionary[] mSourceDicts;
+    // Entries that were offered as word infos are kept as they are so that they are not
+    // created again, and so that the information the buffer doesn't store is not lost.
+    private final SuggestedWordInfo[] mWordInfos;
+    private int mSize;
+
+    public SuggestionBuffer(final int capacity) {
+        mCapacity = capacity;
+        mScores = new int[capacity];
+        mCodePointCounts = new int[capacity];
+        mCodePoints = new int[capacity * MAX_WORD_LENGTH];
+        mKinds = new int[capacity];
+        mIndicesOfTouchPointOfSecondWord = new int[capacity];
+        mAutoCommitFirstWordConfidences = new int[capacity];
+        mSourceDicts = new Dictionary[capacity];
+        mWordInfos = new SuggestedWordInfo[capacity];
+    }
+
+    /**
+     * Returns an empty buffer that holds as many suggestions as the strip shows.
+     */
+    @Nonnull
+    public static SuggestionBuffer obtain() {
+        synchronized (sPool) {
+            final int size = sPool.size();
+            if (size > 0) {
+                return sPool.remove(size - 1);
+            }
+        }
+        return new SuggestionBuffer(SuggestedWords.MAX_SUGGESTIONS);
+    }
+
+    /**
+     * Gives this buffer back to the pool. It must not be used by the caller afterwards.
+     */
+    public void recycle() {
+        if (SuggestedWords.MAX_SUGGESTIONS != mCapacity) {
+            return;
+        }
+        clear();
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOLED_BUFFERS && !sPool.contains(this)) {
+                sPool.add(this);
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mSourceDicts[i] = null;
+            mWordInfos[i] = null;
+        }
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Offers a suggestion read from a code point array, without copying it unless it ranks among
+     * the best ones.
+     *
+     * @return whether the suggestion was kept.
+     */
+    public boolean add(@Nonnull final int[] codePoints, final int start, final int codePointCount,
+            final int score, final int kind, @Nullable final Dictionary sourceDict,
+            final int indexOfTouchPointOfSecondWord, final int autoCommitFirstWordConfidence) {
+        final int slot = findSlot(codePoints, start, codePointCount, score);
+        if (slot < 0) {
+            return false;
+        }
+        storeEntry(slot, codePoints, start, codePointCount, score, kind, sourceDict,
+                indexOfTouchPointOfSecondWord, autoCommitFirstWordConfidence, null);
+        return true;
+    }
+
+    /**
+     * Offers a suggestion that already exists as a word info.
+     *
+     * @return whether the suggestion was kept.
+     */
+    public boolean add(@Nonnull final SuggestedWordInfo wordInfo) {
+        if (mSize >= mCapacity && wordInfo.mScore < mScores[findWorstSlot()]) {
+            // Fast path: don't bother extracting the code points of a word that can't make it.
+            return false;
+        }
+        final int[] codePoints = StringUtils.toCodePointArray(wordInfo.mWord);
+        final int slot = findSlot(codePoints, 0, codePoints.length, wordInfo.mScore);
+        if (slot < 0) {
+            return false;
+        }
+        storeEntry(slot, codePoints, 0, codePoints.length, wordInfo.mScore, wordInfo.mKindAndFlags,
+                wordInfo.mSourceDict, wordInfo.mIndexOfTouchPointOfSecondWord,
+                wordInfo.mAutoCommitFirstWordConfidence, wordInfo);
+        return true;
+    }
+
+    public void addAll(@Nullable final Collection<SuggestedWordInfo> wordInfos) {
+        if (null == wordInfos) {
+            return;
+        }
+        for (final SuggestedWordInfo wordInfo : wordInfos) {
+            add(wordInfo);
+        }
+    }
+
+    /**
+     * Offers all the entries of another buffer to this one.
+     */
+    public void addAll(@Nonnull final SuggestionBuffer other) {
+        for (int i = 0; i < other.mSize; i++) {
+            final int offset = i * MAX_WORD_LENGTH;
+            final int slot = findSlot(other.mCodePoints, offset, other.mCodePointCounts[i],
+                    other.mScores[i]);
+            if (slot < 0) {
+                continue;
+            }
+            storeEntry(slot, other.mCodePoints, offset, other.mCodePointCounts[i],
+                    other.mScores[i], other.mKinds[i], other.mSourceDicts[i],
+                    other.mIndicesOfTouchPointOfSecondWord[i],
+                    other.mAutoCommitFirstWordConfidences[i], other.mWordInfos[i]);
+        }
+    }
+
+    /**
+     * Creates the word infos for the entries of this buffer and adds them to the given results.
+     */
+    public void outputTo(@Nonnull final SuggestionResults results) {
+        for (int i = 0; i < mSize; i++) {
+            final SuggestedWordInfo wordInfo = mWordInfos[i];
+            if (null != wordInfo) {
+                results.add(wordInfo);
+                continue;
+            }
+            results.add(new SuggestedWordInfo(
+                    new String(mCodePoints, i * MAX_WORD_LENGTH, mCodePointCounts[i]),
+                    "" /* prevWordsContext */, mScores[i], mKinds[i], mSourceDicts[i],
+                    mIndicesOfTouchPointOfSecondWord[i], mAutoCommitFirstWordConfidences[i]));
+        }
+    }
+
+    @UsedForTesting
+    String getWord(final int slot) {
+        return new String(mCodePoints, slot * MAX_WORD_LENGTH, mCodePointCounts[slot]);
+    }
+
+    @UsedForTesting
+    int getScore(final int slot) {
+        return mScores[slot];
+    }
+
+    /**
+     * Returns the slot where the given entry should go, or -1 if it should not be kept because
+     * it's a duplicate or it ranks below all the entries of a full buffer.
+     */
+    private int findSlot(final int[] codePoints, final int start, final int codePointCount,
+            final int score) {
+        for (int i = 0; i < mSize; i++) {
+            if (0 == compareWithSlot(codePoints, start, codePointCount, score, i)) {
+                return -1;
+            }
+        }
+        if (mSize < mCapacity) {
+            return mSize++;
+        }
+        final int worstSlot = findWorstSlot();
+        if (compareWithSlot(codePoints, start, codePointCount, score, worstSlot) >= 0) {
+            return -1;
+        }
+        return worstSlot;
+    }
+
+    private int findWorstSlot() {
+        int worstSlot = 0;
+        for (int i = 1; i < mSize; i++) {
+            final int offset = i * MAX_WORD_LENGTH;
+            if (compareWithSlot(mCodePoints, offset, mCodePointCounts[i], mScores[i],
+                    worstSlot) > 0) {
+                worstSlot = i;
+            }
+        }
+        return worstSlot;
+    }
+
+    /**
+     * Compares an entry with the entry in the given slot. Negative means the entry ranks
+     * higher, like in {@link SuggestionResults}.
+     */
+    private int compareWithSlot(final int[] codePoints, final int start, final int codePointCount,
+            final int score, final int slot) {
+        if (score != mScores[slot]) {
+            return score > mScores[slot] ? -1 : 1;
+        }
+        final int slotCodePointCount = mCodePointCounts[slot];
+        if (codePointCount != slotCodePointCount) {
+            return codePointCount < slotCodePointCount ? -1 : 1;
+        }
+        final int slotOffset = slot * MAX_WORD_LENGTH;
+        for (int i = 0; i < codePointCount; i++) {
+            final int diff = codePoints[start + i] - mCodePoints[slotOffset + i];
+            if (0 != diff) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private void storeEntry(final int slot, final int[] codePoints, final int start,
+            final int codePointCount, final int score, final int kind,
+            final Dictionary sourceDict, final int indexOfTouchPointOfSecondWord,
+            final int autoCommitFirstWordConfidence, final SuggestedWordInfo wordInfo) {
+        // Words longer than what the decoder produces can only come as word infos, which are
+        // kept whole, so only their first code points are stored for ranking.
+        final int storedCount = Math.min(codePointCount, MAX_WORD_LENGTH);
+        System.arraycopy(codePoints, start, mCodePoints, slot * MAX_WORD_LENGTH, storedCount);
+        mCodePointCounts[slot] = storedCount;
+        mScores[slot] = score;
+        mKinds[slot] = kind;
+        mSourceDicts[slot] = sourceDict;
+        mIndicesOfTouchPointOfSecondWord[slot] = indexOfTouchPointOfSecondWord;
+        mAutoCommitFirstWordConfidences[slot] = autoCommitFirstWordConfidence;
+        mWordInfos[slot] = wordInfo;
+    }
+}
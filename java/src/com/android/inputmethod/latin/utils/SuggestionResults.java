@@ -19,22 +19,37 @@ package com.android.inputmethod.latin.utils;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.define.ProductionFlags;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
- * A TreeSet of SuggestedWordInfo that is bounded in size and throws everything that's smaller
- * than its limit
+ * A collection of SuggestedWordInfo that is bounded in size and throws everything that's smaller
+ * than its limit.
+ *
+ * The entries are kept in an array organized as a binary heap whose root is the entry that ranks
+ * lowest, so that a new entry replaces it in O(log K) without allocating anything. Iteration goes
+ * from the best entry to the worst one, in the order of {@link SuggestedWordInfoComparator}.
  */
-public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
+public final class SuggestionResults extends AbstractCollection<SuggestedWordInfo> {
     public final ArrayList<SuggestedWordInfo> mRawSuggestions;
     // TODO: Instead of a boolean , we may want to include the context of this suggestion results,
     // such as {@link NgramContext}.
     public final boolean mIsBeginningOfSentence;
     public final boolean mFirstSuggestionExceedsConfidenceThreshold;
     private final int mCapacity;
+    // Ranks the entries the other way around, so that the heap has the worst entry at its root.
+    private final Comparator<SuggestedWordInfo> mHeapComparator;
+    private final SuggestedWordInfo[] mHeap;
+    private int mSize;
+    // An array sorted from the worst entry to the best is a valid heap too, so sorting the heap
+    // in place before iterating keeps it usable. This is reset by every modification.
+    private boolean mIsSorted = true;
 
     public SuggestionResults(final int capacity, final boolean isBeginningOfSentence,
             final boolean firstSuggestionExceedsConfidenceThreshold) {
@@ -45,8 +60,9 @@ public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
     private SuggestionResults(final Comparator<SuggestedWordInfo> comparator, final int capacity,
             final boolean isBeginningOfSentence,
             final boolean firstSuggestionExceedsConfidenceThreshold) {
-        super(comparator);
+        mHeapComparator = Collections.reverseOrder(comparator);
         mCapacity = capacity;
+        mHeap = new SuggestedWordInfo[capacity];
         if (ProductionFlags.INCLUDE_RAW_SUGGESTIONS) {
             mRawSuggestions = new ArrayList<>();
         } else {
@@ -58,17 +74,130 @@ public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
 
     @Override
     public boolean add(final SuggestedWordInfo e) {
-        if (size() < mCapacity) return super.add(e);
-        if (comparator().compare(e, last()) > 0) return false;
-        super.add(e);
-        pollLast(); // removes the last element
+        if (mCapacity <= 0) return false;
+        if (mSize >= mCapacity && mHeapComparator.compare(e, mHeap[0]) <= 0) {
+            // Ranks no higher than the worst entry, which also covers being the worst entry.
+            return false;
+        }
+        // Entries that compare equal are duplicates, like in a sorted set. Comparing the scores
+        // first keeps this scan cheap.
+        for (int i = 0; i < mSize; ++i) {
+            final SuggestedWordInfo entry = mHeap[i];
+            if (entry.mScore == e.mScore && 0 == mHeapComparator.compare(e, entry)) {
+                return false;
+            }
+        }
+        mIsSorted = false;
+        if (mSize < mCapacity) {
+            mHeap[mSize] = e;
+            siftUp(mSize++);
+        } else {
+            mHeap[0] = e;
+            siftDown(0);
+        }
         return true;
     }
 
     @Override
     public boolean addAll(final Collection<? extends SuggestedWordInfo> e) {
         if (null == e) return false;
-        return super.addAll(e);
+        boolean modified = false;
+        for (final SuggestedWordInfo wordInfo : e) {
+            modified |= add(wordInfo);
+        }
+        return modified;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(mHeap, 0, mSize, null);
+        mSize = 0;
+        mIsSorted = true;
+    }
+
+    /**
+     * Returns the entry that ranks highest.
+     * @throws NoSuchElementException if there are no entries.
+     */
+    public SuggestedWordInfo first() {
+        if (0 == mSize) throw new NoSuchElementException();
+        sortIfNeeded();
+        return mHeap[mSize - 1];
+    }
+
+    /**
+     * Returns the entry that ranks lowest.
+     * @throws NoSuchElementException if there are no entries.
+     */
+    public SuggestedWordInfo last() {
+        if (0 == mSize) throw new NoSuchElementException();
+        return mHeap[0];
+    }
+
+    @Override
+    public Iterator<SuggestedWordInfo> iterator() {
+        sortIfNeeded();
+        return new Iterator<SuggestedWordInfo>() {
+            private int mNextIndex = mSize - 1;
+
+            @Override
+            public boolean hasNext() {
+                return mNextIndex >= 0;
+            }
+
+            @Override
+            public SuggestedWordInfo next() {
+                if (mNextIndex < 0) throw new NoSuchElementException();
+                return mHeap[mNextIndex--];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // Cached results are iterated from several threads, hence the lock.
+    private synchronized void sortIfNeeded() {
+        if (mIsSorted) return;
+        // This is an insertion sort on arrays this small, and doesn't allocate.
+        Arrays.sort(mHeap, 0, mSize, mHeapComparator);
+        mIsSorted = true;
+    }
+
+    private void siftUp(final int index) {
+        final SuggestedWordInfo e = mHeap[index];
+        int i = index;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (mHeapComparator.compare(e, mHeap[parent]) >= 0) break;
+            mHeap[i] = mHeap[parent];
+            i = parent;
+        }
+        mHeap[i] = e;
+    }
+
+    private void siftDown(final int index) {
+        final SuggestedWordInfo e = mHeap[index];
+        int i = index;
+        final int half = mSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            final int right = child + 1;
+            if (right < mSize && mHeapComparator.compare(mHeap[right], mHeap[child]) < 0) {
+                child = right;
+            }
+            if (mHeapComparator.compare(e, mHeap[child]) <= 0) break;
+            mHeap[i] = mHeap[child];
+            i = child;
+        }
+        mHeap[i] = e;
     }
 
     static final class SuggestedWordInfoComparator implements Comparator<SuggestedWordInfo> {
@@ -31,21 +31,35 @@ public final class XmlParseUtils {
     @SuppressWarnings("serial")
     public static class ParseException extends XmlPullParserException {
         public ParseException(final String msg, final XmlPullParser parser) {
-            super(msg + " at " + parser.getPositionDescription());
+            this(msg, parser.getPositionDescription());
+        }
+
+        public ParseException(final String msg, final String positionDescription) {
+            super(msg + " at " + positionDescription);
         }
     }
 
     @SuppressWarnings("serial")
     public static final class IllegalStartTag extends ParseException {
         public IllegalStartTag(final XmlPullParser parser, final String tag, final String parent) {
-            super("Illegal start tag " + tag + " in " + parent, parser);
+            this(parser.getPositionDescription(), tag, parent);
+        }
+
+        public IllegalStartTag(final String positionDescription, final String tag,
+                final String parent) {
+            super("Illegal start tag " + tag + " in " + parent, positionDescription);
         }
     }
 
     @SuppressWarnings("serial")
     public static final class IllegalEndTag extends ParseException {
         public IllegalEndTag(final XmlPullParser parser, final String tag, final String parent) {
-            super("Illegal end tag " + tag + " in " + parent, parser);
+            this(parser.getPositionDescription(), tag, parent);
+        }
+
+        public IllegalEndTag(final String positionDescription, final String tag,
+                final String parent) {
+            super("Illegal end tag " + tag + " in " + parent, positionDescription);
         }
     }
 
@@ -53,7 +67,12 @@ public final class XmlParseUtils {
     public static final class IllegalAttribute extends ParseException {
         public IllegalAttribute(final XmlPullParser parser, final String tag,
                 final String attribute) {
-            super("Tag " + tag + " has illegal attribute " + attribute, parser);
+            this(parser.getPositionDescription(), tag, attribute);
+        }
+
+        public IllegalAttribute(final String positionDescription, final String tag,
+                final String attribute) {
+            super("Tag " + tag + " has illegal attribute " + attribute, positionDescription);
         }
     }
 
@@ -80,4 +99,14 @@ public final class XmlParseUtils {
         throw new ParseException(
                 "No " + attrName + " attribute found in <" + tag + "/>", parser);
     }
+
+    public static void checkAttributeExists(final AttributeValues attr, final int attrId,
+            final String attrName, final String tag, final String positionDescription)
+                    throws XmlPullParserException {
+        if (attr.hasValue(attrId)) {
+            return;
+        }
+        throw new ParseException(
+                "No " + attrName + " attribute found in <" + tag + "/>", positionDescription);
+    }
 }
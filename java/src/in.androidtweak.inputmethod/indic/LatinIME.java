@@ -56,6 +56,7 @@ import com.android.inputmethod.annotations.UsedForTesting;
 import com.android.inputmethod.compat.BuildCompatUtils;
 import com.android.inputmethod.compat.EditorInfoCompatUtils;
 import com.android.inputmethod.compat.InputMethodServiceCompatUtils;
+import com.android.inputmethod.compat.InputMethodSubtypeCompatUtils;
 import com.android.inputmethod.compat.PreferenceManagerCompat;
 import com.android.inputmethod.compat.ViewOutlineProviderCompatUtils;
 import com.android.inputmethod.compat.ViewOutlineProviderCompatUtils.InsetsUpdater;
@@ -73,6 +74,7 @@ import com.android.inputmethod.latin.AudioAndHapticFeedbackManager;
 import com.android.inputmethod.latin.DictionaryDumpBroadcastReceiver;
 import com.android.inputmethod.latin.DictionaryFacilitator;
 import com.android.inputmethod.latin.DictionaryFacilitatorProvider;
+import com.android.inputmethod.latin.DictionaryRegistry;
 import com.android.inputmethod.latin.InputAttributes;
 import com.android.inputmethod.latin.LastComposedWord;
 import com.android.inputmethod.latin.R;
@@ -81,6 +83,7 @@ import com.android.inputmethod.latin.Suggest;
 import com.android.inputmethod.latin.Suggest.OnGetSuggestedWordsCallback;
 import com.android.inputmethod.latin.SuggestedWords;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.TransliterationEngineCache;
 import com.android.inputmethod.latin.common.Constants;
 import com.android.inputmethod.latin.common.CoordinateUtils;
 import com.android.inputmethod.latin.common.InputPointers;
@@ -90,6 +93,8 @@ import com.android.inputmethod.latin.permissions.PermissionsManager;
 import com.android.inputmethod.latin.touchinputconsumer.GestureConsumer;
 import com.android.inputmethod.latin.utils.ApplicationUtils;
 import com.android.inputmethod.latin.utils.DialogUtils;
+import com.android.inputmethod.latin.utils.DictionaryInfoUtils;
+import com.android.inputmethod.latin.utils.ExecutorUtils;
 import com.android.inputmethod.latin.utils.ImportantNoticeUtils;
 import com.android.inputmethod.latin.utils.IntentUtils;
 import com.android.inputmethod.latin.utils.JniUtils;
@@ -100,6 +105,7 @@ import com.android.inputmethod.latin.utils.SubtypeLocaleUtils;
 import com.android.inputmethod.latin.utils.ViewLayoutUtils;
 
 import in.androidtweak.inputmethod.indic.inputlogic.InputLogic;
+import in.androidtweak.inputmethod.indic.inputlogic.InputLogic.SpeculationSnapshot;
 import in.androidtweak.inputmethod.indic.personalization.PersonalizationHelper;
 import in.androidtweak.inputmethod.indic.settings.Settings;
 import in.androidtweak.inputmethod.indic.settings.SettingsActivity;
@@ -115,6 +121,7 @@ import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import static com.android.inputmethod.latin.common.Constants.ImeOption.FORCE_ASCII;
 import static com.android.inputmethod.latin.common.Constants.ImeOption.NO_MICROPHONE;
@@ -132,6 +139,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
 
     private static final int PERIOD_FOR_AUDIO_AND_HAPTIC_FEEDBACK_IN_KEY_REPEAT = 2;
     private static final int PENDING_IMS_CALLBACK_DURATION_MILLIS = 800;
+    private static final int MAX_SECONDARY_DICTIONARY_LOCALES = 1;
     static final long DELAY_WAIT_FOR_DICTIONARY_LOAD_MILLIS = TimeUnit.SECONDS.toMillis(2);
     static final long DELAY_DEALLOCATE_MEMORY_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
@@ -177,6 +185,8 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
     // Working variable for {@link #startShowingInputView()} and
     // {@link #onEvaluateInputViewShown()}.
     private boolean mIsExecutingStartShowingInputView;
+    // The transliteration methods of the enabled subtypes, as of the last warm-up.
+    private List<String> mWarmedUpTransliterationNames;
 
     // Object for reacting to adding/removing a dictionary pack.
     private final BroadcastReceiver mDictionaryPackInstallReceiver =
@@ -608,9 +618,11 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         mRichImm = RichInputMethodManager.getInstance();
         KeyboardSwitcher.init(this);
         AudioAndHapticFeedbackManager.init(this);
+        DictionaryRegistry.init(this);
         AccessibilityUtils.init(this);
         mStatsUtilsManager.onCreate(this /* context */, mDictionaryFacilitator);
         checkForTransliteration();
+        warmUpTransliterationMethods();
         super.onCreate();
 
         mHandler.onCreate();
@@ -674,6 +686,27 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         return false;
     }
 
+    /**
+     * Parses the transliteration methods of all the enabled subtypes in the background, so that
+     * switching to one of them doesn't have to wait for its method to be read. This is done
+     * again when the enabled subtypes change.
+     */
+    private void warmUpTransliterationMethods() {
+        final ArrayList<String> transliterationNames = new ArrayList<>();
+        final List<InputMethodSubtype> enabledSubtypes = mRichImm.getMyEnabledInputMethodSubtypeList(
+                true /* allowsImplicitlySelectedSubtypes */);
+        for (final InputMethodSubtype subtype : enabledSubtypes) {
+            if (subtype.containsExtraValueKey(TRANSLITERATION_METHOD)) {
+                transliterationNames.add(subtype.getExtraValueOf(TRANSLITERATION_METHOD));
+            }
+        }
+        if (transliterationNames.equals(mWarmedUpTransliterationNames)) {
+            return;
+        }
+        mWarmedUpTransliterationNames = transliterationNames;
+        TransliterationEngineCache.warmUp(this, transliterationNames);
+    }
+
     // Has to be package-visible for unit tests
     @UsedForTesting
     void loadSettings() {
@@ -751,6 +784,10 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                 false /* forceReloadMainDictionary */,
                 settingsValues.mAccount, "" /* dictNamePrefix */,
                 this /* DictionaryInitializationListener */);
+        if (ProductionFlags.ENABLE_MULTILINGUAL_SUGGESTIONS) {
+            mDictionaryFacilitator.resetSecondaryDictionaries(this /* context */,
+                    getSecondaryDictionaryLocales(locale));
+        }
         if (settingsValues.mAutoCorrectionEnabledPerUserSettings) {
             mInputLogic.mSuggest.setAutoCorrectionThreshold(
                     settingsValues.mAutoCorrectionThreshold);
@@ -758,6 +795,32 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         mInputLogic.mSuggest.setPlausibilityThreshold(settingsValues.mPlausibilityThreshold);
     }
 
+    /**
+     * Returns the locales of the other enabled subtypes whose words are suggested along with
+     * those of the given locale. Only one other language is looked up, so that suggestions cost
+     * about the same as with a single language.
+     */
+    @Nonnull
+    private List<Locale> getSecondaryDictionaryLocales(@Nonnull final Locale locale) {
+        final ArrayList<Locale> locales = new ArrayList<>();
+        final List<InputMethodSubtype> enabledSubtypes =
+                mRichImm.getMyEnabledInputMethodSubtypeList(
+                        true /* allowsImplicitlySelectedSubtypes */);
+        for (final InputMethodSubtype subtype : enabledSubtypes) {
+            if (locales.size() >= MAX_SECONDARY_DICTIONARY_LOCALES) {
+                break;
+            }
+            final Locale subtypeLocale = InputMethodSubtypeCompatUtils.getLocaleObject(subtype);
+            if (subtypeLocale.getLanguage().equals(locale.getLanguage())
+                    || locales.contains(subtypeLocale)
+                    || !DictionaryInfoUtils.isDictionaryAvailable(this, subtypeLocale)) {
+                continue;
+            }
+            locales.add(subtypeLocale);
+        }
+        return locales;
+    }
+
     /**
      * Reset suggest by loading the main dictionary of the current locale.
      */
@@ -771,6 +834,13 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
                 this /* DictionaryInitializationListener */);
     }
 
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        mDictionaryFacilitator.onTrimMemory(level);
+        mKeyboardSwitcher.onTrimMemory(level);
+    }
+
     @Override
     public void onDestroy() {
         mKeyboardSwitcher.unsetEmojiSearch(false);
@@ -914,6 +984,8 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         // also wouldn't be consuming gesture data.
         mGestureConsumer = GestureConsumer.NULL_GESTURE_CONSUMER;
         mRichImm.refreshSubtypeCaches();
+        // The enabled subtypes may have changed in the settings since the last input.
+        warmUpTransliterationMethods();
         final KeyboardSwitcher switcher = mKeyboardSwitcher;
         switcher.updateKeyboardTheme();
         final MainKeyboardView mainKeyboardView = switcher.getMainKeyboardView();
@@ -1642,6 +1714,7 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
 
     // TODO[IL]: Move this out of LatinIME.
     public void getSuggestedWords(final int inputStyle, final int sequenceNumber,
+            @Nullable final String transliterationSource,
             final OnGetSuggestedWordsCallback callback) {
         final Keyboard keyboard = mKeyboardSwitcher.getKeyboard();
         if (keyboard == null) {
@@ -1649,7 +1722,18 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
             return;
         }
         mInputLogic.getSuggestedWords(mSettings.getCurrent(), keyboard,
-                mKeyboardSwitcher.getKeyboardShiftMode(), inputStyle, sequenceNumber, callback);
+                mKeyboardSwitcher.getKeyboardShiftMode(), inputStyle, sequenceNumber,
+                transliterationSource, callback);
+    }
+
+    // Called on the UI thread, when the suggestions for the word being composed are requested.
+    @Nullable
+    public SpeculationSnapshot newSpeculationSnapshot() {
+        final Keyboard keyboard = mKeyboardSwitcher.getKeyboard();
+        if (keyboard == null) {
+            return null;
+        }
+        return mInputLogic.newSpeculationSnapshot(mSettings.getCurrent(), keyboard);
     }
 
     @Override
@@ -1986,6 +2070,9 @@ public class LatinIME extends InputMethodService implements KeyboardActionListen
         final SettingsValues settingsValues = mSettings.getCurrent();
         p.println(settingsValues.dump());
         p.println(mDictionaryFacilitator.dump(this /* context */));
+        p.println(DictionaryRegistry.getInstance().dump());
+        p.println(ExecutorUtils.dump());
+        p.println(mInputLogic.dumpSpeculation());
         // TODO: Dump all settings values
     }
 
@@ -25,14 +25,17 @@ import android.text.TextUtils;
 import android.text.style.BackgroundColorSpan;
 import android.text.style.SuggestionSpan;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.inputmethod.CorrectionInfo;
 import android.view.inputmethod.EditorInfo;
 
+import com.android.inputmethod.annotations.UsedForTesting;
 import com.android.inputmethod.compat.SuggestionSpanUtils;
 import com.android.inputmethod.event.Event;
 import com.android.inputmethod.event.InputTransaction;
+import com.android.inputmethod.keyboard.Key;
 import com.android.inputmethod.keyboard.Keyboard;
 import com.android.inputmethod.keyboard.KeyboardSwitcher;
 import com.android.inputmethod.latin.Dictionary;
@@ -44,7 +47,10 @@ import com.android.inputmethod.latin.Suggest;
 import com.android.inputmethod.latin.Suggest.OnGetSuggestedWordsCallback;
 import com.android.inputmethod.latin.SuggestedWords;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.TransliterationEngine;
+import com.android.inputmethod.latin.TransliterationEngineCache;
 import com.android.inputmethod.latin.WordComposer;
+import com.android.inputmethod.latin.common.ComposedData;
 import com.android.inputmethod.latin.common.Constants;
 import com.android.inputmethod.latin.common.InputPointers;
 import com.android.inputmethod.latin.common.StringUtils;
@@ -55,7 +61,6 @@ import com.android.inputmethod.latin.utils.RecapitalizeStatus;
 import com.android.inputmethod.latin.utils.StatsUtils;
 import com.android.inputmethod.latin.utils.TextRange;
 
-import org.smc.ime.InputMethod;
 import in.androidtweak.inputmethod.indic.LatinIME;
 import in.androidtweak.inputmethod.indic.settings.SettingsValues;
 import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
@@ -64,11 +69,16 @@ import in.androidtweak.inputmethod.indic.suggestions.SuggestionStripViewAccessor
 import com.android.inputmethod.latin.utils.ScriptUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 /**
  * This class manages the input logic.
  */
@@ -242,6 +252,7 @@ public final class InputLogic {
      */
     public InputTransaction onTextInput(final SettingsValues settingsValues, final Event event,
             final int keyboardShiftMode, final LatinIME.UIHandler handler) {
+        mInputLogicHandler.cancelSpeculation();
         final String rawText = event.getTextToCommit().toString();
         final InputTransaction inputTransaction = new InputTransaction(settingsValues, event,
                 SystemClock.uptimeMillis(), mSpaceState,
@@ -446,6 +457,7 @@ public final class InputLogic {
     public InputTransaction onCodeInput(final SettingsValues settingsValues,
             @Nonnull final Event event, final int keyboardShiftMode,
             final int currentKeyboardScriptId, final LatinIME.UIHandler handler) {
+        mInputLogicHandler.cancelSpeculation();
         mWordBeingCorrectedByCursor = null;
         final Event processedEvent = mWordComposer.processEvent(event);
         final InputTransaction inputTransaction = new InputTransaction(settingsValues,
@@ -2309,7 +2321,8 @@ public final class InputLogic {
 
     public void getSuggestedWords(final SettingsValues settingsValues,
             final Keyboard keyboard, final int keyboardShiftMode, final int inputStyle,
-            final int sequenceNumber, final OnGetSuggestedWordsCallback callback) {
+            final int sequenceNumber, @Nullable final String transliterationSource,
+            final OnGetSuggestedWordsCallback callback) {
         if (isEmoji) {
             final SuggestedWordInfo emptyWordInfo = new SuggestedWordInfo(
                     "",
@@ -2354,8 +2367,251 @@ public final class InputLogic {
                     keyboard,
                     new SettingsValuesForSuggestion(settingsValues.mBlockPotentiallyOffensive),
                     settingsValues.mAutoCorrectionEnabledPerUserSettings,
-                    inputStyle, sequenceNumber, callback);
+                    inputStyle, sequenceNumber, transliterationSource, callback);
+        }
+    }
+
+    /**
+     * The state of the word being composed that the speculative lookups start from. It's taken
+     * on the UI thread when the suggestions for the word are requested, since the lookups run on
+     * other threads while the user keeps typing.
+     */
+    public static final class SpeculationSnapshot {
+        @Nonnull public final String mTypedWord;
+        @Nonnull public final InputPointers mInputPointers;
+        @Nonnull public final NgramContext mNgramContext;
+        @Nonnull public final Keyboard mKeyboard;
+        public final boolean mBlockPotentiallyOffensive;
+        // When transliterating, the engine and the keys typed to compose the word, from which the
+        // word composed by the next key is worked out.
+        @Nullable private final TransliterationEngine mTransliterationEngine;
+        @Nullable private final String mTransliterationSource;
+        // The spellings of the keys followed by each code point asked for so far. Only accessed
+        // on the speculation thread.
+        private final SparseArray<ArrayList<String>> mExpansions = new SparseArray<>();
+
+        @UsedForTesting
+        public SpeculationSnapshot(@Nonnull final String typedWord,
+                @Nonnull final InputPointers inputPointers,
+                @Nonnull final NgramContext ngramContext, @Nonnull final Keyboard keyboard,
+                final boolean blockPotentiallyOffensive,
+                @Nullable final TransliterationEngine transliterationEngine,
+                @Nullable final String transliterationSource) {
+            mTypedWord = typedWord;
+            mInputPointers = inputPointers;
+            mNgramContext = ngramContext;
+            mKeyboard = keyboard;
+            mBlockPotentiallyOffensive = blockPotentiallyOffensive;
+            mTransliterationEngine = transliterationEngine;
+            mTransliterationSource = transliterationSource;
+        }
+
+        public boolean isTransliterated() {
+            return null != mTransliterationEngine;
+        }
+
+        /**
+         * Returns the word being composed once the given code point is typed.
+         * @return the word, or null if the transliteration engine composes nothing for the keys.
+         */
+        @Nullable
+        public String getTypedWordAfter(final int codePoint) {
+            if (!isTransliterated()) {
+                return mTypedWord + StringUtils.newSingleCodePointString(codePoint);
+            }
+            final ArrayList<String> expansions = getExpansionsAfter(codePoint);
+            return expansions.isEmpty() ? null : expansions.get(0);
+        }
+
+        /**
+         * Returns the other spellings that {@link Suggest} looks up along with the word being
+         * composed once the given code point is typed.
+         */
+        @Nonnull
+        public List<String> getAlternativeTypedWordsAfter(final int codePoint) {
+            if (!isTransliterated()) {
+                return Collections.emptyList();
+            }
+            final ArrayList<String> expansions = new ArrayList<>(getExpansionsAfter(codePoint));
+            if (expansions.isEmpty()) {
+                return Collections.emptyList();
+            }
+            return Suggest.getTransliterationAlternatives(expansions, expansions.get(0));
         }
+
+        @Nonnull
+        private ArrayList<String> getExpansionsAfter(final int codePoint) {
+            ArrayList<String> expansions = mExpansions.get(codePoint);
+            if (null == expansions) {
+                // The first expansion is the word the engine composes for the keys.
+                expansions = Suggest.getTransliterationExpansions(mTransliterationEngine,
+                        mTransliterationSource + StringUtils.newSingleCodePointString(codePoint));
+                mExpansions.put(codePoint, expansions);
+            }
+            return expansions;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the word being composed for the speculative lookups.
+     *
+     * @return the snapshot, or null if the next letters of the word can't be looked up ahead.
+     */
+    // Called on the UI thread, as it reads the word composer and the input connection.
+    @Nullable
+    public SpeculationSnapshot newSpeculationSnapshot(final SettingsValues settingsValues,
+            @Nonnull final Keyboard keyboard) {
+        if (isEmoji || !mWordComposer.isComposingWord() || mWordComposer.isBatchMode()) {
+            return null;
+        }
+        final TransliterationEngine transliterationEngine =
+                mWordComposer.getTransliterationEngine();
+        final String transliterationSource = mWordComposer.getTransliterationSource();
+        // Without the keys typed so far, the word the next key composes is not known.
+        if (null != transliterationEngine && null == transliterationSource) {
+            return null;
+        }
+        final InputPointers composedPointers = mWordComposer.getInputPointers();
+        final InputPointers inputPointers = new InputPointers(composedPointers.getPointerSize());
+        inputPointers.copy(composedPointers);
+        return new SpeculationSnapshot(mWordComposer.getTypedWord(), inputPointers,
+                getNgramContextFromNthPreviousWordForSuggestion(
+                        settingsValues.mSpacingAndPunctuations, 2 /* nthPreviousWord */),
+                keyboard, settingsValues.mBlockPotentiallyOffensive, transliterationEngine,
+                transliterationSource);
+    }
+
+    /**
+     * Returns the code points that the user is the most likely to type next: the letters that
+     * continue the given suggestions for the word being composed, in the order of the
+     * suggestions, then the keys around the most likely of them, to account for touch
+     * inaccuracy.
+     *
+     * When transliterating, the keys are not the letters of the suggestions, so each letter key
+     * is tried for the word it composes, which the suggestions must start with. This calls the
+     * transliteration engine for every letter key, so it must not run on the suggestion thread.
+     *
+     * @param snapshot the word being composed.
+     * @param suggestedWords the suggestions for the word being composed.
+     * @param maxCount the maximum number of code points to return.
+     * @return the code points, possibly empty.
+     */
+    @Nonnull
+    public static int[] getLikelyNextCodePoints(@Nonnull final SpeculationSnapshot snapshot,
+            @Nonnull final SuggestedWords suggestedWords, final int maxCount) {
+        final String typedWord = snapshot.mTypedWord;
+        final Keyboard keyboard = snapshot.mKeyboard;
+        final int[] codePoints = new int[maxCount];
+        int count = 0;
+        if (!snapshot.isTransliterated()) {
+            for (int i = 0; i < suggestedWords.size() && count < maxCount; ++i) {
+                final String word = suggestedWords.getWord(i);
+                if (word.length() <= typedWord.length() || !word.startsWith(typedWord)) {
+                    continue;
+                }
+                count = addCodePointIfAbsent(codePoints, count,
+                        word.codePointAt(typedWord.length()));
+            }
+        } else {
+            final List<Key> keys = keyboard.getSortedKeys();
+            final String[] nextTypedWords = new String[keys.size()];
+            for (int i = 0; i < keys.size(); ++i) {
+                final int code = keys.get(i).getCode();
+                if (Character.isLetter(code)) {
+                    nextTypedWords[i] = snapshot.getTypedWordAfter(code);
+                }
+            }
+            for (int i = 0; i < suggestedWords.size() && count < maxCount; ++i) {
+                final String word = suggestedWords.getWord(i);
+                for (int j = 0; j < keys.size() && count < maxCount; ++j) {
+                    final String nextTypedWord = nextTypedWords[j];
+                    if (null != nextTypedWord && !nextTypedWord.equals(typedWord)
+                            && word.startsWith(nextTypedWord)) {
+                        count = addCodePointIfAbsent(codePoints, count, keys.get(j).getCode());
+                    }
+                }
+            }
+        }
+        final Key mostLikelyKey = count > 0 ? keyboard.getKey(codePoints[0]) : null;
+        if (null != mostLikelyKey) {
+            final List<Key> nearestKeys = keyboard.getNearestKeys(
+                    mostLikelyKey.getHitBox().centerX(), mostLikelyKey.getHitBox().centerY());
+            for (int i = 0; i < nearestKeys.size() && count < maxCount; ++i) {
+                final int code = nearestKeys.get(i).getCode();
+                if (Character.isLetter(code)) {
+                    count = addCodePointIfAbsent(codePoints, count, code);
+                }
+            }
+        }
+        return Arrays.copyOf(codePoints, count);
+    }
+
+    private static int addCodePointIfAbsent(final int[] codePoints, final int count,
+            final int codePoint) {
+        for (int i = 0; i < count; ++i) {
+            if (codePoints[i] == codePoint) {
+                return count;
+            }
+        }
+        codePoints[count] = codePoint;
+        return count + 1;
+    }
+
+    /**
+     * Returns what the word composer holds once the given code point is typed at the center of
+     * its key after the word of the snapshot.
+     *
+     * @return the composed data, or null if the code point can't be typed.
+     */
+    // Only reads the snapshot, so it can be called on the speculation thread.
+    @Nullable
+    public static ComposedData getComposedDataAfter(@Nonnull final SpeculationSnapshot snapshot,
+            final int codePoint) {
+        final Key key = snapshot.mKeyboard.getKey(codePoint);
+        if (null == key) {
+            return null;
+        }
+        final String word = snapshot.getTypedWordAfter(codePoint);
+        if (null == word) {
+            return null;
+        }
+        final String typedWord = snapshot.mTypedWord;
+        final InputPointers inputPointers =
+                new InputPointers(snapshot.mInputPointers.getPointerSize() + 1);
+        inputPointers.copy(snapshot.mInputPointers);
+        // As the word composer does, the pointer goes right after those of the typed letters.
+        inputPointers.addPointerAt(typedWord.codePointCount(0, typedWord.length()),
+                key.getHitBox().centerX(), key.getHitBox().centerY(), 0 /* pointerId */,
+                0 /* time */);
+        return new ComposedData(inputPointers, false /* isBatchMode */, word);
+    }
+
+    /**
+     * Looks up the suggestions for the word of the snapshot followed by the given code point, as
+     * if the user had typed it at the center of its key. The dictionary facilitator caches the
+     * results for the word and the coordinates of its letters but the last one, so they are used
+     * wherever the user touches that key.
+     *
+     * @return the word that was looked up, or null if nothing was looked up.
+     */
+    // Only reads the snapshot, so it can be called on the speculation thread.
+    @Nullable
+    public String precomputeSuggestedWords(@Nonnull final SpeculationSnapshot snapshot,
+            final int codePoint) {
+        final ComposedData composedData = getComposedDataAfter(snapshot, codePoint);
+        if (null == composedData) {
+            return null;
+        }
+        mDictionaryFacilitator.precomputeSuggestionResults(composedData,
+                snapshot.getAlternativeTypedWordsAfter(codePoint), snapshot.mNgramContext,
+                snapshot.mKeyboard,
+                new SettingsValuesForSuggestion(snapshot.mBlockPotentiallyOffensive),
+                Suggest.SESSION_ID_TYPING);
+        return composedData.mTypedWord;
+    }
+
+    public String dumpSpeculation() {
+        return mInputLogicHandler.dumpSpeculation();
     }
 
     /**
@@ -2455,11 +2711,11 @@ public final class InputLogic {
     }
 
     public void enableTransliteration(String transliterationMethod, Context context) {
-        InputMethod im;
         try {
-            im = InputMethod.fromName(transliterationMethod, context);
-            mWordComposer.setTransliterationMethod(im);
-            mConnection.setTransliterationMethod(im);
+            final TransliterationEngine engine =
+                    TransliterationEngineCache.getEngine(transliterationMethod, context);
+            mWordComposer.setTransliterationEngine(engine);
+            mConnection.setTransliterationEngine(engine);
             isTransliteration = true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -2468,8 +2724,8 @@ public final class InputLogic {
     }
 
     public void disableTransliteration() {
-        mWordComposer.setTransliterationMethod(null);
-        mConnection.setTransliterationMethod(null);
+        mWordComposer.setTransliterationEngine(null);
+        mConnection.setTransliterationEngine(null);
         isTransliteration = false;
     }
 
@@ -19,18 +19,30 @@ package in.androidtweak.inputmethod.indic.inputlogic;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
 
 import com.android.inputmethod.compat.LooperCompatUtils;
 import in.androidtweak.inputmethod.indic.LatinIME;
+import in.androidtweak.inputmethod.indic.inputlogic.InputLogic.SpeculationSnapshot;
 import com.android.inputmethod.latin.SuggestedWords;
 import com.android.inputmethod.latin.Suggest.OnGetSuggestedWordsCallback;
 import com.android.inputmethod.latin.common.InputPointers;
+import com.android.inputmethod.latin.define.ProductionFlags;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A helper to manage deferred tasks for the input logic.
  */
 class InputLogicHandler implements Handler.Callback {
     final Handler mNonUIThreadHandler;
+    // The speculative lookups run on a thread of their own, since a native lookup can't be
+    // interrupted once it has started, and must not delay the lookup for a real keystroke. The
+    // thread is only started when the first suggestions are requested with speculation enabled.
+    // Written on the UI thread.
+    private volatile Handler mSpeculationHandler;
     // TODO: remove this reference.
     final LatinIME mLatinIME;
     final InputLogic mInputLogic;
@@ -38,6 +50,56 @@ class InputLogicHandler implements Handler.Callback {
     private boolean mInBatchInput; // synchronized using {@link #mLock}.
 
     private static final int MSG_GET_SUGGESTED_WORDS = 1;
+    private static final int MSG_SPECULATE = 2;
+
+    // Between keystrokes, the suggestions for the most likely next letters are looked up ahead
+    // of time so that they are cached when the user types one of them. This is the number of
+    // letters to look up, the time to wait after the suggestions were shown before starting, and
+    // the time after which the remaining letters are given up on.
+    private static final int MAX_SPECULATIVE_CODE_POINTS = 4;
+    private static final long SPECULATION_DELAY_MS = 10;
+    private static final long SPECULATION_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(25);
+
+    // The lookups ahead of the next keystroke. Only accessed on the speculation thread.
+    private static final class Speculation {
+        public final SpeculationSnapshot mSnapshot;
+        public final SuggestedWords mSuggestedWords;
+        public final int mGeneration;
+        // The letters to look up, which are worked out by the first step.
+        public int[] mCodePoints;
+        public long mElapsedNanos;
+
+        public Speculation(final SpeculationSnapshot snapshot,
+                final SuggestedWords suggestedWords, final int generation) {
+            mSnapshot = snapshot;
+            mSuggestedWords = suggestedWords;
+            mGeneration = generation;
+        }
+    }
+
+    // A request for suggestions, along with the state of the word composer that is mutated on
+    // the UI thread and must be read there.
+    private static final class SuggestionRequest {
+        public final OnGetSuggestedWordsCallback mCallback;
+        public final String mTransliterationSource;
+
+        public SuggestionRequest(final OnGetSuggestedWordsCallback callback,
+                final String transliterationSource) {
+            mCallback = callback;
+            mTransliterationSource = transliterationSource;
+        }
+    }
+
+    // Incremented to cancel the speculative lookups in flight. Written on the UI thread.
+    private volatile int mSpeculationGeneration;
+    private final Object mSpeculationLock = new Object();
+    // The words looked up since the last request, and the statistics. Guarded by
+    // {@link #mSpeculationLock}.
+    private final ArrayList<String> mSpeculatedWords = new ArrayList<>();
+    private int mSpeculativeLookupCount;
+    private int mSpeculationHitCount;
+    private int mSpeculationMissCount;
+    private int mSpeculationOverBudgetCount;
 
     // A handler that never does anything. This is used for cases where events come before anything
     // is initialized, though probably only the monkey can actually do this.
@@ -59,6 +121,8 @@ class InputLogicHandler implements Handler.Callback {
         @Override
         public void getSuggestedWords(final int sessionId, final int sequenceNumber,
                 final OnGetSuggestedWordsCallback callback) {}
+        @Override
+        public void cancelSpeculation() {}
     };
 
     InputLogicHandler() {
@@ -76,34 +140,153 @@ class InputLogicHandler implements Handler.Callback {
         mInputLogic = inputLogic;
     }
 
+    // Called on the UI thread.
+    private Handler getSpeculationHandler() {
+        if (null == mSpeculationHandler) {
+            final HandlerThread speculationThread = new HandlerThread(
+                    InputLogicHandler.class.getSimpleName() + "Speculation",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            speculationThread.start();
+            mSpeculationHandler = new Handler(speculationThread.getLooper(), this);
+        }
+        return mSpeculationHandler;
+    }
+
     public void reset() {
+        ++mSpeculationGeneration;
         mNonUIThreadHandler.removeCallbacksAndMessages(null);
+        final Handler speculationHandler = mSpeculationHandler;
+        if (null != speculationHandler) {
+            speculationHandler.removeCallbacksAndMessages(null);
+        }
     }
 
     // In unit tests, we create several instances of LatinIME, which results in several instances
     // of InputLogicHandler. To avoid these handlers lingering, we call this.
     public void destroy() {
         LooperCompatUtils.quitSafely(mNonUIThreadHandler.getLooper());
+        final Handler speculationHandler = mSpeculationHandler;
+        if (null != speculationHandler) {
+            LooperCompatUtils.quitSafely(speculationHandler.getLooper());
+        }
     }
 
     /**
      * Handle a message.
      * @see android.os.Handler.Callback#handleMessage(android.os.Message)
      */
-    // Called on the Non-UI handler thread by the Handler code.
+    // Called on the Non-UI handler thread, or on the speculation thread for MSG_SPECULATE, by the
+    // Handler code.
     @Override
     public boolean handleMessage(final Message msg) {
         switch (msg.what) {
             case MSG_GET_SUGGESTED_WORDS:
+                final SuggestionRequest request = (SuggestionRequest) msg.obj;
                 mLatinIME.getSuggestedWords(msg.arg1 /* inputStyle */,
-                        msg.arg2 /* sequenceNumber */, (OnGetSuggestedWordsCallback) msg.obj);
+                        msg.arg2 /* sequenceNumber */, request.mTransliterationSource,
+                        request.mCallback);
+                break;
+            case MSG_SPECULATE:
+                speculate((Speculation) msg.obj, msg.arg1 /* index */);
                 break;
         }
         return true;
     }
 
+    /**
+     * Cancels the speculative lookups that have not started yet. This is called as soon as a
+     * real event arrives, so that they don't compete with it. A lookup that has already started
+     * runs to its end on the speculation thread.
+     */
+    // Called on the UI thread by InputLogic.
+    public void cancelSpeculation() {
+        ++mSpeculationGeneration;
+        final Handler speculationHandler = mSpeculationHandler;
+        if (null != speculationHandler) {
+            speculationHandler.removeMessages(MSG_SPECULATE);
+        }
+    }
+
+    // Called on the Non-UI handler thread, with the suggestions that were just computed for the
+    // word of the snapshot. The speculation handler was started when they were requested.
+    void startSpeculation(final SpeculationSnapshot snapshot, final int generation,
+            final SuggestedWords suggestedWords) {
+        if (generation != mSpeculationGeneration) {
+            return;
+        }
+        // The likely letters are worked out on the speculation thread too, since finding them
+        // calls the transliteration engine for each key when transliterating.
+        mSpeculationHandler.sendMessageDelayed(mSpeculationHandler.obtainMessage(MSG_SPECULATE,
+                0 /* index */, 0, new Speculation(snapshot, suggestedWords, generation)),
+                SPECULATION_DELAY_MS);
+    }
+
+    // Each lookup runs in its own message so that it can be cancelled before it starts.
+    private void speculate(final Speculation speculation, final int index) {
+        if (speculation.mGeneration != mSpeculationGeneration) {
+            return;
+        }
+        if (null == speculation.mCodePoints) {
+            final long startTime = System.nanoTime();
+            speculation.mCodePoints = InputLogic.getLikelyNextCodePoints(speculation.mSnapshot,
+                    speculation.mSuggestedWords, MAX_SPECULATIVE_CODE_POINTS);
+            speculation.mElapsedNanos += System.nanoTime() - startTime;
+        }
+        if (index >= speculation.mCodePoints.length) {
+            return;
+        }
+        if (speculation.mElapsedNanos > SPECULATION_BUDGET_NANOS) {
+            synchronized (mSpeculationLock) {
+                ++mSpeculationOverBudgetCount;
+            }
+            return;
+        }
+        final long startTime = System.nanoTime();
+        final String word = mInputLogic.precomputeSuggestedWords(speculation.mSnapshot,
+                speculation.mCodePoints[index]);
+        speculation.mElapsedNanos += System.nanoTime() - startTime;
+        if (null != word) {
+            synchronized (mSpeculationLock) {
+                // Words looked up after the next request was made don't count towards it.
+                if (speculation.mGeneration == mSpeculationGeneration) {
+                    ++mSpeculativeLookupCount;
+                    mSpeculatedWords.add(word);
+                }
+            }
+        }
+        mSpeculationHandler.obtainMessage(MSG_SPECULATE, index + 1, 0, speculation)
+                .sendToTarget();
+    }
+
+    // Counts whether the word the suggestions are requested for was looked up ahead of time.
+    private void recordSpeculationOutcome(final String typedWord) {
+        synchronized (mSpeculationLock) {
+            if (mSpeculatedWords.isEmpty()) {
+                return;
+            }
+            if (mSpeculatedWords.contains(typedWord)) {
+                ++mSpeculationHitCount;
+            } else {
+                ++mSpeculationMissCount;
+            }
+            mSpeculatedWords.clear();
+        }
+    }
+
+    public String dumpSpeculation() {
+        synchronized (mSpeculationLock) {
+            final int outcomeCount = mSpeculationHitCount + mSpeculationMissCount;
+            return String.format(Locale.ROOT, "Speculative suggestions: lookups=%d hits=%d"
+                    + " misses=%d hitRate=%.2f overBudget=%d",
+                    mSpeculativeLookupCount, mSpeculationHitCount, mSpeculationMissCount,
+                    0 == outcomeCount ? 0.0f : (float)mSpeculationHitCount / outcomeCount,
+                    mSpeculationOverBudgetCount);
+        }
+    }
+
     // Called on the UI thread by InputLogic.
     public void onStartBatchInput() {
+        cancelSpeculation();
         synchronized (mLock) {
             mInBatchInput = true;
         }
@@ -215,7 +398,35 @@ class InputLogicHandler implements Handler.Callback {
 
     public void getSuggestedWords(final int inputStyle, final int sequenceNumber,
             final OnGetSuggestedWordsCallback callback) {
-        mNonUIThreadHandler.obtainMessage(
-                MSG_GET_SUGGESTED_WORDS, inputStyle, sequenceNumber, callback).sendToTarget();
+        cancelSpeculation();
+        // Batch input is not transliterated, and its updates may come from any thread.
+        final boolean isBatchInput = SuggestedWords.INPUT_STYLE_UPDATE_BATCH == inputStyle
+                || SuggestedWords.INPUT_STYLE_TAIL_BATCH == inputStyle;
+        final String transliterationSource = isBatchInput ? null
+                : mInputLogic.mWordComposer.getTransliterationSource();
+        if (!ProductionFlags.ENABLE_SPECULATIVE_SUGGESTIONS
+                || SuggestedWords.INPUT_STYLE_TYPING != inputStyle) {
+            mNonUIThreadHandler.obtainMessage(MSG_GET_SUGGESTED_WORDS, inputStyle,
+                    sequenceNumber, new SuggestionRequest(callback, transliterationSource))
+                    .sendToTarget();
+            return;
+        }
+        // Typing requests come from the UI thread, where the word being composed can be read.
+        recordSpeculationOutcome(mInputLogic.mWordComposer.getTypedWord());
+        final SpeculationSnapshot snapshot = mLatinIME.newSpeculationSnapshot();
+        if (null != snapshot) {
+            getSpeculationHandler();
+        }
+        final int generation = mSpeculationGeneration;
+        final OnGetSuggestedWordsCallback speculatingCallback = null == snapshot ? callback
+                : new OnGetSuggestedWordsCallback() {
+                    @Override
+                    public void onGetSuggestedWords(final SuggestedWords suggestedWords) {
+                        callback.onGetSuggestedWords(suggestedWords);
+                        startSpeculation(snapshot, generation, suggestedWords);
+                    }
+                };
+        mNonUIThreadHandler.obtainMessage(MSG_GET_SUGGESTED_WORDS, inputStyle, sequenceNumber,
+                new SuggestionRequest(speculatingCallback, transliterationSource)).sendToTarget();
     }
 }
@@ -19,13 +19,12 @@ package in.androidtweak.inputmethod.indic.personalization;
 import android.content.Context;
 import android.util.Log;
 
+import com.android.inputmethod.latin.DictionaryRegistry;
 import com.android.inputmethod.latin.common.FileUtils;
 
 import java.io.File;
 import java.io.FilenameFilter;
-import java.lang.ref.SoftReference;
 import java.util.Locale;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -35,50 +34,26 @@ import javax.annotation.Nullable;
  */
 public class PersonalizationHelper {
     private static final String TAG = PersonalizationHelper.class.getSimpleName();
-    private static final boolean DEBUG = false;
 
-    private static final ConcurrentHashMap<String, SoftReference<UserHistoryDictionary>>
-            sLangUserHistoryDictCache = new ConcurrentHashMap<>();
+    // Used to serialize removing the dictionary files.
+    private static final Object sLock = new Object();
 
+    /**
+     * Opens the user history dictionary of a locale. The dictionaries used by the keyboard are
+     * cached by the {@link DictionaryRegistry}, which opens them here.
+     */
     @Nonnull
     public static UserHistoryDictionary getUserHistoryDictionary(
             final Context context, final Locale locale, @Nullable final String accountName) {
-        String lookupStr = locale.toString();
-        if (accountName != null) {
-            lookupStr += "." + accountName;
-        }
-        synchronized (sLangUserHistoryDictCache) {
-            if (sLangUserHistoryDictCache.containsKey(lookupStr)) {
-                final SoftReference<UserHistoryDictionary> ref =
-                        sLangUserHistoryDictCache.get(lookupStr);
-                final UserHistoryDictionary dict = ref == null ? null : ref.get();
-                if (dict != null) {
-                    if (DEBUG) {
-                        Log.d(TAG, "Use cached UserHistoryDictionary with lookup: " + lookupStr);
-                    }
-                    dict.reloadDictionaryIfRequired();
-                    return dict;
-                }
-            }
-            final UserHistoryDictionary dict = new UserHistoryDictionary(
-                    context, locale, accountName);
-            sLangUserHistoryDictCache.put(lookupStr, new SoftReference<>(dict));
-            return dict;
-        }
+        return new UserHistoryDictionary(context, locale, accountName);
     }
 
     public static void removeAllUserHistoryDictionaries(final Context context) {
-        synchronized (sLangUserHistoryDictCache) {
-            for (final ConcurrentHashMap.Entry<String, SoftReference<UserHistoryDictionary>> entry
-                    : sLangUserHistoryDictCache.entrySet()) {
-                if (entry.getValue() != null) {
-                    final UserHistoryDictionary dict = entry.getValue().get();
-                    if (dict != null) {
-                        dict.clear();
-                    }
-                }
+        synchronized (sLock) {
+            for (final UserHistoryDictionary dict : DictionaryRegistry.getInstance()
+                    .getDictionaries(UserHistoryDictionary.class)) {
+                dict.clear();
             }
-            sLangUserHistoryDictCache.clear();
             final File filesDir = context.getFilesDir();
             if (filesDir == null) {
                 Log.e(TAG, "context.getFilesDir() returned null.");
@@ -17,6 +17,7 @@
 package in.androidtweak.inputmethod.indic.personalization;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.android.inputmethod.annotations.ExternallyReferenced;
 import com.android.inputmethod.annotations.UsedForTesting;
@@ -26,10 +27,14 @@ import com.android.inputmethod.latin.ExpandableBinaryDictionary;
 import com.android.inputmethod.latin.NgramContext;
 import com.android.inputmethod.latin.define.ProductionFlags;
 import com.android.inputmethod.latin.makedict.DictionaryHeader;
+import com.android.inputmethod.latin.utils.ExecutorUtils;
+import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -41,11 +46,46 @@ import javax.annotation.Nullable;
  */
 public class UserHistoryDictionary extends ExpandableBinaryDictionary {
     static final String NAME = UserHistoryDictionary.class.getSimpleName();
+    private static final String TAG = NAME;
+
+    private static final boolean USES_JOURNAL = ProductionFlags.ENABLE_USER_HISTORY_JOURNAL;
+    // A crash loses at most the words learned during this delay.
+    private static final long JOURNAL_SYNC_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final int MAX_UNSYNCED_JOURNAL_RECORDS = 64;
+    // The dictionary file is rewritten each time the journal grows by this much.
+    private static final long JOURNAL_COMPACTION_THRESHOLD_BYTES = 64 * 1024;
+
+    // Only used on the dictionary executor, like the fields below.
+    private final UserHistoryJournal mJournal;
+    // Written into the dictionary directory before each flush. Writing the dictionary replaces
+    // the directory, so the marker is only there while the file misses the flushing records.
+    private static final String FLUSH_MARKER_FILE_NAME = "flushing";
+
+    private final File mFlushMarkerFile;
+    private boolean mIsJournalSyncScheduled;
+    private long mNextJournalCompactionLength = JOURNAL_COMPACTION_THRESHOLD_BYTES;
+
+    private final Runnable mSyncJournalTask = new Runnable() {
+        @Override
+        public void run() {
+            mIsJournalSyncScheduled = false;
+            try {
+                mJournal.sync();
+            } catch (final IOException e) {
+                Log.e(TAG, "Cannot sync the journal.", e);
+            }
+        }
+    };
 
     // TODO: Make this constructor private
     UserHistoryDictionary(final Context context, final Locale locale,
             @Nullable final String account) {
         super(context, getUserHistoryDictName(NAME, locale, null /* dictFile */, account), locale, Dictionary.TYPE_USER_HISTORY, null);
+        final File dictFile = getDictFile(context,
+                getUserHistoryDictName(NAME, locale, null /* dictFile */, account),
+                null /* dictFile */);
+        mJournal = new UserHistoryJournal(UserHistoryJournal.getJournalFile(dictFile));
+        mFlushMarkerFile = new File(dictFile, FLUSH_MARKER_FILE_NAME);
         if (mLocale != null && mLocale.toString().length() > 1) {
             reloadDictionaryIfRequired();
         }
@@ -109,9 +149,133 @@ public class UserHistoryDictionary extends ExpandableBinaryDictionary {
     public void close() {
         // Flush pending writes.
         asyncFlushBinaryDictionary();
+        if (USES_JOURNAL) {
+            // Runs after the flush, which empties the journal unless it failed.
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mJournal.close();
+                    } catch (final IOException e) {
+                        Log.e(TAG, "Cannot close the journal.", e);
+                    }
+                }
+            }, ExecutorUtils.LANE_UPDATE);
+        }
         super.close();
     }
 
+    @Override
+    protected void updateEntriesForWordLocked(@Nonnull final NgramContext ngramContext,
+            final String word, final boolean isValidWord, final int count, final int timestamp) {
+        super.updateEntriesForWordLocked(ngramContext, word, isValidWord, count, timestamp);
+        if (!USES_JOURNAL) {
+            return;
+        }
+        try {
+            mJournal.append(ngramContext, word, isValidWord, count, timestamp);
+        } catch (final IOException e) {
+            Log.e(TAG, "Cannot append to the journal.", e);
+            return;
+        }
+        onJournalAppended();
+    }
+
+    @Override
+    protected void updateEntriesForInputEventsLocked(
+            @Nonnull final WordInputEventForPersonalization[] inputEvents) {
+        super.updateEntriesForInputEventsLocked(inputEvents);
+        if (!USES_JOURNAL) {
+            return;
+        }
+        try {
+            for (final WordInputEventForPersonalization inputEvent : inputEvents) {
+                mJournal.append(inputEvent);
+            }
+        } catch (final IOException e) {
+            Log.e(TAG, "Cannot append to the journal.", e);
+            return;
+        }
+        onJournalAppended();
+    }
+
+    private void onJournalAppended() {
+        scheduleJournalSync();
+        if (mJournal.getLength() >= mNextJournalCompactionLength) {
+            // Try again later if this flush fails.
+            mNextJournalCompactionLength = mJournal.getLength()
+                    + JOURNAL_COMPACTION_THRESHOLD_BYTES;
+            asyncFlushBinaryDictionary();
+        }
+    }
+
+    private void scheduleJournalSync() {
+        if (mJournal.getUnsyncedRecordCount() >= MAX_UNSYNCED_JOURNAL_RECORDS) {
+            // Sync in a task of its own so that the write lock is not held meanwhile.
+            getExecutor().execute(mSyncJournalTask, ExecutorUtils.LANE_BULK);
+        } else if (!mIsJournalSyncScheduled) {
+            mIsJournalSyncScheduled = true;
+            getExecutor().schedule(mSyncJournalTask, JOURNAL_SYNC_DELAY_MILLIS,
+                    TimeUnit.MILLISECONDS, ExecutorUtils.LANE_BULK);
+        }
+    }
+
+    @Override
+    protected void onBinaryDictionaryOpenedLocked() {
+        if (!USES_JOURNAL) {
+            return;
+        }
+        // The words learned since the file was last written are learned again.
+        try {
+            final int recordCount = mJournal.replay(new UserHistoryJournal.Replayer() {
+                @Override
+                public void onEntry(final NgramContext ngramContext, final String word,
+                        final boolean isValid, final int count, final int timestamp) {
+                    UserHistoryDictionary.super.updateEntriesForWordLocked(ngramContext, word,
+                            isValid, count, timestamp);
+                }
+            }, mFlushMarkerFile.exists() || !mFlushMarkerFile.getParentFile().exists());
+            if (recordCount > 0) {
+                Log.i(TAG, "Replayed " + recordCount + " journal records for " + mLocale);
+            }
+        } catch (final IOException e) {
+            Log.e(TAG, "Cannot replay the journal.", e);
+        }
+    }
+
+    @Override
+    protected void onBinaryDictionaryFlushingLocked() {
+        if (!USES_JOURNAL) {
+            return;
+        }
+        try {
+            // The marker must be there before the records are moved aside.
+            if (mFlushMarkerFile.getParentFile().isDirectory()) {
+                mFlushMarkerFile.createNewFile();
+            }
+            mJournal.beginFlush();
+        } catch (final IOException e) {
+            Log.e(TAG, "Cannot prepare the journal for the flush.", e);
+        }
+    }
+
+    @Override
+    protected void onBinaryDictionaryFlushedLocked() {
+        if (USES_JOURNAL) {
+            mJournal.truncate();
+            mNextJournalCompactionLength = JOURNAL_COMPACTION_THRESHOLD_BYTES;
+        }
+    }
+
+    @Override
+    protected void onBinaryDictionaryRemovedLocked() {
+        // Learned words must not come back once the history has been cleared.
+        if (USES_JOURNAL) {
+            mJournal.truncate();
+            mNextJournalCompactionLength = JOURNAL_COMPACTION_THRESHOLD_BYTES;
+        }
+    }
+
     @Override
     protected Map<String, String> getHeaderAttributeMap() {
         final Map<String, String> attributeMap = super.getHeaderAttributeMap();
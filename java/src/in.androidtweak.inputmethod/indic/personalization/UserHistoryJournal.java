@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.androidtweak.inputmethod.indic.personalization;
+
+import android.util.Log;
+
+import com.android.inputmethod.latin.NgramContext;
+import com.android.inputmethod.latin.NgramContext.WordInfo;
+import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An append-only journal of the updates made to a user history dictionary since it was last
+ * written to its file.
+ *
+ * Each record is the length of its payload, the CRC32 of the payload, and the payload: the
+ * n-gram context, the word, whether it's valid, the count and the timestamp of an update. A
+ * record that was only partly written when the process died is detected and dropped on replay.
+ *
+ * Appended records are buffered in memory until {@link #sync()} writes them and syncs the file to
+ * the storage, so that appending never does file I/O. This class is not thread-safe: the
+ * dictionary uses it from its executor only.
+ *
+ * Before the dictionary is written to its file, {@link #beginFlush()} moves the records aside to
+ * a flushing file, and {@link #endFlush()} deletes it once the file has them. If the process dies
+ * in between, the owner tells {@link #replay} whether the flushing records are already in the
+ * file, so that they are not counted twice.
+ */
+final class UserHistoryJournal {
+    private static final String TAG = UserHistoryJournal.class.getSimpleName();
+
+    public static final String FILE_EXTENSION = ".journal";
+    private static final String FLUSHING_FILE_EXTENSION = ".flushing";
+
+    // Longer records can only come from a corrupted file.
+    private static final int MAX_RECORD_LENGTH = 4096;
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private static final byte PREV_WORD_EMPTY = 0;
+    private static final byte PREV_WORD_BEGINNING_OF_SENTENCE = 1;
+    private static final byte PREV_WORD = 2;
+
+    public interface Replayer {
+        void onEntry(@Nonnull NgramContext ngramContext, @Nonnull String word, boolean isValid,
+                int count, int timestamp);
+    }
+
+    private final File mFile;
+    private final File mFlushingFile;
+    private final ByteArrayOutputStream mRecordBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream mRecordOutputStream = new DataOutputStream(mRecordBuffer);
+    // The records appended since the last sync.
+    private final ByteArrayOutputStream mPendingRecords = new ByteArrayOutputStream();
+    private final DataOutputStream mPendingOutputStream = new DataOutputStream(mPendingRecords);
+    private final CRC32 mCrc32 = new CRC32();
+    private FileOutputStream mFileOutputStream;
+    private long mLength;
+    private int mUnsyncedRecordCount;
+
+    public UserHistoryJournal(@Nonnull final File file) {
+        mFile = file;
+        mFlushingFile = new File(file.getPath() + FLUSHING_FILE_EXTENSION);
+        mLength = file.length();
+    }
+
+    public static File getJournalFile(@Nonnull final File dictFile) {
+        return new File(dictFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Appends an update to the journal, in memory. It's only durable once {@link #sync()} has
+     * returned.
+     */
+    public void append(@Nonnull final NgramContext ngramContext, @Nonnull final String word,
+            final boolean isValid, final int count, final int timestamp) throws IOException {
+        mRecordBuffer.reset();
+        final int prevWordCount = ngramContext.getPrevWordCount();
+        mRecordOutputStream.writeByte(prevWordCount);
+        for (int i = 1; i <= prevWordCount; i++) {
+            final CharSequence prevWord = ngramContext.getNthPrevWord(i);
+            if (ngramContext.isNthPrevWordBeginningOfSentence(i)) {
+                mRecordOutputStream.writeByte(PREV_WORD_BEGINNING_OF_SENTENCE);
+            } else if (null == prevWord) {
+                mRecordOutputStream.writeByte(PREV_WORD_EMPTY);
+            } else {
+                mRecordOutputStream.writeByte(PREV_WORD);
+                mRecordOutputStream.writeUTF(prevWord.toString());
+            }
+        }
+        mRecordOutputStream.writeUTF(word);
+        mRecordOutputStream.writeBoolean(isValid);
+        mRecordOutputStream.writeInt(count);
+        mRecordOutputStream.writeInt(timestamp);
+        mRecordOutputStream.flush();
+        final byte[] record = mRecordBuffer.toByteArray();
+        mCrc32.reset();
+        mCrc32.update(record);
+        mPendingOutputStream.writeInt(record.length);
+        mPendingOutputStream.writeInt((int)mCrc32.getValue());
+        mPendingOutputStream.write(record);
+        mLength += RECORD_HEADER_LENGTH + record.length;
+        mUnsyncedRecordCount++;
+    }
+
+    /**
+     * Appends an update made from an input event, which counts the word once.
+     */
+    public void append(@Nonnull final WordInputEventForPersonalization inputEvent)
+            throws IOException {
+        final WordInfo[] prevWordsInfo = new WordInfo[inputEvent.mPrevWordsCount];
+        for (int i = 0; i < inputEvent.mPrevWordsCount; i++) {
+            final int[] prevWord = inputEvent.mPrevWordArray[i];
+            if (inputEvent.mIsPrevWordBeginningOfSentenceArray[i]) {
+                prevWordsInfo[i] = WordInfo.BEGINNING_OF_SENTENCE_WORD_INFO;
+            } else if (null == prevWord || 0 == prevWord.length) {
+                prevWordsInfo[i] = WordInfo.EMPTY_WORD_INFO;
+            } else {
+                prevWordsInfo[i] = new WordInfo(new String(prevWord, 0, prevWord.length));
+            }
+        }
+        append(new NgramContext(prevWordsInfo),
+                new String(inputEvent.mTargetWord, 0, inputEvent.mTargetWord.length),
+                inputEvent.mIsValid, 1 /* count */, inputEvent.mTimestamp);
+    }
+
+    public int getUnsyncedRecordCount() {
+        return mUnsyncedRecordCount;
+    }
+
+    /**
+     * Returns the length of the journal, including the records that are not synced yet.
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Writes the appended records and syncs the file to the storage.
+     */
+    public void sync() throws IOException {
+        if (0 == mUnsyncedRecordCount) {
+            return;
+        }
+        if (null == mFileOutputStream) {
+            mFileOutputStream = new FileOutputStream(mFile, true /* append */);
+        }
+        mPendingRecords.writeTo(mFileOutputStream);
+        mPendingRecords.reset();
+        mFileOutputStream.getFD().sync();
+        mUnsyncedRecordCount = 0;
+    }
+
+    /**
+     * Moves the records aside before the dictionary is written to its file, after the records of
+     * a previous flush that failed, if any. New records go to an empty journal.
+     */
+    public void beginFlush() throws IOException {
+        close();
+        if (!mFile.exists()) {
+            return;
+        }
+        if (!mFlushingFile.exists()) {
+            if (!mFile.renameTo(mFlushingFile)) {
+                throw new IOException("Cannot rename " + mFile.getName());
+            }
+        } else {
+            final FileInputStream inputStream = new FileInputStream(mFile);
+            try {
+                final FileOutputStream outputStream =
+                        new FileOutputStream(mFlushingFile, true /* append */);
+                try {
+                    final byte[] buffer = new byte[MAX_RECORD_LENGTH];
+                    int length;
+                    while ((length = inputStream.read(buffer)) > 0) {
+                        outputStream.write(buffer, 0, length);
+                    }
+                    outputStream.getFD().sync();
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+            if (!mFile.delete()) {
+                throw new IOException("Cannot delete " + mFile.getName());
+            }
+        }
+        mLength = 0;
+    }
+
+    /**
+     * Deletes the records moved aside by {@link #beginFlush()}, once the dictionary file has
+     * them.
+     */
+    public void endFlush() {
+        if (mFlushingFile.exists() && !mFlushingFile.delete()) {
+            Log.e(TAG, "Cannot delete " + mFlushingFile.getName());
+        }
+    }
+
+    /**
+     * Reads back all the complete records of the journal, and drops a record that was only
+     * partly written, if any, so that new records follow the last complete one.
+     * @param replaysFlushingRecords whether to read back the records of a flush that did not
+     * complete, because the dictionary file doesn't have them. Otherwise they are deleted.
+     * @return the number of records read.
+     */
+    public int replay(@Nonnull final Replayer replayer, final boolean replaysFlushingRecords)
+            throws IOException {
+        close();
+        int recordCount = 0;
+        if (mFlushingFile.exists()) {
+            if (replaysFlushingRecords) {
+                recordCount += replayFile(mFlushingFile, replayer);
+            } else {
+                Log.i(TAG, "Dropping the records already flushed from " + mFile.getName());
+                endFlush();
+            }
+        }
+        final int fileRecordCount = replayFile(mFile, replayer);
+        mLength = mFile.length();
+        return recordCount + fileRecordCount;
+    }
+
+    private int replayFile(@Nonnull final File journalFile, @Nonnull final Replayer replayer)
+            throws IOException {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        int recordCount = 0;
+        long validLength = 0;
+        final DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            final byte[] record = new byte[MAX_RECORD_LENGTH];
+            while (true) {
+                final int recordLength;
+                final int crc;
+                try {
+                    recordLength = inputStream.readInt();
+                    crc = inputStream.readInt();
+                    if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    inputStream.readFully(record, 0, recordLength);
+                } catch (final EOFException e) {
+                    break;
+                }
+                mCrc32.reset();
+                mCrc32.update(record, 0, recordLength);
+                if ((int)mCrc32.getValue() != crc) {
+                    break;
+                }
+                readRecord(record, recordLength, replayer);
+                validLength += RECORD_HEADER_LENGTH + recordLength;
+                recordCount++;
+            }
+        } finally {
+            inputStream.close();
+        }
+        if (validLength < journalFile.length()) {
+            Log.w(TAG, "Dropping " + (journalFile.length() - validLength) + " bytes of "
+                    + "incomplete records from " + journalFile.getName());
+            final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        return recordCount;
+    }
+
+    /**
+     * Removes all the records, once the updates they hold have been written to the dictionary
+     * file.
+     */
+    public void truncate() {
+        closeQuietly();
+        mPendingRecords.reset();
+        mUnsyncedRecordCount = 0;
+        mLength = 0;
+        if (mFile.exists() && !mFile.delete()) {
+            Log.e(TAG, "Cannot delete " + mFile.getName());
+        }
+        endFlush();
+    }
+
+    /**
+     * Syncs and closes the file. The journal opens it again on the next append.
+     */
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void closeQuietly() {
+        if (null == mFileOutputStream) {
+            return;
+        }
+        try {
+            mFileOutputStream.close();
+        } catch (final IOException e) {
+            Log.e(TAG, "Cannot close " + mFile.getName(), e);
+        }
+        mFileOutputStream = null;
+    }
+
+    private static void readRecord(final byte[] record, final int recordLength,
+            final Replayer replayer) throws IOException {
+        final DataInputStream inputStream =
+                new DataInputStream(new ByteArrayInputStream(record, 0, recordLength));
+        final int prevWordCount = inputStream.readUnsignedByte();
+        final WordInfo[] prevWordsInfo = new WordInfo[prevWordCount];
+        for (int i = 0; i < prevWordCount; i++) {
+            switch (inputStream.readByte()) {
+                case PREV_WORD_BEGINNING_OF_SENTENCE:
+                    prevWordsInfo[i] = WordInfo.BEGINNING_OF_SENTENCE_WORD_INFO;
+                    break;
+                case PREV_WORD:
+                    prevWordsInfo[i] = new WordInfo(inputStream.readUTF());
+                    break;
+                default:
+                    prevWordsInfo[i] = WordInfo.EMPTY_WORD_INFO;
+                    break;
+            }
+        }
+        final String word = inputStream.readUTF();
+        final boolean isValid = inputStream.readBoolean();
+        final int count = inputStream.readInt();
+        final int timestamp = inputStream.readInt();
+        replayer.onEntry(new NgramContext(prevWordsInfo), word, isValid, count, timestamp);
+    }
+}
@@ -31,6 +31,7 @@ import com.android.inputmethod.keyboard.KeyboardId;
 import com.android.inputmethod.keyboard.KeyboardLayoutSet;
 import com.android.inputmethod.latin.DictionaryFacilitator;
 import com.android.inputmethod.latin.DictionaryFacilitatorLruCache;
+import com.android.inputmethod.latin.DictionaryRegistry;
 import com.android.inputmethod.latin.NgramContext;
 import com.android.inputmethod.latin.R;
 import com.android.inputmethod.latin.RichInputMethodSubtype;
@@ -94,6 +95,7 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
     @Override
     public void onCreate() {
         super.onCreate();
+        DictionaryRegistry.init(this);
         mRecommendedThreshold = Float.parseFloat(
                 getString(R.string.spellchecker_recommended_threshold_value));
         final SharedPreferences prefs = PreferenceManagerCompat.getDeviceSharedPreferences(this);
@@ -212,6 +214,23 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         return false;
     }
 
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        // The dictionaries are opened again by the next spell checking request. Those in use by
+        // a request are left alone.
+        if ((level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_MODERATE)
+                && mSemaphore.tryAcquire(MAX_NUM_OF_THREADS_READ_DICTIONARY)) {
+            try {
+                mDictionaryFacilitatorCache.closeDictionaries();
+            } finally {
+                mSemaphore.release(MAX_NUM_OF_THREADS_READ_DICTIONARY);
+            }
+            mKeyboardCache.clear();
+        }
+        DictionaryRegistry.getInstance().onTrimMemory(level);
+    }
+
     public Keyboard getKeyboardForLocale(final Locale locale) {
         Keyboard keyboard = mKeyboardCache.get(locale);
         if (keyboard == null) {
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.view.inputmethod.EditorInfo;
+
+import com.android.inputmethod.latin.utils.ExecutorUtils;
+
+import java.util.List;
+import java.util.Locale;
+
+@SmallTest
+public class KeyboardDiskCacheTests extends KeyboardLayoutSetTestsBase {
+    private KeyboardDiskCache mDiskCache;
+
+    @Override
+    protected int getKeyboardThemeForTests() {
+        return KeyboardTheme.THEME_ID_LXX_LIGHT;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDiskCache = KeyboardDiskCache.getInstance(getContext());
+        waitForPendingWrites();
+        mDiskCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        waitForPendingWrites();
+        mDiskCache.clear();
+        super.tearDown();
+    }
+
+    private static void waitForPendingWrites() throws Exception {
+        // The keyboard builder executor runs one task at a time, in order.
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD_BUILDER).submit(new Runnable() {
+            @Override
+            public void run() {}
+        }).get();
+    }
+
+    private Keyboard getKeyboard(final int elementId) {
+        final KeyboardLayoutSet layoutSet = createKeyboardLayoutSet(
+                getSubtype(Locale.US, "qwerty"), new EditorInfo());
+        return layoutSet.getKeyboard(elementId);
+    }
+
+    private static void assertSameKeyboard(final Keyboard expected, final Keyboard actual) {
+        assertEquals(expected.mOccupiedHeight, actual.mOccupiedHeight);
+        assertEquals(expected.mMostCommonKeyWidth, actual.mMostCommonKeyWidth);
+        assertEquals(expected.mMostCommonKeyHeight, actual.mMostCommonKeyHeight);
+        final List<Key> expectedKeys = expected.getSortedKeys();
+        final List<Key> actualKeys = actual.getSortedKeys();
+        assertEquals(expectedKeys, actualKeys);
+        for (int i = 0; i < expectedKeys.size(); i++) {
+            final Key expectedKey = expectedKeys.get(i);
+            final Key actualKey = actualKeys.get(i);
+            assertEquals(expectedKey.toString(), expectedKey.isSpacer(), actualKey.isSpacer());
+            assertEquals(expectedKey.toString(), expectedKey.getHitBox(), actualKey.getHitBox());
+            assertEquals(expectedKey.toString(), expectedKey.getOutputText(),
+                    actualKey.getOutputText());
+        }
+        assertEquals(expected.mShiftKeys, actual.mShiftKeys);
+        final int stepX = Math.max(1, expected.mMostCommonKeyWidth / 3);
+        final int stepY = Math.max(1, expected.mMostCommonKeyHeight / 3);
+        for (int y = 0; y < expected.mOccupiedHeight; y += stepY) {
+            for (int x = 0; x < expected.mOccupiedWidth; x += stepX) {
+                assertEquals("nearest keys at " + x + "," + y,
+                        expected.getNearestKeys(x, y), actual.getNearestKeys(x, y));
+            }
+        }
+    }
+
+    public void testKeyboardIsReadBack() throws Exception {
+        final Keyboard builtKeyboard = getKeyboard(KeyboardId.ELEMENT_ALPHABET);
+        waitForPendingWrites();
+        assertEquals(1, mDiskCache.getCachedKeyboardCount());
+
+        // Drop the keyboards in memory, as a new process would not have them.
+        KeyboardLayoutSet.onSystemLocaleChanged();
+        final int readCount = mDiskCache.getReadKeyboardCount();
+        final Keyboard readKeyboard = getKeyboard(KeyboardId.ELEMENT_ALPHABET);
+        assertEquals(readCount + 1, mDiskCache.getReadKeyboardCount());
+        assertNotSame(builtKeyboard, readKeyboard);
+        assertSameKeyboard(builtKeyboard, readKeyboard);
+    }
+
+    public void testEachKeyboardHasItsOwnFile() throws Exception {
+        getKeyboard(KeyboardId.ELEMENT_ALPHABET);
+        getKeyboard(KeyboardId.ELEMENT_SYMBOLS);
+        waitForPendingWrites();
+        assertEquals(2, mDiskCache.getCachedKeyboardCount());
+
+        KeyboardLayoutSet.onSystemLocaleChanged();
+        final int readCount = mDiskCache.getReadKeyboardCount();
+        final Keyboard symbols = getKeyboard(KeyboardId.ELEMENT_SYMBOLS);
+        assertEquals(KeyboardId.ELEMENT_SYMBOLS, symbols.mId.mElementId);
+        assertEquals(readCount + 1, mDiskCache.getReadKeyboardCount());
+    }
+}
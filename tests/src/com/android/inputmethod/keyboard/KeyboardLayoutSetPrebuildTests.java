@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.view.inputmethod.EditorInfo;
+
+import java.util.Locale;
+
+@SmallTest
+public class KeyboardLayoutSetPrebuildTests extends KeyboardLayoutSetTestsBase {
+    @Override
+    protected int getKeyboardThemeForTests() {
+        return KeyboardTheme.THEME_ID_LXX_LIGHT;
+    }
+
+    private KeyboardLayoutSet createLayoutSet() {
+        return createKeyboardLayoutSet(getSubtype(Locale.US, "qwerty"), new EditorInfo());
+    }
+
+    public void testPrebuiltKeyboardIsPublished() {
+        KeyboardLayoutSet.onSystemLocaleChanged();
+        final KeyboardLayoutSet layoutSet = createLayoutSet();
+        assertTrue(layoutSet.prebuildKeyboard(KeyboardId.ELEMENT_SYMBOLS,
+                KeyboardLayoutSet.getCacheGeneration()));
+        final Keyboard prebuilt = layoutSet.getKeyboard(KeyboardId.ELEMENT_SYMBOLS);
+        // Prebuilding it again finds it in the cache.
+        assertTrue(layoutSet.prebuildKeyboard(KeyboardId.ELEMENT_SYMBOLS,
+                KeyboardLayoutSet.getCacheGeneration()));
+        assertSame(prebuilt, layoutSet.getKeyboard(KeyboardId.ELEMENT_SYMBOLS));
+    }
+
+    public void testPrebuildStopsWhenCacheIsCleared() {
+        final KeyboardLayoutSet layoutSet = createLayoutSet();
+        final int cacheGeneration = KeyboardLayoutSet.getCacheGeneration();
+        KeyboardLayoutSet.onKeyboardThemeChanged();
+        assertFalse(layoutSet.prebuildKeyboard(KeyboardId.ELEMENT_SYMBOLS, cacheGeneration));
+    }
+
+    public void testConcurrentPrebuildKeepsBuiltKeyboard() throws Exception {
+        KeyboardLayoutSet.onSystemLocaleChanged();
+        final KeyboardLayoutSet layoutSet = createLayoutSet();
+        final int cacheGeneration = KeyboardLayoutSet.getCacheGeneration();
+        final Thread prebuildThread = new Thread() {
+            @Override
+            public void run() {
+                layoutSet.prebuildKeyboard(KeyboardId.ELEMENT_SYMBOLS_SHIFTED, cacheGeneration);
+            }
+        };
+        prebuildThread.start();
+        // Whichever build publishes first, both callers end up with a usable keyboard.
+        final Keyboard keyboard = layoutSet.getKeyboard(KeyboardId.ELEMENT_SYMBOLS_SHIFTED);
+        prebuildThread.join();
+        assertSame(keyboard, layoutSet.getKeyboard(KeyboardId.ELEMENT_SYMBOLS_SHIFTED));
+    }
+}
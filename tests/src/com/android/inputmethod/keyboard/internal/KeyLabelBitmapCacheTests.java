@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.inputmethod.keyboard.internal.KeyLabelBitmapCache.LabelBitmap;
+
+import java.util.Locale;
+
+@SmallTest
+public class KeyLabelBitmapCacheTests extends AndroidTestCase {
+    private static final float TEXT_SIZE = 48.0f;
+    // DEVANAGARI LETTER KA, SIGN VIRAMA, LETTER SSA
+    private static final String CONJUNCT_LABEL = "क्ष";
+
+    private KeyLabelBitmapCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = KeyLabelBitmapCache.getInstance();
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        super.tearDown();
+    }
+
+    private LabelBitmap getLabelBitmap(final String label, final Typeface typeface,
+            final float textSize) {
+        final Paint paint = new Paint();
+        paint.setTypeface(typeface);
+        paint.setTextSize(textSize);
+        return mCache.getLabelBitmap(label, paint);
+    }
+
+    public void testLabelIsRasterizedOnce() {
+        final LabelBitmap labelBitmap = getLabelBitmap(
+                CONJUNCT_LABEL, Typeface.DEFAULT, TEXT_SIZE);
+        assertNotNull(labelBitmap);
+        assertEquals(Bitmap.Config.ALPHA_8, labelBitmap.mBitmap.getConfig());
+        assertSame(labelBitmap, getLabelBitmap(CONJUNCT_LABEL, Typeface.DEFAULT, TEXT_SIZE));
+        assertEquals(1, mCache.getCachedLabelCount());
+
+        assertNotSame(labelBitmap,
+                getLabelBitmap(CONJUNCT_LABEL, Typeface.DEFAULT_BOLD, TEXT_SIZE));
+        assertNotSame(labelBitmap,
+                getLabelBitmap(CONJUNCT_LABEL, Typeface.DEFAULT, TEXT_SIZE / 2));
+        assertEquals(3, mCache.getCachedLabelCount());
+    }
+
+    public void testPaintAttributesAreInCacheKey() {
+        final Paint paint = new Paint();
+        paint.setTypeface(Typeface.DEFAULT);
+        paint.setTextSize(TEXT_SIZE);
+        final LabelBitmap labelBitmap = mCache.getLabelBitmap(CONJUNCT_LABEL, paint);
+        assertNotNull(labelBitmap);
+        // The color and the text scale are not rasterized.
+        paint.setColor(Color.RED);
+        paint.setTextScaleX(0.5f);
+        assertSame(labelBitmap, mCache.getLabelBitmap(CONJUNCT_LABEL, paint));
+
+        paint.setFakeBoldText(true);
+        assertNotSame(labelBitmap, mCache.getLabelBitmap(CONJUNCT_LABEL, paint));
+        paint.setFakeBoldText(false);
+        int cachedLabelCount = 2;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            paint.setTextLocale(Locale.JAPAN);
+            assertNotSame(labelBitmap, mCache.getLabelBitmap(CONJUNCT_LABEL, paint));
+            paint.setTextLocale(Locale.getDefault());
+            ++cachedLabelCount;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            paint.setLetterSpacing(0.1f);
+            assertNotSame(labelBitmap, mCache.getLabelBitmap(CONJUNCT_LABEL, paint));
+            paint.setLetterSpacing(0.0f);
+            ++cachedLabelCount;
+        }
+        assertSame(labelBitmap, mCache.getLabelBitmap(CONJUNCT_LABEL, paint));
+        assertEquals(cachedLabelCount, mCache.getCachedLabelCount());
+    }
+
+    public void testBitmapCoversText() {
+        final Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setTextSize(TEXT_SIZE);
+        final LabelBitmap labelBitmap = getLabelBitmap("M", Typeface.DEFAULT, TEXT_SIZE);
+        assertNotNull(labelBitmap);
+        // The glyph sits on the baseline, and the bitmap is above it.
+        assertTrue(labelBitmap.mOffsetY < 0);
+        assertTrue(labelBitmap.mBitmap.getHeight() >= -labelBitmap.mOffsetY);
+        assertEquals(paint.measureText("M"), labelBitmap.mAdvance, 0.0f);
+    }
+
+    public void testBlankLabelHasNoBitmap() {
+        assertNull(getLabelBitmap(" ", Typeface.DEFAULT, TEXT_SIZE));
+        assertEquals(0, mCache.getCachedLabelCount());
+    }
+
+    public void testColorGlyphsHaveNoBitmap() {
+        // GRINNING FACE
+        assertNull(getLabelBitmap("\uD83D\uDE00", Typeface.DEFAULT, TEXT_SIZE));
+        // DIGIT ONE, VARIATION SELECTOR-16, COMBINING ENCLOSING KEYCAP
+        assertNull(getLabelBitmap("1\uFE0F\u20E3", Typeface.DEFAULT, TEXT_SIZE));
+        assertEquals(0, mCache.getCachedLabelCount());
+        assertFalse(KeyLabelBitmapCache.hasColorGlyphs(CONJUNCT_LABEL));
+        assertFalse(KeyLabelBitmapCache.hasColorGlyphs(":-)"));
+    }
+
+    public void testTrimMemory() {
+        getLabelBitmap("M", Typeface.DEFAULT, TEXT_SIZE);
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(1, mCache.getCachedLabelCount());
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, mCache.getCachedLabelCount());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import android.content.res.Resources;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.inputmethod.keyboard.internal.KeyboardLayoutCompiler.Element;
+import com.android.inputmethod.latin.R;
+import com.android.inputmethod.latin.utils.XmlParseUtils;
+
+@SmallTest
+public final class KeyboardLayoutCompilerTests extends AndroidTestCase {
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        KeyboardLayoutCompiler.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        KeyboardLayoutCompiler.clear();
+        super.tearDown();
+    }
+
+    public void testCompileKeyboard() throws Exception {
+        final Resources res = getContext().getResources();
+        final Element keyboard = KeyboardLayoutCompiler.getKeyboard(res, R.xml.kbd_qwerty);
+        assertEquals(KeyboardBuilder.TAG_KEYBOARD, keyboard.mTag);
+        assertEquals(1, keyboard.mChildren.length);
+        final Element include = keyboard.mChildren[0];
+        assertEquals(KeyboardBuilder.TAG_INCLUDE, include.mTag);
+        assertEquals(R.xml.rows_qwerty, include.mAttributes.getResourceId(
+                R.styleable.Keyboard_Include_keyboardLayout, 0));
+        final Element rows = KeyboardLayoutCompiler.getMerge(
+                res, R.xml.rows_qwerty, false /* isRowContent */);
+        assertEquals(KeyboardBuilder.TAG_MERGE, rows.mTag);
+        assertTrue(rows.mChildren.length > 0);
+    }
+
+    public void testCompiledLayoutIsShared() throws Exception {
+        final Resources res = getContext().getResources();
+        final Element keyboard = KeyboardLayoutCompiler.getKeyboard(res, R.xml.kbd_qwerty);
+        assertSame(keyboard, KeyboardLayoutCompiler.getKeyboard(res, R.xml.kbd_qwerty));
+        assertEquals(1, KeyboardLayoutCompiler.getCachedLayoutCount());
+        KeyboardLayoutCompiler.clear();
+        assertEquals(0, KeyboardLayoutCompiler.getCachedLayoutCount());
+        assertNotSame(keyboard, KeyboardLayoutCompiler.getKeyboard(res, R.xml.kbd_qwerty));
+    }
+
+    public void testIncludedLayoutMustHaveMergeRoot() throws Exception {
+        try {
+            KeyboardLayoutCompiler.getMerge(getContext().getResources(), R.xml.kbd_qwerty,
+                    false /* isRowContent */);
+            fail("A layout without <merge> root element was compiled");
+        } catch (final XmlParseUtils.ParseException e) {
+            // Expected.
+        }
+    }
+}
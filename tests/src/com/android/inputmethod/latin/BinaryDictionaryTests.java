@@ -417,6 +417,24 @@ public class BinaryDictionaryTests extends AndroidTestCase {
         binaryDictionary.close();
     }
 
+    public void testFlushWithoutReopening() {
+        final File dictFile = createEmptyDictionaryAndGetFile(FormatSpec.VERSION403);
+        final BinaryDictionary binaryDictionary = getBinaryDictionary(dictFile);
+        assertFalse(binaryDictionary.flushWithoutReopening());
+
+        final int probability = 100;
+        addUnigramWord(binaryDictionary, "aaa", probability);
+        assertTrue(binaryDictionary.hasUpdated());
+        assertTrue(binaryDictionary.flushWithoutReopening());
+        // The flushed dictionary can still be looked up while a copy is opened from its file.
+        final BinaryDictionary snapshot = getBinaryDictionary(dictFile);
+        assertEquals(probability, binaryDictionary.getFrequency("aaa"));
+        assertEquals(probability, snapshot.getFrequency("aaa"));
+        assertFalse(snapshot.hasUpdated());
+        binaryDictionary.close();
+        snapshot.close();
+    }
+
     public void testFlushWithGCDictionary() {
         final File dictFile = createEmptyDictionaryAndGetFile(FormatSpec.VERSION403);
         BinaryDictionary binaryDictionary = getBinaryDictionary(dictFile);
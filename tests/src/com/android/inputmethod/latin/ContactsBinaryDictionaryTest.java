@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.inputmethod.latin.ContactsManagerTest.ContextWithMockContentResolver;
+import com.android.inputmethod.latin.common.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Tests for the incremental updates of {@link ContactsBinaryDictionary}.
+ */
+@LargeTest
+public class ContactsBinaryDictionaryTest extends AndroidTestCase {
+    private static final String TEST_DICT_FILE_EXTENSION = ".testDict";
+    private static final String DICTIONARY_ID = "TestContactsBinaryDictionary";
+
+    private FakeContactsContentProvider mFakeContactsContentProvider;
+    private File mDictFile;
+    private ContactsBinaryDictionary mDictionary;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFakeContactsContentProvider = new FakeContactsContentProvider();
+        final MockContentResolver contentResolver = new MockContentResolver();
+        contentResolver.addProvider(ContactsContract.AUTHORITY, mFakeContactsContentProvider);
+        final ContextWithMockContentResolver context =
+                new ContextWithMockContentResolver(getContext());
+        context.setContentResolver(contentResolver);
+        mFakeContactsContentProvider.setNames("Alice Smith", "Bob Jones", "Carol Jones");
+
+        mDictFile = File.createTempFile(DICTIONARY_ID, TEST_DICT_FILE_EXTENSION,
+                getContext().getCacheDir());
+        mDictFile.delete();
+        mDictionary = new ContactsBinaryDictionary(context, Locale.ENGLISH, mDictFile,
+                DICTIONARY_ID);
+        mDictionary.waitAllTasksForTests();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDictionary.close();
+        FileUtils.deleteRecursively(mDictFile);
+        super.tearDown();
+    }
+
+    private void onContactsChange(final String... names) {
+        mDictionary.onContactsChange(new ArrayList<>(Arrays.asList(names)));
+        // The change is diffed on the executor of the dictionary, which then queues the update.
+        mDictionary.waitAllTasksForTests();
+        mDictionary.waitAllTasksForTests();
+    }
+
+    public void testInitialContents() {
+        assertTrue(mDictionary.isInDictionary("Alice"));
+        assertTrue(mDictionary.isInDictionary("Smith"));
+        assertTrue(mDictionary.isInDictionary("Bob"));
+        assertTrue(mDictionary.isInDictionary("Carol"));
+        assertTrue(mDictionary.isInDictionary("Jones"));
+    }
+
+    public void testUpdateContactNames() {
+        // The provider is not queried again: a rebuild would bring back the initial names.
+        onContactsChange("Alice Smith", "Robert Jones", "Dave Brown");
+        // Unchanged contact.
+        assertTrue(mDictionary.isInDictionary("Alice"));
+        assertTrue(mDictionary.isInDictionary("Smith"));
+        // Added contact.
+        assertTrue(mDictionary.isInDictionary("Dave"));
+        assertTrue(mDictionary.isInDictionary("Brown"));
+        // Renamed contact.
+        assertTrue(mDictionary.isInDictionary("Robert"));
+        assertFalse(mDictionary.isInDictionary("Bob"));
+        // Deleted contact. Its last name is still the one of the renamed contact.
+        assertFalse(mDictionary.isInDictionary("Carol"));
+        assertTrue(mDictionary.isInDictionary("Jones"));
+    }
+
+    public void testWordsOfAllDeletedContactsAreRemoved() {
+        onContactsChange("Alice Smith");
+        assertTrue(mDictionary.isInDictionary("Alice"));
+        assertFalse(mDictionary.isInDictionary("Bob"));
+        assertFalse(mDictionary.isInDictionary("Carol"));
+        assertFalse(mDictionary.isInDictionary("Jones"));
+        // A contact added back after its words were removed.
+        onContactsChange("Alice Smith", "Carol Jones");
+        assertTrue(mDictionary.isInDictionary("Carol"));
+        assertTrue(mDictionary.isInDictionary("Jones"));
+        assertFalse(mDictionary.isInDictionary("Bob"));
+    }
+
+    private static class FakeContactsContentProvider extends MockContentProvider {
+        private String[] mNames = new String[0];
+
+        public void setNames(final String... names) {
+            mNames = names;
+        }
+
+        @Override
+        public Cursor query(final Uri uri, final String[] projection, final String selection,
+                final String[] selectionArgs, final String sortOrder) {
+            // Neither the profile nor the time of the last update is known.
+            if (!Contacts.CONTENT_URI.equals(uri)
+                    || Arrays.equals(ContactsDictionaryConstants.PROJECTION_LAST_UPDATED_TIMESTAMP,
+                            projection)) {
+                return null;
+            }
+            final MatrixCursor cursor = new MatrixCursor(ContactsDictionaryConstants.PROJECTION);
+            for (int i = 0; i < mNames.length; ++i) {
+                cursor.addRow(new Object[] { i, mNames[i], 0, 0, 0 });
+            }
+            return cursor;
+        }
+    }
+}
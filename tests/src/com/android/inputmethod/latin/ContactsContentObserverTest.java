@@ -16,13 +16,17 @@
 
 package com.android.inputmethod.latin;
 
-import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.validateMockitoUsage;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
+import android.net.Uri;
 import android.provider.ContactsContract.Contacts;
 import android.test.suitebuilder.annotation.SmallTest;
 
@@ -33,6 +37,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * Tests for {@link ContactsContentObserver}.
@@ -41,6 +46,8 @@ import java.util.ArrayList;
 public class ContactsContentObserverTest {
     private static final int UPDATED_CONTACT_COUNT = 10;
     private static final int STALE_CONTACT_COUNT = 8;
+    private static final long UPDATED_TIMESTAMP = 2000;
+    private static final long STALE_TIMESTAMP = 1000;
     private static final ArrayList<String> STALE_NAMES_LIST = new ArrayList<>();
     private static final ArrayList<String> UPDATED_NAMES_LIST = new ArrayList<>();
 
@@ -69,26 +76,47 @@ public class ContactsContentObserverTest {
     }
 
     @Test
-    public void testHaveContentsChanged_NoChange() {
+    public void testGetValidNamesIfChanged_NoChange() {
         when(mMockManager.getContactCount()).thenReturn(STALE_CONTACT_COUNT);
         when(mMockManager.getContactCountAtLastRebuild()).thenReturn(STALE_CONTACT_COUNT);
+        when(mMockManager.getLastUpdatedTimestampAtLastRebuild()).thenReturn(STALE_TIMESTAMP);
+        when(mMockManager.getLastUpdatedTimestamp(STALE_TIMESTAMP)).thenReturn(UPDATED_TIMESTAMP);
         when(mMockManager.getValidNames(eq(Contacts.CONTENT_URI))).thenReturn(STALE_NAMES_LIST);
-        when(mMockManager.getHashCodeAtLastRebuild()).thenReturn(STALE_NAMES_LIST.hashCode());
-        assertFalse(mObserver.haveContentsChanged());
+        when(mMockManager.getNamesAtLastRebuild()).thenReturn(new HashSet<>(STALE_NAMES_LIST));
+        assertNull(mObserver.getValidNamesIfChanged());
+        verify(mMockManager).updateLocalState(STALE_NAMES_LIST, UPDATED_TIMESTAMP);
     }
+
     @Test
-    public void testHaveContentsChanged_UpdatedCount() {
+    public void testGetValidNamesIfChanged_NoContactUpdated() {
+        when(mMockManager.getContactCount()).thenReturn(STALE_CONTACT_COUNT);
+        when(mMockManager.getContactCountAtLastRebuild()).thenReturn(STALE_CONTACT_COUNT);
+        when(mMockManager.getLastUpdatedTimestampAtLastRebuild()).thenReturn(STALE_TIMESTAMP);
+        when(mMockManager.getLastUpdatedTimestamp(STALE_TIMESTAMP)).thenReturn(STALE_TIMESTAMP);
+        assertNull(mObserver.getValidNamesIfChanged());
+        verify(mMockManager, never()).getValidNames(any(Uri.class));
+    }
+
+    @Test
+    public void testGetValidNamesIfChanged_UpdatedCount() {
         when(mMockManager.getContactCount()).thenReturn(UPDATED_CONTACT_COUNT);
         when(mMockManager.getContactCountAtLastRebuild()).thenReturn(STALE_CONTACT_COUNT);
-        assertTrue(mObserver.haveContentsChanged());
+        when(mMockManager.getLastUpdatedTimestampAtLastRebuild()).thenReturn(STALE_TIMESTAMP);
+        when(mMockManager.getLastUpdatedTimestamp(STALE_TIMESTAMP)).thenReturn(STALE_TIMESTAMP);
+        when(mMockManager.getValidNames(eq(Contacts.CONTENT_URI))).thenReturn(UPDATED_NAMES_LIST);
+        when(mMockManager.getNamesAtLastRebuild()).thenReturn(new HashSet<>(STALE_NAMES_LIST));
+        assertEquals(UPDATED_NAMES_LIST, mObserver.getValidNamesIfChanged());
     }
 
     @Test
-    public void testHaveContentsChanged_HashUpdate() {
+    public void testGetValidNamesIfChanged_NamesUpdated() {
         when(mMockManager.getContactCount()).thenReturn(STALE_CONTACT_COUNT);
         when(mMockManager.getContactCountAtLastRebuild()).thenReturn(STALE_CONTACT_COUNT);
+        when(mMockManager.getLastUpdatedTimestampAtLastRebuild()).thenReturn(STALE_TIMESTAMP);
+        when(mMockManager.getLastUpdatedTimestamp(STALE_TIMESTAMP)).thenReturn(UPDATED_TIMESTAMP);
         when(mMockManager.getValidNames(eq(Contacts.CONTENT_URI))).thenReturn(UPDATED_NAMES_LIST);
-        when(mMockManager.getHashCodeAtLastRebuild()).thenReturn(STALE_NAMES_LIST.hashCode());
-        assertTrue(mObserver.haveContentsChanged());
+        when(mMockManager.getNamesAtLastRebuild()).thenReturn(new HashSet<>(STALE_NAMES_LIST));
+        assertEquals(UPDATED_NAMES_LIST, mObserver.getValidNamesIfChanged());
+        verify(mMockManager).updateLocalState(UPDATED_NAMES_LIST, UPDATED_TIMESTAMP);
     }
 }
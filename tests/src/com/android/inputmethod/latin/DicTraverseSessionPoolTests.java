@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.inputmethod.latin.common.FileUtils;
+import com.android.inputmethod.latin.makedict.FormatSpec;
+import com.android.inputmethod.latin.utils.BinaryDictionaryUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+@LargeTest
+public class DicTraverseSessionPoolTests extends AndroidTestCase {
+    private static final String TEST_DICT_FILE_EXTENSION = ".testDict";
+    private static final String TEST_LOCALE = "test";
+    private static final String DICTIONARY_ID = "TestDicTraverseSessionPool";
+    private static final long START_TIME_MILLIS = 1000;
+
+    private File mDictFile;
+    private BinaryDictionary mBinaryDictionary;
+    private long mNativeDict;
+    private DicTraverseSessionPool mPool;
+    private final ArrayList<DicTraverseSession> mSessionsToBeClosed = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDictFile = File.createTempFile(DICTIONARY_ID, TEST_DICT_FILE_EXTENSION,
+                getContext().getCacheDir());
+        mDictFile.delete();
+        mDictFile.mkdir();
+        if (!BinaryDictionaryUtils.createEmptyDictFile(mDictFile.getAbsolutePath(),
+                FormatSpec.VERSION403, Locale.ENGLISH, new HashMap<String, String>())) {
+            throw new IOException("Empty dictionary " + mDictFile.getAbsolutePath()
+                    + " cannot be created.");
+        }
+        mBinaryDictionary = new BinaryDictionary(mDictFile.getAbsolutePath(),
+                0 /* offset */, mDictFile.length(), true /* useFullEditDistance */,
+                Locale.getDefault(), TEST_LOCALE, true /* isUpdatable */);
+        assertTrue(mBinaryDictionary.isValidDictionary());
+        mNativeDict = mBinaryDictionary.getNativeDictForTesting();
+        mPool = new DicTraverseSessionPool(Locale.ENGLISH, mDictFile.length());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPool.close();
+        for (final DicTraverseSession session : mSessionsToBeClosed) {
+            session.close();
+        }
+        mSessionsToBeClosed.clear();
+        mBinaryDictionary.close();
+        FileUtils.deleteRecursively(mDictFile);
+        super.tearDown();
+    }
+
+    private DicTraverseSession acquire(final int sessionId) {
+        final DicTraverseSession session = mPool.acquire(sessionId, mNativeDict);
+        mSessionsToBeClosed.add(session);
+        return session;
+    }
+
+    private static boolean isClosed(final DicTraverseSession session) {
+        return 0 == session.getSession();
+    }
+
+    public void testAcquireAndRelease() {
+        final DicTraverseSession session = acquire(0 /* sessionId */);
+        assertFalse(isClosed(session));
+        assertEquals(1, mPool.getInUseCount());
+        assertEquals(0, mPool.getIdleCount());
+        mPool.release(0 /* sessionId */, session, START_TIME_MILLIS);
+        assertEquals(0, mPool.getInUseCount());
+        assertEquals(1, mPool.getIdleCount());
+        assertFalse(isClosed(session));
+        // The idle session is checked out again rather than a new one created.
+        assertSame(session, acquire(0 /* sessionId */));
+        assertEquals(1, mPool.getInUseCount());
+        assertEquals(0, mPool.getIdleCount());
+    }
+
+    public void testSameSessionIdIsPreferred() {
+        final DicTraverseSession typingSession = acquire(0 /* sessionId */);
+        final DicTraverseSession spellCheckerSession = acquire(1 /* sessionId */);
+        assertNotSame(typingSession, spellCheckerSession);
+        mPool.release(0 /* sessionId */, typingSession, START_TIME_MILLIS);
+        mPool.release(1 /* sessionId */, spellCheckerSession, START_TIME_MILLIS);
+        // The typing session is found even though it was not given back last.
+        assertSame(typingSession, acquire(0 /* sessionId */));
+        // Without a session of the same id, the one given back last is checked out.
+        mPool.release(0 /* sessionId */, typingSession, START_TIME_MILLIS);
+        assertSame(typingSession, acquire(2 /* sessionId */));
+        assertSame(spellCheckerSession, acquire(2 /* sessionId */));
+    }
+
+    public void testIdleSessionsAreCapped() {
+        final int sessionCount = DicTraverseSessionPool.MAX_IDLE_SESSIONS + 2;
+        final DicTraverseSession[] sessions = new DicTraverseSession[sessionCount];
+        for (int i = 0; i < sessionCount; ++i) {
+            sessions[i] = acquire(i /* sessionId */);
+        }
+        for (int i = 0; i < sessionCount; ++i) {
+            mPool.release(i /* sessionId */, sessions[i], START_TIME_MILLIS);
+            assertTrue(mPool.getIdleCount() <= DicTraverseSessionPool.MAX_IDLE_SESSIONS);
+        }
+        assertEquals(DicTraverseSessionPool.MAX_IDLE_SESSIONS, mPool.getIdleCount());
+        assertEquals(0, mPool.getInUseCount());
+        // The sessions given back first are closed.
+        for (int i = 0; i < sessionCount; ++i) {
+            assertEquals(i < sessionCount - DicTraverseSessionPool.MAX_IDLE_SESSIONS,
+                    isClosed(sessions[i]));
+        }
+    }
+
+    public void testIdleSessionsAreEvictedAfterTimeout() {
+        final DicTraverseSession oldSession = acquire(0 /* sessionId */);
+        final DicTraverseSession newSession = acquire(1 /* sessionId */);
+        final DicTraverseSession session = acquire(2 /* sessionId */);
+        mPool.release(0 /* sessionId */, oldSession, START_TIME_MILLIS);
+        mPool.release(1 /* sessionId */, newSession,
+                START_TIME_MILLIS + DicTraverseSessionPool.IDLE_TIMEOUT_MILLIS - 1);
+        assertEquals(2, mPool.getIdleCount());
+        assertFalse(isClosed(oldSession));
+        // Giving back another session evicts those that have been idle for too long.
+        mPool.release(2 /* sessionId */, session,
+                START_TIME_MILLIS + DicTraverseSessionPool.IDLE_TIMEOUT_MILLIS);
+        assertTrue(isClosed(oldSession));
+        assertFalse(isClosed(newSession));
+        assertFalse(isClosed(session));
+        assertEquals(2, mPool.getIdleCount());
+    }
+
+    public void testSessionNeverReleased() {
+        final DicTraverseSession leakedSession = acquire(0 /* sessionId */);
+        final long sessionBytes = mPool.getEstimatedNativeBytes();
+        assertTrue(sessionBytes > 0);
+        // A session that is still checked out is never handed out again.
+        final DicTraverseSession session = acquire(0 /* sessionId */);
+        assertNotSame(leakedSession, session);
+        mPool.release(0 /* sessionId */, session, START_TIME_MILLIS);
+        assertEquals(1, mPool.getInUseCount());
+        assertEquals(1, mPool.getIdleCount());
+        assertEquals(2 * sessionBytes, mPool.getEstimatedNativeBytes());
+        // Closing the pool only closes the idle sessions. The session that was not given back
+        // still counts as in use, and is closed when given back or by its finalizer.
+        mPool.close();
+        assertTrue(isClosed(session));
+        assertFalse(isClosed(leakedSession));
+        assertEquals(1, mPool.getInUseCount());
+        assertEquals(0, mPool.getIdleCount());
+        assertEquals(sessionBytes, mPool.getEstimatedNativeBytes());
+    }
+
+    public void testSessionReleasedAfterCloseIsClosed() {
+        final DicTraverseSession session = acquire(0 /* sessionId */);
+        mPool.close();
+        assertFalse(isClosed(session));
+        // The session is bound to the native dictionary of before the close, so it is closed
+        // rather than pooled.
+        mPool.release(0 /* sessionId */, session, START_TIME_MILLIS);
+        assertTrue(isClosed(session));
+        assertEquals(0, mPool.getInUseCount());
+        assertEquals(0, mPool.getIdleCount());
+        final DicTraverseSession newSession = acquire(0 /* sessionId */);
+        assertNotSame(session, newSession);
+        // The sessions checked out after the close are pooled again.
+        mPool.release(0 /* sessionId */, newSession, START_TIME_MILLIS);
+        assertFalse(isClosed(newSession));
+        assertEquals(1, mPool.getIdleCount());
+    }
+
+    public void testClosingIdleSessionsKeepsSessionsInUse() {
+        final DicTraverseSession idleSession = acquire(0 /* sessionId */);
+        final DicTraverseSession session = acquire(1 /* sessionId */);
+        mPool.release(0 /* sessionId */, idleSession, START_TIME_MILLIS);
+        mPool.closeIdleSessions();
+        assertTrue(isClosed(idleSession));
+        mPool.release(1 /* sessionId */, session, START_TIME_MILLIS);
+        assertFalse(isClosed(session));
+        assertEquals(1, mPool.getIdleCount());
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for DictionaryFacilitatorImpl.
+ */
+@SmallTest
+public class DictionaryFacilitatorImplTests extends AndroidTestCase {
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public void testCheapAlternativesAreAllLookedUp() {
+        // The typed word and three alternatives, each looked up in 2ms.
+        long spentNanos = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(DictionaryFacilitatorImpl.fitsInAlternativeLookupsBudget(spentNanos,
+                    millis(2)));
+            spentNanos += millis(2);
+        }
+    }
+
+    public void testAlternativesStopAtTheBudget() {
+        assertTrue(DictionaryFacilitatorImpl.fitsInAlternativeLookupsBudget(millis(4),
+                millis(4)));
+        assertFalse(DictionaryFacilitatorImpl.fitsInAlternativeLookupsBudget(millis(8),
+                millis(4)));
+    }
+
+    public void testNoAlternativeAfterASlowTypedWordLookup() {
+        assertFalse(DictionaryFacilitatorImpl.fitsInAlternativeLookupsBudget(0, millis(20)));
+    }
+}
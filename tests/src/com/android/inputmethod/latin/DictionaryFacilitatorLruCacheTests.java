@@ -39,4 +39,21 @@ public class DictionaryFacilitatorLruCacheTests extends AndroidTestCase {
         assertNotNull(dictionaryFacilitatorDe);
         assertTrue(dictionaryFacilitatorDe.isForLocale(Locale.GERMANY));
     }
+
+    public void testUserDictionaryIsSharedAcrossPrefixes() {
+        final DictionaryFacilitatorLruCache cache =
+                new DictionaryFacilitatorLruCache(getContext(), "");
+        final DictionaryFacilitatorLruCache spellCheckerCache =
+                new DictionaryFacilitatorLruCache(getContext(), "spellcheck_");
+        try {
+            final ExpandableBinaryDictionary userDictionary =
+                    cache.get(Locale.US).getSubDictForTesting(Dictionary.TYPE_USER);
+            assertNotNull(userDictionary);
+            assertSame(userDictionary, spellCheckerCache.get(Locale.US)
+                    .getSubDictForTesting(Dictionary.TYPE_USER));
+        } finally {
+            cache.closeDictionaries();
+            spellCheckerCache.closeDictionaries();
+        }
+    }
 }
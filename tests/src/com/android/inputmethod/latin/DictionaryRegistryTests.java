@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.ComponentCallbacks2;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.common.ComposedData;
+
+import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Unit tests for DictionaryRegistry.
+ */
+@SmallTest
+public class DictionaryRegistryTests extends AndroidTestCase {
+    private static final long DICTIONARY_BYTES = 1024 * 1024;
+
+    private static class TestDictionary extends Dictionary {
+        public boolean mIsClosed;
+        public int mTrimCount;
+
+        public TestDictionary() {
+            super(Dictionary.TYPE_MAIN, Locale.ENGLISH);
+        }
+
+        @Override
+        public ArrayList<SuggestedWordInfo> getSuggestions(final ComposedData composedData,
+                final NgramContext ngramContext, final long proximityInfoHandle,
+                final SettingsValuesForSuggestion settingsValuesForSuggestion,
+                final int sessionId, final float weightForLocale,
+                final float[] inOutWeightOfLangModelVsSpatialModel) {
+            return null;
+        }
+
+        @Override
+        public boolean isInDictionary(final String word) {
+            return false;
+        }
+
+        @Override
+        public long getEstimatedNativeBytes() {
+            return DICTIONARY_BYTES;
+        }
+
+        @Override
+        public void trimMemory() {
+            mTrimCount++;
+        }
+
+        @Override
+        public void close() {
+            mIsClosed = true;
+        }
+    }
+
+    private static class TestFactory implements DictionaryRegistry.Factory<TestDictionary> {
+        public int mCreatedCount;
+
+        @Override
+        public TestDictionary create() {
+            mCreatedCount++;
+            return new TestDictionary();
+        }
+    }
+
+    private final DictionaryRegistry mRegistry = DictionaryRegistry.getInstance();
+    private final ArrayList<TestDictionary> mAcquiredDictionaries = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRegistry.setMemoryBudget(Long.MAX_VALUE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final TestDictionary dictionary : mAcquiredDictionaries) {
+            while (mRegistry.getRefCount(dictionary) > 0) {
+                mRegistry.release(dictionary);
+            }
+        }
+        mRegistry.setMemoryBudget(0);
+        DictionaryRegistry.init(getContext());
+        super.tearDown();
+    }
+
+    private TestDictionary acquire(final String key, final TestFactory factory) {
+        final TestDictionary dictionary = mRegistry.acquire(getName() + key, factory);
+        mAcquiredDictionaries.add(dictionary);
+        return dictionary;
+    }
+
+    public void testAcquireSharesDictionary() {
+        final TestFactory factory = new TestFactory();
+        final TestDictionary first = acquire("a", factory);
+        final TestDictionary second = acquire("a", factory);
+        assertSame(first, second);
+        assertEquals(1, factory.mCreatedCount);
+        assertEquals(2, mRegistry.getRefCount(first));
+        assertNotSame(first, acquire("b", factory));
+        assertEquals(2, factory.mCreatedCount);
+    }
+
+    public void testUnusedDictionaryIsKeptWithinBudget() {
+        final TestFactory factory = new TestFactory();
+        final TestDictionary dictionary = acquire("a", factory);
+        mRegistry.release(dictionary);
+        assertEquals(0, mRegistry.getRefCount(dictionary));
+        assertFalse(dictionary.mIsClosed);
+        assertSame(dictionary, acquire("a", factory));
+        assertEquals(1, factory.mCreatedCount);
+    }
+
+    public void testUnusedDictionaryIsClosedOverBudget() {
+        final TestFactory factory = new TestFactory();
+        final TestDictionary used = acquire("used", factory);
+        final TestDictionary unused = acquire("unused", factory);
+        mRegistry.release(unused);
+        mRegistry.setMemoryBudget(0);
+        assertTrue(unused.mIsClosed);
+        assertFalse(mRegistry.isRegistered(unused));
+        // Dictionaries in use are never closed, even over budget.
+        assertFalse(used.mIsClosed);
+        assertTrue(mRegistry.isRegistered(used));
+    }
+
+    public void testReleaseUnregisteredDictionary() {
+        final TestDictionary dictionary = new TestDictionary();
+        mRegistry.release(dictionary);
+        assertTrue(dictionary.mIsClosed);
+    }
+
+    public void testTrimMemory() {
+        final TestFactory factory = new TestFactory();
+        final TestDictionary used = acquire("used", factory);
+        final TestDictionary unused = acquire("unused", factory);
+        mRegistry.release(unused);
+        mRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertTrue(unused.mIsClosed);
+        assertFalse(used.mIsClosed);
+        assertEquals(1, used.mTrimCount);
+    }
+}
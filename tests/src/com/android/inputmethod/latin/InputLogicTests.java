@@ -512,6 +512,20 @@ public class InputLogicTests extends InputTestsBase {
                 suggestedWords.size() > 0 ? suggestedWords.getWord(0) : null);
     }
 
+    public void testPredictionsOfTheWordsJustTyped() {
+        mLatinIME.clearPersonalizedDictionariesForTest();
+        // Predicted before the words are due to be learned.
+        type("qpmz qpmz ");
+        sleep(DELAY_TO_WAIT_FOR_PREDICTIONS_MILLIS);
+        runMessages();
+        final SuggestedWords suggestedWords = mLatinIME.getSuggestedWordsForTest();
+        boolean predictsTheWordJustTyped = false;
+        for (int i = 0; i < suggestedWords.size(); i++) {
+            predictsTheWordJustTyped |= "qpmz".equals(suggestedWords.getWord(i));
+        }
+        assertTrue("predictions after the words just typed", predictsTheWordJustTyped);
+    }
+
     public void testPredictionsWithDoubleSpaceToPeriod() {
         mLatinIME.clearPersonalizedDictionariesForTest();
         final String WORD_TO_TYPE = "Barack  ";
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.inputmethod.compat.PreferenceManagerCompat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Unit tests for MainDictionaryWarmStart.
+ */
+@SmallTest
+public class MainDictionaryWarmStartTests extends AndroidTestCase {
+    // Not a real locale, so that the tests don't touch the records of the keyboard.
+    private static final Locale TEST_LOCALE = new Locale("zz", "ZZ");
+
+    private File mDictFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MainDictionaryWarmStart.forget(getContext(), TEST_LOCALE);
+        mDictFile = File.createTempFile("MainDictionaryWarmStartTests", ".dict",
+                getContext().getCacheDir());
+        writeBytes(mDictFile, 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDictFile.delete();
+        MainDictionaryWarmStart.forget(getContext(), TEST_LOCALE);
+        super.tearDown();
+    }
+
+    private static void writeBytes(final File file, final int length) throws IOException {
+        final FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[length]);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    public void testSavedDictionaryFiles() {
+        final ArrayList<AssetFileAddress> files = new ArrayList<>();
+        files.add(AssetFileAddress.makeFromFile(mDictFile));
+        MainDictionaryWarmStart.saveDictionaryFiles(getContext(), TEST_LOCALE, files);
+        final ArrayList<AssetFileAddress> savedFiles =
+                MainDictionaryWarmStart.getSavedDictionaryFiles(getContext(), TEST_LOCALE);
+        assertNotNull(savedFiles);
+        assertTrue(MainDictionaryWarmStart.isSameDictionaryFiles(files, savedFiles));
+    }
+
+    public void testChangedDictionaryFileIsNotUsed() throws IOException {
+        final ArrayList<AssetFileAddress> files = new ArrayList<>();
+        files.add(AssetFileAddress.makeFromFile(mDictFile));
+        MainDictionaryWarmStart.saveDictionaryFiles(getContext(), TEST_LOCALE, files);
+        writeBytes(mDictFile, 512);
+        mDictFile.setLastModified(mDictFile.lastModified() + 2000);
+        assertNull(MainDictionaryWarmStart.getSavedDictionaryFiles(getContext(), TEST_LOCALE));
+        mDictFile.delete();
+        assertNull(MainDictionaryWarmStart.getSavedDictionaryFiles(getContext(), TEST_LOCALE));
+    }
+
+    public void testSavedPrefixes() {
+        final MainDictionaryWarmStart warmStart = new MainDictionaryWarmStart();
+        warmStart.onWordCommitted("hello");
+        warmStart.onWordCommitted("help");
+        warmStart.onWordCommitted("world");
+        warmStart.onWordCommitted("a");
+        warmStart.savePrefixes(getContext(), TEST_LOCALE);
+        final List<String> prefixes =
+                MainDictionaryWarmStart.getSavedPrefixes(getContext(), TEST_LOCALE);
+        assertEquals(3, prefixes.size());
+        // The most committed prefix comes first.
+        assertEquals("hel", prefixes.get(0));
+        assertTrue(prefixes.contains("wor"));
+        assertTrue(prefixes.contains("a"));
+
+        // Prefixes saved before are kept after the new ones.
+        warmStart.onWordCommitted("keyboard");
+        warmStart.savePrefixes(getContext(), TEST_LOCALE);
+        final List<String> mergedPrefixes =
+                MainDictionaryWarmStart.getSavedPrefixes(getContext(), TEST_LOCALE);
+        assertEquals(4, mergedPrefixes.size());
+        assertEquals("key", mergedPrefixes.get(0));
+    }
+
+    public void testPrefixesAreNotInDeviceStorage() {
+        final MainDictionaryWarmStart warmStart = new MainDictionaryWarmStart();
+        warmStart.onWordCommitted("hello");
+        warmStart.savePrefixes(getContext(), TEST_LOCALE);
+        assertEquals(1, MainDictionaryWarmStart.getSavedPrefixes(getContext(), TEST_LOCALE)
+                .size());
+        // The device storage can be read before the user unlocks the device.
+        for (final Object value : PreferenceManagerCompat.getDeviceContext(getContext())
+                .getSharedPreferences("main_dictionary_warm_start", Context.MODE_PRIVATE)
+                .getAll().values()) {
+            assertFalse(String.valueOf(value).contains("hel"));
+        }
+    }
+}
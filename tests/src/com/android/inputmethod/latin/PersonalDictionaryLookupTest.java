@@ -25,6 +25,7 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import android.annotation.SuppressLint;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.UserDictionary;
@@ -366,6 +367,75 @@ public class PersonalDictionaryLookupTest extends AndroidTestCase {
         verifyNoMoreInteractions(listener);
     }
 
+    public void testGetCompletions() {
+        Log.d(TAG, "testGetCompletions");
+        addWord("Foo", Locale.US, 17, null);
+        addWord("football", Locale.ENGLISH, 17, null);
+        addWord("fop", Locale.FRENCH, 17, null);
+        addWord("bar", Locale.US, 17, null);
+
+        PersonalDictionaryLookup lookup =
+                new PersonalDictionaryLookup(mContext, ExecutorUtils.SPELLING);
+        lookup.open();
+
+        final String[] completions = new String[3];
+        assertEquals(2, lookup.getCompletions("fo", Locale.US, completions));
+        assertEquals("Foo", completions[0]);
+        assertEquals("football", completions[1]);
+        assertEquals(1, lookup.getCompletions("FOOT", Locale.UK, completions));
+        assertEquals("football", completions[0]);
+        assertEquals(0, lookup.getCompletions("foo", Locale.FRENCH, completions));
+        assertEquals(1, lookup.getCompletions("fo", Locale.US, new String[1]));
+        assertEquals(0, lookup.getCompletions("fox", Locale.US, completions));
+
+        lookup.close();
+    }
+
+    public void testReloadChangedRowsOnly() {
+        Log.d(TAG, "testReloadChangedRowsOnly");
+
+        // Insert "foo" and "bar".
+        Uri fooUri = addWord("foo", Locale.US, 17, null);
+        Uri barUri = addWord("bar", Locale.US, 17, null);
+
+        // Create the PersonalDictionaryLookup and wait until it's loaded. It is closed right
+        // away so that only the changes notified below are reloaded.
+        PersonalDictionaryLookup lookup =
+                new PersonalDictionaryLookup(mContext, ExecutorUtils.SPELLING);
+        lookup.open();
+        lookup.close();
+        assertTrue(lookup.isValidWord("foo", Locale.US));
+        assertTrue(lookup.isValidWord("bar", Locale.US));
+
+        // Rename "foo" to "fool" and delete "bar", but only notify the change of "foo".
+        final ContentValues values = new ContentValues();
+        values.put(UserDictionary.Words.WORD, "fool");
+        assertEquals(1, mContentResolver.update(fooUri, values, null, null));
+        deleteWord(barUri);
+        lookup.onChangeForTesting(fooUri);
+
+        // Wait a little bit before expecting a change. The time we wait should be greater than
+        // PersonalDictionaryLookup.RELOAD_DELAY_MS.
+        try {
+            Thread.sleep(PersonalDictionaryLookup.RELOAD_DELAY_MS + 1000);
+        } catch (InterruptedException e) {
+        }
+
+        // Only the row of "foo" was reloaded.
+        assertFalse(lookup.isValidWord("foo", Locale.US));
+        assertTrue(lookup.isValidWord("fool", Locale.US));
+        assertTrue(lookup.isValidWord("bar", Locale.US));
+
+        // A change of the entire dictionary reloads everything.
+        lookup.onChangeForTesting(UserDictionary.Words.CONTENT_URI);
+        try {
+            Thread.sleep(PersonalDictionaryLookup.RELOAD_DELAY_MS + 1000);
+        } catch (InterruptedException e) {
+        }
+        assertTrue(lookup.isValidWord("fool", Locale.US));
+        assertFalse(lookup.isValidWord("bar", Locale.US));
+    }
+
     public void testReload() {
         Log.d(TAG, "testReload");
 
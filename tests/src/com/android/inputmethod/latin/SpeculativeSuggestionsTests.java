@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.inputmethod.event.Event;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.common.ComposedData;
+import com.android.inputmethod.latin.common.InputPointers;
+import com.android.inputmethod.latin.utils.SuggestionResults;
+
+import in.androidtweak.inputmethod.indic.inputlogic.InputLogic;
+import in.androidtweak.inputmethod.indic.inputlogic.InputLogic.SpeculationSnapshot;
+import in.androidtweak.inputmethod.indic.settings.SettingsValuesForSuggestion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.smc.ime.InputMethod;
+
+@LargeTest
+public class SpeculativeSuggestionsTests extends InputTestsBase {
+    private static SuggestedWords createSuggestedWords(final String... words) {
+        final ArrayList<SuggestedWordInfo> list = new ArrayList<>();
+        for (final String word : words) {
+            list.add(new SuggestedWordInfo(word, "" /* prevWordsContext */, 100 /* score */,
+                    SuggestedWordInfo.KIND_CORRECTION, null /* sourceDict */,
+                    SuggestedWordInfo.NOT_AN_INDEX /* indexOfTouchPointOfSecondWord */,
+                    SuggestedWordInfo.NOT_A_CONFIDENCE /* autoCommitFirstWordConfidence */));
+        }
+        return new SuggestedWords(list, null /* rawSuggestions */, null /* typedWord */,
+                false /* typedWordValid */, false /* willAutoCorrect */,
+                false /* isObsoleteSuggestions */, SuggestedWords.INPUT_STYLE_TYPING,
+                SuggestedWords.NOT_A_SEQUENCE_NUMBER);
+    }
+
+    private static SuggestionResultsCache.Key createSpeculativeKey(
+            final ComposedData composedData, final List<String> alternativeTypedWords,
+            final SpeculationSnapshot snapshot) {
+        return SuggestionResultsCache.createSpeculativeKey(composedData, alternativeTypedWords,
+                snapshot.mNgramContext, snapshot.mKeyboard.mId,
+                SuggestedWords.INPUT_STYLE_TYPING, snapshot.mBlockPotentiallyOffensive);
+    }
+
+    private static ArrayList<String> getWords(final SuggestionResults results) {
+        final ArrayList<String> words = new ArrayList<>();
+        for (final SuggestedWordInfo info : results) {
+            words.add(info.mWord);
+        }
+        return words;
+    }
+
+    private static void type(final WordComposer wordComposer, final String keys) {
+        for (int i = 0; i < keys.length(); i = keys.offsetByCodePoints(i, 1)) {
+            wordComposer.applyProcessedEvent(wordComposer.processEvent(
+                    Event.createEventForCodePointFromUnknownSource(keys.codePointAt(i))));
+        }
+    }
+
+    public void testNoSnapshotWithoutComposingWord() {
+        assertNull(mLatinIME.newSpeculationSnapshot());
+    }
+
+    public void testSnapshotIsNotChangedByTyping() {
+        type("he");
+        final SpeculationSnapshot snapshot = mLatinIME.newSpeculationSnapshot();
+        assertNotNull(snapshot);
+        type("l");
+        assertEquals("he", snapshot.mTypedWord);
+        assertEquals(2, snapshot.mInputPointers.getPointerSize());
+        assertEquals(getXY('e').x, snapshot.mInputPointers.getXCoordinates()[1]);
+        assertEquals(getXY('e').y, snapshot.mInputPointers.getYCoordinates()[1]);
+    }
+
+    public void testLikelyNextCodePointsContinueTheSuggestions() {
+        type("he");
+        final SpeculationSnapshot snapshot = mLatinIME.newSpeculationSnapshot();
+        assertNotNull(snapshot);
+        final int[] codePoints = InputLogic.getLikelyNextCodePoints(snapshot,
+                createSuggestedWords("hello", "he", "help", "heat", "the"), 4 /* maxCount */);
+        assertEquals(4, codePoints.length);
+        assertEquals('l', codePoints[0]);
+        assertEquals('a', codePoints[1]);
+        // Then the keys around the most likely letter.
+        for (int i = 2; i < codePoints.length; ++i) {
+            assertTrue(Character.isLetter(codePoints[i]));
+            assertTrue('l' != codePoints[i] && 'a' != codePoints[i]);
+        }
+    }
+
+    public void testSpeculativeResultsAreThoseOfTheTypedWord() {
+        type("he");
+        final SpeculationSnapshot snapshot = mLatinIME.newSpeculationSnapshot();
+        assertNotNull(snapshot);
+        final ComposedData speculativeData = InputLogic.getComposedDataAfter(snapshot, 'l');
+        assertNotNull(speculativeData);
+        type("l");
+        final SpeculationSnapshot typedSnapshot = mLatinIME.newSpeculationSnapshot();
+        assertNotNull(typedSnapshot);
+        final ComposedData typedData = new ComposedData(typedSnapshot.mInputPointers,
+                false /* isBatchMode */, typedSnapshot.mTypedWord);
+        final List<String> noAlternatives = Collections.emptyList();
+        // The lookup ahead is found by the request for the word once it's typed.
+        assertEquals(createSpeculativeKey(speculativeData, noAlternatives, snapshot),
+                createSpeculativeKey(typedData, noAlternatives, typedSnapshot));
+
+        // And it finds what a lookup for the same touches finds.
+        final DictionaryFacilitatorLruCache cache =
+                new DictionaryFacilitatorLruCache(getContext(), "");
+        try {
+            final DictionaryFacilitator facilitator = cache.get(Locale.US);
+            final SettingsValuesForSuggestion settingsValuesForSuggestion =
+                    new SettingsValuesForSuggestion(snapshot.mBlockPotentiallyOffensive);
+            final SuggestionResults speculativeResults =
+                    facilitator.precomputeSuggestionResults(speculativeData, noAlternatives,
+                            snapshot.mNgramContext, mKeyboard, settingsValuesForSuggestion,
+                            Suggest.SESSION_ID_TYPING);
+            final SuggestionResults results = facilitator.getSuggestionResults(speculativeData,
+                    noAlternatives, snapshot.mNgramContext, mKeyboard,
+                    settingsValuesForSuggestion, Suggest.SESSION_ID_TYPING,
+                    SuggestedWords.INPUT_STYLE_TYPING);
+            assertFalse(results.isEmpty());
+            assertEquals(getWords(results), getWords(speculativeResults));
+        } finally {
+            cache.closeDictionaries();
+        }
+    }
+
+    public void testTransliteratedSpeculationComposesTheTypedWord() throws Exception {
+        final TransliterationEngine engine = new TransliterationEngine(
+                InputMethod.fromName("hi-transliteration", getContext()));
+        final WordComposer wordComposer = new WordComposer();
+        wordComposer.setTransliterationEngine(engine);
+        type(wordComposer, "nam");
+        final InputPointers inputPointers =
+                new InputPointers(wordComposer.getInputPointers().getPointerSize());
+        inputPointers.copy(wordComposer.getInputPointers());
+        final SpeculationSnapshot snapshot = new SpeculationSnapshot(
+                wordComposer.getTypedWord(), inputPointers, NgramContext.EMPTY_PREV_WORDS_INFO,
+                mKeyboard, true /* blockPotentiallyOffensive */, engine,
+                wordComposer.getTransliterationSource());
+        final String speculativeWord = snapshot.getTypedWordAfter('a');
+        final List<String> speculativeAlternatives = snapshot.getAlternativeTypedWordsAfter('a');
+
+        type(wordComposer, "a");
+        assertEquals(wordComposer.getTypedWord(), speculativeWord);
+        // Suggest looks up the same spellings along with the typed word.
+        assertEquals(Suggest.getTransliterationAlternatives(
+                Suggest.getTransliterationExpansions(engine,
+                        wordComposer.getTransliterationSource()),
+                wordComposer.getTypedWord()), speculativeAlternatives);
+    }
+}
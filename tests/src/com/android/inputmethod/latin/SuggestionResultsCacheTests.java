@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.inputmethod.latin.common.ComposedData;
+import com.android.inputmethod.latin.common.InputPointers;
+import com.android.inputmethod.latin.utils.SuggestionResults;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for SuggestionResultsCache.
+ */
+@SmallTest
+public class SuggestionResultsCacheTests extends AndroidTestCase {
+    private static final List<String> NO_ALTERNATIVES = Collections.emptyList();
+
+    private static SuggestionResultsCache.Key createKey(final String typedWord,
+            final boolean isBatchMode, final NgramContext ngramContext) {
+        return createKey(typedWord, new InputPointers(1), isBatchMode, ngramContext);
+    }
+
+    private static SuggestionResultsCache.Key createKey(final String typedWord,
+            final InputPointers inputPointers, final boolean isBatchMode,
+            final NgramContext ngramContext) {
+        return SuggestionResultsCache.createKey(
+                new ComposedData(inputPointers, isBatchMode, typedWord), NO_ALTERNATIVES,
+                ngramContext, null /* keyboardId */, SuggestedWords.INPUT_STYLE_TYPING,
+                true /* blockPotentiallyOffensive */);
+    }
+
+    private static InputPointers createPointers(final int... coordinates) {
+        final InputPointers inputPointers = new InputPointers(coordinates.length / 2);
+        for (int i = 0; i < coordinates.length; i += 2) {
+            inputPointers.addPointer(coordinates[i], coordinates[i + 1], 0 /* pointerId */,
+                    0 /* time */);
+        }
+        return inputPointers;
+    }
+
+    private static SuggestionResults createResults() {
+        return new SuggestionResults(SuggestedWords.MAX_SUGGESTIONS,
+                false /* isBeginningOfSentence */,
+                false /* firstSuggestionExceedsConfidenceThreshold */);
+    }
+
+    public void testHitAndMiss() {
+        final SuggestionResultsCache cache = new SuggestionResultsCache();
+        final SuggestionResults results = createResults();
+        cache.put(createKey("he", false, NgramContext.EMPTY_PREV_WORDS_INFO), results, 0);
+        assertSame(results,
+                cache.get(createKey("he", false, NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+        assertNull(cache.get(createKey("hel", false, NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+        assertNull(cache.get(createKey("he", false, NgramContext.BEGINNING_OF_SENTENCE), 0));
+    }
+
+    public void testCoordinatesAreMatched() {
+        final SuggestionResultsCache cache = new SuggestionResultsCache();
+        final SuggestionResults results = createResults();
+        cache.put(createKey("he", createPointers(10, 20, 30, 20), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), results, 0);
+        assertSame(results, cache.get(createKey("he", createPointers(10, 20, 30, 20), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+        // The same letters typed elsewhere on their keys may be corrected differently.
+        assertNull(cache.get(createKey("he", createPointers(10, 20, 31, 20), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+        assertNull(cache.get(createKey("he", createPointers(10, 20, 30, 21), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+    }
+
+    public void testPointersOfDeletedLettersAreIgnored() {
+        final SuggestionResultsCache cache = new SuggestionResultsCache();
+        final SuggestionResults results = createResults();
+        cache.put(createKey("he", createPointers(10, 20, 30, 20), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), results, 0);
+        // Backspacing from "hel" leaves the pointer of the "l" in the word composer.
+        assertSame(results, cache.get(createKey("he", createPointers(10, 20, 30, 20, 50, 20),
+                false, NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+    }
+
+    private static SuggestionResultsCache.Key createSpeculativeKey(final String typedWord,
+            final InputPointers inputPointers, final List<String> alternativeTypedWords) {
+        return SuggestionResultsCache.createSpeculativeKey(
+                new ComposedData(inputPointers, false /* isBatchMode */, typedWord),
+                alternativeTypedWords, NgramContext.EMPTY_PREV_WORDS_INFO,
+                null /* keyboardId */, SuggestedWords.INPUT_STYLE_TYPING,
+                true /* blockPotentiallyOffensive */);
+    }
+
+    public void testSpeculativeResultsIgnoreTheLastCoordinates() {
+        final SuggestionResultsCache cache = new SuggestionResultsCache();
+        final SuggestionResults results = createResults();
+        cache.putSpeculative(createSpeculativeKey("hel", createPointers(10, 20, 30, 20, 50, 20),
+                NO_ALTERNATIVES), results, 0);
+        // The "l" touched away from the center of its key.
+        assertSame(results, cache.getSpeculative(createSpeculativeKey("hel",
+                createPointers(10, 20, 30, 20, 53, 18), NO_ALTERNATIVES), 0));
+        assertNull(cache.getSpeculative(createSpeculativeKey("hel",
+                createPointers(10, 20, 31, 20, 50, 20), NO_ALTERNATIVES), 0));
+        assertNull(cache.getSpeculative(createSpeculativeKey("hek",
+                createPointers(10, 20, 30, 20, 50, 20), NO_ALTERNATIVES), 0));
+        // Only the exact results are returned by get.
+        assertNull(cache.get(createKey("hel", createPointers(10, 20, 30, 20, 50, 20), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+    }
+
+    public void testSpeculativeResultsDontEvictTypedWords() {
+        final SuggestionResultsCache cache = new SuggestionResultsCache();
+        final SuggestionResults results = createResults();
+        cache.put(createKey("he", createPointers(10, 20, 30, 20), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), results, 0);
+        for (int i = 0; i < 32; ++i) {
+            cache.putSpeculative(createSpeculativeKey("he" + (char)('a' + i % 26),
+                    createPointers(10, 20, 30, 20, i, 20), NO_ALTERNATIVES), createResults(), 0);
+        }
+        assertSame(results, cache.get(createKey("he", createPointers(10, 20, 30, 20), false,
+                NgramContext.EMPTY_PREV_WORDS_INFO), 0));
+    }
+
+    public void testSpeculativeResultsDependOnAlternativeSpellings() {
+        final SuggestionResultsCache cache = new SuggestionResultsCache();
+        final SuggestionResults results = createResults();
+        cache.putSpeculative(createSpeculativeKey("he", createPointers(10, 20, 30, 20),
+                Collections.singletonList("hi")), results, 0);
+        assertSame(results, cache.getSpeculative(createSpeculativeKey("he",
+                createPointers(10, 20, 33, 21), Collections.singletonList("hi")), 0));
+        assertNull(cache.getSpeculative(createSpeculativeKey("he",
+                createPointers(10, 20, 30, 20), NO_ALTERNATIVES), 0));
+    }
+
+    public void testGesturesAreNotCached() {
+        assertNull(createKey("he", true, NgramContext.EMPTY_PREV_WORDS_INFO));
+    }
+
+    public void testDictionaryUpdateDropsResults() {
+        final SuggestionResultsCache cache = new SuggestionResultsCache();
+        final SuggestionResultsCache.Key key =
+                createKey("he", false, NgramContext.EMPTY_PREV_WORDS_INFO);
+        cache.put(key, createResults(), 0);
+        assertNull(cache.get(key, 1));
+        // Results computed before the update are not cached after it.
+        cache.put(key, createResults(), 0);
+        assertNull(cache.get(key, 1));
+        cache.put(key, createResults(), 1);
+        assertNotNull(cache.get(key, 1));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.smc.ime.InputMethod;
+
+/**
+ * Unit tests for TransliterationEngine.
+ */
+@SmallTest
+public class TransliterationEngineTests extends AndroidTestCase {
+    private static final String METHOD_NAME = "hi-transliteration";
+
+    private InputMethod mMethod;
+    private TransliterationEngine mEngine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMethod = InputMethod.fromName(METHOD_NAME, getContext());
+        mEngine = newEngine();
+    }
+
+    private TransliterationEngine newEngine() throws Exception {
+        return new TransliterationEngine(InputMethod.fromName(METHOD_NAME, getContext()));
+    }
+
+    // Types the keys at the end of the text, as RichInputConnection does.
+    private static void type(final TransliterationEngine engine, final StringBuilder text,
+            final String keys) {
+        for (int i = 0; i < keys.length(); i = keys.offsetByCodePoints(i, 1)) {
+            final TransliterationEngine.Delta delta =
+                    engine.advance(text, text.length(), keys.codePointAt(i));
+            text.setLength(text.length() - delta.getDeleteCount());
+            text.append(delta.getInsertText());
+        }
+    }
+
+    public void testRepeatedInputIsCached() {
+        final String output = mEngine.transliterate("ka");
+        // The second lookup doesn't run the method again, so it returns the very same string.
+        assertSame(output, mEngine.transliterate("ka"));
+        assertEquals(mMethod.transliterate("ka", mEngine.getContext(), false), output);
+    }
+
+    public void testRepeatedKeysGiveSameText() {
+        final StringBuilder text1 = new StringBuilder();
+        type(mEngine, text1, "namaste");
+        mEngine.resetState();
+        final StringBuilder text2 = new StringBuilder();
+        type(mEngine, text2, "namaste");
+        assertEquals(text1.toString(), text2.toString());
+    }
+
+    public void testCachedOutputAfterContextChangeMatchesFreshEngine() throws Exception {
+        final String[] words = { "bhaarat", "kShatriya", "shree", "a" };
+        // Fill the cache of the engine with the outputs for other contexts first.
+        for (final String word : words) {
+            type(mEngine, new StringBuilder(), word);
+            mEngine.transliterate("n");
+            mEngine.resetState();
+        }
+        // A fresh engine sees the same typed keys, so it ends up with the same context.
+        final TransliterationEngine freshEngine = newEngine();
+        for (final String word : words) {
+            type(freshEngine, new StringBuilder(), word);
+            freshEngine.resetState();
+        }
+        assertEquals(freshEngine.getContext(), mEngine.getContext());
+        assertEquals(freshEngine.transliterate("n"), mEngine.transliterate("n"));
+        final StringBuilder text = new StringBuilder();
+        final StringBuilder freshText = new StringBuilder();
+        type(mEngine, text, "gyaan");
+        type(freshEngine, freshText, "gyaan");
+        assertEquals(freshText.toString(), text.toString());
+    }
+
+    public void testAdvanceDelta() {
+        final StringBuilder text = new StringBuilder("Hello ");
+        final String keys = "kShamaa karo";
+        for (int i = 0; i < keys.length(); i++) {
+            final int end = text.length();
+            final int windowStart = Math.max(0, end - mEngine.getMaxKeyLength());
+            final String expected = text.substring(0, windowStart) + mMethod.transliterate(
+                    text.substring(windowStart) + keys.charAt(i), mEngine.getContext(), false);
+            final TransliterationEngine.Delta delta =
+                    mEngine.advance(text, end, keys.charAt(i));
+            assertTrue(delta.getDeleteCount() >= 0);
+            assertTrue(delta.getDeleteCount() <= end - windowStart);
+            text.setLength(end - delta.getDeleteCount());
+            text.append(delta.getInsertText());
+            assertEquals("after " + keys.substring(0, i + 1), expected, text.toString());
+        }
+    }
+
+    // Applies the undo delta of the engine to the text, and returns whether there was one.
+    private static boolean undo(final TransliterationEngine engine, final StringBuilder text) {
+        final TransliterationEngine.Delta delta = engine.undo(text, text.length());
+        if (null == delta) {
+            return false;
+        }
+        text.setLength(text.length() - delta.getDeleteCount());
+        text.append(delta.getInsertText());
+        return true;
+    }
+
+    public void testUndoRestoresPreviousOutput() {
+        final String keys = "kShamaa";
+        final String[] outputs = new String[keys.length() + 1];
+        final StringBuilder text = new StringBuilder();
+        outputs[0] = text.toString();
+        for (int i = 0; i < keys.length(); i++) {
+            type(mEngine, text, keys.substring(i, i + 1));
+            outputs[i + 1] = text.toString();
+        }
+        final String contextAfterTyping = mEngine.getContext();
+        for (int i = keys.length() - 1; i >= 0; i--) {
+            assertTrue(undo(mEngine, text));
+            assertEquals(outputs[i], text.toString());
+        }
+        assertFalse(undo(mEngine, text));
+        // Typing again after undoing gives the same text as before.
+        type(mEngine, text, keys);
+        assertEquals(outputs[keys.length()], text.toString());
+        assertEquals(contextAfterTyping, mEngine.getContext());
+    }
+
+    public void testResyncAfterExternalEdit() {
+        final StringBuilder text = new StringBuilder();
+        type(mEngine, text, "nama");
+        // The editor changed the text behind the back of the engine.
+        text.setLength(0);
+        text.append("abc ");
+        assertFalse(undo(mEngine, text));
+        assertEquals("abc ", text.toString());
+        final int end = text.length();
+        final String expected = text.substring(0, Math.max(0, end - mEngine.getMaxKeyLength()))
+                + mMethod.transliterate(
+                        text.substring(Math.max(0, end - mEngine.getMaxKeyLength())) + "k",
+                        mEngine.getContext(), false);
+        type(mEngine, text, "k");
+        assertEquals(expected, text.toString());
+        // The keystroke after the resync can be reverted again.
+        assertTrue(undo(mEngine, text));
+        assertEquals("abc ", text.toString());
+    }
+
+    public void testUndoRingOverflow() {
+        final int keyCount = TransliterationEngine.MAX_UNDO_DEPTH + 10;
+        final String[] outputs = new String[keyCount + 1];
+        final StringBuilder text = new StringBuilder();
+        outputs[0] = text.toString();
+        for (int i = 0; i < keyCount; i++) {
+            // Alternate keys that combine and keys that don't.
+            type(mEngine, text, (i % 3 == 2) ? " " : (i % 3 == 0) ? "k" : "a");
+            outputs[i + 1] = text.toString();
+        }
+        // Only the most recent keystrokes can be reverted, and the oldest ones are dropped.
+        for (int i = keyCount - 1; i >= keyCount - TransliterationEngine.MAX_UNDO_DEPTH; i--) {
+            assertTrue("undo " + i, undo(mEngine, text));
+            assertEquals(outputs[i], text.toString());
+        }
+        assertFalse(undo(mEngine, text));
+        assertEquals(outputs[keyCount - TransliterationEngine.MAX_UNDO_DEPTH], text.toString());
+    }
+
+    public void testFirstExpansionIsComposedWord() {
+        // Some keys typed before the word make up the context the word starts from.
+        type(mEngine, new StringBuilder(), "raama ");
+        mEngine.resetState();
+        final StringBuilder word = new StringBuilder();
+        type(mEngine, word, "kShama");
+        final ArrayList<String> expansions = mEngine.getExpansions("kShama", 4);
+        assertFalse(expansions.isEmpty());
+        assertEquals(word.toString(), expansions.get(0));
+    }
+
+    public void testExpansionsAreDistinctAndBounded() {
+        final ArrayList<String> expansions = mEngine.getExpansions("naman", 3);
+        assertTrue(expansions.size() <= 3);
+        assertEquals(expansions.size(), new HashSet<>(expansions).size());
+        // The buffers reused between calls don't leak into the next results.
+        mEngine.getExpansions("bhaarat", 3);
+        assertEquals(expansions, mEngine.getExpansions("naman", 3));
+    }
+
+    public void testExpansionsDontChangeState() {
+        final StringBuilder text = new StringBuilder();
+        type(mEngine, text, "nam");
+        final String context = mEngine.getContext();
+        mEngine.getExpansions("nam", 4);
+        assertEquals(context, mEngine.getContext());
+        // The keystrokes typed before can still be reverted.
+        final TransliterationEngine.Delta delta = mEngine.undo(text, text.length());
+        assertNotNull(delta);
+    }
+
+    public void testFirstDivergence() {
+        assertEquals(0, TransliterationEngine.firstDivergence("k", "क्"));
+        assertEquals(1, TransliterationEngine.firstDivergence("क्a", "का"));
+        assertEquals(2, TransliterationEngine.firstDivergence("abc", "abd"));
+        // When one string is a prefix of the other, the last common char is returned so that
+        // it gets rewritten along with the rest.
+        assertEquals(2, TransliterationEngine.firstDivergence("abc", "abc"));
+        assertEquals(1, TransliterationEngine.firstDivergence("ab", "abc"));
+    }
+}
@@ -20,6 +20,8 @@ import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -54,4 +56,93 @@ public class ExecutorUtilsTests extends AndroidTestCase {
 
         assertEquals(NUM_OF_TASKS, v.get());
     }
+
+    public void testSerialExecutorRunsTasksInOrder() throws InterruptedException {
+        final ExecutorUtils.SerialExecutor executor =
+                ExecutorUtils.getSerialExecutor(getName());
+        final ArrayList<Integer> order = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(NUM_OF_TASKS);
+        for (int i = 0; i < NUM_OF_TASKS; ++i) {
+            final int index = i;
+            // Lanes only order the tasks of different executors.
+            final int lane = (NUM_OF_TASKS - i) % 3;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (order) {
+                        order.add(index);
+                    }
+                    latch.countDown();
+                }
+            }, lane);
+        }
+        assertTrue(latch.await(DELAY_FOR_WAITING_TASKS_MILLISECONDS, TimeUnit.MILLISECONDS));
+        synchronized (order) {
+            for (int i = 0; i < NUM_OF_TASKS; ++i) {
+                assertEquals(i, (int)order.get(i));
+            }
+        }
+        assertSame(executor, ExecutorUtils.getSerialExecutor(getName()));
+    }
+
+    public void testKillingKeyboardTasksKeepsSerialExecutorTasks() throws InterruptedException {
+        final ExecutorUtils.SerialExecutor executor =
+                ExecutorUtils.getSerialExecutor(getName());
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "Exception while waiting.", e);
+                }
+            }
+        }, ExecutorUtils.LANE_UPDATE);
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, ExecutorUtils.LANE_UPDATE);
+
+        ExecutorUtils.killTasks(ExecutorUtils.KEYBOARD);
+        releaseLatch.countDown();
+        assertTrue(latch.await(DELAY_FOR_WAITING_TASKS_MILLISECONDS, TimeUnit.MILLISECONDS));
+    }
+
+    public void testReleasedSerialExecutorIsForgottenOnceIdle() throws InterruptedException {
+        final String key = getName();
+        final ExecutorUtils.SerialExecutor executor = ExecutorUtils.acquireSerialExecutor(key);
+        assertSame(executor, ExecutorUtils.acquireSerialExecutor(key));
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "Exception while waiting.", e);
+                }
+                latch.countDown();
+            }
+        }, ExecutorUtils.LANE_UPDATE);
+
+        ExecutorUtils.releaseSerialExecutor(executor);
+        ExecutorUtils.releaseSerialExecutor(executor);
+        // The task still runs, and keeps the executor until it completes.
+        assertTrue(ExecutorUtils.hasSerialExecutor(key));
+        releaseLatch.countDown();
+        assertTrue(latch.await(DELAY_FOR_WAITING_TASKS_MILLISECONDS, TimeUnit.MILLISECONDS));
+        final long deadline = System.currentTimeMillis() + DELAY_FOR_WAITING_TASKS_MILLISECONDS;
+        while (ExecutorUtils.hasSerialExecutor(key) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(ExecutorUtils.hasSerialExecutor(key));
+        final ExecutorUtils.SerialExecutor newExecutor = ExecutorUtils.acquireSerialExecutor(key);
+        assertNotSame(executor, newExecutor);
+        ExecutorUtils.releaseSerialExecutor(newExecutor);
+    }
 }
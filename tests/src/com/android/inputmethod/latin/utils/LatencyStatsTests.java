@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.utils;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Unit tests for {@link LatencyStats}.
+ */
+@SmallTest
+public class LatencyStatsTests extends AndroidTestCase {
+    public void testRecord() {
+        final LatencyStats stats = new LatencyStats("test");
+        assertEquals(0, stats.getCount());
+        assertEquals(0.0f, stats.getAverageMillis());
+        stats.record(1000000L);
+        stats.record(3000000L);
+        stats.recordDropped();
+        assertEquals(2, stats.getCount());
+        assertEquals(1, stats.getDroppedCount());
+        assertEquals(2.0f, stats.getAverageMillis());
+        assertEquals(3.0f, stats.getMaxMillis());
+        assertEquals("test: count=2 avg=2.00ms max=3.00ms dropped=1", stats.toString());
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getDroppedCount());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.utils;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.inputmethod.latin.Dictionary;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.common.StringUtils;
+
+import java.util.Iterator;
+
+/**
+ * Unit tests for {@link SuggestionBuffer}.
+ */
+@SmallTest
+public class SuggestionBufferTests extends AndroidTestCase {
+    private static boolean add(final SuggestionBuffer buffer, final String word,
+            final int score) {
+        final int[] codePoints = StringUtils.toCodePointArray(word);
+        return buffer.add(codePoints, 0, codePoints.length, score,
+                SuggestedWordInfo.KIND_CORRECTION, Dictionary.DICTIONARY_USER_TYPED,
+                SuggestedWordInfo.NOT_AN_INDEX, SuggestedWordInfo.NOT_A_CONFIDENCE);
+    }
+
+    public void testKeepsBestEntries() {
+        final SuggestionBuffer buffer = new SuggestionBuffer(2);
+        assertTrue(add(buffer, "hello", 10));
+        assertTrue(add(buffer, "help", 30));
+        assertTrue(add(buffer, "helm", 20));
+        assertFalse(add(buffer, "held", 5));
+        assertEquals(2, buffer.size());
+        final SuggestionResults results = new SuggestionResults(2,
+                false /* isBeginningOfSentence */,
+                false /* firstSuggestionExceedsConfidenceThreshold */);
+        buffer.outputTo(results);
+        final Iterator<SuggestedWordInfo> iterator = results.iterator();
+        assertEquals("help", iterator.next().mWord);
+        assertEquals("helm", iterator.next().mWord);
+        assertFalse(iterator.hasNext());
+    }
+
+    public void testRejectsDuplicates() {
+        final SuggestionBuffer buffer = new SuggestionBuffer(4);
+        assertTrue(add(buffer, "word", 10));
+        assertFalse(add(buffer, "word", 10));
+        assertTrue(add(buffer, "word", 11));
+        assertEquals(2, buffer.size());
+    }
+
+    public void testTiesAreBrokenLikeSuggestionResults() {
+        final SuggestionBuffer buffer = new SuggestionBuffer(1);
+        assertTrue(add(buffer, "abcd", 10));
+        // Same score, fewer code points ranks higher.
+        assertTrue(add(buffer, "abc", 10));
+        // Same score and length, the lower word ranks higher.
+        assertTrue(add(buffer, "abb", 10));
+        assertFalse(add(buffer, "abd", 10));
+        assertEquals("abb", buffer.getWord(0));
+        assertEquals(10, buffer.getScore(0));
+    }
+
+    public void testMerge() {
+        final SuggestionBuffer first = new SuggestionBuffer(2);
+        add(first, "one", 10);
+        add(first, "two", 20);
+        final SuggestionBuffer second = new SuggestionBuffer(2);
+        add(second, "three", 30);
+        add(second, "two", 20);
+        first.addAll(second);
+        assertEquals(2, first.size());
+        final SuggestionResults results = new SuggestionResults(2,
+                false /* isBeginningOfSentence */,
+                false /* firstSuggestionExceedsConfidenceThreshold */);
+        first.outputTo(results);
+        final Iterator<SuggestedWordInfo> iterator = results.iterator();
+        assertEquals("three", iterator.next().mWord);
+        assertEquals("two", iterator.next().mWord);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.utils;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.android.inputmethod.latin.Dictionary;
+import com.android.inputmethod.latin.SuggestedWords;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.common.CodePointUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Unit tests for {@link SuggestionResults}, and a comparison with the TreeSet it replaced.
+ */
+@SmallTest
+public class SuggestionResultsTests extends AndroidTestCase {
+    private static final String TAG = SuggestionResultsTests.class.getSimpleName();
+
+    // A realistic load: each keystroke looks up a handful of dictionaries that return as many
+    // results as the native code allows.
+    private static final int DICTIONARY_COUNT = 5;
+    private static final int RESULTS_PER_DICTIONARY = 18;
+    private static final int KEYSTROKE_COUNT = 2000;
+    private static final int CODE_POINT_SET_SIZE = 30;
+    private static final int MAX_SCORE = 1000000;
+
+    /**
+     * The bounded TreeSet that SuggestionResults used to be, except that adding a duplicate of
+     * the last entry of a full set doesn't remove it.
+     */
+    private static final class TreeSetResults extends TreeSet<SuggestedWordInfo> {
+        private final int mCapacity;
+
+        public TreeSetResults(final int capacity) {
+            super(new SuggestionResults.SuggestedWordInfoComparator());
+            mCapacity = capacity;
+        }
+
+        @Override
+        public boolean add(final SuggestedWordInfo e) {
+            if (size() < mCapacity) return super.add(e);
+            if (comparator().compare(e, last()) >= 0) return false;
+            super.add(e);
+            pollLast();
+            return true;
+        }
+    }
+
+    private static SuggestedWordInfo createWordInfo(final String word, final int score) {
+        return new SuggestedWordInfo(word, "" /* prevWordsContext */, score,
+                SuggestedWordInfo.KIND_CORRECTION, Dictionary.DICTIONARY_USER_TYPED,
+                SuggestedWordInfo.NOT_AN_INDEX, SuggestedWordInfo.NOT_A_CONFIDENCE);
+    }
+
+    private static SuggestionResults createResults(final int capacity) {
+        return new SuggestionResults(capacity, false /* isBeginningOfSentence */,
+                false /* firstSuggestionExceedsConfidenceThreshold */);
+    }
+
+    private static ArrayList<SuggestedWordInfo> generateWordInfos(final Random random,
+            final int[] codePointSet, final int count) {
+        final ArrayList<SuggestedWordInfo> wordInfos = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            wordInfos.add(createWordInfo(CodePointUtils.generateWord(random, codePointSet),
+                    random.nextInt(MAX_SCORE)));
+        }
+        return wordInfos;
+    }
+
+    public void testBoundedAdd() {
+        final SuggestionResults results = createResults(2);
+        assertTrue(results.add(createWordInfo("a", 10)));
+        assertTrue(results.add(createWordInfo("b", 30)));
+        assertTrue(results.add(createWordInfo("c", 20)));
+        assertFalse(results.add(createWordInfo("d", 5)));
+        // A duplicate of an entry is not added, even when the results are full.
+        assertFalse(results.add(createWordInfo("c", 20)));
+        assertEquals(2, results.size());
+        assertEquals("b", results.first().mWord);
+        assertEquals("c", results.last().mWord);
+    }
+
+    public void testAddAllIsBounded() {
+        final SuggestionResults results = createResults(3);
+        final ArrayList<SuggestedWordInfo> wordInfos = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            wordInfos.add(createWordInfo("w" + i, i));
+        }
+        assertTrue(results.addAll(wordInfos));
+        assertFalse(results.addAll(null));
+        assertEquals(3, results.size());
+        final Iterator<SuggestedWordInfo> iterator = results.iterator();
+        assertEquals("w9", iterator.next().mWord);
+        assertEquals("w8", iterator.next().mWord);
+        assertEquals("w7", iterator.next().mWord);
+        assertFalse(iterator.hasNext());
+    }
+
+    public void testSameOrderAsTreeSet() {
+        final long seed = System.currentTimeMillis();
+        final Random random = new Random(seed);
+        final int[] codePointSet =
+                CodePointUtils.generateCodePointSet(CODE_POINT_SET_SIZE, random);
+        for (int keystroke = 0; keystroke < 100; ++keystroke) {
+            final SuggestionResults results = createResults(SuggestedWords.MAX_SUGGESTIONS);
+            final TreeSetResults treeSetResults =
+                    new TreeSetResults(SuggestedWords.MAX_SUGGESTIONS);
+            for (int i = 0; i < DICTIONARY_COUNT; ++i) {
+                final ArrayList<SuggestedWordInfo> wordInfos =
+                        generateWordInfos(random, codePointSet, RESULTS_PER_DICTIONARY);
+                results.addAll(wordInfos);
+                treeSetResults.addAll(wordInfos);
+            }
+            assertEquals("seed=" + seed, treeSetResults.size(), results.size());
+            final Iterator<SuggestedWordInfo> expected = treeSetResults.iterator();
+            for (final SuggestedWordInfo wordInfo : results) {
+                assertSame("seed=" + seed, expected.next(), wordInfo);
+            }
+        }
+    }
+
+    @LargeTest
+    public void testBenchmarkAgainstTreeSet() {
+        final Random random = new Random(42);
+        final int[] codePointSet =
+                CodePointUtils.generateCodePointSet(CODE_POINT_SET_SIZE, random);
+        final ArrayList<ArrayList<SuggestedWordInfo>> keystrokes = new ArrayList<>();
+        for (int i = 0; i < KEYSTROKE_COUNT; ++i) {
+            keystrokes.add(generateWordInfos(random, codePointSet,
+                    DICTIONARY_COUNT * RESULTS_PER_DICTIONARY));
+        }
+        // Warm up both implementations before timing them.
+        runTreeSet(keystrokes);
+        runHeap(keystrokes);
+        final long treeSetNanos = runTreeSet(keystrokes);
+        final long heapNanos = runHeap(keystrokes);
+        Log.i(TAG, String.format("%d keystrokes of %d results: TreeSet %.2fms, heap %.2fms",
+                KEYSTROKE_COUNT, DICTIONARY_COUNT * RESULTS_PER_DICTIONARY,
+                treeSetNanos / 1000000.0f, heapNanos / 1000000.0f));
+    }
+
+    private static long runTreeSet(final ArrayList<ArrayList<SuggestedWordInfo>> keystrokes) {
+        final long startTime = System.nanoTime();
+        for (final ArrayList<SuggestedWordInfo> wordInfos : keystrokes) {
+            final TreeSetResults results = new TreeSetResults(SuggestedWords.MAX_SUGGESTIONS);
+            for (final SuggestedWordInfo wordInfo : wordInfos) {
+                results.add(wordInfo);
+            }
+            new ArrayList<>(results);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static long runHeap(final ArrayList<ArrayList<SuggestedWordInfo>> keystrokes) {
+        final long startTime = System.nanoTime();
+        for (final ArrayList<SuggestedWordInfo> wordInfos : keystrokes) {
+            final SuggestionResults results = createResults(SuggestedWords.MAX_SUGGESTIONS);
+            for (final SuggestedWordInfo wordInfo : wordInfos) {
+                results.add(wordInfo);
+            }
+            new ArrayList<>(results);
+        }
+        return System.nanoTime() - startTime;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2026 The Indic Keyboard Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package in.androidtweak.inputmethod.indic.personalization;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.inputmethod.latin.NgramContext;
+import com.android.inputmethod.latin.NgramContext.WordInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+/**
+ * Unit tests for UserHistoryJournal.
+ */
+@SmallTest
+public class UserHistoryJournalTests extends AndroidTestCase {
+    private File mJournalFile;
+    private File mFlushingFile;
+
+    private static class Entry {
+        public final NgramContext mNgramContext;
+        public final String mWord;
+        public final boolean mIsValid;
+        public final int mCount;
+        public final int mTimestamp;
+
+        public Entry(final NgramContext ngramContext, final String word, final boolean isValid,
+                final int count, final int timestamp) {
+            mNgramContext = ngramContext;
+            mWord = word;
+            mIsValid = isValid;
+            mCount = count;
+            mTimestamp = timestamp;
+        }
+    }
+
+    private static class RecordingReplayer implements UserHistoryJournal.Replayer {
+        public final ArrayList<Entry> mEntries = new ArrayList<>();
+
+        @Override
+        public void onEntry(final NgramContext ngramContext, final String word,
+                final boolean isValid, final int count, final int timestamp) {
+            mEntries.add(new Entry(ngramContext, word, isValid, count, timestamp));
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mJournalFile = UserHistoryJournal.getJournalFile(
+                new File(getContext().getCacheDir(), "UserHistoryJournalTests.dict"));
+        mFlushingFile = new File(mJournalFile.getPath() + ".flushing");
+        mJournalFile.delete();
+        mFlushingFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mJournalFile.delete();
+        mFlushingFile.delete();
+        super.tearDown();
+    }
+
+    public void testReplay() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.BEGINNING_OF_SENTENCE, "hello", true, 1, 100);
+        journal.append(new NgramContext(new WordInfo("hello")), "world", false, 2, 200);
+        assertEquals(2, journal.getUnsyncedRecordCount());
+        journal.sync();
+        assertEquals(0, journal.getUnsyncedRecordCount());
+        assertEquals(mJournalFile.length(), journal.getLength());
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        assertEquals(2, new UserHistoryJournal(mJournalFile).replay(replayer,
+                true /* replaysFlushingRecords */));
+        final Entry first = replayer.mEntries.get(0);
+        assertTrue(first.mNgramContext.isBeginningOfSentenceContext());
+        assertEquals("hello", first.mWord);
+        assertTrue(first.mIsValid);
+        assertEquals(1, first.mCount);
+        assertEquals(100, first.mTimestamp);
+        final Entry second = replayer.mEntries.get(1);
+        assertEquals("hello", second.mNgramContext.getNthPrevWord(1).toString());
+        assertEquals("world", second.mWord);
+        assertFalse(second.mIsValid);
+        assertEquals(2, second.mCount);
+        assertEquals(200, second.mTimestamp);
+    }
+
+    public void testUnsyncedRecordsAreNotWritten() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "hello", true, 1, 100);
+        // Appending doesn't touch the file.
+        assertFalse(mJournalFile.exists());
+        assertTrue(journal.getLength() > 0);
+        assertEquals(0, new UserHistoryJournal(mJournalFile).replay(new RecordingReplayer(),
+                true /* replaysFlushingRecords */));
+    }
+
+    public void testIncompleteRecordIsDropped() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "hello", true, 1, 100);
+        journal.sync();
+        final long completeLength = mJournalFile.length();
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "world", true, 1, 200);
+        journal.close();
+        // Simulate a process that died while writing the second record.
+        final RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+        try {
+            file.setLength(mJournalFile.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        final UserHistoryJournal reopenedJournal = new UserHistoryJournal(mJournalFile);
+        final RecordingReplayer replayer = new RecordingReplayer();
+        assertEquals(1, reopenedJournal.replay(replayer, true /* replaysFlushingRecords */));
+        assertEquals("hello", replayer.mEntries.get(0).mWord);
+        assertEquals(completeLength, mJournalFile.length());
+
+        // New records follow the last complete one.
+        reopenedJournal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "again", true, 1, 300);
+        reopenedJournal.close();
+        final RecordingReplayer secondReplayer = new RecordingReplayer();
+        assertEquals(2, new UserHistoryJournal(mJournalFile).replay(secondReplayer,
+                true /* replaysFlushingRecords */));
+        assertEquals("again", secondReplayer.mEntries.get(1).mWord);
+    }
+
+    public void testCorruptedRecordIsDropped() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "hello", true, 1, 100);
+        journal.close();
+        final RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+        try {
+            file.seek(file.length() - 1);
+            final int lastByte = file.read();
+            file.seek(file.length() - 1);
+            file.write(lastByte ^ 0xFF);
+        } finally {
+            file.close();
+        }
+        assertEquals(0, new UserHistoryJournal(mJournalFile).replay(new RecordingReplayer(),
+                true /* replaysFlushingRecords */));
+        assertEquals(0, mJournalFile.length());
+    }
+
+    public void testTruncate() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "hello", true, 1, 100);
+        journal.sync();
+        journal.truncate();
+        assertFalse(mJournalFile.exists());
+        assertEquals(0, journal.getLength());
+        assertEquals(0, journal.replay(new RecordingReplayer(), true /* replaysFlushingRecords */));
+    }
+
+    public void testFlushingRecordsAreReplayedIfTheFlushDidNotComplete() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "hello", true, 1, 100);
+        journal.beginFlush();
+        assertFalse(mJournalFile.exists());
+        assertTrue(mFlushingFile.exists());
+        assertEquals(0, journal.getLength());
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "world", true, 1, 200);
+        journal.close();
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        assertEquals(2, new UserHistoryJournal(mJournalFile).replay(replayer,
+                true /* replaysFlushingRecords */));
+        assertEquals("hello", replayer.mEntries.get(0).mWord);
+        assertEquals("world", replayer.mEntries.get(1).mWord);
+    }
+
+    public void testFlushingRecordsAreDroppedIfTheFlushCompleted() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "hello", true, 1, 100);
+        journal.beginFlush();
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "world", true, 1, 200);
+        journal.close();
+
+        // The process died after writing the dictionary, before deleting the flushing records.
+        final RecordingReplayer replayer = new RecordingReplayer();
+        assertEquals(1, new UserHistoryJournal(mJournalFile).replay(replayer,
+                false /* replaysFlushingRecords */));
+        assertEquals("world", replayer.mEntries.get(0).mWord);
+        assertFalse(mFlushingFile.exists());
+    }
+
+    public void testFailedFlushesAccumulateFlushingRecords() throws IOException {
+        final UserHistoryJournal journal = new UserHistoryJournal(mJournalFile);
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "hello", true, 1, 100);
+        journal.beginFlush();
+        // The first flush failed, so the next one moves its records after the earlier ones.
+        journal.append(NgramContext.EMPTY_PREV_WORDS_INFO, "world", true, 1, 200);
+        journal.beginFlush();
+        assertFalse(mJournalFile.exists());
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        assertEquals(2, new UserHistoryJournal(mJournalFile).replay(replayer,
+                true /* replaysFlushingRecords */));
+        assertEquals("hello", replayer.mEntries.get(0).mWord);
+        assertEquals("world", replayer.mEntries.get(1).mWord);
+
+        journal.endFlush();
+        assertFalse(mFlushingFile.exists());
+    }
+}